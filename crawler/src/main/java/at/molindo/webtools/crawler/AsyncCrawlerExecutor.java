@@ -0,0 +1,738 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.nio.DefaultClientIOEventDispatch;
+import org.apache.http.impl.nio.SSLClientIOEventDispatch;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.entity.ConsumingNHttpEntity;
+import org.apache.http.nio.protocol.AsyncNHttpClientHandler;
+import org.apache.http.nio.protocol.NHttpRequestExecutionHandler;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestExpectContinue;
+import org.apache.http.protocol.RequestTargetHost;
+
+import at.molindo.utils.io.StreamUtils;
+import at.molindo.webtools.crawler.io.DigestOutputStream;
+
+/**
+ * fetches {@link CrawlerTask}s over non-blocking connections driven by a
+ * handful of selector threads. Keep-alive connections are opened on demand up
+ * to a per-host maximum, each one pulling the next queued task once its
+ * previous response arrived. Completed responses are handed to a small pool of
+ * {@link CrawlerThread}s for parsing and reporting. Bodies are only kept in
+ * memory as far as the {@link BodyPolicy} needs them.
+ * 
+ * Tasks wait in the crawler's frontier (see {@link Crawler#newBlockingQueue()})
+ * and are only moved to the per-host queues as long as fewer than
+ * {@link #getMaxRouted()} of them wait there, hence spilling and prioritizing
+ * work as they do with the default executor.
+ */
+public class AsyncCrawlerExecutor extends AbstractExecutorService {
+
+	public static final int DEFAULT_IO_THREADS = 2;
+	public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+	private static final String ATTR_ROUTE = "crawler.route";
+	private static final String ATTR_CONNECTION = "crawler.connection";
+	private static final String ATTR_TASK = "crawler.task";
+	private static final String ATTR_START = "crawler.start";
+
+	private final Crawler _crawler;
+	private final int _ioThreads;
+	private final int _maxConnections;
+	private final HttpParams _params;
+	private final Header _authorization;
+
+	private final AsyncNHttpClientHandler _handler;
+	private DefaultConnectingIOReactor _reactor;
+	private DefaultConnectingIOReactor _sslReactor;
+
+	private final ThreadPoolExecutor _workers;
+
+	private final BlockingQueue<Runnable> _frontier;
+	private final int _maxRouted;
+	private final AtomicInteger _routed = new AtomicInteger();
+	private final ConcurrentHashMap<HttpHost, Route> _routes = new ConcurrentHashMap<HttpHost, Route>();
+	private final AtomicInteger _pending = new AtomicInteger();
+	private final AtomicBoolean _terminating = new AtomicBoolean();
+	private final CountDownLatch _terminated = new CountDownLatch(1);
+	private volatile boolean _shutdown;
+
+	public AsyncCrawlerExecutor(final Crawler crawler, final int workers) {
+		this(crawler, DEFAULT_IO_THREADS, workers, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param ioThreads
+	 *            number of selector threads per scheme
+	 * @param workers
+	 *            number of {@link CrawlerThread}s used to process responses
+	 * @param maxConnections
+	 *            maximum number of concurrent connections (and hence requests
+	 *            in flight) per host
+	 */
+	public AsyncCrawlerExecutor(final Crawler crawler, final int ioThreads, final int workers,
+			final int maxConnections) {
+		if (crawler == null) {
+			throw new NullPointerException("crawler");
+		}
+		if (ioThreads < 1) {
+			throw new IllegalArgumentException("ioThreads must be positive");
+		}
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections must be positive");
+		}
+		_crawler = crawler;
+		_ioThreads = ioThreads;
+		_maxConnections = maxConnections;
+		_frontier = crawler.newBlockingQueue();
+		_maxRouted = 2 * maxConnections;
+
+		_params = new BasicHttpParams();
+		HttpConnectionParams.setSoTimeout(_params, 30000);
+		HttpConnectionParams.setConnectionTimeout(_params, 10000);
+		HttpConnectionParams.setSocketBufferSize(_params, 8 * 1024);
+		HttpConnectionParams.setStaleCheckingEnabled(_params, false);
+		HttpConnectionParams.setTcpNoDelay(_params, true);
+		HttpProtocolParams.setVersion(_params, HttpVersion.HTTP_1_1);
+
+		final String username = crawler.getUsername();
+		final String password = crawler.getPassword();
+		_authorization = username != null && password != null ? BasicScheme.authenticate(
+				new UsernamePasswordCredentials(username, password), "US-ASCII", false) : null;
+
+		final BasicHttpProcessor httpproc = new BasicHttpProcessor();
+		httpproc.addInterceptor(new RequestContent());
+		httpproc.addInterceptor(new RequestTargetHost());
+		httpproc.addInterceptor(new RequestConnControl());
+		httpproc.addInterceptor(new RequestExpectContinue());
+
+		_handler = new AsyncNHttpClientHandler(httpproc, new ExecutionHandler(),
+				new DefaultConnectionReuseStrategy(), _params) {
+
+			@Override
+			public void connected(final NHttpClientConnection conn, final Object attachment) {
+				conn.getContext().setAttribute(ATTR_CONNECTION, conn);
+				super.connected(conn, attachment);
+			}
+		};
+
+		_workers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(final Runnable r) {
+						return new CrawlerThread(_crawler, r);
+					}
+				});
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (_shutdown) {
+			throw new RejectedExecutionException("executor shut down");
+		}
+
+		if (command instanceof CrawlerTask) {
+			if (!_frontier.offer(command)) {
+				throw new RejectedExecutionException("frontier full");
+			}
+			feed();
+		} else {
+			_pending.incrementAndGet();
+			process(command);
+		}
+	}
+
+	/**
+	 * moves tasks from the frontier to their routes until
+	 * {@link #getMaxRouted()} tasks wait there or the frontier is empty
+	 */
+	private void feed() {
+		while (true) {
+			final int routed = _routed.get();
+			if (routed >= _maxRouted) {
+				return;
+			}
+			if (!_routed.compareAndSet(routed, routed + 1)) {
+				continue;
+			}
+
+			// counted before polling, a shutdown must not terminate in between
+			_pending.incrementAndGet();
+			final Runnable next = _frontier.poll();
+			if (next == null) {
+				_routed.decrementAndGet();
+				done();
+				// a task offered meanwhile might have found no free slot
+				if (_frontier.isEmpty()) {
+					return;
+				}
+			} else if (next instanceof CrawlerTask) {
+				final CrawlerTask task = (CrawlerTask) next;
+				try {
+					route(task).add(task);
+				} catch (final IOException e) {
+					_routed.decrementAndGet();
+					fail(task, e);
+				}
+			} else {
+				_routed.decrementAndGet();
+				process(next);
+			}
+		}
+	}
+
+	/**
+	 * a task left its route, make room for the next one
+	 */
+	private void unrouted() {
+		_routed.decrementAndGet();
+		feed();
+	}
+
+	private Route route(final CrawlerTask task) throws IOException {
+		final URL url = new URL(task.getUrlString());
+		final int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+		final HttpHost host = new HttpHost(url.getHost(), port, url.getProtocol());
+
+		Route route = _routes.get(host);
+		if (route == null) {
+			final Route prev = _routes.putIfAbsent(host, route = new Route(host, reactor(host.getSchemeName())));
+			if (prev != null) {
+				route = prev;
+			}
+		}
+		return route;
+	}
+
+	private synchronized DefaultConnectingIOReactor reactor(final String scheme) throws IOException {
+		if ("https".equals(scheme)) {
+			if (_sslReactor == null) {
+				try {
+					_sslReactor = start(new SSLClientIOEventDispatch(_handler, SSLContext.getDefault(), _params));
+				} catch (final NoSuchAlgorithmException e) {
+					throw new IOException("no default SSL context available: " + e.getMessage());
+				}
+			}
+			return _sslReactor;
+		} else if ("http".equals(scheme)) {
+			if (_reactor == null) {
+				_reactor = start(new DefaultClientIOEventDispatch(_handler, _params));
+			}
+			return _reactor;
+		} else {
+			throw new IOException("unsupported scheme: " + scheme);
+		}
+	}
+
+	private DefaultConnectingIOReactor start(final IOEventDispatch dispatch) throws IOException {
+		final DefaultConnectingIOReactor reactor = new DefaultConnectingIOReactor(_ioThreads, _params);
+
+		final Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					reactor.execute(dispatch);
+				} catch (final InterruptedIOException e) {
+					// shutdown
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, "crawler-reactor");
+		thread.setDaemon(true);
+		thread.start();
+
+		return reactor;
+	}
+
+	protected HttpRequest newHttpRequest(final CrawlerTask task) throws IOException {
+		final String file = new URL(task.getUrlString()).getFile();
+		final HttpRequest request = new BasicHttpRequest("GET", file.length() == 0 ? "/" : file);
+		if (_authorization != null) {
+			request.addHeader(_authorization);
+		}
+		task.prepareRequest(request);
+		return request;
+	}
+
+	private void complete(final CrawlerTask task, final HttpResponse response, final int time) {
+		process(new Runnable() {
+
+			@Override
+			public void run() {
+				task.complete(response, time);
+			}
+		});
+	}
+
+	private void fail(final CrawlerTask task, final Throwable t) {
+		process(new Runnable() {
+
+			@Override
+			public void run() {
+				task.fail(t);
+			}
+		});
+	}
+
+	private void process(final Runnable runnable) {
+		_workers.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				} finally {
+					done();
+				}
+			}
+		});
+	}
+
+	private void done() {
+		if (_pending.decrementAndGet() == 0 && _shutdown && _frontier.isEmpty()) {
+			terminate();
+		}
+	}
+
+	/**
+	 * @return number of tasks taken from the frontier but not yet reported
+	 */
+	public int getPendingCount() {
+		return _pending.get();
+	}
+
+	/**
+	 * @return maximum number of tasks waiting in per-host queues, twice the
+	 *         maximum number of connections per host
+	 */
+	public int getMaxRouted() {
+		return _maxRouted;
+	}
+
+	@Override
+	public void shutdown() {
+		_shutdown = true;
+		if (_pending.get() == 0 && _frontier.isEmpty()) {
+			terminate();
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		_shutdown = true;
+
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		for (final Route route : _routes.values()) {
+			CrawlerTask task;
+			while ((task = route._queue.poll()) != null) {
+				_routed.decrementAndGet();
+				tasks.add(task);
+			}
+		}
+		_frontier.drainTo(tasks);
+		terminate();
+		return tasks;
+	}
+
+	private void terminate() {
+		if (!_terminating.compareAndSet(false, true)) {
+			return;
+		}
+
+		_workers.shutdown();
+		synchronized (this) {
+			shutdown(_reactor);
+			shutdown(_sslReactor);
+		}
+		_terminated.countDown();
+	}
+
+	private static void shutdown(final DefaultConnectingIOReactor reactor) {
+		if (reactor != null) {
+			try {
+				reactor.shutdown(1000);
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return _shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return _terminated.getCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return _terminated.await(timeout, unit);
+	}
+
+	/**
+	 * queued tasks and connections of a single host
+	 */
+	private final class Route implements SessionRequestCallback {
+		private final HttpHost _host;
+		private final DefaultConnectingIOReactor _ioReactor;
+		private final ConcurrentLinkedQueue<CrawlerTask> _queue = new ConcurrentLinkedQueue<CrawlerTask>();
+		private final ConcurrentLinkedQueue<NHttpClientConnection> _idle = new ConcurrentLinkedQueue<NHttpClientConnection>();
+		private final AtomicInteger _connections = new AtomicInteger();
+
+		private Route(final HttpHost host, final DefaultConnectingIOReactor ioReactor) {
+			_host = host;
+			_ioReactor = ioReactor;
+		}
+
+		private void add(final CrawlerTask task) {
+			_queue.add(task);
+			dispatch();
+		}
+
+		private CrawlerTask poll(final NHttpClientConnection conn) {
+			final CrawlerTask task = _queue.poll();
+			if (task != null) {
+				unrouted();
+			} else if (conn != null) {
+				_idle.add(conn);
+				// a task might have been added before conn became idle
+				if (!_queue.isEmpty() && _idle.remove(conn)) {
+					conn.requestOutput();
+				}
+			}
+			return task;
+		}
+
+		private void dispatch() {
+			final NHttpClientConnection conn = _idle.poll();
+			if (conn != null) {
+				conn.requestOutput();
+			} else {
+				connect();
+			}
+		}
+
+		private void connect() {
+			int c;
+			do {
+				c = _connections.get();
+				if (c >= _maxConnections) {
+					return;
+				}
+			} while (!_connections.compareAndSet(c, c + 1));
+
+			_ioReactor.connect(new InetSocketAddress(_host.getHostName(), _host.getPort()), null, this, this);
+		}
+
+		private void closed(final NHttpClientConnection conn) {
+			_idle.remove(conn);
+			_connections.decrementAndGet();
+			if (!_queue.isEmpty()) {
+				dispatch();
+			}
+		}
+
+		private void connectFailed(final IOException e) {
+			_connections.decrementAndGet();
+
+			// fail one task per failed attempt to avoid endless retries
+			final CrawlerTask task = _queue.poll();
+			if (task != null) {
+				unrouted();
+				fail(task, e);
+			}
+			if (!_queue.isEmpty()) {
+				dispatch();
+			}
+		}
+
+		@Override
+		public void completed(final SessionRequest request) {
+			// handled by ExecutionHandler
+		}
+
+		@Override
+		public void failed(final SessionRequest request) {
+			final IOException e = request.getException();
+			connectFailed(e != null ? e : new IOException("failed to connect to " + _host));
+		}
+
+		@Override
+		public void timeout(final SessionRequest request) {
+			connectFailed(new SocketTimeoutException("connect to " + _host + " timed out"));
+		}
+
+		@Override
+		public void cancelled(final SessionRequest request) {
+			connectFailed(new IOException("connect to " + _host + " cancelled"));
+		}
+	}
+
+	/**
+	 * keeps the part of a response body the task needs (see
+	 * {@link CrawlerTask#getBodyLimit(HttpResponse)}) in memory, counting and
+	 * discarding the rest. Assets are digested as they arrive instead (see
+	 * {@link CrawlerTask#isDigestedAsset(HttpResponse)}).
+	 */
+	static final class ResponseEntity extends HttpEntityWrapper implements ConsumingNHttpEntity {
+
+		private final long _limit;
+		private final ByteBuffer _buffer = ByteBuffer.allocate(8 * 1024);
+		private final Body _body;
+		private long _length;
+
+		private DigestOutputStream _digest;
+		private OutputStream _decoding;
+		private IOException _error;
+
+		private ResponseEntity(final HttpEntity entity, final long limit, final boolean digest,
+				final String contentEncoding) {
+			super(entity);
+			_limit = Math.min(limit, Integer.MAX_VALUE - 8);
+			if (_limit > 0) {
+				final long length = entity.getContentLength();
+				_body = new Body(length > 0 && length <= _limit ? (int) length : 4096);
+			} else {
+				_body = null;
+			}
+			if (digest) {
+				_digest = new DigestOutputStream();
+				try {
+					_decoding = at.molindo.webtools.crawler.io.ContentDecoder.decoding(_digest, contentEncoding);
+				} catch (final IOException e) {
+					_error = e;
+				}
+			}
+		}
+
+		@Override
+		public void consumeContent(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+			int n;
+			while ((n = decoder.read(_buffer)) > 0) {
+				if (_body != null && _length < _limit) {
+					_body.write(_buffer.array(), 0, (int) Math.min(n, _limit - _length));
+				}
+				if (_decoding != null) {
+					try {
+						_decoding.write(_buffer.array(), 0, n);
+					} catch (final IOException e) {
+						// reported by the task, keep the connection
+						_error = e;
+						closeDecoding();
+					}
+				}
+				_length += n;
+				_buffer.clear();
+			}
+		}
+
+		/**
+		 * @return digest of the decoded body, null if not digested
+		 * @throws IOException
+		 *             if the body couldn't be decoded
+		 */
+		DigestOutputStream getDigest() throws IOException {
+			closeDecoding();
+			if (_error != null) {
+				throw _error;
+			}
+			return _digest;
+		}
+
+		private void closeDecoding() {
+			if (_decoding != null) {
+				StreamUtils.close(_decoding);
+				_decoding = null;
+			}
+		}
+
+		@Override
+		public void finish() {
+			closeDecoding();
+		}
+
+		@Override
+		public void consumeContent() {
+		}
+
+		/**
+		 * @return number of bytes received
+		 */
+		@Override
+		public long getContentLength() {
+			return _length;
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+
+		@Override
+		public InputStream getContent() {
+			return _body == null ? new ByteArrayInputStream(new byte[0]) : _body.toInputStream();
+		}
+
+		@Override
+		public void writeTo(final OutputStream out) throws IOException {
+			StreamUtils.copy(getContent(), out);
+		}
+	}
+
+	private static final class Body extends ByteArrayOutputStream {
+
+		private Body(final int size) {
+			super(size);
+		}
+
+		private InputStream toInputStream() {
+			// no copy
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+
+	private final class ExecutionHandler implements NHttpRequestExecutionHandler {
+
+		@Override
+		public void initalizeContext(final HttpContext context, final Object attachment) {
+			final Route route = (Route) attachment;
+			context.setAttribute(ATTR_ROUTE, route);
+			context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, route._host);
+		}
+
+		@Override
+		public HttpRequest submitRequest(final HttpContext context) {
+			final Route route = (Route) context.getAttribute(ATTR_ROUTE);
+			final NHttpClientConnection conn = (NHttpClientConnection) context.getAttribute(ATTR_CONNECTION);
+
+			CrawlerTask task;
+			while ((task = route.poll(conn)) != null) {
+				try {
+					final HttpRequest request = newHttpRequest(task);
+					context.setAttribute(ATTR_TASK, task);
+					context.setAttribute(ATTR_START, System.currentTimeMillis());
+					return request;
+				} catch (final IOException e) {
+					fail(task, e);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public ConsumingNHttpEntity responseEntity(final HttpResponse response, final HttpContext context)
+				throws IOException {
+			final CrawlerTask task = (CrawlerTask) context.getAttribute(ATTR_TASK);
+			final Header contentEncoding = response.getFirstHeader("Content-Encoding");
+			final ResponseEntity entity = new ResponseEntity(response.getEntity(), task == null ? 0 : task
+					.getBodyLimit(response), task != null && task.isDigestedAsset(response),
+					contentEncoding == null ? null : contentEncoding.getValue());
+
+			if (task != null && task.isAbortable(response)) {
+				// complete without body and drop the connection
+				response.setEntity(entity);
+				handleResponse(response, context);
+				((NHttpClientConnection) context.getAttribute(ATTR_CONNECTION)).shutdown();
+			}
+			return entity;
+		}
+
+		@Override
+		public void handleResponse(final HttpResponse response, final HttpContext context) {
+			final CrawlerTask task = (CrawlerTask) context.removeAttribute(ATTR_TASK);
+			final Long start = (Long) context.removeAttribute(ATTR_START);
+			if (task != null) {
+				complete(task, response, (int) (System.currentTimeMillis() - start));
+			}
+		}
+
+		@Override
+		public void finalizeContext(final HttpContext context) {
+			final Route route = (Route) context.getAttribute(ATTR_ROUTE);
+			final NHttpClientConnection conn = (NHttpClientConnection) context.removeAttribute(ATTR_CONNECTION);
+
+			final CrawlerTask task = (CrawlerTask) context.removeAttribute(ATTR_TASK);
+			if (task != null) {
+				fail(task, new IOException("connection closed before response was received"));
+			}
+
+			if (route != null) {
+				route.closed(conn);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.util.Locale;
+
+/**
+ * decides by content type how much of a response body is read. HTML is parsed
+ * for links and other text is kept as text, both up to a maximum length.
+ * Assets are only counted or digested (see
+ * {@link Crawler#setStoreDigest(boolean)}). Bodies of all other types are
+ * skipped, dropping the connection unless the rest is short.
+ */
+public class BodyPolicy {
+
+	public enum Action {
+		PARSE, TEXT, ASSET, SKIP
+	}
+
+	public static final long DEFAULT_MAX_TEXT_LENGTH = 8 * 1024 * 1024;
+	public static final long DEFAULT_DRAIN_LENGTH = 32 * 1024;
+
+	private final long _maxTextLength;
+	private final long _drainLength;
+	private final String[] _assetTypes;
+
+	/**
+	 * treats all types other than text as assets
+	 */
+	public BodyPolicy() {
+		this(DEFAULT_MAX_TEXT_LENGTH, DEFAULT_DRAIN_LENGTH, "");
+	}
+
+	/**
+	 * @param maxTextLength
+	 *            number of bytes read from HTML and other text, longer bodies
+	 *            are truncated
+	 * @param drainLength
+	 *            maximum length of a skipped body that is read to keep the
+	 *            connection alive
+	 * @param assetTypes
+	 *            prefixes of content types (e.g. "image/") counted or digested
+	 *            instead of skipped, "" for all
+	 */
+	public BodyPolicy(final long maxTextLength, final long drainLength, final String... assetTypes) {
+		if (maxTextLength < 0) {
+			throw new IllegalArgumentException("maxTextLength must not be negative, was " + maxTextLength);
+		}
+		if (drainLength < 0) {
+			throw new IllegalArgumentException("drainLength must not be negative, was " + drainLength);
+		}
+		_maxTextLength = maxTextLength;
+		_drainLength = drainLength;
+		_assetTypes = new String[assetTypes.length];
+		for (int i = 0; i < assetTypes.length; i++) {
+			_assetTypes[i] = assetTypes[i].trim().toLowerCase(Locale.ENGLISH);
+		}
+	}
+
+	/**
+	 * @param contentType
+	 *            value of the Content-Type header, possibly null
+	 */
+	public Action getAction(final String contentType) {
+		final String type = contentType == null ? "" : contentType.trim().toLowerCase(Locale.ENGLISH);
+		if (type.startsWith("text/html")) {
+			return Action.PARSE;
+		}
+		if (type.startsWith("text/")) {
+			return Action.TEXT;
+		}
+		for (final String asset : _assetTypes) {
+			if (type.startsWith(asset)) {
+				return Action.ASSET;
+			}
+		}
+		return Action.SKIP;
+	}
+
+	public long getMaxTextLength() {
+		return _maxTextLength;
+	}
+
+	public long getDrainLength() {
+		return _drainLength;
+	}
+}
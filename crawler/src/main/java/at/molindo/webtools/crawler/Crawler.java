@@ -15,46 +15,122 @@
  */
 package at.molindo.webtools.crawler;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
+import java.util.Observer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.parsers.SAXParserFactory;
 
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+
+import at.molindo.utils.concurrent.ObjectPool;
+import at.molindo.webtools.crawler.cache.DiskResponseCache;
+import at.molindo.webtools.crawler.cache.IResponseCache;
+import at.molindo.webtools.crawler.filter.CompiledFilter;
+import at.molindo.webtools.crawler.filter.FilterChain;
 import at.molindo.webtools.crawler.filter.ICrawlerFilter;
 import at.molindo.webtools.crawler.filter.PrefixFilter;
+import at.molindo.webtools.crawler.limit.AimdConcurrencyLimit;
+import at.molindo.webtools.crawler.limit.GradientConcurrencyLimit;
+import at.molindo.webtools.crawler.limit.IConcurrencyLimit;
+import at.molindo.webtools.crawler.links.HtmlLinkExtractor;
+import at.molindo.webtools.crawler.links.ILinkExtractor;
+import at.molindo.webtools.crawler.links.SaxLinkExtractor;
+import at.molindo.webtools.crawler.links.TidyLinkExtractor;
 import at.molindo.webtools.crawler.observer.ExitObserver;
+import at.molindo.webtools.crawler.observer.ICrawlerEventListener;
+import at.molindo.webtools.crawler.observer.LatencyObserver;
 import at.molindo.webtools.crawler.observer.PrintObserver;
-
-import com.sun.org.apache.xerces.internal.parsers.XIncludeAwareParserConfiguration;
-import com.sun.org.apache.xerces.internal.util.XMLGrammarPoolImpl;
-import com.sun.org.apache.xerces.internal.xni.parser.XMLParserConfiguration;
+import at.molindo.webtools.crawler.util.UrlCanonicalizer;
+import at.molindo.webtools.crawler.util.UrlDictionary;
 
 public class Crawler extends Observable {
 
 	public static final Object FINISH = new Object();
 
-	private ThreadPoolExecutor _executor;
-	final String _host;
+	/**
+	 * referrers kept per {@link CrawlerResult} in lean mode
+	 */
+	public static final int LEAN_MAX_REFERRERS = 3;
+
+	private ExecutorService _executor;
+	private CrawlerScheduler _scheduler;
+	private final UrlCanonicalizer _urlCanonicalizer;
+	/**
+	 * the first of {@link #_hosts}
+	 */
+	private final String _host;
+	private final List<String> _hosts;
+	/**
+	 * hosts by scheme, host and port
+	 */
+	private final Map<String, List<String>> _scopes = new HashMap<String, List<String>>();
+	private final int _threads;
 	private final String _username;
 	private final String _password;
 	private int _max;
+	private UrlDictionary _urlDictionary;
 	private ICrawlerHistory _history;
-	private String _start;
-	private int _dispatchedCount;
-	private int _retrievedCount;
+	private final AtomicInteger _dispatchedCount = new AtomicInteger();
+	private final AtomicInteger _retrievedCount = new AtomicInteger();
+	private final AtomicInteger _discardedCount = new AtomicInteger();
+	/**
+	 * retrieved or discarded
+	 */
+	private final AtomicInteger _completedCount = new AtomicInteger();
+	private final AtomicInteger _cachedCount = new AtomicInteger();
+	private final AtomicLong _wireBytes = new AtomicLong();
+	private final AtomicLong _decodedBytes = new AtomicLong();
+	private volatile boolean _compress = true;
 	private boolean _tidy;
+	private volatile boolean _storeText = true;
+	private volatile boolean _storeDigest;
+	private volatile int _maxReferrers = Integer.MAX_VALUE;
 	private SAXParserFactory _parserFactory;
 	private DTDMemoryCache _dtdMemoryCache;
+	private ObjectPool<CrawlerContext> _contexts;
+	private CrawlerConnectionManager _connectionManager;
+	private DefaultHttpClient _httpClient;
+	private IResponseCache _responseCache;
+	private DuplicateDetector _duplicateDetector;
+	private TrapDetector _trapDetector;
+	private LinkGraph _linkGraph;
+	private BodyPolicy _bodyPolicy;
+	private CrawlerEventBus _eventBus;
+	private final List<ICrawlerEventListener> _listeners = new CopyOnWriteArrayList<ICrawlerEventListener>();
+	private final Object _notifyLock = new Object();
 
-	private final List<ICrawlerFilter> _filters = new CopyOnWriteArrayList<ICrawlerFilter>();
+	private final FilterChain _filters = new FilterChain();
+
+	/**
+	 * charges max when taking tasks if not null
+	 */
+	private volatile PriorityFrontier _priorityFrontier;
 
 	public Crawler(final String host, final String start, final int threads, final int max, final boolean tidy) {
 		this(host, null, null, start, threads, max, tidy);
@@ -62,112 +138,501 @@ public class Crawler extends Observable {
 
 	public Crawler(final String host, final String username, final String password, final String start,
 			final int threads, final int max, final boolean tidy) {
-		_host = host.endsWith("/") ? host : host + "/";
-		_start = start.startsWith(_host) ? start : _host + (start.startsWith("/") ? start.substring(1) : start);
+		this(new String[] { host }, new String[] { start }, username, password, threads, max, tidy);
+	}
+
+	/**
+	 * crawls all hosts of seeds, sharing threads between them
+	 * 
+	 * @param seeds
+	 *            start URLs, links are followed if they point to the scheme,
+	 *            host and port of any seed
+	 */
+	public Crawler(final Collection<String> seeds, final String username, final String password, final int threads,
+			final int max, final boolean tidy) {
+		this(hosts(seeds), seeds.toArray(new String[seeds.size()]), username, password, threads, max, tidy);
+	}
+
+	private Crawler(final String[] hosts, final String[] starts, final String username, final String password,
+			final int threads, final int max, final boolean tidy) {
+		if (hosts.length == 0) {
+			throw new IllegalArgumentException("no seeds");
+		}
+		_urlCanonicalizer = newUrlCanonicalizer();
+		final List<String> canonicalHosts = new ArrayList<String>(hosts.length);
+		for (int i = 0; i < hosts.length; i++) {
+			final String canonicalHost = _urlCanonicalizer.canonicalize(hosts[i]);
+			if (canonicalHost == null) {
+				throw new IllegalArgumentException("not an http or https URL: " + hosts[i]);
+			}
+			final String h = canonicalHost.endsWith("/") ? canonicalHost : canonicalHost + "/";
+			if (!canonicalHosts.contains(h)) {
+				canonicalHosts.add(h);
+				List<String> scope = _scopes.get(CrawlerScheduler.host(h));
+				if (scope == null) {
+					_scopes.put(CrawlerScheduler.host(h), scope = new ArrayList<String>(1));
+				}
+				scope.add(h);
+			}
+			starts[i] = starts[i].startsWith(h) ? starts[i] : h
+					+ (starts[i].startsWith("/") ? starts[i].substring(1) : starts[i]);
+		}
+		_hosts = Collections.unmodifiableList(canonicalHosts);
+		_host = _hosts.get(0);
+		_threads = threads;
 		_tidy = tidy;
 		_username = username;
 		_password = password;
 
-		final XMLParserConfiguration config = new XIncludeAwareParserConfiguration();
-		config.setProperty("http://apache.org/xml/properties/internal/grammar-pool", new XMLGrammarPoolImpl());
-
 		_parserFactory = SAXParserFactory.newInstance();
-		_dtdMemoryCache = new DTDMemoryCache();
+		_dtdMemoryCache = newDtdMemoryCache();
 
-		_executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, newBlockingQueue(),
-				new ThreadFactory() {
+		_connectionManager = newConnectionManager(threads);
+		_httpClient = newHttpClient(_connectionManager);
+
+		_contexts = new ObjectPool<CrawlerContext>(Math.max(1, threads)) {
+
+			@Override
+			protected CrawlerContext create() {
+				return newCrawlerContext();
+			}
+		};
+
+		_executor = newExecutor(threads);
+		_scheduler = newScheduler(_executor);
+		if (_scheduler != null) {
+			_executor = _scheduler;
+		}
+
+		_max = max > 0 ? max : Integer.MAX_VALUE;
+
+		_urlDictionary = newUrlDictionary();
+		_history = newCrawlerHistory();
+		_responseCache = newResponseCache();
+		_duplicateDetector = newDuplicateDetector();
+		_trapDetector = newTrapDetector();
+		_linkGraph = newLinkGraph();
+		_bodyPolicy = newBodyPolicy();
+		_eventBus = newEventBus();
+
+		resume();
+		for (final String start : starts) {
+			queue(start, null);
+		}
+
+		if (_dispatchedCount.get() == 0) {
+			System.out.println("nothing to crawl");
+			_executor.shutdown();
+		}
+
+	}
+
+	/**
+	 * @return the executor used to fetch and process {@link CrawlerTask}s, a
+	 *         pool of {@link CrawlerThread}s by default. Override to return an
+	 *         {@link AsyncCrawlerExecutor} to fetch with non-blocking I/O
+	 *         instead
+	 */
+	protected ExecutorService newExecutor(final int threads) {
+		// rejects only after shutdown. The default policy throws, hence rejected
+		// tasks aren't counted as dispatched
+		return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, newBlockingQueue(), new ThreadFactory() {
 
 			@Override
 			public Thread newThread(final Runnable r) {
 				return new CrawlerThread(Crawler.this, r);
 			}
 
-		});
-		_executor.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+		}) {
 
 			@Override
-			public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
-				if (r instanceof CrawlerTask) {
-					// CrawlerTask task = (CrawlerTask) r;
-					// System.err.println("rejected execution: " +
-					// task.getUrlString());
+			public void execute(final Runnable command) {
+				// all tasks pass the queue, e.g. a PriorityFrontier charging max.
+				// Started on first dispatch, once all fields of the crawler are
+				// assigned
+				prestartAllCoreThreads();
+				super.execute(command);
+			}
+		};
+	}
+
+	/**
+	 * @return the cache resolving DTDs for all SAX parsers, preloaded with the
+	 *         bundled XHTML DTD and fetching anything else once
+	 */
+	protected DTDMemoryCache newDtdMemoryCache() {
+		return new DTDMemoryCache();
+	}
+
+	/**
+	 * @return a cache for conditional requests or null to always fetch full
+	 *         responses (default)
+	 */
+	protected IResponseCache newResponseCache() {
+		return null;
+	}
+
+	/**
+	 * @return the policy deciding which response bodies are read, all by
+	 *         default with text limited to
+	 *         {@link BodyPolicy#DEFAULT_MAX_TEXT_LENGTH}
+	 */
+	protected BodyPolicy newBodyPolicy() {
+		return new BodyPolicy();
+	}
+
+	/**
+	 * @return a detector to skip link extraction for pages with the same or
+	 *         similar content as a page crawled before, null to parse all pages
+	 *         (default). Similarity only considers text, pages only linked from
+	 *         near duplicates won't be found.
+	 */
+	protected DuplicateDetector newDuplicateDetector() {
+		return null;
+	}
+
+	/**
+	 * @return a detector rejecting URLs of crawl traps after they were queued
+	 *         by the history, null to crawl all URLs (default)
+	 */
+	protected TrapDetector newTrapDetector() {
+		return null;
+	}
+
+	/**
+	 * @return the graph of links between URLs in scope, replacing the
+	 *         referrers kept by each {@link CrawlerResult}, or null to keep
+	 *         up to {@link #getMaxReferrers()} referrers per result instead.
+	 *         Without a {@link #newUrlDictionary()}, the graph keeps one of its
+	 *         own with all URLs.
+	 */
+	protected LinkGraph newLinkGraph() {
+		return _urlDictionary != null ? new LinkGraph(_urlDictionary) : new LinkGraph();
+	}
+
+	/**
+	 * @return the dictionary of IDs for queued URLs, shared by the default
+	 *         history, link graph and {@link CrawlerTask}s, or null to keep
+	 *         URLs as strings, e.g. if URLs are never visited twice or a
+	 *         {@link FingerprintCrawlerHistory} shouldn't store them anyway
+	 */
+	protected UrlDictionary newUrlDictionary() {
+		return new UrlDictionary();
+	}
+
+	/**
+	 * @return the canonicalizer applied to all URLs before they are queued,
+	 *         keeping the query as is by default
+	 */
+	protected UrlCanonicalizer newUrlCanonicalizer() {
+		return new UrlCanonicalizer();
+	}
+
+	/**
+	 * @return the bus delivering events to observers and listeners on a
+	 *         dedicated thread or null to notify them on the fetch thread
+	 */
+	protected CrawlerEventBus newEventBus() {
+		return new CrawlerEventBus(this);
+	}
+
+	/**
+	 * @return a scheduler limiting request rate and concurrency per host or
+	 *         null to execute tasks as they are queued. By default, a
+	 *         scheduler sharing threads fairly between hosts if there are
+	 *         multiple, null otherwise
+	 */
+	protected CrawlerScheduler newScheduler(final ExecutorService executor) {
+		if (_hosts.size() < 2) {
+			return null;
+		}
+		return new CrawlerScheduler(this, executor, Double.POSITIVE_INFINITY, 1, _threads, _threads);
+	}
+
+	/**
+	 * @return a connection manager shared by all threads, allowing one
+	 *         keep-alive connection per thread and host by default
+	 */
+	protected CrawlerConnectionManager newConnectionManager(final int threads) {
+		final int maxPerRoute = Math.max(2, threads);
+		return new CrawlerConnectionManager(maxPerRoute, 2 * maxPerRoute, 30000);
+	}
+
+	protected DefaultHttpClient newHttpClient(final CrawlerConnectionManager connectionManager) {
+		final DefaultHttpClient client = new DefaultHttpClient(connectionManager, null);
+		HttpConnectionParams.setTcpNoDelay(client.getParams(), true);
+		if (_username != null && _password != null) {
+			try {
+				for (final String host : _hosts) {
+					client.getCredentialsProvider().setCredentials(
+							new AuthScope(new URL(host).getHost(), AuthScope.ANY_PORT),
+							new UsernamePasswordCredentials(_username, _password));
 				}
+			} catch (final MalformedURLException e) {
+				throw new RuntimeException("failed to create client", e);
 			}
-		});
+		}
+		return client;
+	}
 
-		_max = max > 0 ? max : Integer.MAX_VALUE;
+	protected CrawlerContext newCrawlerContext() {
+		return new CrawlerContext(this);
+	}
 
-		_history = newCrawlerHistory();
+	/**
+	 * @return the extractor used by context, JTidy if configured, SAX
+	 *         otherwise. Override to use a {@link HtmlLinkExtractor}.
+	 */
+	protected ILinkExtractor newLinkExtractor(final CrawlerContext context) {
+		return _tidy ? new TidyLinkExtractor() : new SaxLinkExtractor(context.getParser(), getDtdMemoryCache());
+	}
 
-		queue(_start, null);
+	/**
+	 * @return the context bound to the current {@link CrawlerThread} or one
+	 *         borrowed from the pool that must be returned using
+	 *         {@link #releaseContext(CrawlerContext)}
+	 */
+	CrawlerContext acquireContext() {
+		final Thread thread = Thread.currentThread();
+		if (thread instanceof CrawlerThread) {
+			return ((CrawlerThread) thread).getContext();
+		}
+		return _contexts.get();
+	}
 
+	void releaseContext(final CrawlerContext context) {
+		final Thread thread = Thread.currentThread();
+		if (thread instanceof CrawlerThread && ((CrawlerThread) thread).getContext() == context) {
+			return;
+		}
+		_contexts.put(context);
 	}
 
+	/**
+	 * @return the queue of pending tasks of the default executor, an unbounded
+	 *         {@link CrawlerFrontier} spilling to disk
+	 */
 	protected BlockingQueue<Runnable> newBlockingQueue() {
-		return new LinkedBlockingQueue<Runnable>(10000);
+		return new CrawlerFrontier(this);
 	}
 
 	protected ICrawlerHistory newCrawlerHistory() {
-		return new CrawlerHistory();
+		return _urlDictionary != null ? new CrawlerHistory(_urlDictionary) : new CrawlerHistory();
 	}
 
+	/**
+	 * queues an absolute URL, canonicalized using the
+	 * {@link #getUrlCanonicalizer()}
+	 */
 	public void queue(String url, final CrawlerReferrer referrer) {
-		if (_dispatchedCount < _max) {
+		if (!isMaxDispatched()) {
 			url = prepareUrl(url);
 			if (url == null) {
 				return;
 			}
+			queueCanonical(url, referrer);
+		}
+	}
 
-			if (_history.queue(url, referrer)) {
-				final CrawlerTask task = newCrawlerTask(url, referrer, _tidy);
+	/**
+	 * queues a URL that is canonical already. Filters are applied before the
+	 * URL is added to the history.
+	 * 
+	 * @return false if url was rejected by the filters
+	 */
+	boolean queueCanonical(final String url, final CrawlerReferrer referrer) {
+		final CompiledFilter filter = _filters.getCompiled();
+		if (filter.filter(url)) {
+			return false;
+		}
 
-				for (final ICrawlerFilter filter : _filters) {
-					if (filter.filter(task)) {
-						return;
-					}
-				}
+		CrawlerTask task = null;
+		if (filter.hasTaskFilters()) {
+			task = newCrawlerTask(url, referrer);
+			if (filter.filterTask(task)) {
+				return false;
+			}
+		}
 
-				_executor.execute(task);
-				_dispatchedCount++;
+		if (isMaxDispatched()) {
+			return true;
+		}
+
+		if (_history.queue(url, referrer)) {
+			if (isTrap(url, referrer)) {
+				return true;
 			}
+			dispatch(task != null ? task : newCrawlerTask(url, referrer));
+		} else {
+			final PriorityFrontier frontier = _priorityFrontier;
+			if (frontier != null) {
+				frontier.linked(url, referrer);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if url was rejected by the {@link TrapDetector}
+	 */
+	private boolean isTrap(final String url, final CrawlerReferrer referrer) {
+		return _trapDetector != null && _trapDetector.check(url, referrer == null ? 0 : referrer.getDepth()) != null;
+	}
 
-			if (_dispatchedCount == _max) {
-				// reached max
-				System.out.println("reached dispatch max");
-				_executor.shutdown();
+	/**
+	 * @return true if no more tasks are dispatched because of max. Always false
+	 *         with a {@link PriorityFrontier}, charging max when tasks are
+	 *         taken instead
+	 */
+	private boolean isMaxDispatched() {
+		return _priorityFrontier == null && _dispatchedCount.get() >= _max;
+	}
+
+	/**
+	 * executes a task for a URL accepted by the history
+	 */
+	private void dispatch(final CrawlerTask task) {
+		if (isMaxDispatched()) {
+			return;
+		}
+		final boolean limited = _priorityFrontier == null;
+		task.intern();
+
+		// counted before execution, a fast task must not report FINISH early
+		final int dispatched = _dispatchedCount.incrementAndGet();
+		if (limited && dispatched > _max) {
+			_dispatchedCount.decrementAndGet();
+			return;
+		}
+
+		try {
+			_executor.execute(task);
+		} catch (final RejectedExecutionException e) {
+			_dispatchedCount.decrementAndGet();
+			return;
+		}
+
+		if (limited && dispatched == _max) {
+			// reached max
+			System.out.println("reached dispatch max");
+			_executor.shutdown();
+		}
+	}
+
+	/**
+	 * dispatches URLs pending when a {@link IPersistentCrawlerHistory} was
+	 * persisted
+	 */
+	private void resume() {
+		if (_history instanceof IPersistentCrawlerHistory) {
+			final Map<String, CrawlerReferrer> pending = ((IPersistentCrawlerHistory) _history).resume();
+			if (!pending.isEmpty()) {
+				System.out.println("resuming " + pending.size() + " pending URLs");
+			}
+			for (final Map.Entry<String, CrawlerReferrer> e : pending.entrySet()) {
+				final CrawlerTask task = newCrawlerTask(e.getKey(), e.getValue());
+				if (!_filters.getCompiled().filter(task) && !isTrap(e.getKey(), e.getValue())) {
+					dispatch(task);
+				}
 			}
 		}
 	}
 
+	CrawlerTask newCrawlerTask(final String url, final CrawlerReferrer referrer) {
+		return newCrawlerTask(url, referrer, _tidy);
+	}
+
+	/**
+	 * @param tidy
+	 *            ignored, see {@link #newLinkExtractor(CrawlerContext)}
+	 */
 	protected CrawlerTask newCrawlerTask(final String url, final CrawlerReferrer referrer, final boolean tidy) {
-		return new CrawlerTask(this, url, referrer, tidy);
+		return new CrawlerTask(this, url, referrer);
 	}
 
+	/**
+	 * @return the canonical url or null if it can't be crawled
+	 */
 	private String prepareUrl(final String url) {
-		int jsessionidIndex;
-		if ((jsessionidIndex = url.indexOf(";jsessionid=")) >= 0) {
-			final String path = url.substring(0, jsessionidIndex);
-			final int queryStringIndex = url.indexOf("?");
-			if (queryStringIndex >= 0) {
-				return path + url.substring(queryStringIndex);
-			} else {
-				return path;
-			}
-		}
-		return url;
+		return _urlCanonicalizer.canonicalize(url);
 	}
 
 	protected void report(final CrawlerResult result) {
 		_history.report(result);
+		if (_scheduler != null) {
+			_scheduler.completed(result);
+		}
+		if (result.isCached()) {
+			_cachedCount.incrementAndGet();
+		}
+		if (result.getWireLength() > 0) {
+			_wireBytes.addAndGet(result.getWireLength());
+		}
+		if (result.getDecodedLength() > 0) {
+			_decodedBytes.addAndGet(result.getDecodedLength());
+		}
+
+		if (_eventBus != null) {
+			// posted before counting, FINISH must not overtake the result of
+			// another thread
+			_eventBus.post(result);
+			_retrievedCount.incrementAndGet();
+		} else {
+			_retrievedCount.incrementAndGet();
+			fire(Collections.singletonList((Object) result));
+		}
+		completed();
+	}
+
+	/**
+	 * counts a dispatched task that won't be executed, e.g. by a
+	 * {@link PriorityFrontier} after max was reached
+	 */
+	void discard(final CrawlerTask task) {
+		if (_scheduler != null) {
+			_scheduler.discarded(task);
+		}
+		_discardedCount.incrementAndGet();
+		completed();
+	}
+
+	private void completed() {
+		if (_dispatchedCount.get() == _completedCount.incrementAndGet()) {
+			if (_eventBus != null) {
+				_eventBus.post(FINISH);
+			} else {
+				fire(Collections.singletonList(FINISH));
+			}
+		}
+	}
 
-		_retrievedCount++;
-		setChanged();
-		notifyObservers(result);
+	/**
+	 * delivers events to listeners and observers, called by the
+	 * {@link CrawlerEventBus} or the reporting thread
+	 */
+	void fire(final List<Object> events) {
+		for (final ICrawlerEventListener listener : _listeners) {
+			listener.onEvents(this, events);
+		}
+		if (countObservers() > 0) {
+			synchronized (_notifyLock) {
+				for (final Object event : events) {
+					setChanged();
+					notifyObservers(event);
+				}
+			}
+		}
+	}
 
-		if (_dispatchedCount == _retrievedCount) {
-			setChanged();
-			notifyObservers(FINISH);
+	public void addEventListener(final ICrawlerEventListener listener) {
+		if (listener == null) {
+			throw new NullPointerException("listener");
 		}
+		_listeners.add(listener);
+	}
+
+	public void removeEventListener(final ICrawlerEventListener listener) {
+		_listeners.remove(listener);
 	}
 
 	public Map<String, CrawlerResult> getVisitedURLs() {
@@ -175,21 +640,193 @@ public class Crawler extends Observable {
 	}
 
 	public int getDispatchedCount() {
-		return _dispatchedCount;
+		return _dispatchedCount.get();
 	}
 
 	public int getRetrievedCount() {
-		return _retrievedCount;
+		return _retrievedCount.get();
+	}
+
+	/**
+	 * @return number of dispatched tasks that weren't executed
+	 */
+	public int getDiscardedCount() {
+		return _discardedCount.get();
+	}
+
+	/**
+	 * @return maximum number of URLs to fetch, {@link Integer#MAX_VALUE} if
+	 *         unlimited
+	 */
+	public int getMax() {
+		return _max;
+	}
+
+	/**
+	 * @return the frontier charging max when taking tasks or null
+	 */
+	public PriorityFrontier getPriorityFrontier() {
+		return _priorityFrontier;
+	}
+
+	void setPriorityFrontier(final PriorityFrontier frontier) {
+		_priorityFrontier = frontier;
+	}
+
+	/**
+	 * @return number of retrieved URLs that weren't modified since cached
+	 */
+	public int getCachedCount() {
+		return _cachedCount.get();
+	}
+
+	/**
+	 * @return number of body bytes received, possibly compressed
+	 */
+	public long getWireBytes() {
+		return _wireBytes.get();
+	}
+
+	/**
+	 * @return number of body bytes after decompression
+	 */
+	public long getDecodedBytes() {
+		return _decodedBytes.get();
+	}
+
+	public boolean isCompress() {
+		return _compress;
+	}
+
+	/**
+	 * @param compress
+	 *            whether to ask for gzip or deflate compressed responses
+	 *            (default)
+	 */
+	public void setCompress(final boolean compress) {
+		_compress = compress;
+	}
+
+	public boolean isStoreText() {
+		return _storeText;
+	}
+
+	/**
+	 * @param storeText
+	 *            whether to keep the text of retrieved pages in
+	 *            {@link CrawlerResult#getText()}. Links are extracted while
+	 *            pages are streamed either way.
+	 */
+	public void setStoreText(final boolean storeText) {
+		_storeText = storeText;
+	}
+
+	public boolean isStoreDigest() {
+		return _storeDigest;
+	}
+
+	/**
+	 * @param storeDigest
+	 *            whether to store length and digest of retrieved bodies in
+	 *            {@link CrawlerResult}
+	 */
+	public void setStoreDigest(final boolean storeDigest) {
+		_storeDigest = storeDigest;
 	}
 
+	public int getMaxReferrers() {
+		return _maxReferrers;
+	}
+
+	/**
+	 * @param maxReferrers
+	 *            number of referrers kept per {@link CrawlerResult}, others
+	 *            are only counted. With a {@link LinkGraph}, results keep no
+	 *            referrers and this limits referrers printed for broken links
+	 */
+	public void setMaxReferrers(final int maxReferrers) {
+		if (maxReferrers < 0) {
+			throw new IllegalArgumentException("maxReferrers must not be negative, was " + maxReferrers);
+		}
+		_maxReferrers = maxReferrers;
+	}
+
+	/**
+	 * @param lean
+	 *            if true, {@link CrawlerResult}s keep length and digest instead
+	 *            of text and at most {@link #LEAN_MAX_REFERRERS} referrers
+	 */
+	public void setLeanResults(final boolean lean) {
+		setStoreText(!lean);
+		setStoreDigest(lean);
+		setMaxReferrers(lean ? LEAN_MAX_REFERRERS : Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return modifiable list of filters, compiled into a single
+	 *         {@link CompiledFilter} whenever it changes
+	 */
 	public List<ICrawlerFilter> getFilters() {
 		return _filters;
 	}
 
+	/**
+	 * @return the first host
+	 */
 	public String getHost() {
 		return _host;
 	}
 
+	/**
+	 * @return all hosts, each ending with a slash
+	 */
+	public List<String> getHosts() {
+		return _hosts;
+	}
+
+	/**
+	 * @return true if url starts with one of the crawler's hosts
+	 */
+	public boolean isInScope(final String url) {
+		final List<String> hosts = _scopes.get(CrawlerScheduler.host(url));
+		if (hosts != null) {
+			for (final String host : hosts) {
+				if (url.startsWith(host)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of threads the crawler was created with
+	 */
+	public int getThreads() {
+		return _threads;
+	}
+
+	/**
+	 * @return the dictionary of IDs for queued URLs or null
+	 */
+	public UrlDictionary getUrlDictionary() {
+		return _urlDictionary;
+	}
+
+	/**
+	 * @return the graph of links between URLs in scope or null
+	 */
+	public LinkGraph getLinkGraph() {
+		return _linkGraph;
+	}
+
+	/**
+	 * @return the detector rejecting URLs of crawl traps or null
+	 */
+	public TrapDetector getTrapDetector() {
+		return _trapDetector;
+	}
+
 	public SAXParserFactory getParserFactory() {
 		return _parserFactory;
 	}
@@ -198,6 +835,51 @@ public class Crawler extends Observable {
 		return _dtdMemoryCache;
 	}
 
+	public HttpClient getHttpClient() {
+		return _httpClient;
+	}
+
+	public CrawlerConnectionManager getConnectionManager() {
+		return _connectionManager;
+	}
+
+	/**
+	 * @return the response cache or null if requests aren't conditional
+	 */
+	public IResponseCache getResponseCache() {
+		return _responseCache;
+	}
+
+	public UrlCanonicalizer getUrlCanonicalizer() {
+		return _urlCanonicalizer;
+	}
+
+	/**
+	 * @return the duplicate detector or null if all pages are parsed
+	 */
+	public DuplicateDetector getDuplicateDetector() {
+		return _duplicateDetector;
+	}
+
+	public BodyPolicy getBodyPolicy() {
+		return _bodyPolicy;
+	}
+
+	/**
+	 * @return the event bus or null if observers are notified on the fetch
+	 *         thread
+	 */
+	public CrawlerEventBus getEventBus() {
+		return _eventBus;
+	}
+
+	/**
+	 * @return the scheduler or null if tasks aren't scheduled
+	 */
+	public CrawlerScheduler getScheduler() {
+		return _scheduler;
+	}
+
 	public String getUsername() {
 		return _username;
 	}
@@ -206,29 +888,255 @@ public class Crawler extends Observable {
 		return _password;
 	}
 
+	/**
+	 * @return scheme, host and port of each seed
+	 */
+	private static String[] hosts(final Collection<String> seeds) {
+		if (seeds == null) {
+			throw new NullPointerException("seeds");
+		}
+		final String[] hosts = new String[seeds.size()];
+		int i = 0;
+		for (final String seed : seeds) {
+			if (seed == null) {
+				throw new NullPointerException("seed");
+			}
+			hosts[i++] = CrawlerScheduler.host(seed) + "/";
+		}
+		return hosts;
+	}
+
 	public void shutdown() {
 		_executor.shutdown();
 	}
 
 	public void awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
-		_executor.awaitTermination(timeout, unit);
+		if (_executor.awaitTermination(timeout, unit)) {
+			if (_eventBus != null) {
+				_eventBus.close();
+			}
+			_connectionManager.shutdown();
+			if (_history instanceof IPersistentCrawlerHistory) {
+				try {
+					((IPersistentCrawlerHistory) _history).close();
+				} catch (final IOException e) {
+					System.err.println("failed to close history: " + e.getMessage());
+				}
+			}
+		}
 	}
 
 	public static void main(final String[] args) throws InterruptedException {
 		System.out.println("starting crawler");
 
-		final String host = "http://localhost:8080/";
-		final String start = host + "";
-		final int threads = 4;
-		final int max = 0;
-		final boolean tidy = false;
+		final String seeds = System.getProperty("crawler.seeds", "http://localhost:8080/");
+		final int threads = Integer.getInteger("crawler.threads", 4);
+		final int max = Integer.getInteger("crawler.max", 0);
+		final String frontier = System.getProperty("crawler.frontier", "fifo");
+		final String executor = System.getProperty("crawler.executor", "threads");
+		final String links = System.getProperty("crawler.links", "html");
+		final String history = System.getProperty("crawler.history", "default");
+		final String journal = System.getProperty("crawler.journal");
+		final String rate = System.getProperty("crawler.rate");
+		final String adaptive = System.getProperty("crawler.adaptive");
+		final String cache = System.getProperty("crawler.cache");
+		final Integer dedup = Integer.getInteger("crawler.dedup");
+		final boolean traps = Boolean.getBoolean("crawler.traps");
+		final String graph = System.getProperty("crawler.graph");
+		final String strip = System.getProperty("crawler.strip", "");
+		final String events = System.getProperty("crawler.events", "async");
+		final Integer latency = Integer.getInteger("crawler.latency");
+		final String assets = System.getProperty("crawler.assets");
+		final Long maxTextLength = Long.getLong("crawler.maxTextLength");
+		final int connections = Integer.getInteger("crawler.connections", threads);
+		final int minConnections = Integer.getInteger("crawler.connections.min", 1);
 
-		final Crawler s = new Crawler(host, start, threads, max, tidy);
+		// executor and connection manager are sized from the maximum concurrency
+		// per host if a scheduler limits it
+		final int poolSize = rate == null && adaptive == null ? threads : Math.max(threads, connections);
 
-		s.getFilters().add(new PrefixFilter(s, "?wicket:interface="));
+		final Crawler s = new Crawler(Arrays.asList(seeds.split(",")), null, null, poolSize, max, "tidy".equals(links)) {
 
-		s.addObserver(new PrintObserver(true));
+			@Override
+			protected ExecutorService newExecutor(final int threads) {
+				if ("async".equals(executor)) {
+					return new AsyncCrawlerExecutor(this, threads);
+				} else if ("virtual".equals(executor)) {
+					return new VirtualThreadExecutor(threads, newBlockingQueue());
+				} else {
+					return super.newExecutor(threads);
+				}
+			}
+
+			@Override
+			protected CrawlerScheduler newScheduler(final ExecutorService executor) {
+				if (rate == null && adaptive == null) {
+					return super.newScheduler(executor);
+				}
+				return new CrawlerScheduler(this, executor, rate == null ? Double.POSITIVE_INFINITY : Double
+						.parseDouble(rate), Integer.getInteger("crawler.burst", 1), connections,
+						getHosts().size() > 1 ? getThreads() : Integer.MAX_VALUE) {
+
+					@Override
+					protected IConcurrencyLimit newConcurrencyLimit(final String host) {
+						if ("gradient".equals(adaptive)) {
+							return new GradientConcurrencyLimit(minConnections, connections);
+						} else if ("aimd".equals(adaptive)) {
+							return new AimdConcurrencyLimit(minConnections, connections, Integer.getInteger(
+									"crawler.adaptive.threshold", 1000), 0.9);
+						} else {
+							return super.newConcurrencyLimit(host);
+						}
+					}
+				};
+			}
+
+			@Override
+			protected IResponseCache newResponseCache() {
+				if (cache == null) {
+					return null;
+				}
+				try {
+					return new DiskResponseCache(new File(cache));
+				} catch (final IOException e) {
+					throw new RuntimeException("failed to open cache " + cache, e);
+				}
+			}
+
+			@Override
+			protected UrlCanonicalizer newUrlCanonicalizer() {
+				return new UrlCanonicalizer(Boolean.getBoolean("crawler.sortQuery"), strip.length() == 0 ? new String[0]
+						: strip.split(","));
+			}
+
+			@Override
+			protected BlockingQueue<Runnable> newBlockingQueue() {
+				if (!"priority".equals(frontier)) {
+					return super.newBlockingQueue();
+				}
+				final Map<String, Integer> boosts = new HashMap<String, Integer>();
+				for (final String boost : System.getProperty("crawler.priority.boosts", "").split(",")) {
+					final int eq = boost.lastIndexOf('=');
+					if (eq > 0) {
+						boosts.put(boost.substring(0, eq).trim(), Integer.parseInt(boost.substring(eq + 1).trim()));
+					}
+				}
+				return new PriorityFrontier(this, new PriorityPolicy(Integer.getInteger("crawler.priority.depth",
+						PriorityPolicy.DEFAULT_DEPTH_WEIGHT), Integer.getInteger("crawler.priority.links",
+						PriorityPolicy.DEFAULT_LINK_WEIGHT), boosts));
+			}
+
+			@Override
+			protected DTDMemoryCache newDtdMemoryCache() {
+				return new DTDMemoryCache(!Boolean.getBoolean("crawler.offlineDtds"));
+			}
+
+			@Override
+			protected BodyPolicy newBodyPolicy() {
+				if (assets == null && maxTextLength == null) {
+					return super.newBodyPolicy();
+				}
+				return new BodyPolicy(maxTextLength == null ? BodyPolicy.DEFAULT_MAX_TEXT_LENGTH : maxTextLength,
+						BodyPolicy.DEFAULT_DRAIN_LENGTH, assets == null ? new String[] { "" } : assets.split(","));
+			}
+
+			@Override
+			protected CrawlerEventBus newEventBus() {
+				return "sync".equals(events) ? null : super.newEventBus();
+			}
+
+			@Override
+			protected DuplicateDetector newDuplicateDetector() {
+				return dedup == null ? null : new DuplicateDetector(dedup);
+			}
+
+			@Override
+			protected UrlDictionary newUrlDictionary() {
+				return "fingerprint".equals(history) ? null : super.newUrlDictionary();
+			}
+
+			@Override
+			protected LinkGraph newLinkGraph() {
+				// a fingerprint history stores no URLs, only a requested graph does
+				if ("false".equals(graph) || graph == null && "fingerprint".equals(history)) {
+					return null;
+				}
+				return super.newLinkGraph();
+			}
+
+			@Override
+			protected TrapDetector newTrapDetector() {
+				if (!traps) {
+					return null;
+				}
+				return new TrapDetector(TrapDetector.DEFAULT_MAX_LENGTH, Integer.getInteger("crawler.traps.depth",
+						TrapDetector.DEFAULT_MAX_DEPTH), TrapDetector.DEFAULT_MAX_SEGMENTS,
+						TrapDetector.DEFAULT_MAX_REPEATS, Integer.getInteger("crawler.traps.variants",
+								TrapDetector.DEFAULT_MAX_VARIANTS), Integer.getInteger("crawler.traps.templates",
+								TrapDetector.DEFAULT_MAX_TEMPLATE_URLS));
+			}
+
+			@Override
+			protected ILinkExtractor newLinkExtractor(final CrawlerContext context) {
+				if ("html".equals(links)) {
+					return new HtmlLinkExtractor();
+				} else {
+					return super.newLinkExtractor(context);
+				}
+			}
+
+			@Override
+			protected ICrawlerHistory newCrawlerHistory() {
+				final ICrawlerHistory h = "fingerprint".equals(history) ? new FingerprintCrawlerHistory() : super
+						.newCrawlerHistory();
+				if (journal == null) {
+					return h;
+				}
+				try {
+					return new JournalCrawlerHistory(h, new File(journal));
+				} catch (final IOException e) {
+					throw new RuntimeException("failed to open journal " + journal, e);
+				}
+			}
+		};
+
+		s.setLeanResults(Boolean.getBoolean("crawler.lean"));
+		s.setCompress(!"false".equals(System.getProperty("crawler.compress")));
+		if (!traps) {
+			// Wicket's listener URLs, covered by query variants otherwise
+			s.getFilters().add(new PrefixFilter(s, "?wicket:interface="));
+		}
+
+		// observers are notified in reverse order, exit after reports
 		s.addObserver(new ExitObserver());
+		if (graph != null && !"false".equals(graph) && s.getLinkGraph() != null) {
+			s.addObserver(new Observer() {
+
+				@Override
+				public void update(final Observable o, final Object arg) {
+					if (arg == FINISH) {
+						try {
+							final OutputStream out = new FileOutputStream(graph);
+							try {
+								s.getLinkGraph().write(out);
+							} finally {
+								out.close();
+							}
+							System.out.println("wrote " + s.getLinkGraph().getUrlCount() + " URLs and "
+									+ s.getLinkGraph().getLinkCount() + " links to " + graph);
+						} catch (final IOException e) {
+							System.err.println("failed to write link graph: " + e.getMessage());
+						}
+					}
+				}
+			});
+		}
+		s.addObserver(new PrintObserver(true));
+		if (latency != null) {
+			final String prefixes = System.getProperty("crawler.latency.prefixes", "");
+			s.addObserver(new LatencyObserver(latency * 1000L, 256, prefixes.length() == 0 ? new String[0] : prefixes
+					.split(",")));
+		}
 	}
 
 }
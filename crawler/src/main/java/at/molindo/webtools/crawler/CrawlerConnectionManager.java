@@ -0,0 +1,131 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.conn.tsccm.AbstractConnPool;
+import org.apache.http.impl.conn.tsccm.BasicPoolEntry;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.RouteSpecificPool;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * pool of keep-alive connections shared by all threads of a {@link Crawler}.
+ * Idle connections are evicted by a background timer. Pool hits (reused
+ * connections) and misses (newly opened connections) are counted per crawl.
+ */
+public class CrawlerConnectionManager extends ThreadSafeClientConnManager {
+
+	private final Timer _evictor;
+
+	public CrawlerConnectionManager(final int maxPerRoute, final int maxTotal, final long idleTimeoutMillis) {
+		super(params(maxPerRoute, maxTotal), schemes());
+
+		_evictor = new Timer("crawler-connection-evictor", true);
+		_evictor.schedule(new TimerTask() {
+
+			@Override
+			public void run() {
+				closeExpiredConnections();
+				closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+		}, idleTimeoutMillis, Math.max(1000, idleTimeoutMillis / 2));
+	}
+
+	private static HttpParams params(final int maxPerRoute, final int maxTotal) {
+		if (maxPerRoute < 1) {
+			throw new IllegalArgumentException("maxPerRoute must be positive");
+		}
+		if (maxTotal < maxPerRoute) {
+			throw new IllegalArgumentException("maxTotal must not be less than maxPerRoute");
+		}
+
+		final HttpParams params = new BasicHttpParams();
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxPerRoute));
+		ConnManagerParams.setMaxTotalConnections(params, maxTotal);
+		return params;
+	}
+
+	private static SchemeRegistry schemes() {
+		final SchemeRegistry schemes = new SchemeRegistry();
+		schemes.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schemes.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		return schemes;
+	}
+
+	@Override
+	protected AbstractConnPool createConnectionPool(final HttpParams params) {
+		// called from super constructor, fields aren't initialized yet
+		return new CountingConnPool(connOperator, params);
+	}
+
+	/**
+	 * @return number of requests served by a pooled connection
+	 */
+	public long getHits() {
+		return ((CountingConnPool) connectionPool)._hits.get();
+	}
+
+	/**
+	 * @return number of requests that required a new connection
+	 */
+	public long getMisses() {
+		return ((CountingConnPool) connectionPool)._misses.get();
+	}
+
+	@Override
+	public void shutdown() {
+		_evictor.cancel();
+		super.shutdown();
+	}
+
+	private static final class CountingConnPool extends ConnPoolByRoute {
+		private final AtomicLong _hits = new AtomicLong();
+		private final AtomicLong _misses = new AtomicLong();
+
+		private CountingConnPool(final ClientConnectionOperator operator, final HttpParams params) {
+			super(operator, params);
+		}
+
+		@Override
+		protected BasicPoolEntry getFreeEntry(final RouteSpecificPool rospl, final Object state) {
+			final BasicPoolEntry entry = super.getFreeEntry(rospl, state);
+			if (entry != null) {
+				_hits.incrementAndGet();
+			}
+			return entry;
+		}
+
+		@Override
+		protected BasicPoolEntry createEntry(final RouteSpecificPool rospl, final ClientConnectionOperator op) {
+			_misses.incrementAndGet();
+			return super.createEntry(rospl, op);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+
+import org.apache.http.client.HttpClient;
+import org.xml.sax.SAXException;
+
+import at.molindo.webtools.crawler.links.ILinkExtractor;
+
+/**
+ * non thread-safe state needed to fetch and parse a page. The
+ * {@link HttpClient} is shared by all contexts of a {@link Crawler}. Instances are bound
+ * to a {@link CrawlerThread} or borrowed from the {@link Crawler}'s pool for
+ * the duration of a single {@link CrawlerTask}.
+ */
+public class CrawlerContext {
+
+	private final SAXParser _parser;
+	private final HttpClient _client;
+	private final ILinkExtractor _linkExtractor;
+
+	public CrawlerContext(final Crawler crawler) {
+		try {
+			_parser = crawler.getParserFactory().newSAXParser();
+			_client = crawler.getHttpClient();
+			_linkExtractor = crawler.newLinkExtractor(this);
+		} catch (final ParserConfigurationException e) {
+			throw new RuntimeException("failed to create context", e);
+		} catch (final SAXException e) {
+			throw new RuntimeException("failed to create context", e);
+		}
+	}
+
+	public SAXParser getParser() {
+		return _parser;
+	}
+
+	public HttpClient getClient() {
+		return _client;
+	}
+
+	public ILinkExtractor getLinkExtractor() {
+		return _linkExtractor;
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import at.molindo.webtools.crawler.util.RingBuffer;
+
+/**
+ * hands crawl events from fetch threads to observers on a dedicated daemon
+ * thread. Events are passed through a lock-free {@link RingBuffer} and
+ * delivered in batches. Producers only wait if the buffer is full.
+ */
+public class CrawlerEventBus {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static final int BATCH_SIZE = 256;
+
+	private final Crawler _crawler;
+	private final RingBuffer<Object> _buffer;
+	private final Thread _thread;
+
+	private volatile boolean _closed;
+	private volatile boolean _waiting;
+
+	private final AtomicLong _stalls = new AtomicLong();
+	private volatile long _delivered;
+
+	public CrawlerEventBus(final Crawler crawler) {
+		this(crawler, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of events buffered before fetch threads have to wait
+	 */
+	public CrawlerEventBus(final Crawler crawler, final int capacity) {
+		if (crawler == null) {
+			throw new NullPointerException("crawler");
+		}
+		_crawler = crawler;
+		_buffer = new RingBuffer<Object>(capacity);
+
+		_thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "crawler-events");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * queues an event, waiting only while the buffer is full
+	 */
+	public void post(final Object event) {
+		if (!_buffer.offer(event)) {
+			_stalls.incrementAndGet();
+			do {
+				wakeup();
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+			} while (!_buffer.offer(event));
+		}
+		if (_waiting) {
+			wakeup();
+		}
+	}
+
+	private void wakeup() {
+		_waiting = false;
+		LockSupport.unpark(_thread);
+	}
+
+	private void dispatch() {
+		final List<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+		while (true) {
+			_buffer.drainTo(batch, BATCH_SIZE);
+			if (!batch.isEmpty()) {
+				try {
+					_crawler.fire(batch);
+				} catch (final RuntimeException e) {
+					System.err.println("observer failed: " + e);
+				}
+				_delivered += batch.size();
+				batch.clear();
+			} else if (_closed && _buffer.isEmpty()) {
+				return;
+			} else {
+				_waiting = true;
+				// recheck after announcing, an event may have been posted in
+				// between
+				if (_buffer.isEmpty()) {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+				}
+				_waiting = false;
+			}
+		}
+	}
+
+	/**
+	 * delivers pending events and stops the dispatch thread
+	 */
+	public void close() throws InterruptedException {
+		_closed = true;
+		LockSupport.unpark(_thread);
+		if (Thread.currentThread() != _thread) {
+			_thread.join();
+		}
+	}
+
+	/**
+	 * @return number of times a fetch thread had to wait for a full buffer
+	 */
+	public long getStallCount() {
+		return _stalls.get();
+	}
+
+	/**
+	 * @return number of events delivered to observers
+	 */
+	public long getDeliveredCount() {
+		return _delivered;
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import at.molindo.utils.io.CharsetUtils;
+
+/**
+ * unbounded FIFO queue of {@link CrawlerTask}s. Keeps a bounded head in memory
+ * and spills overflow to append-only, memory-mapped segment files. Spilled
+ * tasks are recreated using {@link Crawler#newCrawlerTask(String, CrawlerReferrer)}
+ * when they move to the head. Segments are deleted as soon as they are
+ * consumed.
+ * 
+ * Other {@link Runnable}s can't be spilled and are always kept in memory.
+ */
+public class CrawlerFrontier extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+	public static final int DEFAULT_HEAD_CAPACITY = 10000;
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private final Crawler _crawler;
+	private final File _directory;
+	private final int _headCapacity;
+	private final int _segmentSize;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _notEmpty = _lock.newCondition();
+
+	/**
+	 * invariant: if _head is empty, nothing is spilled
+	 */
+	private final ArrayDeque<Runnable> _head = new ArrayDeque<Runnable>();
+	private final ArrayDeque<Segment> _segments = new ArrayDeque<Segment>();
+	private long _spilled;
+
+	public CrawlerFrontier(final Crawler crawler) {
+		this(crawler, new File(System.getProperty("java.io.tmpdir")), DEFAULT_HEAD_CAPACITY, DEFAULT_SEGMENT_SIZE);
+	}
+
+	public CrawlerFrontier(final Crawler crawler, final File directory, final int headCapacity, final int segmentSize) {
+		if (crawler == null) {
+			throw new NullPointerException("crawler");
+		}
+		if (directory == null) {
+			throw new NullPointerException("directory");
+		}
+		if (headCapacity < 1) {
+			throw new IllegalArgumentException("headCapacity must be positive, was " + headCapacity);
+		}
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("segmentSize must be at least 1024, was " + segmentSize);
+		}
+		_crawler = crawler;
+		_directory = directory;
+		_headCapacity = headCapacity;
+		_segmentSize = segmentSize;
+	}
+
+	@Override
+	public boolean offer(final Runnable r) {
+		if (r == null) {
+			throw new NullPointerException();
+		}
+		_lock.lock();
+		try {
+			if (_spilled == 0 && _head.size() < _headCapacity || !(r instanceof CrawlerTask) || !spill((CrawlerTask) r)) {
+				_head.addLast(r);
+			}
+			_notEmpty.signal();
+			return true;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(final Runnable r) {
+		offer(r);
+	}
+
+	@Override
+	public boolean offer(final Runnable r, final long timeout, final TimeUnit unit) {
+		return offer(r);
+	}
+
+	@Override
+	public Runnable poll() {
+		_lock.lock();
+		try {
+			return next();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		_lock.lockInterruptibly();
+		try {
+			while (_head.isEmpty()) {
+				_notEmpty.await();
+			}
+			return next();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		_lock.lockInterruptibly();
+		try {
+			while (_head.isEmpty()) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = _notEmpty.awaitNanos(nanos);
+			}
+			return next();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable peek() {
+		_lock.lock();
+		try {
+			return _head.peekFirst();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		_lock.lock();
+		try {
+			return (int) Math.min(Integer.MAX_VALUE, _head.size() + _spilled);
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of tasks currently stored on disk
+	 */
+	public long getSpilledCount() {
+		_lock.lock();
+		try {
+			return _spilled;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		_lock.lock();
+		try {
+			return _head.remove(o);
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(final Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		_lock.lock();
+		try {
+			int n = 0;
+			Runnable r;
+			while (n < maxElements && (r = next()) != null) {
+				c.add(r);
+				n++;
+			}
+			return n;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return an iterator over the tasks kept in memory, spilled tasks aren't
+	 *         included
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+		final Iterator<Runnable> snapshot;
+		_lock.lock();
+		try {
+			snapshot = new ArrayList<Runnable>(_head).iterator();
+		} finally {
+			_lock.unlock();
+		}
+
+		return new Iterator<Runnable>() {
+
+			private Runnable _last;
+
+			@Override
+			public boolean hasNext() {
+				return snapshot.hasNext();
+			}
+
+			@Override
+			public Runnable next() {
+				return _last = snapshot.next();
+			}
+
+			@Override
+			public void remove() {
+				if (_last == null) {
+					throw new IllegalStateException();
+				}
+				CrawlerFrontier.this.remove(_last);
+				_last = null;
+			}
+		};
+	}
+
+	/**
+	 * must hold lock
+	 */
+	private Runnable next() {
+		final Runnable r = _head.pollFirst();
+		while (_spilled > 0 && _head.size() < _headCapacity) {
+			_head.addLast(unspill());
+		}
+		return r;
+	}
+
+	/**
+	 * must hold lock
+	 * 
+	 * @return false if task couldn't be written to disk
+	 */
+	private boolean spill(final CrawlerTask task) {
+		final CrawlerReferrer referrer = task.getReferrer();
+		final byte[] url = bytes(task.getUrlString());
+		final byte[] referrerUrl = referrer == null ? null : bytes(referrer.getReferrerUrl());
+		final byte[] href = referrer == null ? null : bytes(referrer.getHref());
+		final int length = 12 + length(url) + length(referrerUrl) + length(href);
+
+		try {
+			Segment segment = _segments.peekLast();
+			if (segment == null || segment._buffer.remaining() < length) {
+				segment = new Segment(_directory, Math.max(_segmentSize, length));
+				_segments.addLast(segment);
+			}
+			segment._buffer.putLong(task.getQueueTime());
+			put(segment._buffer, url);
+			put(segment._buffer, referrerUrl);
+			put(segment._buffer, href);
+			segment._buffer.putInt(task.getDepth());
+		} catch (final IOException e) {
+			System.err.println("failed to spill " + task.getUrlString() + " to disk: " + e.getMessage());
+			return false;
+		}
+		_spilled++;
+		return true;
+	}
+
+	/**
+	 * must hold lock, _spilled must be positive
+	 */
+	private CrawlerTask unspill() {
+		Segment segment = _segments.peekFirst();
+		while (segment._reader.position() == segment._buffer.position()) {
+			// consumed, at least one more segment follows
+			_segments.removeFirst().delete();
+			segment = _segments.peekFirst();
+		}
+
+		final long queueTime = segment._reader.getLong();
+		final String url = string(segment._reader);
+		final String referrerUrl = string(segment._reader);
+		final String href = string(segment._reader);
+		final int depth = segment._reader.getInt();
+
+		if (--_spilled == 0) {
+			// don't wait for the next spill to create a new segment
+			while (!_segments.isEmpty()) {
+				_segments.removeFirst().delete();
+			}
+		}
+
+		final CrawlerTask task = _crawler.newCrawlerTask(url, referrerUrl == null ? null : new CrawlerReferrer(
+				referrerUrl, href, depth));
+		task.intern();
+		task.setQueueTime(queueTime);
+		return task;
+	}
+
+	private static byte[] bytes(final String s) {
+		return s == null ? null : s.getBytes(CharsetUtils.UTF_8);
+	}
+
+	private static int length(final byte[] bytes) {
+		return 4 + (bytes == null ? 0 : bytes.length);
+	}
+
+	private static void put(final ByteBuffer buffer, final byte[] bytes) {
+		if (bytes == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	private static String string(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, CharsetUtils.UTF_8);
+	}
+
+	private static final class Segment {
+
+		private final File _file;
+		private final RandomAccessFile _raf;
+		/**
+		 * position is the write position
+		 */
+		private final MappedByteBuffer _buffer;
+		/**
+		 * position is the read position
+		 */
+		private final ByteBuffer _reader;
+
+		private Segment(final File directory, final int size) throws IOException {
+			_file = File.createTempFile("frontier-", ".segment", directory);
+			_file.deleteOnExit();
+			_raf = new RandomAccessFile(_file, "rw");
+			try {
+				_buffer = _raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+			} catch (final IOException e) {
+				delete();
+				throw e;
+			}
+			_reader = _buffer.duplicate();
+		}
+
+		private void delete() {
+			try {
+				// mapping is released by garbage collection
+				_raf.close();
+			} catch (final IOException e) {
+				System.err.println("failed to close " + _file + ": " + e.getMessage());
+			}
+			if (!_file.delete()) {
+				System.err.println("failed to delete " + _file);
+			}
+		}
+	}
+}
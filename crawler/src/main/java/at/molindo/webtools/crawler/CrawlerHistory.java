@@ -15,37 +15,191 @@
  */
 package at.molindo.webtools.crawler;
 
-import java.util.Collections;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import at.molindo.webtools.crawler.util.UrlDictionary;
+
+/**
+ * {@link ICrawlerHistory} keeping {@link CrawlerResult}s in pages of arrays
+ * indexed by the ID of their URL in a {@link UrlDictionary}, usually shared
+ * with the {@link LinkGraph}. URLs are only decoded for
+ * {@link #getVisitedURLs()}.
+ */
 public class CrawlerHistory implements ICrawlerHistory {
 
 	private static final CrawlerResult NULL = new CrawlerResult();
 
-	private final ConcurrentHashMap<String, CrawlerResult> _visitedURLs = new ConcurrentHashMap<String, CrawlerResult>();
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	private final UrlDictionary _dictionary;
+	private final AtomicInteger _size = new AtomicInteger();
+	private volatile AtomicReferenceArray<CrawlerResult>[] _pages = newPages(16);
+
+	private final Map<String, CrawlerResult> _visitedURLs = new VisitedMap();
+
+	public CrawlerHistory() {
+		this(new UrlDictionary());
+	}
+
+	public CrawlerHistory(final UrlDictionary dictionary) {
+		if (dictionary == null) {
+			throw new NullPointerException("dictionary");
+		}
+		_dictionary = dictionary;
+	}
+
+	public UrlDictionary getDictionary() {
+		return _dictionary;
+	}
 
 	@Override
 	public boolean queue(final String url, final CrawlerReferrer referrer) {
-		final CrawlerResult sr = _visitedURLs.putIfAbsent(url, NULL);
-		if (sr != null) {
-			sr.getReferrers().add(referrer);
-			return false;
-		} else {
+		final int id = _dictionary.id(url);
+		final AtomicReferenceArray<CrawlerResult> page = page(id, true);
+		final int index = id & PAGE_SIZE - 1;
+		if (page.compareAndSet(index, null, NULL)) {
+			_size.incrementAndGet();
 			return true;
 		}
+		final CrawlerResult sr = page.get(index);
+		if (sr != NULL && referrer != null) {
+			sr.addReferrer(referrer);
+		}
+		return false;
 	}
 
 	@Override
 	public Map<String, CrawlerResult> getVisitedURLs() {
-		return Collections.unmodifiableMap(_visitedURLs);
+		return _visitedURLs;
 	}
 
 	@Override
 	public void report(final CrawlerResult result) {
-		final CrawlerResult sr = _visitedURLs.put(result.getUrl(), result);
+		int id = result.getUrlId(_dictionary);
+		if (id < 0) {
+			id = _dictionary.id(result.getUrl());
+		}
+		final CrawlerResult sr = page(id, true).getAndSet(id & PAGE_SIZE - 1, result);
+		if (sr == null) {
+			_size.incrementAndGet();
+		}
 		if (sr == null || sr != NULL) {
 			System.err.println("unexpected report for url " + result.getUrl());
 		}
 	}
+
+	private CrawlerResult get(final int id) {
+		final AtomicReferenceArray<CrawlerResult> page = page(id, false);
+		return page == null ? null : page.get(id & PAGE_SIZE - 1);
+	}
+
+	private AtomicReferenceArray<CrawlerResult> page(final int id, final boolean create) {
+		final int p = id >>> PAGE_BITS;
+		AtomicReferenceArray<CrawlerResult>[] pages = _pages;
+		if (p < pages.length && pages[p] != null) {
+			return pages[p];
+		} else if (!create) {
+			return null;
+		}
+		synchronized (this) {
+			pages = _pages;
+			if (p >= pages.length) {
+				pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length * 2));
+			}
+			if (pages[p] == null) {
+				pages[p] = new AtomicReferenceArray<CrawlerResult>(PAGE_SIZE);
+			}
+			_pages = pages;
+			return pages[p];
+		}
+	}
+
+	private static AtomicReferenceArray<CrawlerResult>[] newPages(final int length) {
+		// generic arrays can't be created, only cast
+		final AtomicReferenceArray<?>[] pages = new AtomicReferenceArray<?>[length];
+		@SuppressWarnings("unchecked")
+		final AtomicReferenceArray<CrawlerResult>[] typed = (AtomicReferenceArray<CrawlerResult>[]) pages;
+		return typed;
+	}
+
+	/**
+	 * unmodifiable view of visited URLs, decoded while iterating
+	 */
+	private final class VisitedMap extends AbstractMap<String, CrawlerResult> {
+
+		private final Set<Map.Entry<String, CrawlerResult>> _entries = new AbstractSet<Map.Entry<String, CrawlerResult>>() {
+
+			@Override
+			public Iterator<Map.Entry<String, CrawlerResult>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return _size.get();
+			}
+		};
+
+		@Override
+		public CrawlerResult get(final Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			final int id = _dictionary.getId((String) key);
+			return id < 0 ? null : CrawlerHistory.this.get(id);
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public int size() {
+			return _size.get();
+		}
+
+		@Override
+		public Set<Map.Entry<String, CrawlerResult>> entrySet() {
+			return _entries;
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, CrawlerResult>> {
+
+		private int _next = -1;
+		private CrawlerResult _result;
+
+		@Override
+		public boolean hasNext() {
+			while (_result == null && _next + 1 < _dictionary.size()) {
+				_result = get(++_next);
+			}
+			return _result != null;
+		}
+
+		@Override
+		public Map.Entry<String, CrawlerResult> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final CrawlerResult result = _result;
+			_result = null;
+			return new AbstractMap.SimpleImmutableEntry<String, CrawlerResult>(_dictionary.getUrl(_next), result);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
 }
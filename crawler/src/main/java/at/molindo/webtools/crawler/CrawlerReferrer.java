@@ -17,25 +17,70 @@ package at.molindo.webtools.crawler;
 
 import java.io.Serializable;
 
+import at.molindo.webtools.crawler.util.UrlDictionary;
+
 public final class CrawlerReferrer implements Serializable, Comparable<CrawlerReferrer> {
 	private static final long serialVersionUID = 1L;
 
 	private final String _referrerUrl;
+	private final transient UrlDictionary _dictionary;
+	private final transient int _referrerId;
 	private final String _href;
+	private final int _depth;
 
+	/**
+	 * a link at depth 1, e.g. if the actual depth isn't known
+	 */
 	public CrawlerReferrer(final String referrerUrl, final String href) {
+		this(referrerUrl, href, 1);
+	}
+
+	/**
+	 * @param depth
+	 *            number of links followed from the start URL to the linked URL
+	 */
+	public CrawlerReferrer(final String referrerUrl, final String href, final int depth) {
+		if (depth < 0) {
+			throw new IllegalArgumentException("depth must not be negative, was " + depth);
+		}
 		_referrerUrl = referrerUrl;
+		_dictionary = null;
+		_referrerId = -1;
+		_href = href;
+		_depth = depth;
+	}
+
+	/**
+	 * a referrer keeping the ID of its URL only, decoded by
+	 * {@link #getReferrerUrl()} on demand
+	 */
+	CrawlerReferrer(final UrlDictionary dictionary, final int referrerId, final String href, final int depth) {
+		if (depth < 0) {
+			throw new IllegalArgumentException("depth must not be negative, was " + depth);
+		}
+		_referrerUrl = null;
+		_dictionary = dictionary;
+		_referrerId = referrerId;
 		_href = href;
+		_depth = depth;
 	}
 
 	public String getReferrerUrl() {
-		return _referrerUrl;
+		return _dictionary == null ? _referrerUrl : _dictionary.getUrl(_referrerId);
 	}
 
 	public String getHref() {
 		return _href;
 	}
 
+	/**
+	 * @return number of links followed from the start URL to the linked URL,
+	 *         not included in {@link #compareTo(CrawlerReferrer)}
+	 */
+	public int getDepth() {
+		return _depth;
+	}
+
 	@Override
 	public int compareTo(final CrawlerReferrer o) {
 		if (o == null) {
@@ -48,8 +93,15 @@ public final class CrawlerReferrer implements Serializable, Comparable<CrawlerRe
 		return getHref().compareTo(o.getHref());
 	}
 
+	/**
+	 * serializes the URL as the dictionary isn't serialized
+	 */
+	private Object writeReplace() {
+		return _dictionary == null ? this : new CrawlerReferrer(getReferrerUrl(), _href, _depth);
+	}
+
 	@Override
 	public String toString() {
-		return _referrerUrl + "|" + _href;
+		return getReferrerUrl() + "|" + _href;
 	}
 }
@@ -15,38 +15,91 @@
  */
 package at.molindo.webtools.crawler;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Date;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import at.molindo.webtools.crawler.util.Interner;
+import at.molindo.webtools.crawler.util.UrlDictionary;
+
 public final class CrawlerResult implements Serializable {
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * content types repeat a lot. Error messages are mostly unique (e.g.
+	 * containing URLs) and would fill the pool, hence aren't interned
+	 */
+	private static final Interner INTERNER = new Interner(4096);
+
 	private String _url;
-	private Date _date = new Date();
+	private transient UrlDictionary _dictionary;
+	private transient int _urlId = -1;
+	private long _timestamp = System.currentTimeMillis();
 	private int _time;
 	private int _status;
 	private String _errorMessage;
 	private String _contentType;
 	private String _text;
-	private SortedSet<CrawlerReferrer> _referrers = Collections.synchronizedSortedSet(new TreeSet<CrawlerReferrer>());
+	private long _contentLength = -1;
+	private long _wireLength = -1;
+	private long _decodedLength = -1;
+	private byte[] _digest;
+	private boolean _cached;
+	private boolean _truncated;
+	private String _duplicateOf;
+	private int _maxReferrers = Integer.MAX_VALUE;
+	private int _referrerCount;
+	private SortedSet<CrawlerReferrer> _referrers;
 
 	public String getUrl() {
-		return _url;
+		final String url = _url;
+		return url != null || _dictionary == null ? url : _dictionary.getUrl(_urlId);
 	}
 
 	public void setUrl(final String url) {
 		_url = url;
+		_dictionary = null;
+		_urlId = -1;
+	}
+
+	/**
+	 * sets the URL by its ID, decoded by {@link #getUrl()} on demand
+	 */
+	void setUrl(final UrlDictionary dictionary, final int id) {
+		_url = null;
+		_dictionary = dictionary;
+		_urlId = id;
+	}
+
+	/**
+	 * @return the ID of the URL in dictionary, -1 if not in dictionary
+	 */
+	int getUrlId(final UrlDictionary dictionary) {
+		if (_dictionary == dictionary && _urlId >= 0) {
+			return _urlId;
+		}
+		final String url = getUrl();
+		return url == null ? -1 : dictionary.getId(url);
 	}
 
 	public Date getDate() {
-		return _date;
+		return new Date(_timestamp);
 	}
 
 	public void setDate(final Date date) {
-		_date = date;
+		_timestamp = date.getTime();
+	}
+
+	public long getTimestamp() {
+		return _timestamp;
+	}
+
+	public void setTimestamp(final long timestamp) {
+		_timestamp = timestamp;
 	}
 
 	public void setStatus(final int status) {
@@ -86,15 +139,166 @@ public final class CrawlerResult implements Serializable {
 	}
 
 	public void setContentType(final String contentType) {
-		_contentType = contentType;
+		_contentType = INTERNER.intern(contentType);
+	}
+
+	/**
+	 * @return number of body bytes if digested, -1 otherwise
+	 */
+	public long getContentLength() {
+		return _contentLength;
+	}
+
+	public void setContentLength(final long contentLength) {
+		_contentLength = contentLength;
+	}
+
+	/**
+	 * @return number of body bytes received, possibly compressed, -1 if
+	 *         unknown
+	 */
+	public long getWireLength() {
+		return _wireLength;
+	}
+
+	public void setWireLength(final long wireLength) {
+		_wireLength = wireLength;
+	}
+
+	/**
+	 * @return number of body bytes after decompression, -1 if the body wasn't
+	 *         read
+	 */
+	public long getDecodedLength() {
+		return _decodedLength;
+	}
+
+	public void setDecodedLength(final long decodedLength) {
+		_decodedLength = decodedLength;
+	}
+
+	/**
+	 * @return digest of the body if computed, see
+	 *         {@link Crawler#setStoreDigest(boolean)}
+	 */
+	public byte[] getDigest() {
+		return _digest;
+	}
+
+	public void setDigest(final byte[] digest) {
+		_digest = digest;
+	}
+
+	/**
+	 * @return true if the server responded 304 and content was taken from the
+	 *         {@link Crawler}'s response cache
+	 */
+	public boolean isCached() {
+		return _cached;
+	}
+
+	public void setCached(final boolean cached) {
+		_cached = cached;
+	}
+
+	/**
+	 * @return true if the body exceeded the maximum length of the
+	 *         {@link BodyPolicy} and only its beginning was processed
+	 */
+	public boolean isTruncated() {
+		return _truncated;
+	}
+
+	public void setTruncated(final boolean truncated) {
+		_truncated = truncated;
+	}
+
+	/**
+	 * @return url of the page with the same or similar content this page is a
+	 *         duplicate of, null if it isn't a duplicate or duplicates aren't
+	 *         detected
+	 * @see Crawler#newDuplicateDetector()
+	 */
+	public String getDuplicateOf() {
+		return _duplicateOf;
+	}
+
+	public void setDuplicateOf(final String duplicateOf) {
+		_duplicateOf = duplicateOf;
+	}
+
+	public int getMaxReferrers() {
+		return _maxReferrers;
+	}
+
+	/**
+	 * @param maxReferrers
+	 *            number of referrers to keep, others are only counted
+	 */
+	public void setMaxReferrers(final int maxReferrers) {
+		if (maxReferrers < 0) {
+			throw new IllegalArgumentException("maxReferrers must not be negative, was " + maxReferrers);
+		}
+		_maxReferrers = maxReferrers;
 	}
 
 	public void setReferrers(final SortedSet<CrawlerReferrer> referrer) {
-		_referrers = referrer;
+		synchronized (this) {
+			_referrers = referrer;
+			_referrerCount = referrer == null ? 0 : referrer.size();
+		}
 	}
 
+	/**
+	 * @return kept referrers, created lazily. Referrers added to this set
+	 *         directly aren't limited by {@link #getMaxReferrers()}
+	 */
 	public SortedSet<CrawlerReferrer> getReferrers() {
-		return _referrers;
+		synchronized (this) {
+			if (_referrers == null) {
+				_referrers = newReferrers();
+			}
+			return _referrers;
+		}
+	}
+
+	/**
+	 * adds a referrer unless {@link #getMaxReferrers()} are kept already
+	 * 
+	 * @return true if referrer was kept
+	 */
+	public boolean addReferrer(final CrawlerReferrer referrer) {
+		synchronized (this) {
+			_referrerCount++;
+			if (_referrers == null) {
+				if (_maxReferrers == 0) {
+					return false;
+				}
+				_referrers = newReferrers();
+			} else if (_referrers.size() >= _maxReferrers) {
+				return false;
+			}
+			return _referrers.add(referrer);
+		}
+	}
+
+	/**
+	 * @return number of referrers added, including those not kept
+	 */
+	public int getReferrerCount() {
+		synchronized (this) {
+			return _referrers == null ? _referrerCount : Math.max(_referrerCount, _referrers.size());
+		}
+	}
+
+	private static SortedSet<CrawlerReferrer> newReferrers() {
+		return Collections.synchronizedSortedSet(new TreeSet<CrawlerReferrer>());
+	}
+
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		// the dictionary isn't serialized
+		_url = getUrl();
+		out.defaultWriteObject();
 	}
 
 }
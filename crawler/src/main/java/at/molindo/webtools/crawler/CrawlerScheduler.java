@@ -0,0 +1,562 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import at.molindo.webtools.crawler.limit.IConcurrencyLimit;
+import at.molindo.webtools.crawler.util.TokenBucket;
+
+/**
+ * politeness layer in front of the {@link Crawler}'s executor. Tasks are queued
+ * per host and handed to the executor only if the host's token bucket has a
+ * token and fewer than maxConnections of its tasks are running. A task counts
+ * as running until its result is reported.
+ * 
+ * The time tasks spend queued is available from {@link #getQueueDelay()} and
+ * {@link #getMaxQueueDelay()}.
+ * 
+ * If {@link #newConcurrencyLimit(String)} returns a limit for a host, it
+ * replaces the host's maxConnections and is adjusted with every result.
+ * 
+ * If the number of workers is limited, hosts share them fairly: a free worker
+ * goes to the waiting host that received the least response time so far,
+ * ties are broken round robin. Hence a slow host gets fewer requests instead
+ * of occupying all workers, similar to deficit round robin.
+ */
+public class CrawlerScheduler extends AbstractExecutorService {
+
+	/**
+	 * weight of a new response time in a host's average
+	 */
+	private static final double COST_WEIGHT = 0.2;
+
+	private final Crawler _crawler;
+	private final ExecutorService _executor;
+	private final Limits _defaults;
+	private final int _workers;
+	private final Map<String, Limits> _limits = new HashMap<String, Limits>();
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _changed = _lock.newCondition();
+	private final Map<String, Host> _hosts = new LinkedHashMap<String, Host>();
+	private final List<Host> _ring = new ArrayList<Host>();
+	private int _next;
+	private int _running;
+	private long _round;
+	/**
+	 * service of the host served last, waiting hosts start from here
+	 */
+	private double _virtual;
+	/**
+	 * average response time of all hosts in milliseconds, negative if unknown
+	 */
+	private double _cost = -1;
+	private final Thread _thread;
+	private boolean _shutdown;
+
+	private long _scheduled;
+	private long _delayNanos;
+	private long _maxDelayNanos;
+
+	/**
+	 * @param requestsPerSecond
+	 *            default request rate per host,
+	 *            {@link Double#POSITIVE_INFINITY} for no rate limit
+	 * @param burst
+	 *            default number of requests per host allowed at once, 1 spaces
+	 *            requests evenly
+	 * @param maxConnections
+	 *            default number of running requests per host
+	 */
+	public CrawlerScheduler(final Crawler crawler, final ExecutorService executor, final double requestsPerSecond,
+			final int burst, final int maxConnections) {
+		this(crawler, executor, requestsPerSecond, burst, maxConnections, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param workers
+	 *            number of running requests over all hosts, usually the
+	 *            executor's threads. {@link Integer#MAX_VALUE} hands tasks to
+	 *            the executor as soon as their host's limits allow.
+	 */
+	public CrawlerScheduler(final Crawler crawler, final ExecutorService executor, final double requestsPerSecond,
+			final int burst, final int maxConnections, final int workers) {
+		if (crawler == null) {
+			throw new NullPointerException("crawler");
+		}
+		if (executor == null) {
+			throw new NullPointerException("executor");
+		}
+		_crawler = crawler;
+		_executor = executor;
+		_defaults = new Limits(requestsPerSecond, burst, maxConnections);
+		if (workers < 1) {
+			throw new IllegalArgumentException("workers must be positive, was " + workers);
+		}
+		_workers = workers;
+
+		_thread = new Thread("crawler-scheduler") {
+
+			@Override
+			public void run() {
+				schedule();
+			}
+		};
+		_thread.start();
+	}
+
+	/**
+	 * overrides default limits for host
+	 * 
+	 * @param host
+	 *            host or any URL of the host
+	 */
+	public void setLimits(final String host, final double requestsPerSecond, final int burst, final int maxConnections) {
+		final Limits limits = new Limits(requestsPerSecond, burst, maxConnections);
+		_lock.lock();
+		try {
+			_limits.put(host(host), limits);
+			final Host h = _hosts.get(host(host));
+			if (h != null) {
+				h.limit(limits);
+			}
+			_changed.signal();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (!(command instanceof CrawlerTask)) {
+			_executor.execute(command);
+			return;
+		}
+
+		final CrawlerTask task = (CrawlerTask) command;
+		final String key = host(task.getUrlString());
+
+		_lock.lock();
+		try {
+			if (_shutdown) {
+				throw new RejectedExecutionException("scheduler shut down");
+			}
+
+			Host host = _hosts.get(key);
+			if (host == null) {
+				final Limits limits = _limits.get(key);
+				_hosts.put(key, host = new Host(_ring.size(), newQueue(key), limits == null ? _defaults : limits,
+						newConcurrencyLimit(key)));
+				_ring.add(host);
+			}
+			if (host._queue.isEmpty()) {
+				// no credit for idle time
+				host._service = Math.max(host._service, _virtual);
+			}
+			host._queue.offer(task);
+			_changed.signal();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the queue of tasks waiting for a host, a {@link CrawlerFrontier}
+	 *         by default
+	 */
+	protected BlockingQueue<Runnable> newQueue(final String host) {
+		return new CrawlerFrontier(_crawler);
+	}
+
+	/**
+	 * @return an adaptive limit of running requests for host or null to use
+	 *         maxConnections, null by default
+	 */
+	protected IConcurrencyLimit newConcurrencyLimit(final String host) {
+		return null;
+	}
+
+	/**
+	 * @return true if result indicates an overloaded host
+	 */
+	protected boolean isDropped(final CrawlerResult result) {
+		final int status = result.getStatus();
+		return result.getErrorMessage() != null || status == 429 || status == 503;
+	}
+
+	/**
+	 * called for every reported result
+	 */
+	void completed(final CrawlerResult result) {
+		final String key = host(result.getUrl());
+		_lock.lock();
+		try {
+			final Host host = _hosts.get(key);
+			if (host == null || host._active == 0) {
+				return;
+			}
+
+			if (host._concurrency != null) {
+				host._concurrency.onSample(result.getTime(), host._active, isDropped(result));
+				final int limit = host._concurrency.getLimit();
+				if (limit != host._maxConnections) {
+					System.out.println("concurrency limit for " + key + " changed from " + host._maxConnections
+							+ " to " + limit + " (" + result.getTime() + " ms, " + host._active + " running)");
+					host._maxConnections = limit;
+				}
+			}
+
+			final long time = Math.max(0, result.getTime());
+			host._cost = host._cost < 0 ? time : host._cost + COST_WEIGHT * (time - host._cost);
+			_cost = _cost < 0 ? time : _cost + COST_WEIGHT * (time - _cost);
+
+			host._active--;
+			_running--;
+			_changed.signal();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * releases the connection of a task that was discarded instead of being
+	 * executed
+	 */
+	void discarded(final CrawlerTask task) {
+		final String key = host(task.getUrlString());
+		_lock.lock();
+		try {
+			final Host host = _hosts.get(key);
+			if (host != null && host._active > 0) {
+				host._active--;
+				_running--;
+				_changed.signal();
+			}
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return current number of running requests allowed for host
+	 */
+	public int getMaxConnections(final String host) {
+		_lock.lock();
+		try {
+			final Host h = _hosts.get(host(host));
+			if (h != null) {
+				return h._maxConnections;
+			}
+			final Limits limits = _limits.get(host(host));
+			return (limits == null ? _defaults : limits)._maxConnections;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	private void schedule() {
+		_lock.lock();
+		try {
+			while (true) {
+				long wait = Long.MAX_VALUE;
+				boolean queued = false;
+				final long round = ++_round;
+
+				while (true) {
+					// the waiting host with the least service, starting after
+					// the host served last
+					Host next = null;
+					final int size = _ring.size();
+					for (int i = 0; i < size; i++) {
+						final Host host = _ring.get((_next + i) % size);
+						if (host._queue.isEmpty()) {
+							continue;
+						}
+						queued = true;
+						if (host._active >= host._maxConnections || host._round == round) {
+							// wait for completion or token
+							continue;
+						}
+						if (next == null || host._service < next._service) {
+							next = host;
+						}
+					}
+					if (next == null || _running >= _workers) {
+						break;
+					}
+
+					final long nanos = next._bucket == null ? 0 : next._bucket.tryAcquire();
+					if (nanos > 0) {
+						wait = Math.min(wait, nanos);
+						next._round = round;
+					} else {
+						dispatch(next, size);
+					}
+				}
+
+				if (!queued && _shutdown) {
+					break;
+				} else if (wait == Long.MAX_VALUE) {
+					_changed.await();
+				} else {
+					_changed.awaitNanos(wait);
+				}
+			}
+		} catch (final InterruptedException e) {
+			System.err.println("scheduler interrupted, dropping queued tasks");
+		} finally {
+			_lock.unlock();
+			_executor.shutdown();
+		}
+	}
+
+	private void dispatch(final Host host, final int size) {
+		final CrawlerTask task = (CrawlerTask) host._queue.poll();
+		host._active++;
+		host._scheduled++;
+		_running++;
+
+		// charged the host's average response time, at least a millisecond
+		_virtual = host._service;
+		host._service += Math.max(1, host._cost >= 0 ? host._cost : _cost);
+		_next = (host._index + 1) % size;
+
+		final long delay = System.nanoTime() - task.getQueueTime();
+		_scheduled++;
+		_delayNanos += delay;
+		_maxDelayNanos = Math.max(_maxDelayNanos, delay);
+
+		try {
+			_executor.execute(task);
+		} catch (final RejectedExecutionException e) {
+			// counted as dispatched already, reporting calls completed()
+			task.fail(e);
+		}
+	}
+
+	/**
+	 * @return average time tasks were queued in milliseconds
+	 */
+	public double getQueueDelay() {
+		_lock.lock();
+		try {
+			return _scheduled == 0 ? 0 : _delayNanos / (double) _scheduled / 1000000.0;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return maximum time a task was queued in milliseconds
+	 */
+	public double getMaxQueueDelay() {
+		_lock.lock();
+		try {
+			return _maxDelayNanos / 1000000.0;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of tasks handed to the executor
+	 */
+	public long getScheduledCount() {
+		_lock.lock();
+		try {
+			return _scheduled;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of tasks of host handed to the executor
+	 */
+	public long getScheduledCount(final String host) {
+		_lock.lock();
+		try {
+			final Host h = _hosts.get(host(host));
+			return h == null ? 0 : h._scheduled;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of running requests allowed over all hosts
+	 */
+	public int getWorkers() {
+		return _workers;
+	}
+
+	/**
+	 * @return number of tasks waiting
+	 */
+	public int getQueuedCount() {
+		_lock.lock();
+		try {
+			int queued = 0;
+			for (final Host host : _hosts.values()) {
+				queued += host._queue.size();
+			}
+			return queued;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * queued tasks are still executed, the executor is shut down afterwards
+	 */
+	@Override
+	public void shutdown() {
+		_lock.lock();
+		try {
+			_shutdown = true;
+			_changed.signal();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		_lock.lock();
+		try {
+			_shutdown = true;
+			for (final Host host : _hosts.values()) {
+				host._queue.drainTo(tasks);
+			}
+			_changed.signal();
+		} finally {
+			_lock.unlock();
+		}
+		tasks.addAll(_executor.shutdownNow());
+		return tasks;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		_lock.lock();
+		try {
+			return _shutdown;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return !_thread.isAlive() && _executor.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		TimeUnit.NANOSECONDS.timedJoin(_thread, deadline - System.nanoTime());
+		if (_thread.isAlive()) {
+			return false;
+		}
+		return _executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return scheme, host and port of url in lower case
+	 */
+	static String host(final String url) {
+		final int scheme = url.indexOf("://");
+		final int start = scheme < 0 ? 0 : scheme + 3;
+		int end = start;
+		while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+			end++;
+		}
+		return url.substring(0, end).toLowerCase();
+	}
+
+	private static final class Limits {
+
+		private final double _requestsPerSecond;
+		private final int _burst;
+		private final int _maxConnections;
+
+		private Limits(final double requestsPerSecond, final int burst, final int maxConnections) {
+			if (!(requestsPerSecond > 0)) {
+				throw new IllegalArgumentException("requestsPerSecond must be positive, was " + requestsPerSecond);
+			}
+			if (burst < 1) {
+				throw new IllegalArgumentException("burst must be positive, was " + burst);
+			}
+			if (maxConnections < 1) {
+				throw new IllegalArgumentException("maxConnections must be positive, was " + maxConnections);
+			}
+
+			_requestsPerSecond = requestsPerSecond;
+			_burst = burst;
+			_maxConnections = maxConnections;
+		}
+	}
+
+	private static final class Host {
+
+		private final int _index;
+		private final BlockingQueue<Runnable> _queue;
+		private final IConcurrencyLimit _concurrency;
+		private TokenBucket _bucket;
+		private int _maxConnections;
+		private int _active;
+		private long _scheduled;
+		/**
+		 * response time charged in milliseconds
+		 */
+		private double _service;
+		/**
+		 * average response time in milliseconds, negative if unknown
+		 */
+		private double _cost = -1;
+		/**
+		 * last round the host was out of tokens
+		 */
+		private long _round;
+
+		private Host(final int index, final BlockingQueue<Runnable> queue, final Limits limits,
+				final IConcurrencyLimit concurrency) {
+			_index = index;
+			_queue = queue;
+			_concurrency = concurrency;
+			limit(limits);
+		}
+
+		private void limit(final Limits limits) {
+			_bucket = Double.isInfinite(limits._requestsPerSecond) ? null : new TokenBucket(
+					limits._requestsPerSecond, limits._burst);
+			_maxConnections = _concurrency == null ? limits._maxConnections : _concurrency.getLimit();
+		}
+	}
+}
@@ -15,104 +15,264 @@
  */
 package at.molindo.webtools.crawler;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringReader;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
-import org.w3c.tidy.Tidy;
-import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
+import at.molindo.utils.io.CharsetUtils;
 import at.molindo.utils.io.StreamUtils;
+import at.molindo.webtools.crawler.cache.CachedResponse;
+import at.molindo.webtools.crawler.cache.IResponseCache;
+import at.molindo.webtools.crawler.io.CharsetDetector;
+import at.molindo.webtools.crawler.io.ContentDecoder;
+import at.molindo.webtools.crawler.io.CountingInputStream;
+import at.molindo.webtools.crawler.io.DigestOutputStream;
+import at.molindo.webtools.crawler.io.LimitedInputStream;
+import at.molindo.webtools.crawler.io.SimHashOutputStream;
+import at.molindo.webtools.crawler.io.TeeInputStream;
+import at.molindo.webtools.crawler.links.ILinkHandler;
+import at.molindo.webtools.crawler.util.UrlDictionary;
 
 public class CrawlerTask implements Runnable {
 
+	private static final String DEFAULT_CHARSET = CharsetUtils.UTF_8_NAME;
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * subclasses overriding the deprecated {@link #parseResult(String)}
+	 */
+	private static final ConcurrentMap<Class<?>, Boolean> STRING_PARSERS = new ConcurrentHashMap<Class<?>, Boolean>();
+
 	private final Crawler _crawler;
-	private final String _urlString;
+	private final UrlDictionary _dictionary;
+	private int _urlId = -1;
+	private String _urlString;
 	private final CrawlerReferrer _referrer;
-	private boolean _tidy = true;
+	private CrawlerContext _context;
+	private long _queueTime = System.nanoTime();
+	private CachedResponse _cached;
+	private List<String> _links;
 
-	public CrawlerTask(final Crawler crawler, final String url, final CrawlerReferrer referrer, final boolean tidy) {
+	public CrawlerTask(final Crawler crawler, final String url, final CrawlerReferrer referrer) {
 		_crawler = crawler;
+		_dictionary = crawler == null || url == null ? null : crawler.getUrlDictionary();
 		_urlString = url;
 		_referrer = referrer;
-		_tidy = tidy;
+	}
+
+	/**
+	 * @deprecated link extraction is configured by
+	 *             {@link Crawler#newLinkExtractor(CrawlerContext)}
+	 */
+	@Deprecated
+	public CrawlerTask(final Crawler crawler, final String url, final CrawlerReferrer referrer, final boolean tidy) {
+		this(crawler, url, referrer);
 	}
 
 	public String getUrlString() {
-		return _urlString;
+		final String url = _urlString;
+		return url != null || _urlId < 0 ? url : _dictionary.getUrl(_urlId);
+	}
+
+	/**
+	 * adds the URL to the {@link UrlDictionary}, queued tasks only keep the
+	 * ID. Called once the task passed all filters, rejected URLs must not
+	 * grow the dictionary.
+	 */
+	void intern() {
+		if (_dictionary != null && _urlId < 0) {
+			_urlId = _dictionary.id(_urlString);
+			_urlString = null;
+		}
+	}
+
+	/**
+	 * @return the URL, kept once decoded as the task is running
+	 */
+	private String url() {
+		String url = _urlString;
+		if (url == null && _urlId >= 0) {
+			_urlString = url = _dictionary.getUrl(_urlId);
+		}
+		return url;
+	}
+
+	/**
+	 * @return a referrer for links found on this task's page
+	 */
+	private CrawlerReferrer newReferrer(final String href, final int depth) {
+		return _urlId >= 0 ? new CrawlerReferrer(_dictionary, _urlId, href, depth) : new CrawlerReferrer(
+				url(), href, depth);
 	}
 
 	public CrawlerReferrer getReferrer() {
 		return _referrer;
 	}
 
+	/**
+	 * @return number of links followed from the start URL to this task's URL
+	 */
+	public int getDepth() {
+		return _referrer == null ? 0 : _referrer.getDepth();
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} when this task was queued
+	 */
+	long getQueueTime() {
+		return _queueTime;
+	}
+
+	void setQueueTime(final long queueTime) {
+		_queueTime = queueTime;
+	}
+
+	/**
+	 * @return the context used to process the current response, only
+	 *         available while {@link #handleResponse(CrawlerResult, HttpResponse)}
+	 *         is running
+	 */
+	protected CrawlerContext getContext() {
+		return _context;
+	}
+
 	@Override
 	public void run() {
-		if (Thread.currentThread() instanceof CrawlerThread == false) {
-			throw new Error("not a cralwer thread");
+		final CrawlerContext context = _crawler.acquireContext();
+		try {
+			final long start = System.currentTimeMillis();
+
+			final HttpGet get;
+			final HttpResponse response;
+			try {
+				get = newHttpGet();
+				response = context.getClient().execute(get);
+			} catch (final IllegalArgumentException e) {
+				// not a valid URI
+				fail(new MalformedURLException(e.getMessage()));
+				return;
+			} catch (final Throwable t) {
+				fail(t);
+				return;
+			}
+
+			try {
+				complete(context, response, (int) (System.currentTimeMillis() - start));
+			} finally {
+				release(get, response);
+			}
+		} finally {
+			_crawler.releaseContext(context);
 		}
+	}
 
-		final CrawlerResult sr = new CrawlerResult();
-		sr.setUrl(_urlString);
-		if (_referrer != null) {
-			sr.getReferrers().add(_referrer);
+	/**
+	 * makes sure the connection is returned to the pool, even if content
+	 * wasn't (fully) consumed
+	 */
+	private static void release(final HttpGet get, final HttpResponse response) {
+		final HttpEntity entity = response.getEntity();
+		if (entity != null) {
+			try {
+				entity.consumeContent();
+			} catch (final IOException e) {
+				get.abort();
+			}
 		}
+	}
 
-		final HttpGet get = new HttpGet(_urlString);
+	protected HttpGet newHttpGet() {
+		final HttpGet get = new HttpGet(url());
 		// get.setFollowRedirects(false);
+		prepareRequest(get);
+		return get;
+	}
 
-		try {
-			final long start = System.currentTimeMillis();
-
-			final HttpResponse response = ((CrawlerThread) Thread.currentThread()).getClient().execute(get);
+	/**
+	 * adds headers for content negotiation and conditional requests
+	 */
+	protected void prepareRequest(final HttpRequest request) {
+		if (_crawler.isCompress()) {
+			request.addHeader("Accept-Encoding", ContentDecoder.ACCEPT_ENCODING);
+		}
+		addValidators(request);
+	}
 
-			sr.setStatus(response.getStatusLine().getStatusCode());
-			sr.setTime((int) (System.currentTimeMillis() - start));
+	/**
+	 * makes request conditional if a response for this task's URL is cached
+	 */
+	protected void addValidators(final HttpRequest request) {
+		final IResponseCache cache = _crawler.getResponseCache();
+		if (cache == null) {
+			return;
+		}
 
-			final Header[] contentTypeHeader = response.getHeaders("Content-Type");
-			sr.setContentType(contentTypeHeader == null || contentTypeHeader.length == 0 ? null : contentTypeHeader[0]
-					.getValue());
+		try {
+			_cached = cache.get(url());
+		} catch (final IOException e) {
+			System.err.println("failed to read cached response for " + url() + ": " + e.getMessage());
+			_cached = null;
+		}
 
-			final String encoding = response.getEntity().getContentEncoding() == null ? null : response.getEntity()
-					.getContentEncoding().getValue();
+		if (_cached != null) {
+			if (_cached.getEtag() != null) {
+				request.addHeader("If-None-Match", _cached.getEtag());
+			}
+			if (_cached.getLastModified() != null) {
+				request.addHeader("If-Modified-Since", _cached.getLastModified());
+			}
+		}
+	}
 
-			final Object content = consumeContent(response.getEntity().getContent(), sr.getContentType(), response
-					.getEntity().getContentLength(), encoding);
+	protected CrawlerResult newCrawlerResult() {
+		final CrawlerResult sr = new CrawlerResult();
+		if (_urlId >= 0) {
+			sr.setUrl(_dictionary, _urlId);
+		} else {
+			sr.setUrl(url());
+		}
+		// the link graph keeps referrers, only count them
+		sr.setMaxReferrers(_crawler.getLinkGraph() != null ? 0 : _crawler.getMaxReferrers());
+		if (_referrer != null) {
+			sr.addReferrer(_referrer);
+		}
+		return sr;
+	}
 
-			if (sr.getStatus() / 100 == 3) {
-				String redirectLocation;
-				final Header[] locationHeader = response.getHeaders("location");
-				if (locationHeader != null && locationHeader.length > 0) {
-					redirectLocation = locationHeader[0].getValue();
-					if (redirectLocation.startsWith("/")) {
-						redirectLocation = _crawler._host + redirectLocation.substring(1);
-					}
-					_crawler.queue(redirectLocation, new CrawlerReferrer(_urlString, response.getStatusLine()
-							.getReasonPhrase() + ": " + _referrer));
-				} else {
-					System.err.println("redirect without location from " + _urlString);
-				}
-			} else if (sr.getStatus() == HttpStatus.SC_OK) {
-				if (content instanceof String) {
-					sr.setText((String) content);
+	/**
+	 * processes a response fetched by any engine and reports the result
+	 */
+	void complete(final HttpResponse response, final int time) {
+		final CrawlerContext context = _crawler.acquireContext();
+		try {
+			complete(context, response, time);
+		} finally {
+			_crawler.releaseContext(context);
+		}
+	}
 
-					if (sr.getContentType().startsWith("text/html")) {
-						parseResult(sr.getText());
-					}
-				}
-			}
+	private void complete(final CrawlerContext context, final HttpResponse response, final int time) {
+		final CrawlerResult sr = newCrawlerResult();
+		_context = context;
+		try {
+			sr.setTime(time);
+			handleResponse(sr, response);
 		} catch (final MalformedURLException e) {
 			sr.setErrorMessage(e.getMessage());
 			// e.printStackTrace();
@@ -125,121 +285,438 @@ public class CrawlerTask implements Runnable {
 		} catch (final Throwable t) {
 			t.printStackTrace();
 		} finally {
+			_context = null;
+			if (_links != null) {
+				// links before the report, FINISH follows the last one
+				_crawler.getLinkGraph().addLinks(url(), _links);
+				_links = null;
+			}
 			_crawler.report(sr);
 			// response.releaseConnection();
 		}
-
 	}
 
-	private Object consumeContent(final InputStream content, String contentType, final long contentLength,
-			final String encoding) throws IOException {
-		if (contentType == null) {
-			contentType = "";
+	/**
+	 * reports a request that failed before a response was received
+	 */
+	void fail(final Throwable t) {
+		final CrawlerResult sr = newCrawlerResult();
+		try {
+			if (t instanceof IOException) {
+				sr.setErrorMessage(t.getMessage());
+				if (t instanceof MalformedURLException == false) {
+					t.printStackTrace();
+				}
+			} else {
+				t.printStackTrace();
+			}
+		} finally {
+			_crawler.report(sr);
 		}
+	}
 
-		try {
-			if (contentType.startsWith("text/")) {
-				final BufferedReader r = new BufferedReader(new InputStreamReader(content, encoding == null ? "utf-8"
-						: encoding));
+	protected void handleResponse(final CrawlerResult sr, final HttpResponse response) throws IOException,
+			SAXException {
+		sr.setStatus(response.getStatusLine().getStatusCode());
 
-				String line;
-				final StringBuilder buf = new StringBuilder();
+		if (sr.getStatus() == HttpStatus.SC_NOT_MODIFIED && _cached != null) {
+			consumeCached(sr);
+			return;
+		}
 
-				while ((line = r.readLine()) != null) {
-					buf.append(line).append("\n");
+		final Header[] contentTypeHeader = response.getHeaders("Content-Type");
+		sr.setContentType(contentTypeHeader == null || contentTypeHeader.length == 0 ? null : contentTypeHeader[0]
+				.getValue());
+
+		final HttpEntity entity = response.getEntity();
+		if (entity != null) {
+			// checked first, entities stop streaming once content was obtained
+			final boolean streaming = entity.isStreaming();
+			final InputStream raw = entity.getContent();
+			final CountingInputStream wire = new CountingInputStream(raw);
+			InputStream content = wire;
+			boolean aborted = false;
+			try {
+				if (sr.getStatus() == HttpStatus.SC_OK) {
+					final BodyPolicy policy = _crawler.getBodyPolicy();
+					final BodyPolicy.Action action = policy.getAction(sr.getContentType());
+
+					if (action == BodyPolicy.Action.SKIP) {
+						aborted = streaming && skip(entity, raw, wire, policy.getDrainLength());
+					} else if (action == BodyPolicy.Action.ASSET && !_crawler.isStoreDigest()) {
+						// length only
+						drain(wire);
+					} else if (action == BodyPolicy.Action.ASSET
+							&& entity instanceof AsyncCrawlerExecutor.ResponseEntity) {
+						// digested while received
+						final DigestOutputStream digest = ((AsyncCrawlerExecutor.ResponseEntity) entity).getDigest();
+						sr.setDecodedLength(digest.getLength());
+						sr.setContentLength(digest.getLength());
+						sr.setDigest(digest.digest());
+						cache(sr, response, DEFAULT_CHARSET, null);
+					} else {
+						final Header contentEncoding = response.getFirstHeader("Content-Encoding");
+						content = ContentDecoder.decode(wire, contentEncoding == null ? null : contentEncoding
+								.getValue());
+
+						final CountingInputStream decoded = new CountingInputStream(content);
+						final LimitedInputStream limited = action == BodyPolicy.Action.ASSET ? null
+								: new LimitedInputStream(decoded, policy.getMaxTextLength());
+						final InputStream in = new BufferedInputStream(limited == null ? decoded : limited,
+								BUFFER_SIZE);
+						final String charset = isText(sr) ? CharsetDetector.detect(in, sr.getContentType(),
+								DEFAULT_CHARSET) : DEFAULT_CHARSET;
+
+						final boolean cacheable = isCacheable(response);
+						final byte[] body = consumeContent(sr, in, content == wire ? entity.getContentLength()
+								: -1, charset, cacheable);
+						drain(in);
+						sr.setDecodedLength(decoded.getCount());
+
+						if (limited != null && limited.isTruncated()) {
+							sr.setTruncated(true);
+							aborted = abort(raw);
+						}
+						cache(sr, response, charset, body);
+					}
 				}
-				if (buf.length() > 0) {
-					buf.setLength(buf.length() - 1);
+			} finally {
+				// releases the connection, possibly closed by the parser already
+				StreamUtils.close(content);
+				if (!streaming) {
+					// received by the executor already
+					sr.setWireLength(entity.getContentLength());
+				} else {
+					sr.setWireLength(aborted || wire.getCount() > 0 ? wire.getCount() : entity.getContentLength());
+				}
+			}
+		}
+
+		if (sr.getStatus() / 100 == 3) {
+			final Header[] locationHeader = response.getHeaders("location");
+			if (locationHeader != null && locationHeader.length > 0) {
+				final String redirectLocation = _crawler.getUrlCanonicalizer().resolve(url(),
+						locationHeader[0].getValue());
+				if (redirectLocation != null) {
+					final String reason = response.getStatusLine().getReasonPhrase();
+					// a redirect target takes the place of this URL, at the same depth
+					if (_crawler.queueCanonical(redirectLocation, newReferrer(reason + ": " + _referrer, getDepth()))
+							&& _crawler.isInScope(redirectLocation)) {
+						linked(redirectLocation);
+					}
 				}
-				return buf.toString();
 			} else {
-				final ByteArrayOutputStream out = new ByteArrayOutputStream(contentLength > 0
-						&& contentLength <= Integer.MAX_VALUE ? (int) contentLength : 4096);
-				StreamUtils.copy(content, out, 4096);
-				final byte[] bytes = out.toByteArray();
-				out.flush();
-				out.close();
-				return bytes;
+				System.err.println("redirect without location from " + url());
 			}
-		} finally {
+		}
+	}
+
+	/**
+	 * reads a body that isn't needed if it is short, drops the connection
+	 * otherwise
+	 * 
+	 * @return true if the connection was dropped
+	 */
+	private static boolean skip(final HttpEntity entity, final InputStream raw, final InputStream wire,
+			final long drainLength) throws IOException {
+		final long length = entity.getContentLength();
+		if ((length < 0 || length > drainLength) && abort(raw)) {
+			return true;
+		}
+		drain(wire);
+		return false;
+	}
+
+	/**
+	 * drops the connection of a response that wasn't read completely
+	 * 
+	 * @return true if the connection was dropped
+	 */
+	private static boolean abort(final InputStream raw) {
+		if (raw instanceof ConnectionReleaseTrigger) {
 			try {
-				content.close();
+				((ConnectionReleaseTrigger) raw).abortConnection();
 			} catch (final IOException e) {
-				// ignore
+				// closed anyway
 			}
+			return true;
 		}
+		return false;
 	}
 
-	protected void parseResult(final String string) throws SAXException, IOException {
+	/**
+	 * @return number of body bytes needed to handle response, used by
+	 *         executors that receive bodies before the task processes them
+	 */
+	long getBodyLimit(final HttpResponse response) {
+		if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+			return 0;
+		}
 
-		InputSource inputSource;
-		if (_tidy) {
-			final Tidy tidy = new Tidy();
-			tidy.setXHTML(true);
-			tidy.setErrfile("/dev/null");
-			final ByteArrayInputStream in = new ByteArrayInputStream(string.getBytes());
-			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final BodyPolicy policy = _crawler.getBodyPolicy();
+		final Header contentType = response.getFirstHeader("Content-Type");
+		switch (policy.getAction(contentType == null ? null : contentType.getValue())) {
+		case PARSE:
+		case TEXT:
+			// one more byte to detect truncation. Compressed content may
+			// exceed its decoded length by a few bytes per 64k block.
+			final long max = policy.getMaxTextLength();
+			return response.containsHeader("Content-Encoding") ? max + 1 + max / 8192 + 64 : max + 1;
+		default:
+			// assets are never buffered, see isDigestedAsset(HttpResponse)
+			return 0;
+		}
+	}
 
-			tidy.parse(in, out);
+	/**
+	 * @return true if the body of response is an asset to digest while it is
+	 *         received
+	 */
+	boolean isDigestedAsset(final HttpResponse response) {
+		if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || !_crawler.isStoreDigest()) {
+			return false;
+		}
+		final Header contentType = response.getFirstHeader("Content-Type");
+		final BodyPolicy policy = _crawler.getBodyPolicy();
+		return policy.getAction(contentType == null ? null : contentType.getValue()) == BodyPolicy.Action.ASSET;
+	}
 
-			inputSource = new InputSource(new ByteArrayInputStream(out.toByteArray()));
-		} else {
-			inputSource = new InputSource(new StringReader(string));
+	/**
+	 * @return true if the body of response isn't needed and too long to read
+	 */
+	boolean isAbortable(final HttpResponse response) {
+		if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+			return false;
 		}
+		final BodyPolicy policy = _crawler.getBodyPolicy();
+		final Header contentType = response.getFirstHeader("Content-Type");
+		if (policy.getAction(contentType == null ? null : contentType.getValue()) != BodyPolicy.Action.SKIP) {
+			return false;
+		}
+		final long length = response.getEntity() == null ? 0 : response.getEntity().getContentLength();
+		return length < 0 || length > policy.getDrainLength();
+	}
 
-		((CrawlerThread) Thread.currentThread()).getParser().parse(inputSource, new DefaultHandler() {
+	/**
+	 * @return true if response has validators and a cache is available
+	 */
+	private boolean isCacheable(final HttpResponse response) {
+		return _crawler.getResponseCache() != null
+				&& (response.containsHeader("ETag") || response.containsHeader("Last-Modified"));
+	}
 
-			@Override
-			public void startElement(final String uri, final String localName, final String name,
-					final Attributes attributes) throws SAXException {
-
-				if ("a".equals(name)) {
-					String href = attributes.getValue("href");
-					if (href != null) {
-						final int anchorIndex = href.lastIndexOf("#");
-						if (anchorIndex > 0) {
-							href = href.substring(0, anchorIndex);
-						} else if (anchorIndex == 0) {
-							// anchor on same page: ignore
-							return;
-						}
+	/**
+	 * stores validators and body of the current response, removes a stale
+	 * cache entry if the response has no validators
+	 */
+	private void cache(final CrawlerResult sr, final HttpResponse response, final String encoding,
+			final byte[] body) {
+		final IResponseCache cache = _crawler.getResponseCache();
+		if (cache == null) {
+			return;
+		}
+		try {
+			if (isCacheable(response) && !sr.isTruncated()) {
+				final Header etag = response.getFirstHeader("ETag");
+				final Header lastModified = response.getFirstHeader("Last-Modified");
+				cache.put(url(), new CachedResponse(etag == null ? null : etag.getValue(),
+						lastModified == null ? null : lastModified.getValue(), sr.getContentType(), encoding, sr
+								.getContentLength(), sr.getDigest()), body);
+			} else if (_cached != null) {
+				cache.remove(url());
+			}
+		} catch (final IOException e) {
+			System.err.println("failed to cache response for " + url() + ": " + e.getMessage());
+		}
+	}
 
-						if (href != null) {
-							final CrawlerReferrer referrer = new CrawlerReferrer(_urlString, href);
-							if (!href.startsWith("http://")) {
-								if (href.startsWith("/")) {
-									_crawler.queue(_crawler._host + href.substring(1), referrer);
-								} else if (!href.startsWith("javascript:") && !href.startsWith("ftp:")
-										&& !href.startsWith("mailto:")) {
-									String relativeTo = _urlString.substring(0, _urlString.lastIndexOf("/"));
-									boolean one = false, two = false;
-									while ((two = href.startsWith("../")) || (one = href.startsWith("./"))) {
-										if (two) {
-											href = href.substring(3);
-											relativeTo = relativeTo.substring(0, relativeTo.lastIndexOf("/"));
-										} else if (one) {
-											href = href.substring(2);
-										}
-									}
-
-									_crawler.queue(relativeTo + "/" + href, referrer);
-								}
-							} else if (href.startsWith(_crawler._host)) {
-								_crawler.queue(href, referrer);
-							}
-						}
-					}
+	/**
+	 * processes the cached copy of a page that wasn't modified since the last
+	 * crawl. Status remains 304, but links, text and digest are taken from the
+	 * cached body.
+	 */
+	private void consumeCached(final CrawlerResult sr) throws IOException, SAXException {
+		sr.setCached(true);
+		sr.setContentType(_cached.getContentType());
+
+		final InputStream body = _crawler.getResponseCache().openBody(url());
+		if (body == null) {
+			if (_crawler.isStoreDigest()) {
+				sr.setContentLength(_cached.getContentLength());
+				sr.setDigest(_cached.getDigest());
+			}
+			return;
+		}
+		try {
+			consumeContent(sr, body, _cached.getContentLength(), _cached.getEncoding(), false);
+		} finally {
+			StreamUtils.close(body);
+		}
+	}
+
+	/**
+	 * extracts links while the content arrives. Text and digest are only kept
+	 * if the {@link Crawler} stores them. If the {@link Crawler} detects
+	 * duplicates, HTML is buffered and links are only extracted from pages
+	 * that aren't duplicates.
+	 * 
+	 * @param keepBody
+	 *            whether to return the body of text content
+	 * @return the body if kept, null otherwise
+	 */
+	private byte[] consumeContent(final CrawlerResult sr, final InputStream content, final long contentLength,
+			final String encoding, final boolean keepBody) throws IOException, SAXException {
+		final String contentType = sr.getContentType() == null ? "" : sr.getContentType();
+		final boolean text = contentType.startsWith("text/");
+		if (!text && !_crawler.isStoreDigest()) {
+			return null;
+		}
+		final boolean html = contentType.startsWith("text/html");
+		final DuplicateDetector detector = html ? _crawler.getDuplicateDetector() : null;
+
+		ByteArrayOutputStream body = null;
+		DigestOutputStream digest = null;
+		SimHashOutputStream simHash = null;
+		InputStream in = content;
+		if (text && (keepBody || detector != null || _crawler.isStoreText())) {
+			body = new ByteArrayOutputStream(contentLength > 0 && contentLength <= Integer.MAX_VALUE ? (int) contentLength
+					: 4096);
+			in = new TeeInputStream(in, body);
+		}
+		if (detector != null || _crawler.isStoreDigest()) {
+			digest = new DigestOutputStream();
+			in = new TeeInputStream(in, digest);
+		}
+		if (detector != null) {
+			simHash = new SimHashOutputStream();
+			in = new TeeInputStream(in, simHash);
+		}
+
+		byte[] md = null;
+		try {
+			if (detector != null) {
+				drain(in);
+				md = digest.digest();
+				final String duplicateOf = simHash.getFeatureCount() == 0 ? detector.add(url(), md) : detector
+						.add(url(), md, simHash.simHash());
+				sr.setDuplicateOf(duplicateOf);
+				if (duplicateOf == null) {
+					parseResult(new ByteArrayInputStream(body.toByteArray()), encoding);
 				}
+			} else if (html) {
+				parseResult(in, encoding);
 			}
+		} finally {
+			if (body != null || digest != null) {
+				drain(in);
+			}
+			if (body != null && _crawler.isStoreText()) {
+				sr.setText(body.toString(encoding));
+			}
+			if (digest != null && _crawler.isStoreDigest()) {
+				sr.setContentLength(digest.getLength());
+				sr.setDigest(md == null ? digest.digest() : md);
+			}
+		}
+		return body != null && keepBody ? body.toByteArray() : null;
+	}
+
+	private static boolean isText(final CrawlerResult sr) {
+		return sr.getContentType() != null && sr.getContentType().startsWith("text/");
+	}
+
+	private static void drain(final InputStream in) throws IOException {
+		final byte[] buf = new byte[4096];
+		while (in.read(buf) != -1) {
+			// discard
+		}
+	}
+
+	/**
+	 * @deprecated override {@link #parseResult(InputStream, String)} instead.
+	 *             Still called if overridden, buffering the whole document
+	 */
+	@Deprecated
+	protected void parseResult(final String string) throws SAXException, IOException {
+		extractLinks(new ByteArrayInputStream(string.getBytes(CharsetUtils.UTF_8_NAME)), CharsetUtils.UTF_8_NAME);
+	}
+
+	/**
+	 * parses links from a HTML document as it is read from the stream
+	 */
+	protected void parseResult(final InputStream in, final String encoding) throws SAXException, IOException {
+		if (isStringParser(getClass())) {
+			final ByteArrayOutputStream buf = new ByteArrayOutputStream(BUFFER_SIZE);
+			final byte[] bytes = new byte[4096];
+			int n;
+			while ((n = in.read(bytes)) != -1) {
+				buf.write(bytes, 0, n);
+			}
+			parseResult(buf.toString(encoding));
+		} else {
+			extractLinks(in, encoding);
+		}
+	}
+
+	private void extractLinks(final InputStream in, final String encoding) throws SAXException, IOException {
+		getContext().getLinkExtractor().extract(in, encoding, new ILinkHandler() {
 
 			@Override
-			public InputSource resolveEntity(final String publicId, String systemId) throws IOException, SAXException {
-				if ("http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd".equals(systemId)) {
-					systemId = getClass().getClassLoader().getResource("xhtml1-transitional.dtd").toString();
+			public void link(final String href) {
+				CrawlerTask.this.link(href);
+			}
+		});
+	}
+
+	/**
+	 * @return true if type overrides the deprecated
+	 *         {@link #parseResult(String)}
+	 */
+	private static boolean isStringParser(final Class<?> type) {
+		Boolean parser = STRING_PARSERS.get(type);
+		if (parser == null) {
+			parser = Boolean.FALSE;
+			for (Class<?> c = type; c != CrawlerTask.class; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("parseResult", String.class);
+					parser = Boolean.TRUE;
+					break;
+				} catch (final NoSuchMethodException e) {
+					// not declared here
 				}
+			}
+			STRING_PARSERS.put(type, parser);
+		}
+		return parser.booleanValue();
+	}
 
-				return _crawler.getDtdMemoryCache().resolveEntity(publicId, systemId);
+	/**
+	 * queues the target of a link found on this task's page
+	 */
+	protected void link(final String href) {
+		if (href.startsWith("#")) {
+			// anchor on same page: ignore
+			return;
+		}
+
+		final String url = _crawler.getUrlCanonicalizer().resolve(url(), href);
+		if (url != null && _crawler.isInScope(url)) {
+			if (_crawler.queueCanonical(url, newReferrer(href, getDepth() + 1))) {
+				linked(url);
 			}
-		});
+		}
+	}
+
+	/**
+	 * collects links passing the filters for the {@link LinkGraph}, added at
+	 * once after the page was processed
+	 */
+	private void linked(final String url) {
+		if (_crawler.getLinkGraph() != null) {
+			if (_links == null) {
+				_links = new ArrayList<String>();
+			}
+			_links.add(url);
+		}
 	}
 }
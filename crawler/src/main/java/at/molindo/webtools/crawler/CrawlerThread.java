@@ -15,53 +15,27 @@
  */
 package at.molindo.webtools.crawler;
 
-import java.net.MalformedURLException;
-import java.net.URL;
-
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.xml.sax.SAXException;
 
 public final class CrawlerThread extends Thread {
-	private final Crawler _crawler;
-	private SAXParser _parser;
-	private DefaultHttpClient _client;
+	private final CrawlerContext _context;
 
 	CrawlerThread(final Crawler crawler, final Runnable r) {
 		super(r);
-		_crawler = crawler;
-		try {
-			_parser = _crawler.getParserFactory().newSAXParser();
-			_client = new DefaultHttpClient();
-
-			final String username = _crawler.getUsername();
-			final String password = _crawler.getPassword();
-
-			if (username != null && password != null) {
-				_client.getCredentialsProvider().setCredentials(
-						new AuthScope(new URL(_crawler.getHost()).getHost(), AuthScope.ANY_PORT),
-						new UsernamePasswordCredentials(username, password));
-			}
+		_context = crawler.newCrawlerContext();
+	}
 
-		} catch (final ParserConfigurationException e) {
-			throw new RuntimeException("failed to create thread", e);
-		} catch (final SAXException e) {
-			throw new RuntimeException("failed to create thread", e);
-		} catch (MalformedURLException e) {
-			throw new RuntimeException("failed to create thread", e);
-		}
+	public CrawlerContext getContext() {
+		return _context;
 	}
 
 	public SAXParser getParser() {
-		return _parser;
+		return _context.getParser();
 	}
 
 	public HttpClient getClient() {
-		return _client;
+		return _context.getClient();
 	}
 }
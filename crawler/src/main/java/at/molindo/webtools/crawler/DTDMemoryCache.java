@@ -17,59 +17,361 @@ package at.molindo.webtools.crawler;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
+import java.net.URLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 
-import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.EntityResolver2;
+
+/**
+ * thread-safe in-memory cache for DTDs and entity sets, shared by all parsers
+ * of a {@link Crawler}. The XHTML 1.0 transitional DTD and its entity sets are
+ * preloaded from the classpath, anything else is fetched once unless external
+ * entities are disabled.
+ *
+ * Each DTD is compiled into the declarations that change what a
+ * non-validating parser reports - general entities and attributes that are
+ * defaulted or normalized - with all parameter entities expanded. Parsers scan
+ * this small flat document instead of the original DTD and its entity sets for
+ * every page. Entity sets are served as they are, e.g. when resolved by a
+ * parser that doesn't support {@link EntityResolver2}.
+ */
+public class DTDMemoryCache implements EntityResolver2 {
 
-public class DTDMemoryCache implements EntityResolver {
-	private final Map<Object, byte[]> cache = new HashMap<Object, byte[]>();
+	public static final String XHTML1_TRANSITIONAL_PUBLIC_ID = "-//W3C//DTD XHTML 1.0 Transitional//EN";
+	public static final String XHTML1_TRANSITIONAL_SYSTEM_ID = "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd";
 
-	// Remember to handle synchronization issues !!
-	// A dumb but easy implementation would synchronize the whole
-	// resolveEntity method
-	@Override
-	public synchronized InputSource resolveEntity(final String publicIdP, String systemIdP) throws SAXException {
-		// The PUBLIC id is the key to our cache
-		byte[] resultP = cache.get(publicIdP);
-
-		if (resultP == null) {
-			final String workingDir = "file://" + System.getProperty("user.dir") + "/";
-			if (systemIdP.startsWith(workingDir)) {
-				systemIdP = systemIdP.replace(workingDir, "http://www.w3.org/TR/xhtml1/DTD/");
+	/**
+	 * public ids of XHTML DTDs resolved to the transitional DTD if external
+	 * entities are disabled. It declares the same entities and a superset of
+	 * the elements and attributes of strict and frameset.
+	 */
+	private static final String XHTML_PUBLIC_ID_PREFIX = "-//W3C//DTD XHTML 1.";
+
+	private static final String DTD = "[dtd]";
+
+	private static final String DECLARATION_HANDLER = "http://xml.org/sax/properties/declaration-handler";
+
+	private static final String[][] PRELOADED = {
+			{ XHTML1_TRANSITIONAL_PUBLIC_ID, XHTML1_TRANSITIONAL_SYSTEM_ID, "xhtml1-transitional.dtd" },
+			{ "-//W3C//ENTITIES Latin 1 for XHTML//EN", "http://www.w3.org/TR/xhtml1/DTD/xhtml-lat1.ent",
+					"xhtml-lat1.ent" },
+			{ "-//W3C//ENTITIES Symbols for XHTML//EN", "http://www.w3.org/TR/xhtml1/DTD/xhtml-symbol.ent",
+					"xhtml-symbol.ent" },
+			{ "-//W3C//ENTITIES Special for XHTML//EN", "http://www.w3.org/TR/xhtml1/DTD/xhtml-special.ent",
+					"xhtml-special.ent" } };
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private static final int TIMEOUT = 10000;
+
+	private final boolean _external;
+	private final SAXParserFactory _parserFactory = SAXParserFactory.newInstance();
+
+	// keyed by public and system id
+	private final ConcurrentMap<String, byte[]> _entities = new ConcurrentHashMap<String, byte[]>();
+	private final ConcurrentMap<String, byte[]> _compiled = new ConcurrentHashMap<String, byte[]>();
+
+	public DTDMemoryCache() {
+		this(true);
+	}
+
+	/**
+	 * @param external
+	 *            false to never fetch anything from the network. Unknown
+	 *            entities resolve to an empty document, unknown XHTML DTDs to
+	 *            the bundled transitional DTD.
+	 */
+	public DTDMemoryCache(final boolean external) {
+		_external = external;
+		for (final String[] preloaded : PRELOADED) {
+			final byte[] content = load(preloaded[2]);
+			_entities.put(preloaded[0], content);
+			_entities.put(preloaded[1], content);
+		}
+	}
+
+	private static byte[] load(final String resource) {
+		final InputStream in = DTDMemoryCache.class.getClassLoader().getResourceAsStream(resource);
+		if (in == null) {
+			throw new IllegalStateException("missing resource " + resource);
+		}
+		try {
+			return read(in);
+		} catch (final IOException e) {
+			throw new IllegalStateException("failed to load resource " + resource, e);
+		}
+	}
+
+	private static byte[] read(final InputStream in) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[4096];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
 			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	public boolean isExternal() {
+		return _external;
+	}
+
+	/**
+	 * resolves an entity as it is, without compiling it
+	 */
+	@Override
+	public InputSource resolveEntity(final String publicId, final String systemId) throws SAXException, IOException {
+		return source(publicId, systemId, entity(publicId, systemId));
+	}
+
+	/**
+	 * resolves DTDs to their compiled declarations, other entities as they are
+	 */
+	@Override
+	public InputSource resolveEntity(final String name, final String publicId, final String baseURI,
+			final String systemId) throws SAXException, IOException {
+		final String absoluteSystemId = absolute(baseURI, systemId);
+		if (isDtd(name, publicId, absoluteSystemId)) {
+			return source(publicId, absoluteSystemId, compiled(publicId, absoluteSystemId));
+		} else {
+			return resolveEntity(publicId, absoluteSystemId);
+		}
+	}
+
+	/**
+	 * the JDK's parser passes null instead of "[dtd]" as name of the external
+	 * subset, so the text class of the public id or the file extension has to
+	 * do
+	 */
+	private static boolean isDtd(final String name, final String publicId, final String systemId) {
+		if (name != null) {
+			return DTD.equals(name);
+		}
+		if (publicId != null) {
+			return publicId.indexOf("//DTD ") >= 0;
+		}
+		return systemId != null && systemId.endsWith(".dtd");
+	}
+
+	@Override
+	public InputSource getExternalSubset(final String name, final String baseURI) {
+		return null;
+	}
+
+	private InputSource source(final String publicId, final String systemId, final byte[] content) {
+		final InputSource source = new InputSource(new ByteArrayInputStream(content));
+		source.setPublicId(publicId);
+		source.setSystemId(systemId);
+		return source;
+	}
+
+	private byte[] compiled(final String publicId, final String systemId) throws SAXException, IOException {
+		byte[] content = get(_compiled, publicId, systemId);
+		if (content != null) {
+			return content;
+		}
+
+		String dtdPublicId = publicId;
+		String dtdSystemId = systemId;
+		if (!_external && publicId != null && publicId.startsWith(XHTML_PUBLIC_ID_PREFIX)
+				&& get(_entities, publicId, systemId) == null) {
+			dtdPublicId = XHTML1_TRANSITIONAL_PUBLIC_ID;
+			dtdSystemId = XHTML1_TRANSITIONAL_SYSTEM_ID;
+			content = get(_compiled, dtdPublicId, dtdSystemId);
+		}
+
+		if (content == null) {
+			// concurrent misses may compile the same DTD twice, first one wins
+			content = put(_compiled, dtdPublicId, dtdSystemId, compile(dtdPublicId, dtdSystemId));
+		}
+		return put(_compiled, publicId, systemId, content);
+	}
+
+	private byte[] entity(final String publicId, final String systemId) throws SAXException, IOException {
+		final byte[] content = get(_entities, publicId, systemId);
+		if (content != null) {
+			return content;
+		}
+		if (!_external || systemId == null) {
+			return EMPTY;
+		}
+		return put(_entities, publicId, systemId, fetch(systemId));
+	}
+
+	private static byte[] get(final ConcurrentMap<String, byte[]> map, final String publicId, final String systemId) {
+		byte[] content = publicId == null ? null : map.get(publicId);
+		if (content == null && systemId != null) {
+			content = map.get(systemId);
+		}
+		return content;
+	}
 
-			try {
-				// The SYSTEM id is the URL used to fetch the entity
-				final URL urlP = new URL(systemIdP);
-				final InputStream isP = urlP.openConnection().getInputStream();
-				final ByteArrayOutputStream baosP = new ByteArrayOutputStream();
-
-				// We copy the input stream into the output stream
-				// Fast buffer implementation
-				// I could have used BufferInputStream and OutputStream
-				// But it's much slower
-				int readP;
-				final byte[] bufferP = new byte[1024];
-				while ((readP = isP.read(bufferP)) > -1) {
-					baosP.write(bufferP, 0, readP);
-				}
-
-				resultP = baosP.toByteArray();
-
-				// We store the result in the cache.
-				cache.put(publicIdP, resultP);
-			} catch (final Exception eP) {
-				throw new SAXException(eP);
+	private static byte[] put(final ConcurrentMap<String, byte[]> map, final String publicId,
+			final String systemId, byte[] content) {
+		if (publicId != null) {
+			final byte[] prev = map.putIfAbsent(publicId, content);
+			if (prev != null) {
+				content = prev;
 			}
+		}
+		if (systemId != null) {
+			map.putIfAbsent(systemId, content);
+		}
+		return content;
+	}
+
+	private static byte[] fetch(final String systemId) throws SAXException {
+		try {
+			final URLConnection connection = new URL(systemId).openConnection();
+			connection.setConnectTimeout(TIMEOUT);
+			connection.setReadTimeout(TIMEOUT);
+			return read(connection.getInputStream());
+		} catch (final IOException e) {
+			throw new SAXException("failed to fetch " + systemId, e);
+		}
+	}
+
+	private static String absolute(final String baseURI, final String systemId) {
+		if (baseURI == null || systemId == null) {
+			return systemId;
+		}
+		try {
+			return new URI(baseURI).resolve(new URI(systemId)).toString();
+		} catch (final URISyntaxException e) {
+			return systemId;
+		} catch (final IllegalArgumentException e) {
+			return systemId;
+		}
+	}
+
+	/**
+	 * parses a DTD with all its parameter entities and writes the reported
+	 * declarations into a single flat DTD
+	 */
+	byte[] compile(final String publicId, final String systemId) throws SAXException, IOException {
+		final StringBuilder doc = new StringBuilder("<!DOCTYPE x");
+		if (publicId != null) {
+			doc.append(" PUBLIC ");
+			quote(doc, publicId);
 		} else {
-			// System.err.println("found "+publicIdP+ " in cache");
+			doc.append(" SYSTEM");
 		}
+		doc.append(' ');
+		quote(doc, systemId == null ? "" : systemId);
+		doc.append("><x/>");
 
-		return new InputSource(new ByteArrayInputStream(resultP));
+		final Compiler compiler = new Compiler();
+		try {
+			final SAXParser parser = _parserFactory.newSAXParser();
+			parser.setProperty(DECLARATION_HANDLER, compiler);
+			parser.parse(new InputSource(new StringReader(doc.toString())), compiler);
+		} catch (final ParserConfigurationException e) {
+			throw new SAXException("failed to create parser", e);
+		}
+		try {
+			return compiler._out.toString().getBytes("UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			throw new RuntimeException("UTF-8 not supported", e);
+		}
+	}
+
+	private static void quote(final StringBuilder buf, final String literal) {
+		final char quote = literal.indexOf('"') >= 0 ? '\'' : '"';
+		buf.append(quote).append(literal).append(quote);
+	}
+
+	/**
+	 * appends a literal with markup and non-ASCII characters escaped, so that
+	 * it is read back as the reported replacement text
+	 */
+	private static void escape(final StringBuilder buf, final String value) {
+		buf.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '&' || c == '%' || c == '<' || c > 126) {
+				final int cp = value.codePointAt(i);
+				buf.append("&#").append(cp).append(';');
+				i += Character.charCount(cp) - 1;
+			} else {
+				buf.append(c);
+			}
+		}
+		buf.append('"');
+	}
+
+	private final class Compiler extends DefaultHandler2 {
+
+		private final StringBuilder _out = new StringBuilder(4096);
+
+		@Override
+		public InputSource resolveEntity(final String name, final String publicId, final String baseURI,
+				final String systemId) throws SAXException, IOException {
+			return DTDMemoryCache.this.resolveEntity(publicId, absolute(baseURI, systemId));
+		}
+
+		@Override
+		public void attributeDecl(final String eName, final String aName, final String type, final String mode,
+				final String value) {
+			if (value == null && "CDATA".equals(type)) {
+				// neither defaulted nor normalized
+				return;
+			}
+			_out.append("<!ATTLIST ").append(eName).append(' ').append(aName).append(' ').append(type);
+			if (mode != null) {
+				_out.append(' ').append(mode);
+			}
+			if (value != null) {
+				_out.append(' ');
+				escape(_out, value);
+			}
+			_out.append(">\n");
+		}
+
+		@Override
+		public void internalEntityDecl(final String name, final String value) {
+			if (name.startsWith("%")) {
+				// already expanded
+				return;
+			}
+			_out.append("<!ENTITY ").append(name).append(' ');
+			escape(_out, value);
+			_out.append(">\n");
+		}
+
+		@Override
+		public void externalEntityDecl(final String name, final String publicId, final String systemId) {
+			if (name.startsWith("%")) {
+				return;
+			}
+			_out.append("<!ENTITY ").append(name);
+			if (publicId != null) {
+				_out.append(" PUBLIC ");
+				quote(_out, publicId);
+			} else {
+				_out.append(" SYSTEM");
+			}
+			_out.append(' ');
+			quote(_out, systemId);
+			_out.append(">\n");
+		}
 	}
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * finds pages with the same digest or a SimHash within a maximum Hamming
+ * distance of a previously added page. Near duplicates are found by splitting
+ * SimHashes into distance + 1 blocks: pages within distance share at least
+ * one block, hence only pages in the same bucket of any block's table need to
+ * be compared.
+ * 
+ * Duplicates are clustered around the first page added, only first pages are
+ * indexed for similarity.
+ */
+public class DuplicateDetector {
+
+	public static final int DEFAULT_DISTANCE = 3;
+
+	private final int _distance;
+	private final int[] _shifts;
+	private final long[] _masks;
+
+	private final Map<ByteBuffer, String> _digests = new HashMap<ByteBuffer, String>();
+	private final List<Map<Long, List<Page>>> _tables;
+	private final Map<String, List<String>> _clusters = new LinkedHashMap<String, List<String>>();
+	private int _duplicateCount;
+
+	public DuplicateDetector() {
+		this(DEFAULT_DISTANCE);
+	}
+
+	/**
+	 * @param distance
+	 *            maximum number of differing SimHash bits of near duplicates,
+	 *            between 0 and 7
+	 */
+	public DuplicateDetector(final int distance) {
+		if (distance < 0 || distance > 7) {
+			throw new IllegalArgumentException("distance must be between 0 and 7, was " + distance);
+		}
+		_distance = distance;
+
+		final int blocks = distance + 1;
+		_shifts = new int[blocks];
+		_masks = new long[blocks];
+		_tables = new ArrayList<Map<Long, List<Page>>>(blocks);
+		for (int i = 0; i < blocks; i++) {
+			_shifts[i] = i * 64 / blocks;
+			final int bits = (i + 1) * 64 / blocks - _shifts[i];
+			_masks[i] = bits == 64 ? -1L : (1L << bits) - 1;
+			_tables.add(new HashMap<Long, List<Page>>());
+		}
+	}
+
+	/**
+	 * adds a page identified by its digest only
+	 * 
+	 * @return url of the page with the same digest or null if none was added
+	 *         before
+	 */
+	public synchronized String add(final String url, final byte[] digest) {
+		final String original = _digests.get(ByteBuffer.wrap(digest));
+		if (original != null) {
+			return duplicate(url, original);
+		}
+		_digests.put(ByteBuffer.wrap(digest.clone()), url);
+		return null;
+	}
+
+	/**
+	 * adds a page identified by its digest and SimHash
+	 * 
+	 * @return url of the page with the same digest or a similar SimHash or null
+	 *         if none was added before
+	 */
+	public synchronized String add(final String url, final byte[] digest, final long simHash) {
+		String original = _digests.get(ByteBuffer.wrap(digest));
+		if (original == null) {
+			original = findSimilar(simHash);
+			// exact copies of this page belong to the same cluster
+			_digests.put(ByteBuffer.wrap(digest.clone()), original == null ? url : original);
+		}
+		if (original != null) {
+			return duplicate(url, original);
+		}
+
+		final Page page = new Page(url, simHash);
+		for (int i = 0; i < _tables.size(); i++) {
+			final Long key = simHash >>> _shifts[i] & _masks[i];
+			List<Page> bucket = _tables.get(i).get(key);
+			if (bucket == null) {
+				_tables.get(i).put(key, bucket = new ArrayList<Page>(2));
+			}
+			bucket.add(page);
+		}
+		return null;
+	}
+
+	private String findSimilar(final long simHash) {
+		for (int i = 0; i < _tables.size(); i++) {
+			final List<Page> bucket = _tables.get(i).get(simHash >>> _shifts[i] & _masks[i]);
+			if (bucket != null) {
+				for (final Page page : bucket) {
+					if (Long.bitCount(page._simHash ^ simHash) <= _distance) {
+						return page._url;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private String duplicate(final String url, final String original) {
+		List<String> cluster = _clusters.get(original);
+		if (cluster == null) {
+			_clusters.put(original, cluster = new ArrayList<String>(2));
+		}
+		cluster.add(url);
+		_duplicateCount++;
+		return original;
+	}
+
+	/**
+	 * @return duplicates by the url of the first page with their content
+	 */
+	public synchronized Map<String, List<String>> getClusters() {
+		final Map<String, List<String>> clusters = new LinkedHashMap<String, List<String>>();
+		for (final Map.Entry<String, List<String>> e : _clusters.entrySet()) {
+			clusters.put(e.getKey(), new ArrayList<String>(e.getValue()));
+		}
+		return clusters;
+	}
+
+	public synchronized int getDuplicateCount() {
+		return _duplicateCount;
+	}
+
+	public int getDistance() {
+		return _distance;
+	}
+
+	private static final class Page {
+		private final String _url;
+		private final long _simHash;
+
+		private Page(final String url, final long simHash) {
+			_url = url;
+			_simHash = simHash;
+		}
+	}
+}
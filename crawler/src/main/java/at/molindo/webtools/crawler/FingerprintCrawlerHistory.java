@@ -0,0 +1,121 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import at.molindo.webtools.crawler.util.BloomFilter;
+import at.molindo.webtools.crawler.util.Hashes;
+import at.molindo.webtools.crawler.util.LongHashSet;
+
+/**
+ * {@link ICrawlerHistory} that remembers visited URLs by their 64-bit
+ * fingerprint only, 12 to 24 bytes per URL instead of a String key and a
+ * {@link CrawlerResult}. A lock-free {@link BloomFilter} in front of the
+ * fingerprint set answers {@link #isVisited(String)} for most unknown URLs.
+ * 
+ * {@link CrawlerResult}s aren't kept unless configured, see
+ * {@link #keep(CrawlerResult)}. {@link #getVisitedURLs()} only returns kept
+ * results.
+ */
+public class FingerprintCrawlerHistory implements ICrawlerHistory {
+
+	public static final int DEFAULT_EXPECTED_URLS = 1000000;
+
+	private final LongHashSet _fingerprints;
+	private final BloomFilter _bloomFilter;
+	private final ConcurrentHashMap<String, CrawlerResult> _results;
+
+	public FingerprintCrawlerHistory() {
+		this(DEFAULT_EXPECTED_URLS, false, false);
+	}
+
+	/**
+	 * @param expectedUrls
+	 *            expected number of URLs used for initial sizing
+	 * @param direct
+	 *            whether to keep fingerprints outside the heap
+	 * @param keepResults
+	 *            whether to keep {@link CrawlerResult}s for
+	 *            {@link #getVisitedURLs()}
+	 */
+	public FingerprintCrawlerHistory(final int expectedUrls, final boolean direct, final boolean keepResults) {
+		_fingerprints = new LongHashSet(expectedUrls, 64, direct);
+		_bloomFilter = new BloomFilter(Math.max(1, expectedUrls), 0.01);
+		_results = keepResults ? new ConcurrentHashMap<String, CrawlerResult>() : null;
+	}
+
+	@Override
+	public boolean queue(final String url, final CrawlerReferrer referrer) {
+		final long fingerprint = fingerprint(url);
+		if (_fingerprints.add(fingerprint)) {
+			_bloomFilter.put(fingerprint);
+			return true;
+		}
+
+		if (referrer != null && _results != null) {
+			final CrawlerResult sr = _results.get(url);
+			if (sr != null) {
+				sr.addReferrer(referrer);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if url was queued before
+	 */
+	public boolean isVisited(final String url) {
+		final long fingerprint = fingerprint(url);
+		return _bloomFilter.mightContain(fingerprint) && _fingerprints.contains(fingerprint);
+	}
+
+	/**
+	 * @return number of distinct URLs queued
+	 */
+	public long getVisitedCount() {
+		return _fingerprints.size();
+	}
+
+	@Override
+	public Map<String, CrawlerResult> getVisitedURLs() {
+		if (_results == null) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(_results);
+	}
+
+	@Override
+	public void report(final CrawlerResult result) {
+		if (_results != null && keep(result)) {
+			_results.put(result.getUrl(), result);
+		}
+	}
+
+	/**
+	 * @return whether to keep result if results are kept. Override to keep a
+	 *         subset only, e.g. errors.
+	 */
+	protected boolean keep(final CrawlerResult result) {
+		return true;
+	}
+
+	protected long fingerprint(final String url) {
+		return Hashes.fingerprint(url);
+	}
+}
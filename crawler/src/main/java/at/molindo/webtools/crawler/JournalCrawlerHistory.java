@@ -0,0 +1,498 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import at.molindo.utils.io.CharsetUtils;
+import at.molindo.utils.io.StreamUtils;
+import at.molindo.webtools.crawler.io.CountingInputStream;
+import at.molindo.webtools.crawler.util.Hashes;
+import at.molindo.webtools.crawler.util.LongHashSet;
+
+/**
+ * {@link IPersistentCrawlerHistory} that records queued and reported URLs of a
+ * delegate {@link ICrawlerHistory} to an append-only journal. Journals are
+ * periodically compacted into a snapshot in the background, keeping a single
+ * record per visited URL and pending URLs in queue order.
+ * 
+ * When created, snapshot and journal are replayed into the delegate, and URLs
+ * queued but not reported are available from {@link #resume()}. Results are
+ * restored without text and referrers.
+ */
+public class JournalCrawlerHistory implements IPersistentCrawlerHistory {
+
+	public static final int DEFAULT_COMPACT_INTERVAL = 500000;
+
+	private static final byte QUEUE = 'Q';
+	private static final byte REPORT = 'R';
+
+	private static final String SNAPSHOT = "snapshot";
+	private static final String SNAPSHOT_TMP = "snapshot.tmp";
+	private static final String SNAPSHOT_NEW = "snapshot.new";
+	private static final String JOURNAL = "journal";
+	private static final String JOURNAL_COMPACTING = "journal.compacting";
+
+	private final ICrawlerHistory _delegate;
+	private final File _directory;
+	private final int _compactInterval;
+
+	private Map<String, CrawlerReferrer> _pending;
+
+	private DataOutputStream _out;
+	private int _records;
+	private Thread _compactor;
+
+	public JournalCrawlerHistory(final ICrawlerHistory delegate, final File directory) throws IOException {
+		this(delegate, directory, DEFAULT_COMPACT_INTERVAL);
+	}
+
+	/**
+	 * @param compactInterval
+	 *            number of journal records that triggers a compaction
+	 */
+	public JournalCrawlerHistory(final ICrawlerHistory delegate, final File directory, final int compactInterval)
+			throws IOException {
+		if (delegate == null) {
+			throw new NullPointerException("delegate");
+		}
+		if (directory == null) {
+			throw new NullPointerException("directory");
+		}
+		if (compactInterval < 1) {
+			throw new IllegalArgumentException("compactInterval must be positive, was " + compactInterval);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("failed to create directory " + directory);
+		}
+		_delegate = delegate;
+		_directory = directory;
+		_compactInterval = compactInterval;
+
+		final long start = System.currentTimeMillis();
+		if (file(SNAPSHOT_NEW).exists()) {
+			// compaction interrupted while replacing the snapshot
+			replace(file(SNAPSHOT_NEW), file(SNAPSHOT));
+		}
+
+		final Restore restore = new Restore();
+		restore.replay(file(SNAPSHOT), false);
+		restore.replay(file(JOURNAL_COMPACTING), false);
+		_records = restore.replay(file(JOURNAL), true);
+		_pending = restore._pending;
+
+		if (restore._count > 0) {
+			System.out.println("restored " + restore._count + " records (" + _pending.size() + " pending) in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		}
+
+		_out = open(file(JOURNAL), true);
+
+		if (file(JOURNAL_COMPACTING).exists()) {
+			// interrupted
+			startCompaction();
+		}
+	}
+
+	@Override
+	public boolean queue(final String url, final CrawlerReferrer referrer) {
+		if (!_delegate.queue(url, referrer)) {
+			return false;
+		}
+
+		synchronized (this) {
+			if (_out != null) {
+				try {
+					writeQueue(_out, url, referrer);
+					written();
+				} catch (final IOException e) {
+					failed(e);
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void report(final CrawlerResult result) {
+		_delegate.report(result);
+
+		synchronized (this) {
+			if (_out != null) {
+				try {
+					writeReport(_out, result);
+					// survive process crashes, cheaper than syncing to disk
+					_out.flush();
+					written();
+				} catch (final IOException e) {
+					failed(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public Map<String, CrawlerResult> getVisitedURLs() {
+		return _delegate.getVisitedURLs();
+	}
+
+	@Override
+	public synchronized Map<String, CrawlerReferrer> resume() {
+		final Map<String, CrawlerReferrer> pending = _pending;
+		_pending = null;
+		return pending == null ? Collections.<String, CrawlerReferrer> emptyMap() : pending;
+	}
+
+	/**
+	 * flushes and closes the journal, waiting for a running compaction
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (_out != null) {
+				_out.close();
+				_out = null;
+			}
+		}
+
+		try {
+			awaitCompaction();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * waits for a running compaction to finish, successfully or not
+	 */
+	void awaitCompaction() throws InterruptedException {
+		final Thread compactor;
+		synchronized (this) {
+			compactor = _compactor;
+		}
+		if (compactor != null) {
+			compactor.join();
+		}
+	}
+
+	/**
+	 * must hold lock
+	 */
+	private void written() throws IOException {
+		if (++_records >= _compactInterval && _compactor == null) {
+			_records = 0;
+			if (file(JOURNAL_COMPACTING).exists()) {
+				// left behind by a failed compaction, renaming the journal would
+				// replace it. Retry instead, the journal keeps growing meanwhile
+				startCompaction();
+				return;
+			}
+
+			_out.close();
+			if (!file(JOURNAL).renameTo(file(JOURNAL_COMPACTING))) {
+				throw new IOException("failed to rename " + file(JOURNAL));
+			}
+			_out = open(file(JOURNAL), true);
+			startCompaction();
+		}
+	}
+
+	/**
+	 * must hold lock
+	 */
+	private void failed(final IOException e) {
+		System.err.println("failed to write journal, continuing without: " + e.getMessage());
+		StreamUtils.close(_out);
+		_out = null;
+	}
+
+	private synchronized void startCompaction() {
+		_compactor = new Thread("crawler-journal-compactor") {
+
+			@Override
+			public void run() {
+				try {
+					compact();
+				} catch (final IOException e) {
+					System.err.println("failed to compact journal: " + e.getMessage());
+				} finally {
+					synchronized (JournalCrawlerHistory.this) {
+						_compactor = null;
+					}
+				}
+			}
+		};
+		_compactor.setDaemon(true);
+		_compactor.start();
+	}
+
+	/**
+	 * merges snapshot and rotated journal into a new snapshot. The complete
+	 * snapshot is renamed to {@link #SNAPSHOT_NEW} before it replaces the old
+	 * one, a leftover {@link #SNAPSHOT_TMP} is incomplete.
+	 */
+	private void compact() throws IOException {
+		final long start = System.currentTimeMillis();
+
+		final File tmp = file(SNAPSHOT_TMP);
+		final DataOutputStream out = open(tmp, false);
+		try {
+			final Compaction compaction = new Compaction(out);
+			compaction.replay(file(SNAPSHOT), false);
+			compaction.replay(file(JOURNAL_COMPACTING), false);
+			for (final Map.Entry<String, CrawlerReferrer> e : compaction._pending.entrySet()) {
+				writeQueue(out, e.getKey(), e.getValue());
+			}
+			System.out.println("compacted " + compaction._count + " journal records to " + out.size() + " bytes in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		} finally {
+			out.close();
+		}
+
+		final File next = file(SNAPSHOT_NEW);
+		if (next.exists() && !next.delete() || !tmp.renameTo(next)) {
+			throw new IOException("failed to rename " + tmp);
+		}
+		replace(next, file(SNAPSHOT));
+		// deleting the journal last as a crash might leave it behind
+		// otherwise, replaying it again is safe
+		if (!file(JOURNAL_COMPACTING).delete()) {
+			throw new IOException("failed to delete " + file(JOURNAL_COMPACTING));
+		}
+	}
+
+	private File file(final String name) {
+		return new File(_directory, name);
+	}
+
+	/**
+	 * replaces a snapshot by a complete new one, atomically if the platform
+	 * supports it
+	 */
+	private static void replace(final File next, final File snapshot) throws IOException {
+		if (!next.renameTo(snapshot)) {
+			// the target must not exist on some platforms. A crash in between
+			// is recovered from next
+			if (snapshot.exists() && !snapshot.delete() || !next.renameTo(snapshot)) {
+				throw new IOException("failed to replace " + snapshot);
+			}
+		}
+	}
+
+	private static DataOutputStream open(final File file, final boolean append) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append), 64 * 1024));
+	}
+
+	private static void writeQueue(final DataOutputStream out, final String url, final CrawlerReferrer referrer)
+			throws IOException {
+		out.writeByte(QUEUE);
+		writeString(out, url);
+		writeString(out, referrer == null ? null : referrer.getReferrerUrl());
+		writeString(out, referrer == null ? null : referrer.getHref());
+		out.writeInt(referrer == null ? 0 : referrer.getDepth());
+	}
+
+	private static void writeReport(final DataOutputStream out, final CrawlerResult result) throws IOException {
+		out.writeByte(REPORT);
+		writeString(out, result.getUrl());
+		out.writeLong(result.getTimestamp());
+		out.writeInt(result.getTime());
+		out.writeInt(result.getStatus());
+		writeString(out, result.getContentType());
+		writeString(out, result.getErrorMessage());
+		out.writeLong(result.getContentLength());
+		writeBytes(out, result.getDigest());
+	}
+
+	private static CrawlerResult readReport(final DataInputStream in) throws IOException {
+		final CrawlerResult result = new CrawlerResult();
+		result.setUrl(readString(in));
+		result.setTimestamp(in.readLong());
+		result.setTime(in.readInt());
+		result.setStatus(in.readInt());
+		result.setContentType(readString(in));
+		result.setErrorMessage(readString(in));
+		result.setContentLength(in.readLong());
+		result.setDigest(readBytes(in));
+		return result;
+	}
+
+	private static void writeString(final DataOutputStream out, final String s) throws IOException {
+		writeBytes(out, s == null ? null : s.getBytes(CharsetUtils.UTF_8));
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+		final byte[] bytes = readBytes(in);
+		return bytes == null ? null : new String(bytes, CharsetUtils.UTF_8);
+	}
+
+	private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+		if (bytes == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] readBytes(final DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * reads records of snapshots and journals
+	 */
+	private abstract static class Replay {
+
+		final LinkedHashMap<String, CrawlerReferrer> _pending = new LinkedHashMap<String, CrawlerReferrer>();
+		int _count;
+
+		/**
+		 * @param truncate
+		 *            whether to cut off an incomplete record at the end, e.g.
+		 *            after a crash while writing
+		 * @return number of records read
+		 */
+		int replay(final File file, final boolean truncate) throws IOException {
+			if (!file.exists()) {
+				return 0;
+			}
+
+			final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(
+					file), 64 * 1024));
+			final DataInputStream in = new DataInputStream(counter);
+			int records = 0;
+			long valid = 0;
+			try {
+				int type;
+				while ((type = in.read()) != -1) {
+					if (type == QUEUE) {
+						final String url = readString(in);
+						final String referrerUrl = readString(in);
+						final String href = readString(in);
+						final int depth = in.readInt();
+						queue(url, referrerUrl == null ? null : new CrawlerReferrer(referrerUrl, href, depth));
+					} else if (type == REPORT) {
+						report(readReport(in));
+					} else {
+						throw new IOException("unknown record type " + type + " at " + valid + " in " + file);
+					}
+					valid = counter.getCount();
+					records++;
+				}
+			} catch (final EOFException e) {
+				System.err.println("incomplete record at " + valid + " in " + file);
+			} finally {
+				in.close();
+			}
+
+			if (truncate && valid < file.length()) {
+				final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.setLength(valid);
+				} finally {
+					raf.close();
+				}
+			}
+
+			_count += records;
+			return records;
+		}
+
+		/**
+		 * @return true if url was pending
+		 */
+		boolean unpend(final String url) {
+			if (_pending.containsKey(url)) {
+				// value might be null
+				_pending.remove(url);
+				return true;
+			}
+			return false;
+		}
+
+		abstract void queue(String url, CrawlerReferrer referrer) throws IOException;
+
+		abstract void report(CrawlerResult result) throws IOException;
+	}
+
+	/**
+	 * restores the delegate. URLs known to the delegate already are duplicates
+	 * from an interrupted compaction.
+	 */
+	private final class Restore extends Replay {
+
+		@Override
+		void queue(final String url, final CrawlerReferrer referrer) {
+			if (_delegate.queue(url, referrer)) {
+				_pending.put(url, referrer);
+			}
+		}
+
+		@Override
+		void report(final CrawlerResult result) {
+			// URLs reported without queue record come from a snapshot
+			if (unpend(result.getUrl()) || _delegate.queue(result.getUrl(), null)) {
+				_delegate.report(result);
+			}
+		}
+	}
+
+	/**
+	 * writes visited URLs, keeping pending URLs in memory
+	 */
+	private static final class Compaction extends Replay {
+
+		private final LongHashSet _seen = new LongHashSet(1024);
+		private final DataOutputStream _out;
+
+		private Compaction(final DataOutputStream out) {
+			_out = out;
+		}
+
+		@Override
+		void queue(final String url, final CrawlerReferrer referrer) {
+			if (_seen.add(Hashes.fingerprint(url))) {
+				_pending.put(url, referrer);
+			}
+		}
+
+		@Override
+		void report(final CrawlerResult result) throws IOException {
+			if (unpend(result.getUrl()) || _seen.add(Hashes.fingerprint(result.getUrl()))) {
+				writeReport(_out, result);
+			}
+		}
+	}
+}
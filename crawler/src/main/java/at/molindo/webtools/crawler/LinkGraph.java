@@ -0,0 +1,585 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import at.molindo.utils.io.CharsetUtils;
+import at.molindo.webtools.crawler.util.UrlDictionary;
+
+/**
+ * directed graph of links between URLs of a crawl. URLs get int IDs from a
+ * {@link UrlDictionary}, usually shared with the {@link CrawlerHistory}. Links
+ * are appended to primitive arrays and compacted into compressed sparse row
+ * (CSR) adjacency for both directions by a background thread once there are as
+ * many new links as compacted ones, without blocking threads adding links.
+ * Reads combine the last compacted adjacency with links not compacted yet.
+ * Duplicate links are removed while compacting. Degrees are counted as links
+ * are added.
+ * 
+ * {@link #write(OutputStream)} exports URLs and outgoing links in a binary
+ * format that {@link #read(InputStream)} reads back:
+ * 
+ * <pre>
+ * int magic, int version, int urls, (int length, byte[length] UTF-8)[urls],
+ * int links, int[urls + 1] offsets, int[links] targets
+ * </pre>
+ */
+public class LinkGraph {
+
+	private static final int MAGIC = 0x4c4e4b47;
+	private static final int VERSION = 1;
+	private static final int[] EMPTY = new int[0];
+
+	private final UrlDictionary _dictionary;
+
+	private int[] _outDegrees = new int[1024];
+	private int[] _inDegrees = new int[1024];
+
+	// links added since the last compaction
+	private int[] _sources = new int[1024];
+	private int[] _targets = new int[1024];
+	private int _pending;
+
+	// links taken by a running compaction
+	private Compaction _compacting;
+	private Thread _compactor;
+
+	private Csr _csr = Csr.EMPTY;
+
+	public LinkGraph() {
+		this(new UrlDictionary());
+	}
+
+	/**
+	 * @param dictionary
+	 *            assigns IDs to URLs, all URLs of the dictionary are part of
+	 *            the graph
+	 */
+	public LinkGraph(final UrlDictionary dictionary) {
+		if (dictionary == null) {
+			throw new NullPointerException("dictionary");
+		}
+		_dictionary = dictionary;
+	}
+
+	public UrlDictionary getDictionary() {
+		return _dictionary;
+	}
+
+	/**
+	 * @return the ID of url, assigned if url is new
+	 */
+	public synchronized int id(final String url) {
+		if (url == null) {
+			throw new NullPointerException("url");
+		}
+		final int id = _dictionary.id(url);
+		ensureCapacity(id + 1);
+		return id;
+	}
+
+	/**
+	 * @return the ID of url or -1 if unknown
+	 */
+	public int getId(final String url) {
+		return _dictionary.getId(url);
+	}
+
+	public String getUrl(final int id) {
+		return _dictionary.getUrl(id);
+	}
+
+	public int getUrlCount() {
+		return _dictionary.size();
+	}
+
+	/**
+	 * grows degree arrays, IDs may be assigned by others sharing the
+	 * dictionary
+	 */
+	private void ensureCapacity(final int urls) {
+		if (urls > _outDegrees.length) {
+			final int length = Math.max(urls, _outDegrees.length * 2);
+			_outDegrees = Arrays.copyOf(_outDegrees, length);
+			_inDegrees = Arrays.copyOf(_inDegrees, length);
+		}
+	}
+
+	/**
+	 * @return number of links added, duplicates are only removed while
+	 *         compacting
+	 */
+	public synchronized long getLinkCount() {
+		return _csr._outTargets.length + (long) _pending + (_compacting == null ? 0 : _compacting._count);
+	}
+
+	public synchronized void addLink(final String source, final String target) {
+		append(id(source), id(target));
+		compactIfFull();
+	}
+
+	/**
+	 * adds all links of a page at once, ignoring duplicate targets
+	 */
+	public synchronized void addLinks(final String source, final Collection<String> targets) {
+		final int s = id(source);
+		final int[] ids = new int[targets.size()];
+		int count = 0;
+		for (final String target : targets) {
+			ids[count++] = id(target);
+		}
+		Arrays.sort(ids);
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || ids[i] != ids[i - 1]) {
+				append(s, ids[i]);
+			}
+		}
+		compactIfFull();
+	}
+
+	private void append(final int source, final int target) {
+		if (_pending == _sources.length) {
+			_sources = Arrays.copyOf(_sources, _pending * 2);
+			_targets = Arrays.copyOf(_targets, _pending * 2);
+		}
+		_sources[_pending] = source;
+		_targets[_pending] = target;
+		_pending++;
+		_outDegrees[source]++;
+		_inDegrees[target]++;
+	}
+
+	/**
+	 * must hold lock
+	 */
+	private void compactIfFull() {
+		if (_compactor == null && _pending >= Math.max(1024, _csr._outTargets.length)) {
+			final Compaction compaction = takePending();
+			_compactor = new Thread("crawler-link-compactor") {
+
+				@Override
+				public void run() {
+					finish(compaction);
+				}
+			};
+			_compactor.setDaemon(true);
+			_compactor.start();
+		}
+	}
+
+	/**
+	 * @return number of links from url, 0 if unknown
+	 */
+	public synchronized int getOutDegree(final String url) {
+		final int id = getId(url);
+		return id < 0 || id >= _outDegrees.length ? 0 : _outDegrees[id];
+	}
+
+	/**
+	 * @return number of links to url, 0 if unknown
+	 */
+	public synchronized int getInDegree(final String url) {
+		final int id = getId(url);
+		return id < 0 || id >= _inDegrees.length ? 0 : _inDegrees[id];
+	}
+
+	public synchronized int getOutDegree(final int id) {
+		checkId(id);
+		return id < _outDegrees.length ? _outDegrees[id] : 0;
+	}
+
+	public synchronized int getInDegree(final int id) {
+		checkId(id);
+		return id < _inDegrees.length ? _inDegrees[id] : 0;
+	}
+
+	/**
+	 * @return sorted IDs of URLs linked from id
+	 */
+	public synchronized int[] getOutLinks(final int id) {
+		checkId(id);
+		return links(id, _csr._outOffsets, _csr._outTargets, true);
+	}
+
+	/**
+	 * @return sorted IDs of URLs linking to id
+	 */
+	public synchronized int[] getInLinks(final int id) {
+		checkId(id);
+		return links(id, _csr._inOffsets, _csr._inSources, false);
+	}
+
+	/**
+	 * @return URLs linking to url
+	 */
+	public List<String> getReferrers(final String url) {
+		return getReferrers(url, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return up to max URLs linking to url
+	 */
+	public synchronized List<String> getReferrers(final String url, final int max) {
+		final int id = getId(url);
+		if (id < 0) {
+			return new ArrayList<String>(0);
+		}
+		final int[] sources = getInLinks(id);
+		final int count = Math.min(max, sources.length);
+		final List<String> referrers = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			referrers.add(_dictionary.getUrl(sources[i]));
+		}
+		return referrers;
+	}
+
+	private void checkId(final int id) {
+		if (id < 0 || id >= _dictionary.size()) {
+			throw new IllegalArgumentException("unknown id " + id);
+		}
+	}
+
+	/**
+	 * must hold lock
+	 * 
+	 * @return compacted links of id merged with links not compacted yet,
+	 *         sorted and without duplicates
+	 */
+	private int[] links(final int id, final int[] offsets, final int[] ids, final boolean out) {
+		final int from = id + 1 < offsets.length ? offsets[id] : 0;
+		final int to = id + 1 < offsets.length ? offsets[id + 1] : 0;
+
+		int[] links = null;
+		int count = 0;
+		for (int c = 0; c < 2; c++) {
+			final int[] keys;
+			final int[] values;
+			final int n;
+			if (c == 0) {
+				if (_compacting == null) {
+					continue;
+				}
+				keys = out ? _compacting._sources : _compacting._targets;
+				values = out ? _compacting._targets : _compacting._sources;
+				n = _compacting._count;
+			} else {
+				keys = out ? _sources : _targets;
+				values = out ? _targets : _sources;
+				n = _pending;
+			}
+			for (int i = 0; i < n; i++) {
+				if (keys[i] == id) {
+					if (links == null) {
+						links = new int[to - from + 16];
+						System.arraycopy(ids, from, links, 0, to - from);
+						count = to - from;
+					} else if (count == links.length) {
+						links = Arrays.copyOf(links, count * 2);
+					}
+					links[count++] = values[i];
+				}
+			}
+		}
+
+		if (links == null) {
+			// compacted links are sorted already
+			return Arrays.copyOfRange(ids, from, to);
+		}
+		Arrays.sort(links, 0, count);
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			if (size == 0 || links[i] != links[size - 1]) {
+				links[size++] = links[i];
+			}
+		}
+		return Arrays.copyOf(links, size);
+	}
+
+	/**
+	 * merges new links into the CSR adjacency, removing duplicates and
+	 * recounting degrees. Waits for a running background compaction first.
+	 */
+	public void compact() {
+		final Compaction compaction;
+		synchronized (this) {
+			while (_compactor != null) {
+				try {
+					wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (_pending == 0) {
+				// IDs without links may be missing from offsets
+				return;
+			}
+			compaction = takePending();
+			_compactor = Thread.currentThread();
+		}
+		finish(compaction);
+	}
+
+	/**
+	 * must hold lock
+	 * 
+	 * @return a compaction of all pending links, still read until finished
+	 */
+	private Compaction takePending() {
+		final Compaction compaction = new Compaction(_csr, _sources, _targets, _pending, _dictionary.size());
+		_compacting = compaction;
+		_sources = new int[1024];
+		_targets = new int[1024];
+		_pending = 0;
+		return compaction;
+	}
+
+	/**
+	 * builds the new adjacency without holding the lock and publishes it
+	 */
+	private void finish(final Compaction compaction) {
+		Csr csr = null;
+		try {
+			csr = compaction.build();
+		} finally {
+			synchronized (this) {
+				if (csr != null) {
+					publish(csr);
+				} else {
+					// failed, links are compacted next time
+					for (int i = 0; i < compaction._count; i++) {
+						final int s = compaction._sources[i];
+						final int t = compaction._targets[i];
+						append(s, t);
+						_outDegrees[s]--;
+						_inDegrees[t]--;
+					}
+				}
+				_compacting = null;
+				_compactor = null;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * must hold lock. Degrees are taken from the new adjacency, plus links
+	 * added while compacting.
+	 */
+	private void publish(final Csr csr) {
+		_csr = csr;
+		ensureCapacity(csr._outDegrees.length);
+		Arrays.fill(_outDegrees, 0);
+		Arrays.fill(_inDegrees, 0);
+		System.arraycopy(csr._outDegrees, 0, _outDegrees, 0, csr._outDegrees.length);
+		System.arraycopy(csr._inDegrees, 0, _inDegrees, 0, csr._inDegrees.length);
+		for (int i = 0; i < _pending; i++) {
+			_outDegrees[_sources[i]]++;
+			_inDegrees[_targets[i]]++;
+		}
+	}
+
+	/**
+	 * immutable CSR adjacency for both directions with degrees of its links
+	 */
+	private static final class Csr {
+
+		private static final Csr EMPTY = new Csr(new int[] { 0 }, LinkGraph.EMPTY, new int[] { 0 }, LinkGraph.EMPTY,
+				LinkGraph.EMPTY, LinkGraph.EMPTY);
+
+		private final int[] _outOffsets;
+		private final int[] _outTargets;
+		private final int[] _inOffsets;
+		private final int[] _inSources;
+		private final int[] _outDegrees;
+		private final int[] _inDegrees;
+
+		private Csr(final int[] outOffsets, final int[] outTargets, final int[] inOffsets, final int[] inSources,
+				final int[] outDegrees, final int[] inDegrees) {
+			_outOffsets = outOffsets;
+			_outTargets = outTargets;
+			_inOffsets = inOffsets;
+			_inSources = inSources;
+			_outDegrees = outDegrees;
+			_inDegrees = inDegrees;
+		}
+	}
+
+	/**
+	 * links taken from the pending arrays, merged with the adjacency they were
+	 * taken from
+	 */
+	private static final class Compaction {
+
+		private final Csr _csr;
+		private final int[] _sources;
+		private final int[] _targets;
+		private final int _count;
+		private final int _urls;
+
+		private Compaction(final Csr csr, final int[] sources, final int[] targets, final int count, final int urls) {
+			_csr = csr;
+			_sources = sources;
+			_targets = targets;
+			_count = count;
+			_urls = urls;
+		}
+
+		private Csr build() {
+			final int urls = _urls;
+			final int[] outOffsets = _csr._outOffsets;
+			final int[] outTargets = _csr._outTargets;
+
+			// bucket links by source
+			final int[] offsets = new int[urls + 1];
+			for (int s = 0; s + 1 < outOffsets.length; s++) {
+				offsets[s + 1] = outOffsets[s + 1] - outOffsets[s];
+			}
+			for (int i = 0; i < _count; i++) {
+				offsets[_sources[i] + 1]++;
+			}
+			for (int s = 0; s < urls; s++) {
+				offsets[s + 1] += offsets[s];
+			}
+
+			final int[] targets = new int[offsets[urls]];
+			final int[] next = Arrays.copyOf(offsets, urls);
+			for (int s = 0; s + 1 < outOffsets.length; s++) {
+				final int count = outOffsets[s + 1] - outOffsets[s];
+				System.arraycopy(outTargets, outOffsets[s], targets, next[s], count);
+				next[s] += count;
+			}
+			for (int i = 0; i < _count; i++) {
+				targets[next[_sources[i]]++] = _targets[i];
+			}
+
+			// sort and remove duplicates in place
+			final int[] outDegrees = new int[urls];
+			final int[] inDegrees = new int[urls];
+			int size = 0;
+			for (int s = 0; s < urls; s++) {
+				final int from = offsets[s];
+				final int to = offsets[s + 1];
+				Arrays.sort(targets, from, to);
+				offsets[s] = size;
+				for (int i = from; i < to; i++) {
+					if (size == offsets[s] || targets[i] != targets[size - 1]) {
+						targets[size++] = targets[i];
+						inDegrees[targets[i]]++;
+					}
+				}
+				outDegrees[s] = size - offsets[s];
+			}
+			offsets[urls] = size;
+			final int[] compacted = size == targets.length ? targets : Arrays.copyOf(targets, size);
+
+			// incoming links by counting sort, sources end up sorted
+			final int[] inOffsets = new int[urls + 1];
+			for (int t = 0; t < urls; t++) {
+				inOffsets[t + 1] = inOffsets[t] + inDegrees[t];
+			}
+			final int[] inSources = new int[size];
+			final int[] inNext = Arrays.copyOf(inOffsets, urls);
+			for (int s = 0; s < urls; s++) {
+				for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+					inSources[inNext[compacted[i]]++] = s;
+				}
+			}
+			return new Csr(offsets, compacted, inOffsets, inSources, outDegrees, inDegrees);
+		}
+	}
+
+	/**
+	 * writes URLs and compacted outgoing links, see class comment for the
+	 * format
+	 */
+	public synchronized void write(final OutputStream out) throws IOException {
+		compact();
+
+		final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		final int urls = _dictionary.size();
+		data.writeInt(urls);
+		for (int id = 0; id < urls; id++) {
+			final byte[] bytes = _dictionary.getUrl(id).getBytes(CharsetUtils.UTF_8);
+			data.writeInt(bytes.length);
+			data.write(bytes);
+		}
+		final Csr csr = _csr;
+		data.writeInt(csr._outTargets.length);
+		for (int id = 0; id <= urls; id++) {
+			data.writeInt(id < csr._outOffsets.length ? csr._outOffsets[id] : csr._outTargets.length);
+		}
+		for (final int target : csr._outTargets) {
+			data.writeInt(target);
+		}
+		data.flush();
+	}
+
+	/**
+	 * reads a graph written by {@link #write(OutputStream)}
+	 */
+	public static LinkGraph read(final InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+		if (data.readInt() != MAGIC) {
+			throw new IOException("not a link graph");
+		}
+		final int version = data.readInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported link graph version " + version);
+		}
+
+		final LinkGraph graph = new LinkGraph();
+		final int urls = data.readInt();
+		for (int i = 0; i < urls; i++) {
+			final byte[] bytes = new byte[data.readInt()];
+			data.readFully(bytes);
+			graph.id(new String(bytes, CharsetUtils.UTF_8));
+		}
+
+		final int links = data.readInt();
+		final int[] offsets = new int[urls + 1];
+		for (int i = 0; i <= urls; i++) {
+			offsets[i] = data.readInt();
+		}
+		if (offsets[urls] != links) {
+			throw new IOException("corrupt link graph, " + links + " links but offsets up to " + offsets[urls]);
+		}
+		for (int s = 0; s < urls; s++) {
+			for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+				final int target = data.readInt();
+				if (target < 0 || target >= urls) {
+					throw new IOException("corrupt link graph, unknown target " + target);
+				}
+				graph.append(s, target);
+			}
+		}
+		graph.compact();
+		return graph;
+	}
+}
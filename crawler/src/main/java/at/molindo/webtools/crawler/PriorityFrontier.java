@@ -0,0 +1,482 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.io.File;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import at.molindo.webtools.crawler.util.Hashes;
+import at.molindo.webtools.crawler.util.LongIntHashMap;
+
+/**
+ * unbounded priority queue of {@link CrawlerTask}s for the default executor,
+ * scored by a {@link PriorityPolicy}. Tasks are kept in one FIFO bucket per
+ * priority level, each a {@link CrawlerFrontier} spilling to disk, and taken
+ * from the highest non-empty bucket.
+ * 
+ * A queued URL linked again is promoted to a higher bucket if its priority
+ * grows with the number of links or a shorter depth. A copy is queued in the
+ * higher bucket, whichever copy is taken first is executed and the others are
+ * dropped.
+ * 
+ * The {@link Crawler}'s max is charged when a task is taken rather than when
+ * it is dispatched, so that the best URLs known at that time are fetched.
+ * Tasks left when the max is reached are discarded.
+ * 
+ * Other {@link Runnable}s are always kept in memory and taken first.
+ */
+public class PriorityFrontier extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+	/*
+	 * pending URLs are packed into an int: links (18 bits), depth (8 bits),
+	 * level (6 bits, one per bit of _levels). Links are at least 1, hence
+	 * never 0 for missing.
+	 */
+	private static final int LEVEL_BITS = 6;
+	private static final int DEPTH_BITS = 8;
+	private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+	private static final int MAX_LINKS = (1 << 32 - LEVEL_BITS - DEPTH_BITS) - 1;
+
+	private final Crawler _crawler;
+	private final PriorityPolicy _policy;
+	private final File _directory;
+	private final int _bucketCapacity;
+	private final int _segmentSize;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _notEmpty = _lock.newCondition();
+
+	private final CrawlerFrontier[] _buckets = new CrawlerFrontier[PriorityPolicy.LEVELS];
+	/**
+	 * bit i is set if bucket i may be non-empty
+	 */
+	private long _levels;
+	private final ArrayDeque<Runnable> _other = new ArrayDeque<Runnable>();
+	private final LongIntHashMap _pending = new LongIntHashMap();
+	/**
+	 * queued copies, including promoted ones
+	 */
+	private long _size;
+	private int _taken;
+	private long _promoted;
+	private boolean _exhausted;
+
+	public PriorityFrontier(final Crawler crawler) {
+		this(crawler, new PriorityPolicy());
+	}
+
+	public PriorityFrontier(final Crawler crawler, final PriorityPolicy policy) {
+		this(crawler, policy, new File(System.getProperty("java.io.tmpdir")), CrawlerFrontier.DEFAULT_HEAD_CAPACITY,
+				CrawlerFrontier.DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param headCapacity
+	 *            number of tasks kept in memory, shared by all buckets
+	 */
+	public PriorityFrontier(final Crawler crawler, final PriorityPolicy policy, final File directory,
+			final int headCapacity, final int segmentSize) {
+		if (crawler == null) {
+			throw new NullPointerException("crawler");
+		}
+		if (policy == null) {
+			throw new NullPointerException("policy");
+		}
+		if (directory == null) {
+			throw new NullPointerException("directory");
+		}
+		if (headCapacity < 1) {
+			throw new IllegalArgumentException("headCapacity must be positive, was " + headCapacity);
+		}
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("segmentSize must be at least 1024, was " + segmentSize);
+		}
+		_crawler = crawler;
+		_policy = policy;
+		_directory = directory;
+		_bucketCapacity = Math.max(1, headCapacity / PriorityPolicy.LEVELS);
+		_segmentSize = segmentSize;
+
+		crawler.setPriorityFrontier(this);
+	}
+
+	@Override
+	public boolean offer(final Runnable r) {
+		if (r == null) {
+			throw new NullPointerException();
+		}
+		if (!(r instanceof CrawlerTask)) {
+			_lock.lock();
+			try {
+				_other.addLast(r);
+				_notEmpty.signal();
+			} finally {
+				_lock.unlock();
+			}
+			return true;
+		}
+
+		final CrawlerTask task = (CrawlerTask) r;
+		final long hash = Hashes.fingerprint(task.getUrlString());
+		_lock.lock();
+		try {
+			if (!_exhausted && _pending.get(hash) == 0) {
+				final int depth = Math.min(MAX_DEPTH, task.getDepth());
+				final int level = _policy.getPriority(task.getUrlString(), depth, 1);
+				_pending.put(hash, pack(1, depth, level));
+				add(level, task);
+				return true;
+			}
+		} finally {
+			_lock.unlock();
+		}
+
+		// max reached or already queued
+		_crawler.discard(task);
+		return true;
+	}
+
+	/**
+	 * called for a link to a URL that was queued before
+	 */
+	void linked(final String url, final CrawlerReferrer referrer) {
+		final long hash = Hashes.fingerprint(url);
+		_lock.lock();
+		try {
+			final int pending = _pending.get(hash);
+			if (pending == 0 || _exhausted) {
+				// taken already or about to be discarded
+				return;
+			}
+			final int links = Math.min(MAX_LINKS, links(pending) + 1);
+			final int depth = referrer == null ? 0 : Math.min(depth(pending), referrer.getDepth());
+			final int level = _policy.getPriority(url, depth, links);
+			if (level > level(pending)) {
+				final CrawlerTask task = _crawler.newCrawlerTask(url, referrer == null ? null : new CrawlerReferrer(
+						referrer.getReferrerUrl(), referrer.getHref(), depth));
+				// accepted by the history already
+				task.intern();
+				add(level, task);
+				_promoted++;
+				_pending.put(hash, pack(links, depth, level));
+			} else {
+				_pending.put(hash, pack(links, depth, level(pending)));
+			}
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(final Runnable r) {
+		offer(r);
+	}
+
+	@Override
+	public boolean offer(final Runnable r, final long timeout, final TimeUnit unit) {
+		return offer(r);
+	}
+
+	@Override
+	public Runnable poll() {
+		final List<CrawlerTask> discarded = new ArrayList<CrawlerTask>(0);
+		final Runnable r;
+		_lock.lock();
+		try {
+			r = next(discarded);
+		} finally {
+			_lock.unlock();
+		}
+		return taken(r, discarded);
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		final List<CrawlerTask> discarded = new ArrayList<CrawlerTask>(0);
+		Runnable r;
+		_lock.lockInterruptibly();
+		try {
+			while ((r = next(discarded)) == null) {
+				if (!discarded.isEmpty()) {
+					break;
+				}
+				_notEmpty.await();
+			}
+		} finally {
+			_lock.unlock();
+		}
+		r = taken(r, discarded);
+		return r != null ? r : take();
+	}
+
+	@Override
+	public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final List<CrawlerTask> discarded = new ArrayList<CrawlerTask>(0);
+		long nanos = unit.toNanos(timeout);
+		Runnable r;
+		_lock.lockInterruptibly();
+		try {
+			while ((r = next(discarded)) == null) {
+				if (nanos <= 0 || !discarded.isEmpty()) {
+					break;
+				}
+				nanos = _notEmpty.awaitNanos(nanos);
+			}
+		} finally {
+			_lock.unlock();
+		}
+		r = taken(r, discarded);
+		return r != null || nanos <= 0 ? r : poll(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * discards tasks left after the max was reached and shuts down the
+	 * crawler once the last task was taken. Must not hold lock.
+	 */
+	private Runnable taken(final Runnable r, final List<CrawlerTask> discarded) {
+		for (final CrawlerTask task : discarded) {
+			_crawler.discard(task);
+		}
+		if (r instanceof CrawlerTask && isExhausted()) {
+			System.out.println("reached fetch max");
+			_crawler.shutdown();
+		}
+		return r;
+	}
+
+	@Override
+	public Runnable peek() {
+		_lock.lock();
+		try {
+			if (!_other.isEmpty()) {
+				return _other.peekFirst();
+			}
+			for (int level = highest(); level >= 0; level = highest()) {
+				final Runnable r = _buckets[level].peek();
+				if (r != null) {
+					return r;
+				}
+				_levels &= ~(1L << level);
+			}
+			return null;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		_lock.lock();
+		try {
+			return (int) Math.min(Integer.MAX_VALUE, _other.size() + _size);
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of URLs queued, not counting promoted copies
+	 */
+	public int getPendingCount() {
+		_lock.lock();
+		try {
+			return _pending.size();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of times a queued URL was moved to a higher bucket
+	 */
+	public long getPromotedCount() {
+		_lock.lock();
+		try {
+			return _promoted;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of queued copies per priority level
+	 */
+	public int[] getLevelCounts() {
+		final int[] counts = new int[PriorityPolicy.LEVELS];
+		_lock.lock();
+		try {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = _buckets[i] == null ? 0 : _buckets[i].size();
+			}
+		} finally {
+			_lock.unlock();
+		}
+		return counts;
+	}
+
+	public boolean isExhausted() {
+		_lock.lock();
+		try {
+			return _exhausted;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * removes other {@link Runnable}s only, tasks are discarded once the max is
+	 * reached
+	 */
+	@Override
+	public boolean remove(final Object o) {
+		_lock.lock();
+		try {
+			return _other.remove(o);
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(final Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		final List<CrawlerTask> discarded = new ArrayList<CrawlerTask>(0);
+		final List<Runnable> drained = new ArrayList<Runnable>();
+		_lock.lock();
+		try {
+			Runnable r;
+			while (drained.size() < maxElements && (r = next(discarded)) != null) {
+				drained.add(r);
+			}
+		} finally {
+			_lock.unlock();
+		}
+		for (final Runnable r : drained) {
+			c.add(taken(r, discarded));
+			discarded.clear();
+		}
+		taken(null, discarded);
+		return drained.size();
+	}
+
+	/**
+	 * @return an empty iterator, tasks are only available through
+	 *         {@link #poll()}
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+		return Collections.<Runnable> emptyList().iterator();
+	}
+
+	/**
+	 * must hold lock
+	 */
+	private void add(final int level, final CrawlerTask task) {
+		CrawlerFrontier bucket = _buckets[level];
+		if (bucket == null) {
+			bucket = _buckets[level] = new CrawlerFrontier(_crawler, _directory, _bucketCapacity, _segmentSize);
+		}
+		bucket.offer(task);
+		_levels |= 1L << level;
+		_size++;
+		_notEmpty.signal();
+	}
+
+	/**
+	 * must hold lock
+	 * 
+	 * @return the next runnable or null if empty. Tasks left after the max was
+	 *         reached are added to discarded.
+	 */
+	private Runnable next(final List<CrawlerTask> discarded) {
+		final Runnable other = _other.pollFirst();
+		if (other != null) {
+			return other;
+		}
+
+		for (int level = highest(); level >= 0; level = highest()) {
+			final CrawlerTask task = (CrawlerTask) _buckets[level].poll();
+			if (task == null) {
+				_levels &= ~(1L << level);
+				continue;
+			}
+			_size--;
+
+			if (_pending.remove(Hashes.fingerprint(task.getUrlString())) == 0) {
+				// a copy was taken before
+				continue;
+			}
+
+			if (_exhausted) {
+				discarded.add(task);
+				continue;
+			}
+
+			if (++_taken >= _crawler.getMax()) {
+				_exhausted = true;
+			}
+			return task;
+		}
+		return null;
+	}
+
+	/**
+	 * must hold lock
+	 * 
+	 * @return highest level that may be non-empty, -1 if none
+	 */
+	private int highest() {
+		return 63 - Long.numberOfLeadingZeros(_levels);
+	}
+
+	private static int pack(final int links, final int depth, final int level) {
+		return links << LEVEL_BITS + DEPTH_BITS | depth << LEVEL_BITS | level;
+	}
+
+	private static int links(final int pending) {
+		return pending >>> LEVEL_BITS + DEPTH_BITS;
+	}
+
+	private static int depth(final int pending) {
+		return pending >>> LEVEL_BITS & MAX_DEPTH;
+	}
+
+	private static int level(final int pending) {
+		return pending & (1 << LEVEL_BITS) - 1;
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * scores URLs for a {@link PriorityFrontier}. Priorities range from 0 to
+ * {@link #LEVELS} - 1, higher priorities are fetched first. URLs close to the
+ * start URL, with short paths and few query parameters and linked from many
+ * pages rank high. Boosts are added for the longest matching path prefix.
+ */
+public class PriorityPolicy {
+
+	public static final int LEVELS = 64;
+
+	public static final int DEFAULT_DEPTH_WEIGHT = 4;
+	public static final int DEFAULT_LINK_WEIGHT = 2;
+
+	private final int _depthWeight;
+	private final int _linkWeight;
+	private final String[] _prefixes;
+	private final int[] _boosts;
+
+	public PriorityPolicy() {
+		this(DEFAULT_DEPTH_WEIGHT, DEFAULT_LINK_WEIGHT, Collections.<String, Integer> emptyMap());
+	}
+
+	/**
+	 * @param depthWeight
+	 *            priority lost per link followed from the start URL
+	 * @param linkWeight
+	 *            priority gained whenever the number of links to a URL
+	 *            doubles
+	 * @param boosts
+	 *            priority added to URLs by path prefix (e.g. "/products/"),
+	 *            negative to fetch URLs later
+	 */
+	public PriorityPolicy(final int depthWeight, final int linkWeight, final Map<String, Integer> boosts) {
+		if (depthWeight < 0) {
+			throw new IllegalArgumentException("depthWeight must not be negative, was " + depthWeight);
+		}
+		if (linkWeight < 0) {
+			throw new IllegalArgumentException("linkWeight must not be negative, was " + linkWeight);
+		}
+		_depthWeight = depthWeight;
+		_linkWeight = linkWeight;
+
+		// longest prefix first
+		final List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(boosts.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+
+			@Override
+			public int compare(final Map.Entry<String, Integer> o1, final Map.Entry<String, Integer> o2) {
+				return o2.getKey().length() - o1.getKey().length();
+			}
+		});
+		_prefixes = new String[entries.size()];
+		_boosts = new int[entries.size()];
+		for (int i = 0; i < _prefixes.length; i++) {
+			final Map.Entry<String, Integer> e = entries.get(i);
+			if (!e.getKey().startsWith("/")) {
+				throw new IllegalArgumentException("prefix must start with /, was " + e.getKey());
+			}
+			_prefixes[i] = e.getKey();
+			_boosts[i] = e.getValue();
+		}
+	}
+
+	/**
+	 * @param url
+	 *            canonical URL
+	 * @param depth
+	 *            number of links followed from the start URL
+	 * @param links
+	 *            number of links to the URL found so far, at least 1
+	 * @return priority between 0 and {@link #LEVELS} - 1
+	 */
+	public int getPriority(final String url, final int depth, final int links) {
+		final String path = path(url);
+
+		int segments = 0;
+		int params = 0;
+		for (int i = 0; i < path.length(); i++) {
+			final char c = path.charAt(i);
+			if (params > 0) {
+				if (c == '&') {
+					params++;
+				}
+			} else if (c == '/') {
+				segments++;
+			} else if (c == '?') {
+				params = 1;
+			}
+		}
+
+		long priority = LEVELS / 2;
+		priority -= (long) _depthWeight * depth;
+		priority -= Math.max(0, segments - 1) + params;
+		priority += (long) _linkWeight * (31 - Integer.numberOfLeadingZeros(Math.max(1, links)));
+		priority += getBoost(path);
+
+		return (int) Math.max(0, Math.min(LEVELS - 1, priority));
+	}
+
+	private int getBoost(final String path) {
+		for (int i = 0; i < _prefixes.length; i++) {
+			if (path.startsWith(_prefixes[i])) {
+				return _boosts[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return path and query of an absolute URL
+	 */
+	private static String path(final String url) {
+		final int scheme = url.indexOf("://");
+		final int slash = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+		return slash < 0 ? "/" : url.substring(slash);
+	}
+
+	public int getDepthWeight() {
+		return _depthWeight;
+	}
+
+	public int getLinkWeight() {
+		return _linkWeight;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import at.molindo.webtools.crawler.util.CountMinSketch;
+import at.molindo.webtools.crawler.util.Hashes;
+
+/**
+ * detects crawl traps, i.e. URL spaces without bounds like calendars, relative
+ * links nesting paths endlessly or combinations of query parameters. URLs are
+ * rejected if they are too long, too deep, have too many path segments or
+ * repeat a segment too often. Additionally, URLs share fetch budgets by
+ * pattern: the number of query variants of a path and the number of URLs of
+ * a path template are limited. Templates replace digits in path segments and
+ * drop query values, e.g. /events/#-#?day&month.
+ * 
+ * Budgets are counted in {@link CountMinSketch}es of fixed size, hence
+ * patterns may rarely run out of budget early. Each URL must only be checked
+ * once, e.g. after it was queued by the {@link ICrawlerHistory}.
+ */
+public class TrapDetector {
+
+	public enum Trap {
+		LENGTH, DEPTH, SEGMENTS, REPEATS, VARIANTS, TEMPLATE
+	}
+
+	public static final int DEFAULT_MAX_LENGTH = 1024;
+	public static final int DEFAULT_MAX_DEPTH = 256;
+	public static final int DEFAULT_MAX_SEGMENTS = 16;
+	public static final int DEFAULT_MAX_REPEATS = 3;
+	public static final int DEFAULT_MAX_VARIANTS = 1000;
+	public static final int DEFAULT_MAX_TEMPLATE_URLS = 10000;
+
+	/**
+	 * counters per sketch row, 4 rows take 1 MB per sketch
+	 */
+	private static final int SKETCH_WIDTH = 1 << 16;
+
+	private final int _maxLength;
+	private final int _maxDepth;
+	private final int _maxSegments;
+	private final int _maxRepeats;
+	private final int _maxVariants;
+	private final int _maxTemplateUrls;
+
+	private final CountMinSketch _variants = new CountMinSketch(SKETCH_WIDTH, 4);
+	private final CountMinSketch _templates = new CountMinSketch(SKETCH_WIDTH, 4);
+	private final AtomicLongArray _counts = new AtomicLongArray(Trap.values().length);
+
+	public TrapDetector() {
+		this(DEFAULT_MAX_LENGTH, DEFAULT_MAX_DEPTH, DEFAULT_MAX_SEGMENTS, DEFAULT_MAX_REPEATS, DEFAULT_MAX_VARIANTS,
+				DEFAULT_MAX_TEMPLATE_URLS);
+	}
+
+	/**
+	 * @param maxLength
+	 *            maximum number of characters of a URL
+	 * @param maxDepth
+	 *            maximum number of links from a start URL
+	 * @param maxSegments
+	 *            maximum number of path segments
+	 * @param maxRepeats
+	 *            maximum number of occurrences of the same path segment
+	 * @param maxVariants
+	 *            maximum number of URLs with the same path but different
+	 *            queries
+	 * @param maxTemplateUrls
+	 *            maximum number of URLs with the same path template
+	 */
+	public TrapDetector(final int maxLength, final int maxDepth, final int maxSegments, final int maxRepeats,
+			final int maxVariants, final int maxTemplateUrls) {
+		if (maxLength < 1) {
+			throw new IllegalArgumentException("maxLength must be positive, was " + maxLength);
+		}
+		if (maxDepth < 0) {
+			throw new IllegalArgumentException("maxDepth must not be negative, was " + maxDepth);
+		}
+		if (maxSegments < 1) {
+			throw new IllegalArgumentException("maxSegments must be positive, was " + maxSegments);
+		}
+		if (maxRepeats < 1) {
+			throw new IllegalArgumentException("maxRepeats must be positive, was " + maxRepeats);
+		}
+		if (maxVariants < 1) {
+			throw new IllegalArgumentException("maxVariants must be positive, was " + maxVariants);
+		}
+		if (maxTemplateUrls < 1) {
+			throw new IllegalArgumentException("maxTemplateUrls must be positive, was " + maxTemplateUrls);
+		}
+		_maxLength = maxLength;
+		_maxDepth = maxDepth;
+		_maxSegments = maxSegments;
+		_maxRepeats = maxRepeats;
+		_maxVariants = maxVariants;
+		_maxTemplateUrls = maxTemplateUrls;
+	}
+
+	/**
+	 * checks a canonical URL and charges its patterns' budgets
+	 * 
+	 * @param depth
+	 *            number of links from a start URL
+	 * @return the trap url falls into or null
+	 */
+	public Trap check(final String url, final int depth) {
+		final Trap trap = classify(url, depth);
+		if (trap != null) {
+			_counts.incrementAndGet(trap.ordinal());
+		}
+		return trap;
+	}
+
+	private Trap classify(final String url, final int depth) {
+		if (url.length() > _maxLength) {
+			return Trap.LENGTH;
+		}
+		if (depth > _maxDepth) {
+			return Trap.DEPTH;
+		}
+
+		final int scheme = url.indexOf("://");
+		int path = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+		int query = url.indexOf('?', path < 0 ? 0 : path);
+		if (query < 0) {
+			query = url.length();
+		}
+		if (path < 0 || path > query) {
+			path = query;
+		}
+
+		final StringBuilder template = new StringBuilder(url.length()).append(url, 0, path);
+
+		// path segments, skipping the leading slash
+		int segments = 0;
+		for (int start = path + 1; start <= query; segments++) {
+			int end = url.indexOf('/', start);
+			if (end < 0 || end > query) {
+				end = query;
+			}
+			if (segments == _maxSegments) {
+				return Trap.SEGMENTS;
+			}
+			if (end > start && repeats(url, path + 1, start, end) >= _maxRepeats) {
+				return Trap.REPEATS;
+			}
+
+			template.append('/');
+			boolean digits = false;
+			for (int i = start; i < end; i++) {
+				final char c = url.charAt(i);
+				if (c >= '0' && c <= '9') {
+					if (!digits) {
+						template.append('#');
+						digits = true;
+					}
+				} else {
+					template.append(c);
+					digits = false;
+				}
+			}
+			start = end + 1;
+		}
+
+		if (query < url.length()) {
+			final int variants = _variants.add(Hashes.fingerprint(url.subSequence(0, query)));
+			if (variants > _maxVariants) {
+				if (variants == _maxVariants + 1) {
+					System.out.println("crawl trap: more than " + _maxVariants + " queries for "
+							+ url.substring(0, query));
+				}
+				return Trap.VARIANTS;
+			}
+
+			// parameter names only
+			final Set<String> names = new TreeSet<String>();
+			for (int start = query + 1; start < url.length();) {
+				int end = url.indexOf('&', start);
+				if (end < 0) {
+					end = url.length();
+				}
+				final int eq = url.indexOf('=', start);
+				names.add(url.substring(start, eq < 0 || eq > end ? end : eq));
+				start = end + 1;
+			}
+			char separator = '?';
+			for (final String name : names) {
+				template.append(separator).append(name);
+				separator = '&';
+			}
+		}
+
+		final int urls = _templates.add(Hashes.fingerprint(template));
+		if (urls > _maxTemplateUrls) {
+			if (urls == _maxTemplateUrls + 1) {
+				System.out.println("crawl trap: more than " + _maxTemplateUrls + " URLs like " + template);
+			}
+			return Trap.TEMPLATE;
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of occurrences of url's segment between start and end in
+	 *         the segments before it
+	 */
+	private static int repeats(final String url, final int first, final int start, final int end) {
+		final int length = end - start;
+		int repeats = 0;
+		for (int s = first; s < start;) {
+			int e = url.indexOf('/', s);
+			if (e < 0 || e > start) {
+				e = start;
+			}
+			if (e - s == length && url.regionMatches(s, url, start, length)) {
+				repeats++;
+			}
+			s = e + 1;
+		}
+		return repeats;
+	}
+
+	/**
+	 * @return number of URLs rejected as trap
+	 */
+	public long getTrappedCount() {
+		long count = 0;
+		for (int i = 0; i < _counts.length(); i++) {
+			count += _counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of URLs rejected as trap
+	 */
+	public long getTrappedCount(final Trap trap) {
+		return _counts.get(trap.ordinal());
+	}
+}
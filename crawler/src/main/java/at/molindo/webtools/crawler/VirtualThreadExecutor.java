@@ -0,0 +1,211 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * runs every {@link CrawlerTask} on its own virtual thread, taking parser and
+ * client from the {@link Crawler}'s {@link CrawlerContext} pool. Virtual
+ * threads are looked up reflectively as they require Java 21. Older runtimes
+ * fall back to a cached pool of platform threads.
+ * 
+ * If created with a queue, tasks wait there instead of on a thread of their
+ * own, and at most maxConcurrency threads take them. Hence a
+ * {@link CrawlerFrontier} may spill them and a {@link PriorityFrontier} may
+ * order them.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+	private final ExecutorService _delegate;
+	private final Semaphore _permits;
+	private final BlockingQueue<Runnable> _queue;
+	private final int _maxConcurrency;
+	private final AtomicInteger _running = new AtomicInteger();
+
+	public VirtualThreadExecutor() {
+		this(0);
+	}
+
+	/**
+	 * @param maxConcurrency
+	 *            maximum number of concurrently running tasks or 0 for no limit.
+	 *            Tasks waiting for a permit park their (virtual) thread, even
+	 *            if interrupted.
+	 */
+	public VirtualThreadExecutor(final int maxConcurrency) {
+		this(maxConcurrency, null);
+	}
+
+	/**
+	 * @param maxConcurrency
+	 *            maximum number of concurrently running tasks, must be positive
+	 *            if queue isn't null
+	 * @param queue
+	 *            queue of tasks waiting for one of maxConcurrency threads, e.g.
+	 *            {@link Crawler#newBlockingQueue()}, or null to wait for a
+	 *            permit on a thread per task
+	 */
+	public VirtualThreadExecutor(final int maxConcurrency, final BlockingQueue<Runnable> queue) {
+		if (maxConcurrency < 0) {
+			throw new IllegalArgumentException("maxConcurrency must not be negative");
+		}
+		if (queue != null && maxConcurrency == 0) {
+			throw new IllegalArgumentException("maxConcurrency must be positive if queued");
+		}
+
+		ExecutorService delegate = newVirtualThreadPerTaskExecutor();
+		if (delegate == null) {
+			System.err.println("virtual threads not supported by Java " + System.getProperty("java.version")
+					+ ", falling back to platform threads");
+			delegate = Executors.newCachedThreadPool();
+		}
+		_delegate = delegate;
+		_permits = maxConcurrency > 0 && queue == null ? new Semaphore(maxConcurrency) : null;
+		_queue = queue;
+		_maxConcurrency = maxConcurrency;
+	}
+
+	public static boolean isSupported() {
+		final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		if (executor != null) {
+			executor.shutdown();
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (final NoSuchMethodException e) {
+			return null;
+		} catch (final IllegalAccessException e) {
+			return null;
+		} catch (final InvocationTargetException e) {
+			// preview feature not enabled
+			return null;
+		}
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (_queue != null) {
+			if (_delegate.isShutdown()) {
+				throw new RejectedExecutionException("executor shut down");
+			}
+			if (!_queue.offer(command)) {
+				throw new RejectedExecutionException("queue full");
+			}
+			drain();
+		} else if (_permits == null) {
+			_delegate.execute(command);
+		} else {
+			_delegate.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					// never drop a task, it must run to report its result. An
+					// interrupt is kept and seen by the task itself
+					_permits.acquireUninterruptibly();
+					try {
+						command.run();
+					} finally {
+						_permits.release();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * starts another thread taking tasks from the queue unless maxConcurrency
+	 * threads do already
+	 */
+	private void drain() {
+		int running;
+		do {
+			running = _running.get();
+			if (running >= _maxConcurrency) {
+				return;
+			}
+		} while (!_running.compareAndSet(running, running + 1));
+
+		try {
+			_delegate.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						Runnable r;
+						while ((r = _queue.poll()) != null) {
+							r.run();
+						}
+					} finally {
+						_running.decrementAndGet();
+					}
+					// a task offered meanwhile might have found no free thread
+					if (!_queue.isEmpty()) {
+						drain();
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// shut down, running threads take what's left
+			_running.decrementAndGet();
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		_delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		final List<Runnable> tasks = new ArrayList<Runnable>(_delegate.shutdownNow());
+		if (_queue != null) {
+			_queue.drainTo(tasks);
+		}
+		return tasks;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return _delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return _delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return _delegate.awaitTermination(timeout, unit);
+	}
+}
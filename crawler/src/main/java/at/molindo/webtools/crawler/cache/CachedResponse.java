@@ -0,0 +1,76 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.cache;
+
+/**
+ * validators and metadata of a cached response
+ */
+public final class CachedResponse {
+
+	private final String _etag;
+	private final String _lastModified;
+	private final String _contentType;
+	private final String _encoding;
+	private final long _contentLength;
+	private final byte[] _digest;
+
+	/**
+	 * @param etag
+	 *            value of ETag header or null
+	 * @param lastModified
+	 *            value of Last-Modified header or null
+	 * @param contentLength
+	 *            length of the body or -1 if unknown
+	 * @param digest
+	 *            digest of the body or null
+	 */
+	public CachedResponse(final String etag, final String lastModified, final String contentType,
+			final String encoding, final long contentLength, final byte[] digest) {
+		if (etag == null && lastModified == null) {
+			throw new IllegalArgumentException("etag or lastModified required");
+		}
+		_etag = etag;
+		_lastModified = lastModified;
+		_contentType = contentType;
+		_encoding = encoding;
+		_contentLength = contentLength;
+		_digest = digest;
+	}
+
+	public String getEtag() {
+		return _etag;
+	}
+
+	public String getLastModified() {
+		return _lastModified;
+	}
+
+	public String getContentType() {
+		return _contentType;
+	}
+
+	public String getEncoding() {
+		return _encoding;
+	}
+
+	public long getContentLength() {
+		return _contentLength;
+	}
+
+	public byte[] getDigest() {
+		return _digest;
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import at.molindo.utils.io.CharsetUtils;
+import at.molindo.webtools.crawler.util.Hashes;
+
+/**
+ * keeps one file per URL in a directory, named by the URL's fingerprint and
+ * spread over 256 subdirectories. Files contain the URL, validators and
+ * optionally the body. Files are replaced atomically by renaming a temporary
+ * file, readers never see partial entries.
+ */
+public class DiskResponseCache implements IResponseCache {
+
+	private static final int MAGIC = 0x43524331; // CRC1
+
+	private final File _directory;
+
+	public DiskResponseCache(final File directory) throws IOException {
+		if (directory == null) {
+			throw new NullPointerException("directory");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("failed to create directory " + directory);
+		}
+		_directory = directory;
+	}
+
+	@Override
+	public CachedResponse get(final String url) throws IOException {
+		final DataInputStream in = open(url);
+		if (in == null) {
+			return null;
+		}
+		try {
+			return readResponse(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public InputStream openBody(final String url) throws IOException {
+		final DataInputStream in = open(url);
+		if (in == null) {
+			return null;
+		}
+		boolean body = false;
+		try {
+			readResponse(in);
+			body = in.readBoolean();
+			return body ? in : null;
+		} finally {
+			if (!body) {
+				in.close();
+			}
+		}
+	}
+
+	@Override
+	public void put(final String url, final CachedResponse response, final byte[] body) throws IOException {
+		final File file = file(url);
+		final File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("failed to create directory " + dir);
+		}
+
+		final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		boolean written = false;
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				writeString(out, url);
+				writeString(out, response.getEtag());
+				writeString(out, response.getLastModified());
+				writeString(out, response.getContentType());
+				writeString(out, response.getEncoding());
+				out.writeLong(response.getContentLength());
+				writeBytes(out, response.getDigest());
+				out.writeBoolean(body != null);
+				if (body != null) {
+					out.write(body);
+				}
+			} finally {
+				out.close();
+			}
+			written = tmp.renameTo(file) || file.delete() && tmp.renameTo(file);
+			if (!written) {
+				throw new IOException("failed to rename " + tmp + " to " + file);
+			}
+		} finally {
+			if (!written) {
+				tmp.delete();
+			}
+		}
+	}
+
+	@Override
+	public void remove(final String url) throws IOException {
+		final File file = file(url);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("failed to delete " + file);
+		}
+	}
+
+	/**
+	 * @return a stream positioned after the url or null if url isn't cached
+	 */
+	private DataInputStream open(final String url) throws IOException {
+		final DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file(url))));
+		} catch (final FileNotFoundException e) {
+			return null;
+		}
+
+		boolean match = false;
+		try {
+			match = in.readInt() == MAGIC && url.equals(readString(in));
+			return match ? in : null;
+		} catch (final EOFException e) {
+			return null;
+		} finally {
+			if (!match) {
+				// corrupt or fingerprint collision
+				in.close();
+			}
+		}
+	}
+
+	private File file(final String url) {
+		final String name = Long.toHexString(Hashes.fingerprint(url));
+		return new File(new File(_directory, name.substring(name.length() - 2)), name);
+	}
+
+	private static CachedResponse readResponse(final DataInputStream in) throws IOException {
+		final String etag = readString(in);
+		final String lastModified = readString(in);
+		final String contentType = readString(in);
+		final String encoding = readString(in);
+		final long contentLength = in.readLong();
+		final byte[] digest = readBytes(in);
+		return new CachedResponse(etag, lastModified, contentType, encoding, contentLength, digest);
+	}
+
+	private static void writeString(final DataOutputStream out, final String s) throws IOException {
+		writeBytes(out, s == null ? null : s.getBytes(CharsetUtils.UTF_8));
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+		final byte[] bytes = readBytes(in);
+		return bytes == null ? null : new String(bytes, CharsetUtils.UTF_8);
+	}
+
+	private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+		if (bytes == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] readBytes(final DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * stores validators and bodies of responses across crawls, allowing
+ * conditional requests. Implementations must be thread-safe.
+ */
+public interface IResponseCache {
+
+	/**
+	 * @return validators and metadata of the cached response for url or null
+	 */
+	CachedResponse get(String url) throws IOException;
+
+	/**
+	 * @return the cached body of url or null if not cached
+	 */
+	InputStream openBody(String url) throws IOException;
+
+	/**
+	 * @param body
+	 *            the response body or null if only validators are cached
+	 */
+	void put(String url, CachedResponse response, byte[] body) throws IOException;
+
+	void remove(String url) throws IOException;
+}
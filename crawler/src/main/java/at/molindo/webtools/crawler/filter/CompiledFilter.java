@@ -0,0 +1,313 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import at.molindo.webtools.crawler.CrawlerTask;
+
+/**
+ * immutable chain of filters that filters a task if any of its filters does.
+ * {@link PrefixFilter}, {@link SuffixFilter}, {@link ContainsStringFilter} and
+ * their negations (see {@link FilterUtils#not(ICrawlerFilter)}) are merged into
+ * a single Aho-Corasick automaton that is evaluated in one pass over the URL.
+ * Prefixes and suffixes are anchored by matching them against virtual start
+ * and end characters. All other filters are kept and evaluated in order
+ * against the task.
+ */
+public final class CompiledFilter implements ICrawlerFilter {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * automaton alphabet, canonical URLs are ASCII only
+	 */
+	private static final int ALPHABET = 128;
+
+	/**
+	 * virtual character in front of the URL
+	 */
+	private static final char START = '\u0002';
+
+	/**
+	 * virtual character behind the URL
+	 */
+	private static final char END = '\u0003';
+
+	private static final int MAX_NEGATED = Long.SIZE;
+
+	private static final ICrawlerFilter[] EMPTY = new ICrawlerFilter[0];
+
+	private final int[] _delta;
+	private final boolean[] _accept;
+	private final long[] _negated;
+	private final long _negatedAll;
+	private final int _patterns;
+
+	private final ICrawlerFilter[] _taskFilters;
+
+	CompiledFilter(final List<? extends ICrawlerFilter> filters) {
+		if (filters == null) {
+			throw new NullPointerException("filters");
+		}
+
+		final Builder builder = new Builder();
+		final List<ICrawlerFilter> taskFilters = new ArrayList<ICrawlerFilter>();
+		for (final ICrawlerFilter filter : filters) {
+			if (filter == null) {
+				throw new NullPointerException("filter");
+			}
+			if (!builder.add(filter)) {
+				taskFilters.add(filter);
+			}
+		}
+
+		_delta = builder.delta();
+		_accept = builder._accept;
+		_negated = builder._negated;
+		_negatedAll = builder._negatedAll;
+		_patterns = builder._patterns;
+		_taskFilters = taskFilters.isEmpty() ? EMPTY : taskFilters.toArray(new ICrawlerFilter[taskFilters.size()]);
+	}
+
+	/**
+	 * evaluates the compiled patterns only
+	 * 
+	 * @return true if the URL is filtered by one of the compiled patterns
+	 */
+	public boolean filter(final String url) {
+		if (_patterns == 0) {
+			return false;
+		}
+
+		final int[] delta = _delta;
+		final boolean[] accept = _accept;
+		final long[] negated = _negated;
+
+		int state = delta[START];
+		if (accept[state]) {
+			return true;
+		}
+		long matched = negated[state];
+
+		for (int i = 0, len = url.length(); i < len; i++) {
+			final char c = url.charAt(i);
+			// no pattern contains c, hence no match can span it
+			state = c < ALPHABET ? delta[state * ALPHABET + c] : 0;
+			if (accept[state]) {
+				return true;
+			}
+			matched |= negated[state];
+		}
+
+		state = delta[state * ALPHABET + END];
+		if (accept[state]) {
+			return true;
+		}
+		matched |= negated[state];
+
+		return matched != _negatedAll;
+	}
+
+	/**
+	 * @return true if there are filters that can't be compiled and need a
+	 *         {@link CrawlerTask}
+	 */
+	public boolean hasTaskFilters() {
+		return _taskFilters.length > 0;
+	}
+
+	/**
+	 * evaluates the filters that couldn't be compiled only
+	 */
+	public boolean filterTask(final CrawlerTask task) {
+		for (final ICrawlerFilter filter : _taskFilters) {
+			if (filter.filter(task)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean filter(final CrawlerTask task) {
+		return filter(task.getUrlString()) || filterTask(task);
+	}
+
+	/**
+	 * @return number of compiled patterns
+	 */
+	public int getPatternCount() {
+		return _patterns;
+	}
+
+	/**
+	 * @return number of automaton states
+	 */
+	public int getStateCount() {
+		return _accept.length;
+	}
+
+	private static final class Builder {
+
+		private final List<int[]> _goto = new ArrayList<int[]>();
+		private boolean[] _accept = new boolean[16];
+		private long[] _negated = new long[16];
+		private long _negatedAll;
+		private int _negatedCount;
+		private int _patterns;
+
+		private Builder() {
+			newState();
+		}
+
+		/**
+		 * @return false if filter can't be compiled
+		 */
+		private boolean add(final ICrawlerFilter filter) {
+			boolean negate = false;
+			ICrawlerFilter f = filter;
+			while (f instanceof FilterUtils.NotFilter) {
+				negate = !negate;
+				f = ((FilterUtils.NotFilter) f).getFilter();
+			}
+
+			// subclasses might override filter(), only exact classes are
+			// compiled
+			final String[] patterns;
+			if (f.getClass() == PrefixFilter.class) {
+				patterns = ((PrefixFilter) f).getPrefixes();
+				for (int i = 0; i < patterns.length; i++) {
+					patterns[i] = START + patterns[i];
+				}
+			} else if (f.getClass() == SuffixFilter.class) {
+				patterns = new String[] { ((SuffixFilter) f).getSuffix() + END };
+			} else if (f.getClass() == ContainsStringFilter.class) {
+				patterns = new String[] { ((ContainsStringFilter) f).getString() };
+			} else {
+				return false;
+			}
+
+			for (final String pattern : patterns) {
+				if (!isCompilable(pattern)) {
+					return false;
+				}
+			}
+			if (negate && _negatedCount == MAX_NEGATED) {
+				return false;
+			}
+
+			// all patterns of a negated filter share its bit
+			final long bit = negate ? 1L << _negatedCount++ : 0;
+			for (final String pattern : patterns) {
+				final int state = insert(pattern);
+				if (negate) {
+					_negated[state] |= bit;
+					_negatedAll |= bit;
+				} else {
+					_accept[state] = true;
+				}
+				_patterns++;
+			}
+			return true;
+		}
+
+		private static boolean isCompilable(final String pattern) {
+			for (int i = 0; i < pattern.length(); i++) {
+				if (pattern.charAt(i) >= ALPHABET) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int insert(final String pattern) {
+			int state = 0;
+			for (int i = 0; i < pattern.length(); i++) {
+				final char c = pattern.charAt(i);
+				int next = _goto.get(state)[c];
+				if (next < 0) {
+					next = newState();
+					_goto.get(state)[c] = next;
+				}
+				state = next;
+			}
+			return state;
+		}
+
+		private int newState() {
+			final int[] transitions = new int[ALPHABET];
+			Arrays.fill(transitions, -1);
+			_goto.add(transitions);
+
+			final int state = _goto.size() - 1;
+			if (state == _accept.length) {
+				_accept = Arrays.copyOf(_accept, state * 2);
+				_negated = Arrays.copyOf(_negated, state * 2);
+			}
+			return state;
+		}
+
+		/**
+		 * converts the trie into a DFA, merging outputs along failure links
+		 */
+		private int[] delta() {
+			final int states = _goto.size();
+			_accept = Arrays.copyOf(_accept, states);
+			_negated = Arrays.copyOf(_negated, states);
+
+			final int[] delta = new int[states * ALPHABET];
+			final int[] fail = new int[states];
+			final int[] queue = new int[states];
+			int head = 0, tail = 0;
+
+			final int[] root = _goto.get(0);
+			for (int c = 0; c < ALPHABET; c++) {
+				final int next = root[c];
+				if (next > 0) {
+					delta[c] = next;
+					fail[next] = 0;
+					queue[tail++] = next;
+				} else {
+					delta[c] = 0;
+				}
+			}
+
+			while (head < tail) {
+				final int state = queue[head++];
+				final int f = fail[state];
+				_accept[state] |= _accept[f];
+				_negated[state] |= _negated[f];
+
+				final int[] transitions = _goto.get(state);
+				final int offset = state * ALPHABET;
+				for (int c = 0; c < ALPHABET; c++) {
+					final int next = transitions[c];
+					if (next >= 0) {
+						delta[offset + c] = next;
+						fail[next] = delta[f * ALPHABET + c];
+						queue[tail++] = next;
+					} else {
+						delta[offset + c] = delta[f * ALPHABET + c];
+					}
+				}
+			}
+			return delta;
+		}
+	}
+}
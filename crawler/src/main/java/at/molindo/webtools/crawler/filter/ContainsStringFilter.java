@@ -38,4 +38,8 @@ public class ContainsStringFilter implements ICrawlerFilter {
 		return task.getUrlString().contains(_string);
 	}
 
+	public String getString() {
+		return _string;
+	}
+
 }
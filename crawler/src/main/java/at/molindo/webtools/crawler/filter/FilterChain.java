@@ -0,0 +1,149 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.filter;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * copy-on-write list of filters that keeps a {@link CompiledFilter} of its
+ * current contents. Iterators work on a snapshot, removing through an
+ * iterator removes from the chain.
+ */
+public class FilterChain extends AbstractList<ICrawlerFilter> implements RandomAccess {
+
+	private volatile ICrawlerFilter[] _filters = new ICrawlerFilter[0];
+	private volatile CompiledFilter _compiled = FilterUtils.compile(Collections.<ICrawlerFilter> emptyList());
+
+	/**
+	 * @return the compiled filter for the current contents
+	 */
+	public CompiledFilter getCompiled() {
+		return _compiled;
+	}
+
+	@Override
+	public ICrawlerFilter get(final int index) {
+		return _filters[index];
+	}
+
+	@Override
+	public int size() {
+		return _filters.length;
+	}
+
+	@Override
+	public synchronized ICrawlerFilter set(final int index, final ICrawlerFilter filter) {
+		if (filter == null) {
+			throw new NullPointerException("filter");
+		}
+		final ICrawlerFilter[] filters = _filters.clone();
+		final ICrawlerFilter old = filters[index];
+		filters[index] = filter;
+		update(filters);
+		return old;
+	}
+
+	@Override
+	public synchronized void add(final int index, final ICrawlerFilter filter) {
+		if (filter == null) {
+			throw new NullPointerException("filter");
+		}
+		final ICrawlerFilter[] filters = _filters;
+		if (index < 0 || index > filters.length) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + filters.length);
+		}
+		final ICrawlerFilter[] copy = new ICrawlerFilter[filters.length + 1];
+		System.arraycopy(filters, 0, copy, 0, index);
+		copy[index] = filter;
+		System.arraycopy(filters, index, copy, index + 1, filters.length - index);
+		update(copy);
+	}
+
+	@Override
+	public synchronized ICrawlerFilter remove(final int index) {
+		final ICrawlerFilter[] filters = _filters;
+		final ICrawlerFilter old = filters[index];
+		final ICrawlerFilter[] copy = new ICrawlerFilter[filters.length - 1];
+		System.arraycopy(filters, 0, copy, 0, index);
+		System.arraycopy(filters, index + 1, copy, index, filters.length - index - 1);
+		update(copy);
+		return old;
+	}
+
+	@Override
+	public synchronized boolean remove(final Object filter) {
+		final ICrawlerFilter[] filters = _filters;
+		for (int i = 0; i < filters.length; i++) {
+			if (filters[i].equals(filter)) {
+				remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized void clear() {
+		update(new ICrawlerFilter[0]);
+	}
+
+	@Override
+	public Iterator<ICrawlerFilter> iterator() {
+		final ICrawlerFilter[] snapshot = _filters;
+
+		return new Iterator<ICrawlerFilter>() {
+
+			private int _next;
+			private ICrawlerFilter _last;
+
+			@Override
+			public boolean hasNext() {
+				return _next < snapshot.length;
+			}
+
+			@Override
+			public ICrawlerFilter next() {
+				if (_next == snapshot.length) {
+					throw new NoSuchElementException();
+				}
+				return _last = snapshot[_next++];
+			}
+
+			@Override
+			public void remove() {
+				if (_last == null) {
+					throw new IllegalStateException();
+				}
+				FilterChain.this.remove(_last);
+				_last = null;
+			}
+		};
+	}
+
+	private void update(final ICrawlerFilter[] filters) {
+		// compile before publishing so that readers never see a stale automaton
+		// for the new contents
+		final CompiledFilter compiled = FilterUtils.compile(Arrays.asList(filters));
+		_filters = filters;
+		_compiled = compiled;
+		modCount++;
+	}
+}
@@ -15,6 +15,8 @@
  */
 package at.molindo.webtools.crawler.filter;
 
+import java.util.List;
+
 import at.molindo.webtools.crawler.CrawlerTask;
 
 public class FilterUtils {
@@ -23,14 +25,39 @@ public class FilterUtils {
 	}
 
 	public static ICrawlerFilter not(final ICrawlerFilter filter) {
-		return new ICrawlerFilter() {
+		return new NotFilter(filter);
+	}
+
+	/**
+	 * compiles a chain of filters that filters a task if any of the filters
+	 * does
+	 * 
+	 * @see CompiledFilter
+	 */
+	public static CompiledFilter compile(final List<? extends ICrawlerFilter> filters) {
+		return new CompiledFilter(filters);
+	}
 
-			private static final long serialVersionUID = 1L;
+	static final class NotFilter implements ICrawlerFilter {
 
-			@Override
-			public boolean filter(final CrawlerTask task) {
-				return !filter.filter(task);
+		private static final long serialVersionUID = 1L;
+
+		private final ICrawlerFilter _filter;
+
+		private NotFilter(final ICrawlerFilter filter) {
+			if (filter == null) {
+				throw new NullPointerException("filter");
 			}
-		};
+			_filter = filter;
+		}
+
+		@Override
+		public boolean filter(final CrawlerTask task) {
+			return !_filter.filter(task);
+		}
+
+		ICrawlerFilter getFilter() {
+			return _filter;
+		}
 	}
 }
@@ -15,14 +15,20 @@
  */
 package at.molindo.webtools.crawler.filter;
 
+import java.util.List;
+
 import at.molindo.webtools.crawler.Crawler;
 import at.molindo.webtools.crawler.CrawlerTask;
 
+/**
+ * filters URLs starting with a prefix. A relative prefix applies to all hosts
+ * of the crawler, an absolute one to its own host only.
+ */
 public class PrefixFilter implements ICrawlerFilter {
 
 	private static final long serialVersionUID = 1L;
 
-	private final String _prefix;
+	private final String[] _prefixes;
 
 	public PrefixFilter(final Crawler crawler, String prefix) {
 		if (crawler == null) {
@@ -32,16 +38,44 @@ public class PrefixFilter implements ICrawlerFilter {
 			throw new NullPointerException("prefix");
 		}
 
-		if (prefix.startsWith("/")) {
-			prefix = prefix.substring(1);
-		}
+		if (prefix.contains("://")) {
+			_prefixes = new String[] { prefix };
+		} else {
+			if (prefix.startsWith("/")) {
+				prefix = prefix.substring(1);
+			}
 
-		_prefix = crawler.getHost() + prefix;
+			final List<String> hosts = crawler.getHosts();
+			_prefixes = new String[hosts.size()];
+			for (int i = 0; i < _prefixes.length; i++) {
+				_prefixes[i] = hosts.get(i) + prefix;
+			}
+		}
 	}
 
 	@Override
 	public boolean filter(final CrawlerTask task) {
-		return task.getUrlString().startsWith(_prefix);
+		final String url = task.getUrlString();
+		for (final String prefix : _prefixes) {
+			if (url.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the prefix including the crawler's first host
+	 */
+	public String getPrefix() {
+		return _prefixes[0];
+	}
+
+	/**
+	 * @return the prefix including each of the crawler's hosts
+	 */
+	public String[] getPrefixes() {
+		return _prefixes.clone();
 	}
 
 }
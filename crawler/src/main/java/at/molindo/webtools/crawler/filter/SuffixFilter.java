@@ -36,4 +36,8 @@ public final class SuffixFilter implements ICrawlerFilter {
 	public boolean filter(final CrawlerTask task) {
 		return task.getUrlString().endsWith(_suffix);
 	}
+
+	public String getSuffix() {
+		return _suffix;
+	}
 }
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+
+/**
+ * determines the character set of text content in the order of the HTML5
+ * encoding sniffing algorithm: byte order mark, Content-Type header, meta tag
+ * within the first 1024 bytes
+ */
+public final class CharsetDetector {
+
+	/**
+	 * number of bytes searched for a meta tag
+	 */
+	public static final int PRESCAN_LENGTH = 1024;
+
+	private CharsetDetector() {
+	}
+
+	/**
+	 * @return the charset parameter of a Content-Type header, null if missing
+	 *         or not supported
+	 */
+	public static String fromContentType(final String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		final int idx = indexOfIgnoreCase(contentType, "charset=", 0, contentType.length());
+		return idx < 0 ? null : supported(value(contentType, idx + "charset=".length(), contentType.length()));
+	}
+
+	/**
+	 * @param in
+	 *            a stream supporting mark and reset, positioned at the start
+	 *            of the content. It is reset before this method returns.
+	 * @param contentType
+	 *            value of the Content-Type header or null
+	 * @param defaultCharset
+	 *            charset if none was detected
+	 * @return the detected charset
+	 */
+	public static String detect(final InputStream in, final String contentType, final String defaultCharset)
+			throws IOException {
+		if (!in.markSupported()) {
+			throw new IllegalArgumentException("stream must support mark");
+		}
+
+		in.mark(PRESCAN_LENGTH);
+		final byte[] buf = new byte[PRESCAN_LENGTH];
+		int len = 0;
+		try {
+			int r;
+			while (len < buf.length && (r = in.read(buf, len, buf.length - len)) != -1) {
+				len += r;
+			}
+		} finally {
+			in.reset();
+		}
+
+		final String bom = fromBom(buf, len);
+		if (bom != null) {
+			return bom;
+		}
+
+		final String header = fromContentType(contentType);
+		if (header != null) {
+			return header;
+		}
+
+		if (contentType == null || contentType.startsWith("text/html")) {
+			final String meta = fromMeta(buf, len);
+			if (meta != null) {
+				return meta;
+			}
+		}
+		return defaultCharset;
+	}
+
+	static String fromBom(final byte[] buf, final int len) {
+		if (len >= 3 && (buf[0] & 0xff) == 0xef && (buf[1] & 0xff) == 0xbb && (buf[2] & 0xff) == 0xbf) {
+			return "UTF-8";
+		}
+		if (len >= 2 && (buf[0] & 0xff) == 0xfe && (buf[1] & 0xff) == 0xff) {
+			return "UTF-16BE";
+		}
+		if (len >= 2 && (buf[0] & 0xff) == 0xff && (buf[1] & 0xff) == 0xfe) {
+			return "UTF-16LE";
+		}
+		return null;
+	}
+
+	/**
+	 * finds charset declarations in meta tags, either as charset attribute or
+	 * as part of a http-equiv content attribute
+	 */
+	static String fromMeta(final byte[] buf, final int len) {
+		// bytes map to chars 1:1
+		final String head = new String(buf, 0, len, Charset.forName("ISO-8859-1"));
+
+		int idx = 0;
+		while ((idx = indexOfIgnoreCase(head, "<meta", idx, len)) >= 0) {
+			int end = head.indexOf('>', idx);
+			if (end < 0) {
+				end = len;
+			}
+			final int charset = indexOfIgnoreCase(head, "charset=", idx, end);
+			if (charset >= 0) {
+				String value = supported(value(head, charset + "charset=".length(), end));
+				if (value != null) {
+					// a page read as ASCII can't be UTF-16
+					if (value.toUpperCase().startsWith("UTF-16")) {
+						value = "UTF-8";
+					}
+					return value;
+				}
+			}
+			idx = end;
+		}
+		return null;
+	}
+
+	private static String value(final String s, int start, final int end) {
+		while (start < end && (s.charAt(start) == '"' || s.charAt(start) == '\'' || s.charAt(start) == ' ')) {
+			start++;
+		}
+		int stop = start;
+		while (stop < end) {
+			final char c = s.charAt(stop);
+			if (c == '"' || c == '\'' || c == ';' || c == ' ' || c == '/' || c == '>') {
+				break;
+			}
+			stop++;
+		}
+		return stop > start ? s.substring(start, stop) : null;
+	}
+
+	private static String supported(final String charset) {
+		if (charset == null) {
+			return null;
+		}
+		try {
+			return Charset.isSupported(charset) ? charset : null;
+		} catch (final IllegalCharsetNameException e) {
+			return null;
+		}
+	}
+
+	private static int indexOfIgnoreCase(final String s, final String pattern, final int from, final int to) {
+		for (int i = from, last = to - pattern.length(); i <= last; i++) {
+			if (s.regionMatches(true, i, pattern, 0, pattern.length())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
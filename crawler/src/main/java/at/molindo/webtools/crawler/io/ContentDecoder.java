@@ -0,0 +1,250 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * decodes HTTP content codings while the content is read
+ */
+public final class ContentDecoder {
+
+	/**
+	 * value for the Accept-Encoding request header
+	 */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private ContentDecoder() {
+	}
+
+	/**
+	 * @param contentEncoding
+	 *            value of the Content-Encoding response header, codings are
+	 *            applied in listed order
+	 * @return a stream decoding in or in itself if there is nothing to decode
+	 * @throws IOException
+	 *             if a coding isn't supported
+	 */
+	public static InputStream decode(InputStream in, final String contentEncoding) throws IOException {
+		if (contentEncoding == null) {
+			return in;
+		}
+		final String[] codings = contentEncoding.split(",");
+		for (int i = codings.length - 1; i >= 0; i--) {
+			final String coding = codings[i].trim().toLowerCase();
+			if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+				in = new GZIPInputStream(in, BUFFER_SIZE);
+			} else if ("deflate".equals(coding)) {
+				in = inflate(in);
+			} else if (!"identity".equals(coding) && coding.length() > 0) {
+				throw new IOException("unsupported content encoding: " + contentEncoding);
+			}
+		}
+		return in;
+	}
+
+	/**
+	 * decodes content as it is written, e.g. by a non-blocking executor. Only
+	 * the first gzip member is decoded.
+	 * 
+	 * @param contentEncoding
+	 *            value of the Content-Encoding response header, codings are
+	 *            applied in listed order
+	 * @return a stream writing decoded content to out or out itself if there
+	 *         is nothing to decode. Closing it closes out.
+	 * @throws IOException
+	 *             if a coding isn't supported
+	 */
+	public static OutputStream decoding(OutputStream out, final String contentEncoding) throws IOException {
+		if (contentEncoding == null) {
+			return out;
+		}
+		final String[] codings = contentEncoding.split(",");
+		for (int i = 0; i < codings.length; i++) {
+			final String coding = codings[i].trim().toLowerCase();
+			if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+				out = new InflatingOutputStream(out, true);
+			} else if ("deflate".equals(coding)) {
+				out = new InflatingOutputStream(out, false);
+			} else if (!"identity".equals(coding) && coding.length() > 0) {
+				throw new IOException("unsupported content encoding: " + contentEncoding);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * deflate is meant to be zlib wrapped, but some servers send raw deflate
+	 * data. Both are accepted.
+	 */
+	private static InputStream inflate(final InputStream in) throws IOException {
+		final PushbackInputStream pin = new PushbackInputStream(in, 2);
+		final int b0 = pin.read();
+		final int b1 = b0 == -1 ? -1 : pin.read();
+		if (b1 != -1) {
+			pin.unread(b1);
+		}
+		if (b0 != -1) {
+			pin.unread(b0);
+		}
+
+		final boolean zlib = b1 != -1 && (b0 & 0x0f) == 8 && (b0 << 8 | b1) % 31 == 0;
+		final Inflater inflater = new Inflater(!zlib);
+		return new InflaterInputStream(pin, inflater, BUFFER_SIZE) {
+
+			private boolean _closed;
+
+			@Override
+			public void close() throws IOException {
+				if (!_closed) {
+					_closed = true;
+					// release native memory, not done for custom inflaters
+					inflater.end();
+					super.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * zlib wrapped, raw deflate or gzip content, the header is collected until
+	 * complete. Bytes after the end of compressed data are ignored.
+	 */
+	private static final class InflatingOutputStream extends OutputStream {
+
+		private final OutputStream _out;
+		private final boolean _gzip;
+		private final byte[] _buf = new byte[BUFFER_SIZE];
+		private ByteArrayOutputStream _header = new ByteArrayOutputStream(16);
+		private Inflater _inflater;
+
+		private InflatingOutputStream(final OutputStream out, final boolean gzip) {
+			_out = out;
+			_gzip = gzip;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if (_inflater != null) {
+				inflate(b, off, len);
+			} else if (_header != null) {
+				_header.write(b, off, len);
+				final byte[] header = _header.toByteArray();
+				final int start = _gzip ? gzipHeaderLength(header) : header.length < 2 ? -1 : 0;
+				if (start >= 0) {
+					// see inflate(InputStream)
+					final boolean zlib = !_gzip && (header[0] & 0x0f) == 8
+							&& ((header[0] & 0xff) << 8 | header[1] & 0xff) % 31 == 0;
+					_inflater = new Inflater(!zlib);
+					_header = null;
+					inflate(header, start, header.length - start);
+				}
+			} else {
+				throw new IOException("stream closed");
+			}
+		}
+
+		private void inflate(final byte[] b, final int off, final int len) throws IOException {
+			if (_inflater.finished() || len == 0) {
+				return;
+			}
+			_inflater.setInput(b, off, len);
+			try {
+				while (!_inflater.finished() && !_inflater.needsInput()) {
+					final int n = _inflater.inflate(_buf);
+					if (n > 0) {
+						_out.write(_buf, 0, n);
+					} else if (_inflater.needsDictionary()) {
+						throw new ZipException("ZLIB dictionary missing");
+					} else {
+						break;
+					}
+				}
+			} catch (final DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+		}
+
+		/**
+		 * @return length of the gzip header, -1 if incomplete
+		 */
+		private static int gzipHeaderLength(final byte[] h) throws ZipException {
+			final int n = h.length;
+			if (n < 10) {
+				return -1;
+			}
+			if ((h[0] & 0xff) != 0x1f || (h[1] & 0xff) != 0x8b || h[2] != 8) {
+				throw new ZipException("Not in GZIP format");
+			}
+			final int flags = h[3] & 0xff;
+			int p = 10;
+			if ((flags & 4) != 0) {
+				// extra field
+				if (n < p + 2) {
+					return -1;
+				}
+				p += 2 + ((h[p] & 0xff) | (h[p + 1] & 0xff) << 8);
+			}
+			for (final int flag : new int[] { 8, 16 }) {
+				// zero terminated file name and comment
+				if ((flags & flag) != 0) {
+					do {
+						if (p >= n) {
+							return -1;
+						}
+					} while (h[p++] != 0);
+				}
+			}
+			if ((flags & 2) != 0) {
+				// header CRC
+				p += 2;
+			}
+			return p <= n ? p : -1;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			_out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (_inflater != null) {
+				// release native memory
+				_inflater.end();
+				_inflater = null;
+			}
+			_header = null;
+			_out.close();
+		}
+	}
+}
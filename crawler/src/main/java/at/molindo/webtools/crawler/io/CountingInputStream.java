@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * counts bytes read from the wrapped stream
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private long _count;
+	private long _mark;
+
+	public CountingInputStream(final InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b != -1) {
+			_count++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		final int n = super.read(b, off, len);
+		if (n > 0) {
+			_count += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long skipped = super.skip(n);
+		_count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public synchronized void mark(final int readlimit) {
+		super.mark(readlimit);
+		_mark = _count;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		super.reset();
+		_count = _mark;
+	}
+
+	/**
+	 * @return number of bytes read
+	 */
+	public long getCount() {
+		return _count;
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * discards written bytes, but counts and digests them
+ */
+public class DigestOutputStream extends OutputStream {
+
+	public static final String DEFAULT_ALGORITHM = "MD5";
+
+	private final MessageDigest _digest;
+	private long _length;
+
+	public DigestOutputStream() {
+		this(DEFAULT_ALGORITHM);
+	}
+
+	public DigestOutputStream(final String algorithm) {
+		try {
+			_digest = MessageDigest.getInstance(algorithm);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("unknown algorithm " + algorithm, e);
+		}
+	}
+
+	@Override
+	public void write(final int b) {
+		_digest.update((byte) b);
+		_length++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		_digest.update(b, off, len);
+		_length += len;
+	}
+
+	public long getLength() {
+		return _length;
+	}
+
+	/**
+	 * completes the digest, resetting it
+	 */
+	public byte[] digest() {
+		return _digest.digest();
+	}
+}
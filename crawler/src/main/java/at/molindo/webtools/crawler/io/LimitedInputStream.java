@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ends after a maximum number of bytes. Whether the wrapped stream had more is
+ * known once the limit was reached.
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+	private final long _limit;
+	private long _remaining;
+	private boolean _truncated;
+
+	public LimitedInputStream(final InputStream in, final long limit) {
+		super(in);
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative, was " + limit);
+		}
+		_limit = limit;
+		_remaining = limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (_remaining == 0) {
+			checkTruncated();
+			return -1;
+		}
+		final int b = super.read();
+		if (b != -1) {
+			_remaining--;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (_remaining == 0) {
+			checkTruncated();
+			return -1;
+		}
+		final int n = super.read(b, off, (int) Math.min(len, _remaining));
+		if (n > 0) {
+			_remaining -= n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long skipped = super.skip(Math.min(n, _remaining));
+		_remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(super.available(), _remaining);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	private void checkTruncated() throws IOException {
+		if (!_truncated && super.read() != -1) {
+			_truncated = true;
+		}
+	}
+
+	/**
+	 * @return true if the limit was reached and the wrapped stream had more
+	 *         bytes
+	 */
+	public boolean isTruncated() {
+		return _truncated;
+	}
+
+	public long getLimit() {
+		return _limit;
+	}
+}
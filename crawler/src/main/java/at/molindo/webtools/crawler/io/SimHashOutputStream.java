@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import java.io.OutputStream;
+
+import at.molindo.webtools.crawler.util.Hashes;
+
+/**
+ * discards written bytes, but computes a 64-bit SimHash of the text outside
+ * of markup tags. Features are shingles of three consecutive words, words are
+ * runs of ASCII letters and digits or non-ASCII bytes, compared ignoring ASCII
+ * case. Similar texts result in SimHashes differing in few bits only.
+ */
+public class SimHashOutputStream extends OutputStream {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final int[] _weights = new int[64];
+	private boolean _tag;
+	private long _word = FNV_OFFSET;
+	private boolean _inWord;
+	private long _prev1;
+	private long _prev2;
+	private int _words;
+	private int _features;
+
+	@Override
+	public void write(final int b) {
+		update(b & 0xff);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			update(b[i] & 0xff);
+		}
+	}
+
+	private void update(int b) {
+		if (_tag) {
+			if (b == '>') {
+				_tag = false;
+			}
+		} else if (b == '<') {
+			endWord();
+			_tag = true;
+		} else if (b >= 'a' && b <= 'z' || b >= '0' && b <= '9' || b >= 0x80) {
+			_word = (_word ^ b) * FNV_PRIME;
+			_inWord = true;
+		} else if (b >= 'A' && b <= 'Z') {
+			b += 'a' - 'A';
+			_word = (_word ^ b) * FNV_PRIME;
+			_inWord = true;
+		} else {
+			endWord();
+		}
+	}
+
+	private void endWord() {
+		if (!_inWord) {
+			return;
+		}
+		final long word = _word;
+		_word = FNV_OFFSET;
+		_inWord = false;
+
+		if (++_words >= 3) {
+			feature(Hashes.mix(word ^ Long.rotateLeft(_prev1, 21) ^ Long.rotateLeft(_prev2, 42)));
+		}
+		_prev2 = _prev1;
+		_prev1 = word;
+	}
+
+	private void feature(final long hash) {
+		for (int i = 0; i < 64; i++) {
+			_weights[i] += ((int) (hash >>> i) & 1) * 2 - 1;
+		}
+		_features++;
+	}
+
+	/**
+	 * @return number of shingles hashed so far, 0 if the text has less than 3
+	 *         words
+	 */
+	public int getFeatureCount() {
+		endWord();
+		return _features;
+	}
+
+	/**
+	 * @return SimHash of the bytes written so far
+	 */
+	public long simHash() {
+		endWord();
+		long hash = 0;
+		for (int i = 0; i < 64; i++) {
+			if (_weights[i] > 0) {
+				hash |= 1L << i;
+			}
+		}
+		return hash;
+	}
+}
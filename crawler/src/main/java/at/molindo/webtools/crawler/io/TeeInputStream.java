@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * copies all bytes read from the wrapped stream to an {@link OutputStream}.
+ * {@link #close()} closes neither stream, as parsers tend to close their input
+ * before the remainder was read.
+ */
+public class TeeInputStream extends FilterInputStream {
+
+	private final OutputStream _branch;
+
+	public TeeInputStream(final InputStream in, final OutputStream branch) {
+		super(in);
+		if (branch == null) {
+			throw new NullPointerException("branch");
+		}
+		_branch = branch;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b != -1) {
+			_branch.write(b);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		final int n = super.read(b, off, len);
+		if (n > 0) {
+			_branch.write(b, off, n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final byte[] buf = new byte[(int) Math.min(n, 4096)];
+		long skipped = 0;
+		int r;
+		while (skipped < n && (r = read(buf, 0, (int) Math.min(buf.length, n - skipped))) != -1) {
+			skipped += r;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.limit;
+
+/**
+ * additive increase, multiplicative decrease: grows by one per sample while
+ * the limit is used, backs off if requests are dropped or slower than a
+ * threshold
+ */
+public class AimdConcurrencyLimit implements IConcurrencyLimit {
+
+	private final int _min;
+	private final int _max;
+	private final int _threshold;
+	private final double _backoff;
+
+	private double _limit;
+
+	/**
+	 * @param threshold
+	 *            request time in milliseconds considered as dropped
+	 * @param backoff
+	 *            factor applied to the limit for dropped requests
+	 */
+	public AimdConcurrencyLimit(final int min, final int max, final int threshold, final double backoff) {
+		if (min < 1 || max < min) {
+			throw new IllegalArgumentException("illegal bounds " + min + ".." + max);
+		}
+		if (!(backoff > 0 && backoff < 1)) {
+			throw new IllegalArgumentException("backoff must be between 0 and 1, was " + backoff);
+		}
+		_min = min;
+		_max = max;
+		_threshold = threshold;
+		_backoff = backoff;
+		_limit = min;
+	}
+
+	@Override
+	public synchronized int getLimit() {
+		return (int) _limit;
+	}
+
+	@Override
+	public synchronized void onSample(final int time, final int inflight, final boolean dropped) {
+		if (dropped || time > _threshold) {
+			_limit = Math.max(_min, _limit * _backoff);
+		} else if (inflight * 2 >= _limit) {
+			// only grow if the limit is actually used
+			_limit = Math.min(_max, _limit + 1);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.limit;
+
+/**
+ * compares short-term to long-term average latency. While latency stays
+ * within tolerance of the long-term average, the limit grows by a queue
+ * allowance of sqrt(limit). Once requests queue up at the target and latency
+ * rises, the gradient between both averages shrinks the limit, settling
+ * around the throughput knee.
+ */
+public class GradientConcurrencyLimit implements IConcurrencyLimit {
+
+	private static final double SHORT_WINDOW = 10;
+	private static final double LONG_WINDOW = 600;
+
+	private final int _min;
+	private final int _max;
+	private final double _tolerance;
+	private final double _smoothing;
+
+	private double _limit;
+	private double _shortRtt;
+	private double _longRtt;
+	private long _samples;
+
+	public GradientConcurrencyLimit(final int min, final int max) {
+		this(min, max, 1.5, 0.2);
+	}
+
+	/**
+	 * @param tolerance
+	 *            ratio of short-term to long-term latency tolerated before the
+	 *            limit decreases
+	 * @param smoothing
+	 *            weight of a new limit estimate, between 0 and 1
+	 */
+	public GradientConcurrencyLimit(final int min, final int max, final double tolerance, final double smoothing) {
+		if (min < 1 || max < min) {
+			throw new IllegalArgumentException("illegal bounds " + min + ".." + max);
+		}
+		if (!(tolerance >= 1)) {
+			throw new IllegalArgumentException("tolerance must be at least 1, was " + tolerance);
+		}
+		if (!(smoothing > 0 && smoothing <= 1)) {
+			throw new IllegalArgumentException("smoothing must be between 0 and 1, was " + smoothing);
+		}
+		_min = min;
+		_max = max;
+		_tolerance = tolerance;
+		_smoothing = smoothing;
+		_limit = min;
+	}
+
+	@Override
+	public synchronized int getLimit() {
+		return (int) _limit;
+	}
+
+	@Override
+	public synchronized void onSample(final int time, final int inflight, final boolean dropped) {
+		// millisecond resolution only
+		final double rtt = Math.max(1, time);
+
+		if (_samples++ == 0) {
+			_shortRtt = _longRtt = rtt;
+		} else {
+			_shortRtt += (rtt - _shortRtt) / Math.min(_samples, SHORT_WINDOW);
+			_longRtt += (rtt - _longRtt) / Math.min(_samples, LONG_WINDOW);
+		}
+
+		if (_longRtt / _shortRtt > 2) {
+			// latency dropped for good, let the baseline follow faster
+			_longRtt *= 0.95;
+		}
+
+		if (!dropped && inflight * 2 < _limit) {
+			// limit isn't used, no information about overload
+			return;
+		}
+
+		final double estimate;
+		if (dropped) {
+			// overloaded, back off without queue allowance
+			estimate = _limit * 0.5;
+		} else {
+			final double gradient = Math.max(0.5, Math.min(1.0, _tolerance * _longRtt / _shortRtt));
+			estimate = _limit * gradient + Math.sqrt(_limit);
+		}
+
+		_limit = Math.max(_min, Math.min(_max, _limit * (1 - _smoothing) + estimate * _smoothing));
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.limit;
+
+/**
+ * number of concurrent requests adapting to observed latency. Implementations
+ * must be thread-safe.
+ */
+public interface IConcurrencyLimit {
+
+	int getLimit();
+
+	/**
+	 * @param time
+	 *            request time in milliseconds
+	 * @param inflight
+	 *            number of requests running when the request completed
+	 * @param dropped
+	 *            whether the request failed due to overload, e.g. timeout or
+	 *            503
+	 */
+	void onSample(int time, int inflight, boolean dropped);
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.links;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * base class for {@link ILinkExtractor}s that are configured with the tags to
+ * extract links from
+ */
+public abstract class AbstractLinkExtractor implements ILinkExtractor {
+
+	public static final String[] DEFAULT_TAGS = { "a" };
+	public static final String[] ALL_TAGS = { "a", "area", "link", "frame", "iframe" };
+
+	private static final Map<String, String> ATTRIBUTES = new HashMap<String, String>();
+	static {
+		ATTRIBUTES.put("a", "href");
+		ATTRIBUTES.put("area", "href");
+		ATTRIBUTES.put("link", "href");
+		ATTRIBUTES.put("frame", "src");
+		ATTRIBUTES.put("iframe", "src");
+	}
+
+	private final String[] _tags;
+	private final String[] _attributes;
+
+	/**
+	 * @param tags
+	 *            names of the tags to extract links from, any of
+	 *            {@link #ALL_TAGS}. {@link #DEFAULT_TAGS} if empty
+	 */
+	protected AbstractLinkExtractor(String... tags) {
+		if (tags == null || tags.length == 0) {
+			tags = DEFAULT_TAGS;
+		}
+		_tags = new String[tags.length];
+		_attributes = new String[tags.length];
+		for (int i = 0; i < tags.length; i++) {
+			if (tags[i] == null) {
+				throw new NullPointerException("tags");
+			}
+			_tags[i] = tags[i].toLowerCase();
+			_attributes[i] = ATTRIBUTES.get(_tags[i]);
+			if (_attributes[i] == null) {
+				throw new IllegalArgumentException("unsupported tag: " + tags[i]);
+			}
+		}
+	}
+
+	protected final int getTagCount() {
+		return _tags.length;
+	}
+
+	protected final String getTag(final int index) {
+		return _tags[index];
+	}
+
+	/**
+	 * @return name of the attribute holding the link target of the tag at
+	 *         index
+	 */
+	protected final String getAttribute(final int index) {
+		return _attributes[index];
+	}
+
+	/**
+	 * @return index of tag (case-insensitive) or -1
+	 */
+	protected final int indexOf(final String tag) {
+		for (int i = 0; i < _tags.length; i++) {
+			if (_tags[i].equalsIgnoreCase(tag)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
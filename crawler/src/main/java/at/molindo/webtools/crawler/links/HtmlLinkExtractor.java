@@ -0,0 +1,451 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.links;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import at.molindo.utils.io.CharsetUtils;
+
+/**
+ * lenient, allocation-light HTML tokenizer that only looks for link attributes.
+ * Never fails on malformed markup: unknown constructs are skipped up to the
+ * next '&gt;'. Comments, <code>&lt;script&gt;</code> and
+ * <code>&lt;style&gt;</code> content are ignored.
+ * 
+ * Works on raw bytes, hence only supports ASCII compatible encodings (UTF-8,
+ * ISO-8859-x, windows-125x, ...). Buffers are reused, so instances aren't
+ * thread-safe.
+ */
+public class HtmlLinkExtractor extends AbstractLinkExtractor {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * longest tag or attribute name we need to compare (iframe, script)
+	 */
+	private static final int MAX_NAME = 8;
+
+	/**
+	 * longer values are ignored
+	 */
+	private static final int MAX_VALUE = 8192;
+
+	private static final byte[] SCRIPT_END = bytes("</script");
+	private static final byte[] STYLE_END = bytes("</style");
+	private static final byte[] SCRIPT = bytes("script");
+	private static final byte[] STYLE = bytes("style");
+
+	// tokenizer states
+	private static final int TEXT = 0;
+	private static final int TAG_OPEN = 1;
+	private static final int TAG_NAME = 2;
+	private static final int BEFORE_ATTRIBUTE = 3;
+	private static final int ATTRIBUTE_NAME = 4;
+	private static final int AFTER_ATTRIBUTE_NAME = 5;
+	private static final int BEFORE_VALUE = 6;
+	private static final int QUOTED_VALUE = 7;
+	private static final int UNQUOTED_VALUE = 8;
+	private static final int MARKUP_OPEN = 9;
+	private static final int COMMENT = 10;
+	private static final int SKIP_TAG = 11;
+	private static final int RAW_TEXT = 12;
+
+	private final byte[][] _tagNames;
+	private final byte[][] _attributeNames;
+
+	private final byte[] _buffer = new byte[BUFFER_SIZE];
+	private final byte[] _name = new byte[MAX_NAME + 1];
+	private int _nameLength;
+	private byte[] _value = new byte[256];
+	private int _valueLength;
+
+	public HtmlLinkExtractor(final String... tags) {
+		super(tags);
+		_tagNames = new byte[getTagCount()][];
+		_attributeNames = new byte[getTagCount()][];
+		for (int i = 0; i < getTagCount(); i++) {
+			_tagNames[i] = bytes(getTag(i));
+			_attributeNames[i] = bytes(getAttribute(i));
+		}
+	}
+
+	@Override
+	public void extract(final InputStream in, final String encoding, final ILinkHandler handler) throws IOException {
+		final Charset charset = charset(encoding);
+
+		int state = TEXT;
+		// index of the current tag in _tagNames or -1
+		int tag = -1;
+		// whether the current attribute value is a link
+		boolean capture = false;
+		byte quote = 0;
+		int dashes = 0;
+		// end tag of script or style element and matched length
+		byte[] rawEnd = null;
+		int rawMatched = 0;
+
+		int read;
+		while ((read = in.read(_buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				final byte b = _buffer[i];
+
+				switch (state) {
+				case TEXT:
+					if (b == '<') {
+						state = TAG_OPEN;
+					} else {
+						// fast forward to next tag
+						while (++i < read && _buffer[i] != '<') {
+						}
+						if (i < read) {
+							state = TAG_OPEN;
+						}
+					}
+					break;
+
+				case TAG_OPEN:
+					if (isLetter(b)) {
+						_nameLength = 0;
+						appendName(b);
+						state = TAG_NAME;
+					} else if (b == '/' || b == '?') {
+						// end tags and processing instructions
+						state = SKIP_TAG;
+					} else if (b == '!') {
+						dashes = 0;
+						state = MARKUP_OPEN;
+					} else if (b != '<') {
+						// stray '<' in text
+						state = TEXT;
+					}
+					break;
+
+				case TAG_NAME:
+					if (isSpace(b) || b == '/' || b == '>') {
+						tag = tagIndex();
+						rawEnd = nameEquals(SCRIPT) ? SCRIPT_END : nameEquals(STYLE) ? STYLE_END : null;
+						if (b == '>') {
+							state = endTag(rawEnd);
+							rawMatched = 0;
+						} else {
+							state = BEFORE_ATTRIBUTE;
+						}
+					} else {
+						appendName(b);
+					}
+					break;
+
+				case BEFORE_ATTRIBUTE:
+					if (b == '>') {
+						state = endTag(rawEnd);
+						rawMatched = 0;
+					} else if (!isSpace(b) && b != '/') {
+						_nameLength = 0;
+						appendName(b);
+						state = ATTRIBUTE_NAME;
+					}
+					break;
+
+				case ATTRIBUTE_NAME:
+					if (b == '=') {
+						capture = tag >= 0 && nameEquals(_attributeNames[tag]);
+						state = BEFORE_VALUE;
+					} else if (b == '>') {
+						state = endTag(rawEnd);
+						rawMatched = 0;
+					} else if (b == '/') {
+						state = BEFORE_ATTRIBUTE;
+					} else if (isSpace(b)) {
+						state = AFTER_ATTRIBUTE_NAME;
+					} else {
+						appendName(b);
+					}
+					break;
+
+				case AFTER_ATTRIBUTE_NAME:
+					if (b == '=') {
+						capture = tag >= 0 && nameEquals(_attributeNames[tag]);
+						state = BEFORE_VALUE;
+					} else if (b == '>') {
+						state = endTag(rawEnd);
+						rawMatched = 0;
+					} else if (b == '/') {
+						state = BEFORE_ATTRIBUTE;
+					} else if (!isSpace(b)) {
+						// attribute without value
+						_nameLength = 0;
+						appendName(b);
+						state = ATTRIBUTE_NAME;
+					}
+					break;
+
+				case BEFORE_VALUE:
+					if (b == '"' || b == '\'') {
+						quote = b;
+						_valueLength = 0;
+						state = QUOTED_VALUE;
+					} else if (b == '>') {
+						capture = false;
+						state = endTag(rawEnd);
+						rawMatched = 0;
+					} else if (!isSpace(b)) {
+						_valueLength = 0;
+						if (capture) {
+							appendValue(b);
+						}
+						state = UNQUOTED_VALUE;
+					}
+					break;
+
+				case QUOTED_VALUE:
+					if (b == quote) {
+						if (capture) {
+							emit(charset, handler);
+							capture = false;
+						}
+						state = BEFORE_ATTRIBUTE;
+					} else if (capture) {
+						appendValue(b);
+					}
+					break;
+
+				case UNQUOTED_VALUE:
+					if (isSpace(b) || b == '>') {
+						if (capture) {
+							emit(charset, handler);
+							capture = false;
+						}
+						if (b == '>') {
+							state = endTag(rawEnd);
+							rawMatched = 0;
+						} else {
+							state = BEFORE_ATTRIBUTE;
+						}
+					} else if (capture) {
+						appendValue(b);
+					}
+					break;
+
+				case MARKUP_OPEN:
+					// <!-- comment or <!DOCTYPE, <![CDATA[, ...
+					if (b == '-') {
+						if (++dashes == 2) {
+							dashes = 0;
+							state = COMMENT;
+						}
+					} else if (b == '>') {
+						state = TEXT;
+					} else {
+						state = SKIP_TAG;
+					}
+					break;
+
+				case COMMENT:
+					if (b == '-') {
+						dashes++;
+					} else if (b == '>' && dashes >= 2) {
+						state = TEXT;
+					} else {
+						dashes = 0;
+					}
+					break;
+
+				case SKIP_TAG:
+					if (b == '>') {
+						state = TEXT;
+					}
+					break;
+
+				case RAW_TEXT:
+					if (lower(b) == rawEnd[rawMatched]) {
+						if (++rawMatched == rawEnd.length) {
+							rawEnd = null;
+							state = SKIP_TAG;
+						}
+					} else {
+						rawMatched = b == '<' ? 1 : 0;
+					}
+					break;
+
+				default:
+					throw new IllegalStateException("unknown state " + state);
+				}
+			}
+		}
+	}
+
+	private static int endTag(final byte[] rawEnd) {
+		return rawEnd == null ? TEXT : RAW_TEXT;
+	}
+
+	private void appendName(final byte b) {
+		// longer names can't match, _name has room for one more byte to keep
+		// them from matching a prefix
+		if (_nameLength <= MAX_NAME) {
+			_name[_nameLength++] = lower(b);
+		}
+	}
+
+	private boolean nameEquals(final byte[] name) {
+		if (_nameLength != name.length) {
+			return false;
+		}
+		for (int i = 0; i < _nameLength; i++) {
+			if (_name[i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int tagIndex() {
+		for (int i = 0; i < _tagNames.length; i++) {
+			if (nameEquals(_tagNames[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void appendValue(final byte b) {
+		if (_valueLength == _value.length) {
+			if (_valueLength >= MAX_VALUE) {
+				// drop silently, will be ignored by emit
+				_valueLength = MAX_VALUE + 1;
+				return;
+			}
+			final byte[] value = new byte[_value.length * 2];
+			System.arraycopy(_value, 0, value, 0, _valueLength);
+			_value = value;
+		}
+		_value[_valueLength++] = b;
+	}
+
+	private void emit(final Charset charset, final ILinkHandler handler) {
+		if (_valueLength > MAX_VALUE) {
+			return;
+		}
+
+		// browsers strip leading and trailing whitespace from URLs
+		int start = 0;
+		int end = _valueLength;
+		while (start < end && isSpace(_value[start])) {
+			start++;
+		}
+		while (end > start && isSpace(_value[end - 1])) {
+			end--;
+		}
+		if (start == end) {
+			return;
+		}
+
+		boolean entities = false;
+		for (int i = start; i < end; i++) {
+			if (_value[i] == '&') {
+				entities = true;
+				break;
+			}
+		}
+
+		final String href = new String(_value, start, end - start, charset);
+		handler.link(entities ? decodeEntities(href) : href);
+	}
+
+	/**
+	 * decodes numeric and the most common named character references, others
+	 * are kept as they are
+	 */
+	static String decodeEntities(final String value) {
+		final StringBuilder buf = new StringBuilder(value.length());
+
+		int i = 0;
+		while (i < value.length()) {
+			final char c = value.charAt(i);
+			final int semicolon;
+			if (c != '&' || (semicolon = value.indexOf(';', i + 1)) == -1 || semicolon - i > 10) {
+				buf.append(c);
+				i++;
+				continue;
+			}
+
+			final String entity = value.substring(i + 1, semicolon);
+			int decoded = -1;
+			if ("amp".equals(entity)) {
+				decoded = '&';
+			} else if ("quot".equals(entity)) {
+				decoded = '"';
+			} else if ("apos".equals(entity)) {
+				decoded = '\'';
+			} else if ("lt".equals(entity)) {
+				decoded = '<';
+			} else if ("gt".equals(entity)) {
+				decoded = '>';
+			} else if (entity.length() > 1 && entity.charAt(0) == '#') {
+				try {
+					if (entity.charAt(1) == 'x' || entity.charAt(1) == 'X') {
+						decoded = Integer.parseInt(entity.substring(2), 16);
+					} else {
+						decoded = Integer.parseInt(entity.substring(1));
+					}
+				} catch (final NumberFormatException e) {
+					decoded = -1;
+				}
+			}
+
+			if (decoded >= 0 && decoded <= Character.MAX_CODE_POINT) {
+				buf.appendCodePoint(decoded);
+				i = semicolon + 1;
+			} else {
+				buf.append(c);
+				i++;
+			}
+		}
+		return buf.toString();
+	}
+
+	private static Charset charset(final String encoding) {
+		if (encoding != null) {
+			try {
+				return Charset.forName(encoding);
+			} catch (final IllegalArgumentException e) {
+				// illegal or unsupported, fall through
+			}
+		}
+		return CharsetUtils.UTF_8;
+	}
+
+	private static boolean isSpace(final byte b) {
+		return b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == '\f';
+	}
+
+	private static boolean isLetter(final byte b) {
+		return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z';
+	}
+
+	private static byte lower(final byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+	private static byte[] bytes(final String ascii) {
+		final byte[] bytes = new byte[ascii.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) ascii.charAt(i);
+		}
+		return bytes;
+	}
+}
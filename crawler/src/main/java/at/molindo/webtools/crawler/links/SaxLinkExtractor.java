@@ -0,0 +1,100 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.links;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import javax.xml.parsers.SAXParser;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.EntityResolver2;
+
+/**
+ * extracts links using a SAX parser. Requires well-formed XHTML, DTDs are
+ * resolved through an {@link EntityResolver}, passing the entity name if it is
+ * an {@link EntityResolver2}.
+ */
+public class SaxLinkExtractor extends AbstractLinkExtractor {
+
+	private final SAXParser _parser;
+	private final EntityResolver _resolver;
+	private final Handler _handler = new Handler();
+
+	public SaxLinkExtractor(final SAXParser parser, final EntityResolver resolver, final String... tags) {
+		super(tags);
+		if (parser == null) {
+			throw new NullPointerException("parser");
+		}
+		if (resolver == null) {
+			throw new NullPointerException("resolver");
+		}
+		_parser = parser;
+		_resolver = resolver;
+	}
+
+	@Override
+	public void extract(final InputStream in, final String encoding, final ILinkHandler handler) throws IOException,
+			SAXException {
+		final InputSource inputSource = new InputSource(in);
+		inputSource.setEncoding(encoding);
+
+		_handler._linkHandler = handler;
+		try {
+			_parser.parse(inputSource, _handler);
+		} finally {
+			_handler._linkHandler = null;
+		}
+	}
+
+	private final class Handler extends DefaultHandler2 {
+
+		private ILinkHandler _linkHandler;
+
+		@Override
+		public void startElement(final String uri, final String localName, final String name,
+				final Attributes attributes) throws SAXException {
+			final int tag = indexOf(name);
+			if (tag >= 0) {
+				final String href = attributes.getValue(getAttribute(tag));
+				if (href != null) {
+					_linkHandler.link(href);
+				}
+			}
+		}
+
+		@Override
+		public InputSource resolveEntity(final String publicId, final String systemId) throws IOException,
+				SAXException {
+			return _resolver.resolveEntity(publicId, systemId);
+		}
+
+		@Override
+		public InputSource resolveEntity(final String name, final String publicId, final String baseURI,
+				final String systemId) throws SAXException, IOException {
+			if (_resolver instanceof EntityResolver2) {
+				return ((EntityResolver2) _resolver).resolveEntity(name, publicId, baseURI, systemId);
+			}
+			return _resolver.resolveEntity(publicId, baseURI == null || systemId == null ? systemId : new URL(new URL(
+					baseURI), systemId).toString());
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.links;
+
+import java.io.InputStream;
+import java.util.Locale;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.w3c.tidy.Configuration;
+import org.w3c.tidy.Tidy;
+
+/**
+ * extracts links from the DOM built by JTidy. Handles malformed HTML at the
+ * cost of a full cleanup pass.
+ */
+public class TidyLinkExtractor extends AbstractLinkExtractor {
+
+	public TidyLinkExtractor(final String... tags) {
+		super(tags);
+	}
+
+	@Override
+	public void extract(final InputStream in, final String encoding, final ILinkHandler handler) {
+		final Tidy tidy = new Tidy();
+		tidy.setXHTML(true);
+		tidy.setQuiet(true);
+		tidy.setShowWarnings(false);
+		tidy.setErrfile("/dev/null");
+		tidy.setCharEncoding(charEncoding(encoding));
+
+		final Document document = tidy.parseDOM(in, null);
+		if (document == null) {
+			return;
+		}
+
+		for (int t = 0; t < getTagCount(); t++) {
+			final String attribute = getAttribute(t);
+			final NodeList elements = document.getElementsByTagName(getTag(t));
+			for (int i = 0; i < elements.getLength(); i++) {
+				final String href = ((Element) elements.item(i)).getAttribute(attribute);
+				if (href != null && href.length() > 0) {
+					handler.link(href);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the JTidy {@link Configuration} constant for encoding, raw bytes
+	 *         for encodings JTidy doesn't support
+	 */
+	static int charEncoding(final String encoding) {
+		if (encoding == null) {
+			return Configuration.RAW;
+		}
+		final String e = encoding.toUpperCase(Locale.ENGLISH);
+		if ("UTF-8".equals(e) || "UTF8".equals(e)) {
+			return Configuration.UTF8;
+		} else if ("ISO-8859-1".equals(e) || "ISO8859_1".equals(e) || "LATIN1".equals(e)) {
+			return Configuration.LATIN1;
+		} else {
+			return Configuration.RAW;
+		}
+	}
+}
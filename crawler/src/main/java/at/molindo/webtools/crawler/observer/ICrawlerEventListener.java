@@ -0,0 +1,35 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.observer;
+
+import java.util.List;
+
+import at.molindo.webtools.crawler.Crawler;
+import at.molindo.webtools.crawler.CrawlerResult;
+
+/**
+ * receives crawl events in batches
+ */
+public interface ICrawlerEventListener {
+
+	/**
+	 * @param events
+	 *            {@link CrawlerResult}s and {@link Crawler#FINISH} in the
+	 *            order they were reported. The list is reused after the call
+	 *            returns.
+	 */
+	void onEvents(Crawler crawler, List<Object> events);
+}
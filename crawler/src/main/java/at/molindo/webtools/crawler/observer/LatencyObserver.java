@@ -0,0 +1,368 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.observer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.molindo.webtools.crawler.Crawler;
+import at.molindo.webtools.crawler.CrawlerResult;
+import at.molindo.webtools.crawler.util.Hashes;
+import at.molindo.webtools.crawler.util.Histogram;
+
+/**
+ * records {@link CrawlerResult#getTime()} of successful requests into
+ * histograms, overall and per URL pattern. Patterns are either the longest
+ * configured path prefix or the path with numeric and hex segments replaced by
+ * '*'. Prints percentiles of the last interval periodically and all
+ * percentiles when the crawl finishes.
+ * 
+ * Recording looks histograms up by the fingerprint of the pattern, hashed while
+ * scanning the URL. The pattern itself is only built for new histograms.
+ */
+public class LatencyObserver implements Observer {
+
+	public static final String OTHER = "other";
+
+	private static final long HIGHEST = 3600000;
+	private static final int SIGNIFICANT_BITS = 7;
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static final long OTHER_KEY = Hashes.fingerprint(OTHER);
+
+	private final long _interval;
+	private final String[] _prefixes;
+	private final long[] _prefixKeys;
+	private final int _maxPatterns;
+
+	private final Histogram _total = newHistogram();
+	private final Histogram _current = newHistogram();
+	private final Histogram _snapshot = newHistogram();
+	private final ConcurrentMap<String, Histogram> _patterns = new ConcurrentHashMap<String, Histogram>();
+	private volatile Histograms _histograms;
+	private volatile Histogram _other;
+	private final AtomicLong _lastSnapshot = new AtomicLong(System.currentTimeMillis());
+
+	public LatencyObserver(final long interval) {
+		this(interval, 256);
+	}
+
+	/**
+	 * @param interval
+	 *            milliseconds between interval reports, 0 to only report when
+	 *            finished
+	 * @param maxPatterns
+	 *            number of patterns tracked, others are counted as
+	 *            {@link #OTHER}
+	 * @param prefixes
+	 *            path prefixes (e.g. "/shop/") used as patterns, if empty
+	 *            patterns are derived from paths
+	 */
+	public LatencyObserver(final long interval, final int maxPatterns, final String... prefixes) {
+		if (interval < 0) {
+			throw new IllegalArgumentException("interval must not be negative, was " + interval);
+		}
+		if (maxPatterns < 0) {
+			throw new IllegalArgumentException("maxPatterns must not be negative, was " + maxPatterns);
+		}
+		_interval = interval;
+		_maxPatterns = maxPatterns;
+		_prefixes = prefixes.clone();
+		// longest first
+		Arrays.sort(_prefixes, new Comparator<String>() {
+
+			@Override
+			public int compare(final String o1, final String o2) {
+				return o2.length() - o1.length();
+			}
+		});
+		_prefixKeys = new long[_prefixes.length];
+		for (int i = 0; i < _prefixes.length; i++) {
+			_prefixKeys[i] = Hashes.fingerprint(_prefixes[i]);
+		}
+		// a pattern per key plus OTHER
+		_histograms = new Histograms(maxPatterns + 1);
+	}
+
+	private static Histogram newHistogram() {
+		return new Histogram(HIGHEST, SIGNIFICANT_BITS);
+	}
+
+	@Override
+	public void update(final Observable o, final Object arg) {
+		if (arg instanceof CrawlerResult) {
+			final CrawlerResult sr = (CrawlerResult) arg;
+			if (sr.getStatus() == 200 || sr.isCached()) {
+				record(sr.getUrl(), sr.getTime());
+			}
+
+			if (_interval > 0) {
+				final long now = System.currentTimeMillis();
+				final long last = _lastSnapshot.get();
+				if (now - last >= _interval && _lastSnapshot.compareAndSet(last, now)) {
+					_snapshot.reset();
+					_current.drainTo(_snapshot);
+					System.out.println(format("latency interval", _snapshot));
+				}
+			}
+		} else if (arg == Crawler.FINISH) {
+			System.out.println(format("latency total", _total));
+
+			final List<Map.Entry<String, Histogram>> patterns = new ArrayList<Map.Entry<String, Histogram>>(
+					_patterns.entrySet());
+			Collections.sort(patterns, new Comparator<Map.Entry<String, Histogram>>() {
+
+				@Override
+				public int compare(final Map.Entry<String, Histogram> o1, final Map.Entry<String, Histogram> o2) {
+					final long c1 = o1.getValue().getCount();
+					final long c2 = o2.getValue().getCount();
+					return c1 > c2 ? -1 : c1 == c2 ? 0 : 1;
+				}
+			});
+			for (final Map.Entry<String, Histogram> e : patterns) {
+				System.out.println(format("latency " + e.getKey(), e.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * records a request time in milliseconds
+	 */
+	public void record(final String url, final long time) {
+		_total.record(time);
+		_current.record(time);
+		histogram(url).record(time);
+	}
+
+	private Histogram histogram(final String url) {
+		final long key = getPatternKey(url);
+		final Histogram h = _histograms.get(key);
+		if (h != null) {
+			return h;
+		}
+		final Histogram other = _other;
+		return other != null ? other : newHistogram(key, url);
+	}
+
+	private synchronized Histogram newHistogram(final long key, final String url) {
+		Histogram h = _histograms.get(key);
+		if (h != null) {
+			return h;
+		}
+
+		final boolean full = _patterns.size() >= _maxPatterns;
+		final long k = full ? OTHER_KEY : key;
+		h = _histograms.get(k);
+		if (h == null) {
+			h = newHistogram();
+			_patterns.put(full ? OTHER : getPattern(url), h);
+			_histograms = _histograms.with(k, h);
+		}
+		if (full) {
+			_other = h;
+		}
+		return h;
+	}
+
+	/**
+	 * @return the longest matching prefix, {@link #OTHER} if none matches or
+	 *         the path with numeric and hex segments replaced if no prefixes
+	 *         are configured
+	 */
+	String getPattern(final String url) {
+		final int start = pathStart(url);
+		int end = url.indexOf('?', start);
+		if (end < 0) {
+			end = url.length();
+		}
+
+		if (_prefixes.length > 0) {
+			for (final String prefix : _prefixes) {
+				if (url.startsWith(prefix, start) && start + prefix.length() <= end) {
+					return prefix;
+				}
+			}
+			return OTHER;
+		}
+
+		final StringBuilder buf = new StringBuilder(end - start);
+		int segment = start;
+		while (segment < end) {
+			int next = url.indexOf('/', segment + 1);
+			if (next < 0 || next > end) {
+				next = end;
+			}
+			// segment including leading '/'
+			if (isId(url, segment + 1, next)) {
+				buf.append("/*");
+			} else {
+				buf.append(url, segment, next);
+			}
+			segment = next;
+		}
+		return buf.length() == 0 ? "/" : buf.toString();
+	}
+
+	/**
+	 * @return the {@link Hashes#fingerprint(CharSequence)} of
+	 *         {@link #getPattern(String)}, without building the pattern
+	 */
+	long getPatternKey(final String url) {
+		final int start = pathStart(url);
+		int end = url.indexOf('?', start);
+		if (end < 0) {
+			end = url.length();
+		}
+
+		if (_prefixes.length > 0) {
+			for (int i = 0; i < _prefixes.length; i++) {
+				if (url.startsWith(_prefixes[i], start) && start + _prefixes[i].length() <= end) {
+					return _prefixKeys[i];
+				}
+			}
+			return OTHER_KEY;
+		}
+
+		if (start >= end) {
+			return Hashes.mix(Hashes.fnv(Hashes.FNV_OFFSET, '/'));
+		}
+		long h = Hashes.FNV_OFFSET;
+		int segment = start;
+		while (segment < end) {
+			int next = url.indexOf('/', segment + 1);
+			if (next < 0 || next > end) {
+				next = end;
+			}
+			if (isId(url, segment + 1, next)) {
+				h = Hashes.fnv(Hashes.fnv(h, '/'), '*');
+			} else {
+				for (int i = segment; i < next; i++) {
+					h = Hashes.fnv(h, url.charAt(i));
+				}
+			}
+			segment = next;
+		}
+		return Hashes.mix(h);
+	}
+
+	private static int pathStart(final String url) {
+		final int scheme = url.indexOf("://");
+		if (scheme < 0) {
+			return 0;
+		}
+		final int path = url.indexOf('/', scheme + 3);
+		return path < 0 ? url.length() : path;
+	}
+
+	/**
+	 * @return true for numbers and hex strings of 8 or more characters
+	 *         containing a digit (e.g. UUIDs)
+	 */
+	private static boolean isId(final String s, final int from, final int to) {
+		if (from >= to) {
+			return false;
+		}
+		boolean digits = true, hex = true, digit = false;
+		for (int i = from; i < to; i++) {
+			final char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digit = true;
+			} else {
+				digits = false;
+				if (!(c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F' || c == '-')) {
+					hex = false;
+				}
+			}
+		}
+		return digits || hex && digit && to - from >= 8;
+	}
+
+	private static String format(final String label, final Histogram h) {
+		final StringBuilder buf = new StringBuilder(label);
+		buf.append(": count=").append(h.getCount());
+		buf.append(" mean=").append(Math.round(h.getMean())).append("ms");
+		for (final double p : PERCENTILES) {
+			buf.append(" p").append(p == Math.rint(p) ? Long.toString((long) p) : Double.toString(p));
+			buf.append("=").append(h.getValueAtPercentile(p)).append("ms");
+		}
+		buf.append(" max=").append(h.getMax()).append("ms");
+		return buf.toString();
+	}
+
+	public Histogram getTotal() {
+		return _total;
+	}
+
+	/**
+	 * @return histogram for pattern or null if nothing was recorded
+	 */
+	public Histogram getHistogram(final String pattern) {
+		return _patterns.get(pattern);
+	}
+
+	/**
+	 * immutable open addressing table of histograms by pattern key, copied on
+	 * write as patterns are rarely added
+	 */
+	private static final class Histograms {
+		private final long[] _keys;
+		private final Histogram[] _values;
+		private final int _mask;
+
+		private Histograms(final int maxSize) {
+			final int capacity = Integer.highestOneBit(Math.max(2, maxSize) * 2 - 1) << 1;
+			_keys = new long[capacity];
+			_values = new Histogram[capacity];
+			_mask = capacity - 1;
+		}
+
+		private Histograms(final Histograms other) {
+			_keys = other._keys.clone();
+			_values = other._values.clone();
+			_mask = other._mask;
+		}
+
+		private Histogram get(final long key) {
+			for (int i = (int) key & _mask;; i = i + 1 & _mask) {
+				final Histogram h = _values[i];
+				if (h == null || _keys[i] == key) {
+					return h;
+				}
+			}
+		}
+
+		private Histograms with(final long key, final Histogram h) {
+			final Histograms copy = new Histograms(this);
+			int i = (int) key & _mask;
+			while (copy._values[i] != null) {
+				i = i + 1 & _mask;
+			}
+			copy._keys[i] = key;
+			copy._values[i] = h;
+			return copy;
+		}
+	}
+}
@@ -15,11 +15,13 @@
  */
 package at.molindo.webtools.crawler.observer;
 
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
 import at.molindo.webtools.crawler.Crawler;
 import at.molindo.webtools.crawler.CrawlerResult;
+import at.molindo.webtools.crawler.LinkGraph;
 
 public final class PrintObserver implements Observer {
 	private final boolean _printSuccess;
@@ -40,13 +42,22 @@ public final class PrintObserver implements Observer {
 			buf.append(" ").append(sr.getUrl());
 			buf.append(" ").append(sr.getStatus());
 			buf.append(" ").append(sr.getTime()).append("ms");
+			if (sr.isCached()) {
+				buf.append(" (cached)");
+			}
+			if (sr.isTruncated()) {
+				buf.append(" (truncated)");
+			}
+			if (sr.getDuplicateOf() != null) {
+				buf.append(" (duplicate of ").append(sr.getDuplicateOf()).append(")");
+			}
 			if (sr.getErrorMessage() != null) {
 				buf.append(" [").append(sr.getErrorMessage()).append("]");
 			}
 
-			buf.append(" referrers: ").append(sr.getReferrers());
+			appendReferrers(buf, s, sr);
 
-			if (sr.getStatus() == 200 || sr.getErrorMessage() != null) {
+			if (sr.getStatus() == 200 || sr.isCached() || sr.getErrorMessage() != null) {
 				if (_printSuccess) {
 					System.out.println(buf.toString());
 				}
@@ -56,7 +67,55 @@ public final class PrintObserver implements Observer {
 				System.err.println(buf.toString());
 			}
 		} else if (arg == Crawler.FINISH) {
-			System.out.println("finish");
+			final StringBuilder buf = new StringBuilder("finish (connections reused: ");
+			buf.append(s.getConnectionManager().getHits());
+			buf.append(", opened: ").append(s.getConnectionManager().getMisses());
+			buf.append(", received: ").append(s.getWireBytes() / 1024).append("KB");
+			buf.append(", decoded: ").append(s.getDecodedBytes() / 1024).append("KB");
+			if (s.getResponseCache() != null) {
+				buf.append(", not modified: ").append(s.getCachedCount());
+			}
+			if (s.getDuplicateDetector() != null) {
+				buf.append(", duplicates: ").append(s.getDuplicateDetector().getDuplicateCount());
+				buf.append(" in ").append(s.getDuplicateDetector().getClusters().size()).append(" clusters");
+			}
+			if (s.getTrapDetector() != null) {
+				buf.append(", traps: ").append(s.getTrapDetector().getTrappedCount());
+			}
+			if (s.getPriorityFrontier() != null) {
+				buf.append(", discarded: ").append(s.getDiscardedCount());
+				buf.append(", promoted: ").append(s.getPriorityFrontier().getPromotedCount());
+			}
+			if (s.getScheduler() != null) {
+				buf.append(", queue delay avg: ").append(Math.round(s.getScheduler().getQueueDelay())).append("ms");
+				buf.append(", max: ").append(Math.round(s.getScheduler().getMaxQueueDelay())).append("ms");
+			}
+			System.out.println(buf.append(")").toString());
+		}
+	}
+
+	/**
+	 * appends referrers of a result. With a {@link LinkGraph}, only the number
+	 * of referrers is appended for successful results, pages linking to
+	 * broken ones up to {@link Crawler#getMaxReferrers()}.
+	 */
+	static void appendReferrers(final StringBuilder buf, final Crawler s, final CrawlerResult sr) {
+		buf.append(" referrers: ");
+		final LinkGraph graph = s.getLinkGraph();
+		if (graph == null) {
+			buf.append(sr.getReferrers());
+			if (sr.getReferrerCount() > sr.getReferrers().size()) {
+				buf.append(" of ").append(sr.getReferrerCount());
+			}
+		} else if (sr.getStatus() / 100 == 2) {
+			buf.append(graph.getInDegree(sr.getUrl()));
+		} else {
+			final List<String> referrers = graph.getReferrers(sr.getUrl(), s.getMaxReferrers());
+			buf.append(referrers);
+			final int count = graph.getInDegree(sr.getUrl());
+			if (count > referrers.size()) {
+				buf.append(" of ").append(count);
+			}
 		}
 	}
 }
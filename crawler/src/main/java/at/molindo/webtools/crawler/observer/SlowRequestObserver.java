@@ -44,7 +44,7 @@ public final class SlowRequestObserver implements Observer {
 				buf.append(" [").append(sr.getErrorMessage()).append("]");
 			}
 
-			buf.append(" referrers: ").append(sr.getReferrers());
+			PrintObserver.appendReferrers(buf, s, sr);
 
 			if (sr.getStatus() == 200 || sr.getErrorMessage() != null) {
 				if (sr.getTime() > _threshold) {
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free Bloom filter for 64-bit hashes. Bit positions are derived from
+ * the hash and its upper half (double hashing), hence hashes must be well
+ * distributed, e.g. {@link Hashes#fingerprint(CharSequence)}.
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray _bits;
+	private final long _bitCount;
+	private final int _hashes;
+
+	/**
+	 * @param expectedInsertions
+	 *            number of values the filter is sized for
+	 * @param falsePositiveRate
+	 *            expected rate of false positives at expectedInsertions
+	 */
+	public BloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+		if (expectedInsertions < 1) {
+			throw new IllegalArgumentException("expectedInsertions must be positive, was " + expectedInsertions);
+		}
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1, was " + falsePositiveRate);
+		}
+
+		final double ln2 = Math.log(2);
+		final long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2));
+		final long words = Math.min(Integer.MAX_VALUE, Math.max(1, (bits + 63) / 64));
+
+		_bits = new AtomicLongArray((int) words);
+		_bitCount = words * 64;
+		_hashes = Math.max(1, (int) Math.round((double) _bitCount / expectedInsertions * ln2));
+	}
+
+	/**
+	 * @return true if any bit changed, i.e. hash definitely wasn't added before
+	 */
+	public boolean put(final long hash) {
+		final long h2 = hash >>> 32 | 1;
+
+		boolean changed = false;
+		for (int i = 1; i <= _hashes; i++) {
+			final long bit = index(hash + i * h2);
+			final int word = (int) (bit >>> 6);
+			final long mask = 1L << bit;
+
+			long current;
+			while (((current = _bits.get(word)) & mask) == 0) {
+				if (_bits.compareAndSet(word, current, current | mask)) {
+					changed = true;
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @return false if hash definitely wasn't added, true if it probably was
+	 */
+	public boolean mightContain(final long hash) {
+		final long h2 = hash >>> 32 | 1;
+
+		for (int i = 1; i <= _hashes; i++) {
+			final long bit = index(hash + i * h2);
+			if ((_bits.get((int) (bit >>> 6)) & 1L << bit) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long getBitCount() {
+		return _bitCount;
+	}
+
+	public int getHashCount() {
+		return _hashes;
+	}
+
+	private long index(final long combined) {
+		return (combined & Long.MAX_VALUE) % _bitCount;
+	}
+}
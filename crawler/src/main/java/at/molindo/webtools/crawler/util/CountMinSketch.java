@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * lock-free count-min sketch for 64-bit hashes. Estimates never undercount
+ * and overcount by at most a small fraction of all additions with high
+ * probability. Additions use conservative update, only raising counters that
+ * are below the new estimate. As with {@link BloomFilter}, counter positions
+ * are derived by double hashing, hence hashes must be well distributed.
+ */
+public class CountMinSketch {
+
+	private final AtomicIntegerArray _counters;
+	private final int _width;
+	private final int _depth;
+
+	/**
+	 * @param width
+	 *            counters per row, rounded up to a power of two. Estimates are
+	 *            off by about 2 / width of all additions.
+	 * @param depth
+	 *            number of rows, false estimates become less likely with each
+	 */
+	public CountMinSketch(final int width, final int depth) {
+		if (width < 1 || width > 1 << 24) {
+			throw new IllegalArgumentException("width must be between 1 and 2^24, was " + width);
+		}
+		if (depth < 1 || depth > 16) {
+			throw new IllegalArgumentException("depth must be between 1 and 16, was " + depth);
+		}
+		int w = 1;
+		while (w < width) {
+			w <<= 1;
+		}
+		_width = w;
+		_depth = depth;
+		_counters = new AtomicIntegerArray(w * depth);
+	}
+
+	/**
+	 * @return estimated count of hash including this addition
+	 */
+	public int add(final long hash) {
+		final int estimate = estimate(hash) + 1;
+		final long h2 = hash >>> 32 | 1;
+
+		for (int i = 0; i < _depth; i++) {
+			final int index = index(i, hash + i * h2);
+			int current;
+			while ((current = _counters.get(index)) < estimate) {
+				if (_counters.compareAndSet(index, current, estimate)) {
+					break;
+				}
+			}
+		}
+		return estimate;
+	}
+
+	/**
+	 * @return estimated count of hash, never less than the real count
+	 */
+	public int estimate(final long hash) {
+		final long h2 = hash >>> 32 | 1;
+
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < _depth; i++) {
+			min = Math.min(min, _counters.get(index(i, hash + i * h2)));
+		}
+		return min;
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getDepth() {
+		return _depth;
+	}
+
+	private int index(final int row, final long combined) {
+		return row * _width + (int) (combined & _width - 1);
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+/**
+ * non-cryptographic 64-bit hashing
+ */
+public final class Hashes {
+
+	/**
+	 * initial value for {@link #fnv(long, char)}
+	 */
+	public static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private Hashes() {
+	}
+
+	/**
+	 * @return 64-bit FNV-1a of the chars of s, finalized with {@link #mix(long)}
+	 *         to spread all bits. Collisions become likely beyond a few billion
+	 *         distinct values.
+	 */
+	public static long fingerprint(final CharSequence s) {
+		long h = FNV_OFFSET;
+		for (int i = 0; i < s.length(); i++) {
+			h = fnv(h, s.charAt(i));
+		}
+		return mix(h);
+	}
+
+	/**
+	 * hashes chars one at a time, starting with {@link #FNV_OFFSET}.
+	 * {@link #mix(long)} of the result equals the {@link #fingerprint(CharSequence)}
+	 * of the same chars.
+	 * 
+	 * @return h updated with both bytes of c
+	 */
+	public static long fnv(long h, final char c) {
+		h = (h ^ (c & 0xff)) * FNV_PRIME;
+		return (h ^ (c >>> 8)) * FNV_PRIME;
+	}
+
+	/**
+	 * MurmurHash3 fmix64 finalizer
+	 */
+	public static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free histogram of non-negative values with logarithmic buckets that
+ * are linearly divided into sub-buckets. The relative error of reported values
+ * is at most 2^-(significantBits - 1). Recording neither locks nor allocates.
+ */
+public final class Histogram {
+
+	private final int _subBits;
+	private final int _half;
+	private final long _highest;
+	private final AtomicLongArray _counts;
+
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * @param highestValue
+	 *            larger values are counted as highestValue, {@link #getMax()}
+	 *            is exact
+	 * @param significantBits
+	 *            sub-buckets per bucket as power of 2, between 2 and 16
+	 */
+	public Histogram(final long highestValue, final int significantBits) {
+		if (highestValue < 1) {
+			throw new IllegalArgumentException("highestValue must be positive, was " + highestValue);
+		}
+		if (significantBits < 2 || significantBits > 16) {
+			throw new IllegalArgumentException("significantBits must be between 2 and 16, was " + significantBits);
+		}
+		_subBits = significantBits;
+		_half = 1 << significantBits - 1;
+		_highest = highestValue;
+		_counts = new AtomicLongArray(index(highestValue) + 1);
+	}
+
+	/**
+	 * @param value
+	 *            negative values are counted as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		_counts.incrementAndGet(index(Math.min(value, _highest)));
+		_count.incrementAndGet();
+		_sum.addAndGet(value);
+
+		long max;
+		while (value > (max = _max.get())) {
+			if (_max.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+
+	private int index(final long value) {
+		final int shift = 64 - Long.numberOfLeadingZeros(value) - _subBits;
+		if (shift <= 0) {
+			return (int) value;
+		}
+		return shift * _half + (int) (value >>> shift);
+	}
+
+	/**
+	 * @return the highest value counted in the bucket at index
+	 */
+	private long highestEquivalent(final int index) {
+		if (index < 2 * _half) {
+			return index;
+		}
+		final int shift = index / _half - 1;
+		final long mantissa = index - shift * _half;
+		return (mantissa + 1 << shift) - 1;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the highest value equivalent to the value at percentile, 0 if
+	 *         empty
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100, was " + percentile);
+		}
+
+		// sum bucket counts, _count may be ahead of them during recording
+		long total = 0;
+		final int length = _counts.length();
+		for (int i = 0; i < length; i++) {
+			total += _counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		final long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < length; i++) {
+			seen += _counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestEquivalent(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	public long getCount() {
+		return _count.get();
+	}
+
+	public long getMax() {
+		return _max.get();
+	}
+
+	public double getMean() {
+		final long count = _count.get();
+		return count == 0 ? 0 : (double) _sum.get() / count;
+	}
+
+	/**
+	 * adds all values recorded since the last call to target and removes them
+	 * from this histogram. Values recorded concurrently end up in either one.
+	 */
+	public void drainTo(final Histogram target) {
+		if (target._subBits != _subBits || target._highest != _highest) {
+			throw new IllegalArgumentException("incompatible histogram");
+		}
+		final int length = _counts.length();
+		long count = 0;
+		for (int i = 0; i < length; i++) {
+			final long c = _counts.getAndSet(i, 0);
+			if (c != 0) {
+				target._counts.addAndGet(i, c);
+				count += c;
+			}
+		}
+		// approximate under concurrent recording
+		_count.addAndGet(-count);
+		target._count.addAndGet(count);
+		target._sum.addAndGet(_sum.getAndSet(0));
+		final long max = _max.getAndSet(0);
+		long targetMax;
+		while (max > (targetMax = target._max.get())) {
+			if (target._max.compareAndSet(targetMax, max)) {
+				break;
+			}
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < _counts.length(); i++) {
+			_counts.set(i, 0);
+		}
+		_count.set(0);
+		_sum.set(0);
+		_max.set(0);
+	}
+}
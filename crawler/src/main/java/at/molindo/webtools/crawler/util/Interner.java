@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * thread-safe pool of canonical String instances. Unlike
+ * {@link String#intern()} it is bounded: once full, values are returned as
+ * they are.
+ */
+public class Interner {
+
+	private final ConcurrentHashMap<String, String> _values = new ConcurrentHashMap<String, String>();
+	private final int _maxSize;
+
+	public Interner(final int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize must not be negative, was " + maxSize);
+		}
+		_maxSize = maxSize;
+	}
+
+	public String intern(final String value) {
+		if (value == null) {
+			return null;
+		}
+
+		final String interned = _values.get(value);
+		if (interned != null) {
+			return interned;
+		} else if (_values.size() >= _maxSize) {
+			return value;
+		}
+
+		final String previous = _values.putIfAbsent(value, value);
+		return previous == null ? value : previous;
+	}
+
+	public int size() {
+		return _values.size();
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * thread-safe set of primitive longs using open addressing with linear
+ * probing. The table is split into independently locked stripes that grow
+ * separately. Tables are allocated on the heap or, optionally, as direct
+ * buffers outside the heap.
+ */
+public class LongHashSet {
+
+	private static final int MIN_STRIPE_CAPACITY = 16;
+	private static final int MAX_HEAP_STRIPE_CAPACITY = 1 << 30;
+	private static final int MAX_DIRECT_STRIPE_CAPACITY = 1 << 27;
+
+	private final Stripe[] _stripes;
+	private final int _stripeShift;
+	private final boolean _direct;
+
+	/**
+	 * 0 is used to mark free slots, hence tracked separately
+	 */
+	private volatile boolean _containsZero;
+
+	public LongHashSet(final int initialCapacity) {
+		this(initialCapacity, 64, false);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            expected number of elements
+	 * @param stripes
+	 *            number of independently locked parts, rounded up to a power
+	 *            of 2
+	 * @param direct
+	 *            whether to allocate tables outside the heap
+	 */
+	public LongHashSet(final int initialCapacity, final int stripes, final boolean direct) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("initialCapacity must not be negative, was " + initialCapacity);
+		}
+		if (stripes < 1 || stripes > 1 << 16) {
+			throw new IllegalArgumentException("stripes must be between 1 and 65536, was " + stripes);
+		}
+
+		final int stripeCount = powerOfTwo(stripes);
+		_stripes = new Stripe[stripeCount];
+		_stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+		_direct = direct;
+
+		// keep load below threshold without growing
+		final long perStripe = (long) initialCapacity * 10 / 7 / stripeCount + 1;
+		final int capacity = powerOfTwo((int) Math.min(perStripe, maxStripeCapacity()));
+		for (int i = 0; i < _stripes.length; i++) {
+			_stripes[i] = new Stripe(Math.max(MIN_STRIPE_CAPACITY, capacity));
+		}
+	}
+
+	/**
+	 * @return true if value wasn't contained before
+	 */
+	public boolean add(final long value) {
+		if (value == 0) {
+			synchronized (this) {
+				if (_containsZero) {
+					return false;
+				}
+				return _containsZero = true;
+			}
+		}
+		final long hash = Hashes.mix(value);
+		return stripe(hash).add(value, hash);
+	}
+
+	public boolean contains(final long value) {
+		if (value == 0) {
+			return _containsZero;
+		}
+		final long hash = Hashes.mix(value);
+		return stripe(hash).contains(value, hash);
+	}
+
+	public long size() {
+		long size = _containsZero ? 1 : 0;
+		for (final Stripe stripe : _stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return bytes allocated for tables
+	 */
+	public long getAllocatedBytes() {
+		long bytes = 0;
+		for (final Stripe stripe : _stripes) {
+			bytes += stripe.capacity() * 8L;
+		}
+		return bytes;
+	}
+
+	public boolean isDirect() {
+		return _direct;
+	}
+
+	private Stripe stripe(final long hash) {
+		return _stripes.length == 1 ? _stripes[0] : _stripes[(int) (hash >>> _stripeShift)];
+	}
+
+	private int maxStripeCapacity() {
+		return _direct ? MAX_DIRECT_STRIPE_CAPACITY : MAX_HEAP_STRIPE_CAPACITY;
+	}
+
+	private LongBuffer allocate(final int capacity) {
+		if (_direct) {
+			return ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+		} else {
+			return LongBuffer.allocate(capacity);
+		}
+	}
+
+	private static int powerOfTwo(final int n) {
+		return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+	}
+
+	private final class Stripe {
+
+		private LongBuffer _table;
+		private int _mask;
+		private int _size;
+		private int _threshold;
+
+		private Stripe(final int capacity) {
+			init(capacity);
+		}
+
+		private void init(final int capacity) {
+			_table = allocate(capacity);
+			_mask = capacity - 1;
+			_threshold = (int) (capacity * 7L / 10);
+		}
+
+		synchronized boolean add(final long value, final long hash) {
+			int i = slot(value, hash);
+			if (_table.get(i) == value) {
+				return false;
+			}
+			if (_size >= _threshold && grow()) {
+				i = slot(value, hash);
+			}
+			_table.put(i, value);
+			_size++;
+			return true;
+		}
+
+		synchronized boolean contains(final long value, final long hash) {
+			return _table.get(slot(value, hash)) == value;
+		}
+
+		/**
+		 * @return index of value or of the free slot where it belongs
+		 */
+		private int slot(final long value, final long hash) {
+			int i = (int) hash & _mask;
+			long current;
+			while ((current = _table.get(i)) != 0 && current != value) {
+				i = i + 1 & _mask;
+			}
+			return i;
+		}
+
+		synchronized int size() {
+			return _size;
+		}
+
+		synchronized int capacity() {
+			return _mask + 1;
+		}
+
+		/**
+		 * @return false if already at maximum capacity
+		 */
+		private boolean grow() {
+			final int capacity = _mask + 1;
+			if (capacity >= maxStripeCapacity()) {
+				// keep filling up to 15/16 before giving up
+				if (_size >= capacity - capacity / 16) {
+					throw new IllegalStateException("stripe full, increase stripes or initialCapacity");
+				}
+				return false;
+			}
+
+			final LongBuffer old = _table;
+			init(capacity * 2);
+			for (int j = 0; j < capacity; j++) {
+				final long value = old.get(j);
+				if (value != 0) {
+					_table.put(slot(value, Hashes.mix(value)), value);
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+/**
+ * map of primitive long keys to int values using open addressing with linear
+ * probing. Not thread-safe. 0 is returned for missing keys, hence 0 values
+ * can't be told from missing ones.
+ */
+public class LongIntHashMap {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] _keys;
+	private int[] _values;
+	private int _mask;
+	private int _size;
+	private int _threshold;
+
+	/**
+	 * 0 is used to mark free slots, hence tracked separately
+	 */
+	private boolean _containsZero;
+	private int _zeroValue;
+
+	public LongIntHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongIntHashMap(final int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("initialCapacity must not be negative, was " + initialCapacity);
+		}
+		final int capacity = (int) Math.min(1 << 30, (long) initialCapacity * 10 / 7 + 1);
+		init(Math.max(MIN_CAPACITY, capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1));
+	}
+
+	private void init(final int capacity) {
+		_keys = new long[capacity];
+		_values = new int[capacity];
+		_mask = capacity - 1;
+		_threshold = (int) (capacity * 7L / 10);
+	}
+
+	/**
+	 * @return the value or 0 if missing
+	 */
+	public int get(final long key) {
+		if (key == 0) {
+			return _containsZero ? _zeroValue : 0;
+		}
+		final int i = slot(key);
+		return _keys[i] == key ? _values[i] : 0;
+	}
+
+	public boolean containsKey(final long key) {
+		return key == 0 ? _containsZero : _keys[slot(key)] == key;
+	}
+
+	public void put(final long key, final int value) {
+		if (key == 0) {
+			if (!_containsZero) {
+				_containsZero = true;
+				_size++;
+			}
+			_zeroValue = value;
+			return;
+		}
+		int i = slot(key);
+		if (_keys[i] != key) {
+			if (_size >= _threshold) {
+				grow();
+				i = slot(key);
+			}
+			_keys[i] = key;
+			_size++;
+		}
+		_values[i] = value;
+	}
+
+	/**
+	 * @return the removed value or 0 if missing
+	 */
+	public int remove(final long key) {
+		if (key == 0) {
+			if (!_containsZero) {
+				return 0;
+			}
+			_containsZero = false;
+			_size--;
+			return _zeroValue;
+		}
+		int i = slot(key);
+		if (_keys[i] != key) {
+			return 0;
+		}
+		final int value = _values[i];
+		_size--;
+
+		// shift back following entries that would become unreachable
+		int j = i;
+		while (true) {
+			j = j + 1 & _mask;
+			final long k = _keys[j];
+			if (k == 0) {
+				break;
+			}
+			final int home = (int) Hashes.mix(k) & _mask;
+			// move k to i unless its home lies cyclically in (i, j]
+			if (i <= j ? home <= i || home > j : home <= i && home > j) {
+				_keys[i] = k;
+				_values[i] = _values[j];
+				i = j;
+			}
+		}
+		_keys[i] = 0;
+		_values[i] = 0;
+		return value;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * @return index of key or of the free slot where it belongs
+	 */
+	private int slot(final long key) {
+		int i = (int) Hashes.mix(key) & _mask;
+		long current;
+		while ((current = _keys[i]) != 0 && current != key) {
+			i = i + 1 & _mask;
+		}
+		return i;
+	}
+
+	private void grow() {
+		final long[] keys = _keys;
+		final int[] values = _values;
+		if (keys.length >= 1 << 30) {
+			throw new IllegalStateException("map full");
+		}
+		init(keys.length * 2);
+		for (int j = 0; j < keys.length; j++) {
+			if (keys[j] != 0) {
+				final int i = slot(keys[j]);
+				_keys[i] = keys[j];
+				_values[i] = values[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded lock-free queue for many producers and a single consumer. Every slot
+ * carries a sequence number that tells producers whether it's free and the
+ * consumer whether it's published. Elements are consumed in the order
+ * producers claimed their slots.
+ */
+public final class RingBuffer<E> {
+
+	private final int _mask;
+	private final AtomicLongArray _sequences;
+	private final AtomicReferenceArray<E> _elements;
+	private final AtomicLong _tail = new AtomicLong();
+
+	/**
+	 * next slot to consume, accessed by the consumer only
+	 */
+	private long _head;
+
+	/**
+	 * @param capacity
+	 *            maximum number of elements, rounded up to a power of 2
+	 */
+	public RingBuffer(final int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30, was " + capacity);
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		_mask = size - 1;
+		_sequences = new AtomicLongArray(size);
+		_elements = new AtomicReferenceArray<E>(size);
+		for (int i = 0; i < size; i++) {
+			_sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * adds an element without waiting
+	 * 
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(final E element) {
+		if (element == null) {
+			throw new NullPointerException("element");
+		}
+		while (true) {
+			final long pos = _tail.get();
+			final int index = (int) pos & _mask;
+			final long diff = _sequences.get(index) - pos;
+			if (diff == 0) {
+				if (_tail.compareAndSet(pos, pos + 1)) {
+					_elements.lazySet(index, element);
+					// publish
+					_sequences.set(index, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				// slot not consumed yet
+				return false;
+			}
+			// else: slot claimed by another producer, retry
+		}
+	}
+
+	/**
+	 * moves published elements to c, stopping at the first slot that is
+	 * claimed but not published yet. Must only be called by the consumer.
+	 * 
+	 * @return number of elements added to c
+	 */
+	public int drainTo(final Collection<? super E> c, final int max) {
+		int count = 0;
+		long head = _head;
+		while (count < max) {
+			final int index = (int) head & _mask;
+			if (_sequences.get(index) != head + 1) {
+				break;
+			}
+			c.add(_elements.get(index));
+			_elements.lazySet(index, null);
+			// release slot to producers
+			_sequences.set(index, head + _mask + 1);
+			head++;
+			count++;
+		}
+		_head = head;
+		return count;
+	}
+
+	/**
+	 * @return true if no slot is claimed. Must only be called by the consumer.
+	 */
+	public boolean isEmpty() {
+		return _tail.get() == _head;
+	}
+
+	public int getCapacity() {
+		return _mask + 1;
+	}
+}
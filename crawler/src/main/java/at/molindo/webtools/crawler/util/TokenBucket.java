@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+/**
+ * token bucket refilled at a constant rate, allowing bursts up to its capacity
+ */
+public class TokenBucket {
+
+	private final double _tokensPerNano;
+	private final double _capacity;
+
+	private double _tokens;
+	private long _last;
+
+	/**
+	 * @param perSecond
+	 *            tokens added per second
+	 * @param burst
+	 *            maximum number of tokens, i.e. requests allowed at once. 1
+	 *            spaces requests evenly
+	 */
+	public TokenBucket(final double perSecond, final int burst) {
+		if (!(perSecond > 0)) {
+			throw new IllegalArgumentException("perSecond must be positive, was " + perSecond);
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("burst must be positive, was " + burst);
+		}
+		_tokensPerNano = perSecond / 1000000000.0;
+		_capacity = burst;
+		_tokens = burst;
+		_last = System.nanoTime();
+	}
+
+	/**
+	 * @return 0 if a token was taken, otherwise nanoseconds until the next
+	 *         token is available
+	 */
+	public synchronized long tryAcquire() {
+		return tryAcquire(System.nanoTime());
+	}
+
+	synchronized long tryAcquire(final long now) {
+		_tokens = Math.min(_capacity, _tokens + (now - _last) * _tokensPerNano);
+		_last = now;
+
+		if (_tokens >= 1) {
+			_tokens -= 1;
+			return 0;
+		}
+		return Math.max(1, (long) Math.ceil((1 - _tokens) / _tokensPerNano));
+	}
+
+	public double getRate() {
+		return _tokensPerNano * 1000000000.0;
+	}
+}
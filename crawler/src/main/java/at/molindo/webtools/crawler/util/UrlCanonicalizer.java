@@ -0,0 +1,532 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import java.net.IDN;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * resolves and normalizes http and https URLs following RFC 3986. Canonical
+ * URLs have
+ * <ul>
+ * <li>lower case scheme and host, international domain names converted to
+ * ASCII</li>
+ * <li>no default port, no fragment and no empty query</li>
+ * <li>a path without dot segments and <code>;jsessionid=</code> parameter,
+ * "/" if empty</li>
+ * <li>percent-encoding with upper case hex digits, only for characters that
+ * need to be encoded, non-ASCII characters as UTF-8</li>
+ * <li>optionally, query parameters sorted by name and without configured
+ * parameters</li>
+ * </ul>
+ * Instances are immutable and thread-safe. An URL that is canonical already is
+ * returned as is.
+ */
+public class UrlCanonicalizer {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final boolean[] HOST = new boolean[128];
+	private static final boolean[] USERINFO = new boolean[128];
+	private static final boolean[] PATH = new boolean[128];
+	private static final boolean[] QUERY = new boolean[128];
+	static {
+		final String unreserved = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-._~";
+		final String subDelims = "!$&'()*+,;=";
+		// only DNS names, java.net.URI doesn't accept other registered names
+		for (final char c : "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-.".toCharArray()) {
+			HOST[c] = true;
+		}
+		for (final char c : (unreserved + subDelims + ":").toCharArray()) {
+			USERINFO[c] = PATH[c] = QUERY[c] = true;
+		}
+		PATH['@'] = PATH['/'] = true;
+		QUERY['@'] = QUERY['/'] = QUERY['?'] = true;
+	}
+
+	private static final Comparator<String> PARAMETER_NAME_ORDER = new Comparator<String>() {
+
+		@Override
+		public int compare(final String p1, final String p2) {
+			final int l1 = nameLength(p1);
+			final int l2 = nameLength(p2);
+			final int n = Math.min(l1, l2);
+			for (int i = 0; i < n; i++) {
+				final int d = p1.charAt(i) - p2.charAt(i);
+				if (d != 0) {
+					return d;
+				}
+			}
+			return l1 - l2;
+		}
+	};
+
+	private final boolean _sortQuery;
+	private final String[] _stripParameters;
+
+	public UrlCanonicalizer() {
+		this(false);
+	}
+
+	/**
+	 * @param sortQuery
+	 *            whether to sort query parameters by name, keeping the order
+	 *            of parameters with the same name
+	 * @param stripParameters
+	 *            names of query parameters to remove, a trailing '*' matches
+	 *            any name starting with the preceding characters
+	 */
+	public UrlCanonicalizer(final boolean sortQuery, final String... stripParameters) {
+		_sortQuery = sortQuery;
+		_stripParameters = stripParameters.clone();
+	}
+
+	/**
+	 * @return the canonical form of an absolute url or null if url isn't an
+	 *         absolute http or https URL
+	 */
+	public String canonicalize(final String url) {
+		return resolve(null, url);
+	}
+
+	/**
+	 * resolves a reference against a base URL as defined by RFC 3986, section
+	 * 5.2
+	 * 
+	 * @param base
+	 *            an absolute URL or null if href must be absolute
+	 * @return the canonical form of the resolved URL or null if it isn't an
+	 *         http or https URL
+	 */
+	public String resolve(final String base, final String href) {
+		final Ref r = new Ref(href);
+		final StringBuilder buf = new StringBuilder(href.length() + (base == null ? 0 : base.length()) + 8);
+
+		final Ref query;
+		final int pathStart;
+		if (r.hasScheme()) {
+			if (!r.hasAuthority() || !appendSchemeAndAuthority(buf, r, r)) {
+				return null;
+			}
+			pathStart = buf.length();
+			appendNormalized(buf, href, r._pathStart, r._pathEnd, PATH);
+			query = r;
+		} else {
+			if (base == null) {
+				return null;
+			}
+			final Ref b = new Ref(base);
+			if (!b.hasScheme() || !b.hasAuthority() || !appendSchemeAndAuthority(buf, b, r.hasAuthority() ? r : b)) {
+				return null;
+			}
+			pathStart = buf.length();
+
+			if (r.hasAuthority() || r._pathStart < r._pathEnd && href.charAt(r._pathStart) == '/') {
+				appendNormalized(buf, href, r._pathStart, r._pathEnd, PATH);
+				query = r;
+			} else if (r._pathStart == r._pathEnd) {
+				appendNormalized(buf, base, b._pathStart, b._pathEnd, PATH);
+				query = r.hasQuery() ? r : b;
+			} else {
+				// merge with base path up to its last segment
+				final int slash = base.lastIndexOf('/', b._pathEnd - 1);
+				if (slash < b._pathStart) {
+					buf.append('/');
+				} else {
+					appendNormalized(buf, base, b._pathStart, slash + 1, PATH);
+				}
+				appendNormalized(buf, href, r._pathStart, r._pathEnd, PATH);
+				query = r;
+			}
+		}
+
+		if (buf.length() == pathStart) {
+			buf.append('/');
+		}
+		removeDotSegments(buf, pathStart);
+		removeSessionId(buf, pathStart);
+
+		if (query.hasQuery()) {
+			buf.append('?');
+			final int queryStart = buf.length();
+			appendNormalized(buf, query._s, query._queryStart, query._queryEnd, QUERY);
+			if (_sortQuery || _stripParameters.length > 0) {
+				rewriteQuery(buf, queryStart);
+			}
+			if (buf.length() == queryStart) {
+				buf.setLength(queryStart - 1);
+			}
+		}
+
+		return href.contentEquals(buf) ? href : buf.toString();
+	}
+
+	/**
+	 * @param s
+	 *            provides the scheme
+	 * @param a
+	 *            provides the authority
+	 * @return false if scheme isn't supported or authority is invalid
+	 */
+	private static boolean appendSchemeAndAuthority(final StringBuilder buf, final Ref s, final Ref a) {
+		final int defaultPort;
+		final int schemeLength = s._schemeEnd - s._start;
+		if (schemeLength == 4 && s._s.regionMatches(true, s._start, "http", 0, 4)) {
+			buf.append("http://");
+			defaultPort = 80;
+		} else if (schemeLength == 5 && s._s.regionMatches(true, s._start, "https", 0, 5)) {
+			buf.append("https://");
+			defaultPort = 443;
+		} else {
+			return false;
+		}
+
+		final String str = a._s;
+		int start = a._authorityStart;
+		final int end = a._authorityEnd;
+
+		final int at = str.lastIndexOf('@', end - 1);
+		if (at >= start) {
+			appendNormalized(buf, str, start, at, USERINFO);
+			buf.append('@');
+			start = at + 1;
+		}
+
+		int portSeparator = -1;
+		for (int i = end - 1; i >= start; i--) {
+			final char c = str.charAt(i);
+			if (c == ':') {
+				portSeparator = i;
+				break;
+			} else if (c < '0' || c > '9') {
+				break;
+			}
+		}
+
+		final int hostEnd = portSeparator < 0 ? end : portSeparator;
+		if (hostEnd == start) {
+			return false;
+		}
+		if (!appendHost(buf, str, start, hostEnd)) {
+			return false;
+		}
+
+		if (portSeparator >= 0 && portSeparator + 1 < end) {
+			if (end - portSeparator > 6) {
+				return false;
+			}
+			final int port = Integer.parseInt(str.substring(portSeparator + 1, end));
+			if (port > 65535) {
+				return false;
+			}
+			if (port != defaultPort) {
+				buf.append(':').append(port);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * appends a lower case host name or IP literal, converting international
+	 * domain names to ASCII
+	 * 
+	 * @return false if the host contains characters not allowed in a DNS name
+	 */
+	private static boolean appendHost(final StringBuilder buf, String s, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (s.charAt(i) >= 128) {
+				try {
+					s = IDN.toASCII(s.substring(start, end));
+				} catch (final IllegalArgumentException e) {
+					return false;
+				}
+				start = 0;
+				end = s.length();
+				break;
+			}
+		}
+
+		final boolean literal = s.charAt(start) == '[';
+		if (literal && (end - start < 3 || s.charAt(end - 1) != ']')) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			final char c = s.charAt(i);
+			if (literal ? i == start || i == end - 1 || hex(c) >= 0 || c == ':' || c == '.' : c < 128 && HOST[c]) {
+				buf.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+			} else {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * appends s from start to end, decoding percent-encoded unreserved
+	 * characters and encoding characters not allowed
+	 */
+	private static void appendNormalized(final StringBuilder buf, final String s, final int start, final int end,
+			final boolean[] allowed) {
+		int i = start;
+		while (i < end) {
+			final char c = s.charAt(i);
+			if (c == '%' && i + 2 < end && hex(s.charAt(i + 1)) >= 0 && hex(s.charAt(i + 2)) >= 0) {
+				final int v = hex(s.charAt(i + 1)) << 4 | hex(s.charAt(i + 2));
+				if (v < 128 && isUnreserved((char) v)) {
+					buf.append((char) v);
+				} else {
+					appendEncoded(buf, v);
+				}
+				i += 3;
+			} else if (c == '\t' || c == '\n' || c == '\r') {
+				// removed by browsers too
+				i++;
+			} else if (c < 128 && allowed[c]) {
+				buf.append(c);
+				i++;
+			} else {
+				int cp = s.codePointAt(i);
+				i += Character.charCount(cp);
+				if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+					cp = 0xfffd;
+				}
+				appendUtf8(buf, cp);
+			}
+		}
+	}
+
+	private static void appendUtf8(final StringBuilder buf, final int cp) {
+		if (cp < 0x80) {
+			appendEncoded(buf, cp);
+		} else if (cp < 0x800) {
+			appendEncoded(buf, 0xc0 | cp >> 6);
+			appendEncoded(buf, 0x80 | cp & 0x3f);
+		} else if (cp < 0x10000) {
+			appendEncoded(buf, 0xe0 | cp >> 12);
+			appendEncoded(buf, 0x80 | cp >> 6 & 0x3f);
+			appendEncoded(buf, 0x80 | cp & 0x3f);
+		} else {
+			appendEncoded(buf, 0xf0 | cp >> 18);
+			appendEncoded(buf, 0x80 | cp >> 12 & 0x3f);
+			appendEncoded(buf, 0x80 | cp >> 6 & 0x3f);
+			appendEncoded(buf, 0x80 | cp & 0x3f);
+		}
+	}
+
+	private static void appendEncoded(final StringBuilder buf, final int b) {
+		buf.append('%').append(HEX[b >> 4]).append(HEX[b & 0xf]);
+	}
+
+	/**
+	 * removes "." and ".." segments from the absolute path starting at start,
+	 * in place
+	 */
+	private static void removeDotSegments(final StringBuilder buf, final int start) {
+		final int end = buf.length();
+		int r = start;
+		int w = start;
+		while (r < end) {
+			// buf[r] is '/'
+			int segmentEnd = r + 1;
+			while (segmentEnd < end && buf.charAt(segmentEnd) != '/') {
+				segmentEnd++;
+			}
+
+			final int length = segmentEnd - r - 1;
+			final boolean dot = length == 1 && buf.charAt(r + 1) == '.';
+			final boolean dotDot = length == 2 && buf.charAt(r + 1) == '.' && buf.charAt(r + 2) == '.';
+			if (dot || dotDot) {
+				if (dotDot) {
+					while (w > start && buf.charAt(--w) != '/') {
+						// pop last output segment
+					}
+				}
+				if (segmentEnd == end) {
+					buf.setCharAt(w++, '/');
+				}
+			} else {
+				for (int i = r; i < segmentEnd; i++) {
+					buf.setCharAt(w++, buf.charAt(i));
+				}
+			}
+			r = segmentEnd;
+		}
+		buf.setLength(w);
+	}
+
+	private static void removeSessionId(final StringBuilder buf, final int start) {
+		final int index = buf.indexOf(";jsessionid=", start);
+		if (index >= 0) {
+			int end = index + 1;
+			while (end < buf.length() && buf.charAt(end) != '/') {
+				end++;
+			}
+			buf.delete(index, end);
+		}
+	}
+
+	private void rewriteQuery(final StringBuilder buf, final int start) {
+		final List<String> parameters = new ArrayList<String>();
+		int i = start;
+		while (i < buf.length()) {
+			int end = buf.indexOf("&", i);
+			if (end < 0) {
+				end = buf.length();
+			}
+			if (end > i) {
+				final String parameter = buf.substring(i, end);
+				if (!isStripped(parameter)) {
+					parameters.add(parameter);
+				}
+			}
+			i = end + 1;
+		}
+
+		if (_sortQuery) {
+			// stable, keeps order of values
+			Collections.sort(parameters, PARAMETER_NAME_ORDER);
+		}
+
+		buf.setLength(start);
+		for (int p = 0; p < parameters.size(); p++) {
+			if (p > 0) {
+				buf.append('&');
+			}
+			buf.append(parameters.get(p));
+		}
+	}
+
+	private boolean isStripped(final String parameter) {
+		final int length = nameLength(parameter);
+		for (final String strip : _stripParameters) {
+			if (strip.endsWith("*")) {
+				if (length >= strip.length() - 1 && parameter.startsWith(strip.substring(0, strip.length() - 1))) {
+					return true;
+				}
+			} else if (length == strip.length() && parameter.startsWith(strip)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int nameLength(final String parameter) {
+		final int eq = parameter.indexOf('=');
+		return eq < 0 ? parameter.length() : eq;
+	}
+
+	private static boolean isUnreserved(final char c) {
+		return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '.'
+				|| c == '_' || c == '~';
+	}
+
+	private static int hex(final char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * component boundaries of an URI reference, without copying
+	 */
+	private static final class Ref {
+		private final String _s;
+		private final int _start;
+		private int _schemeEnd = -1;
+		private int _authorityStart = -1;
+		private int _authorityEnd;
+		private int _pathStart;
+		private int _pathEnd;
+		private int _queryStart = -1;
+		private int _queryEnd;
+
+		private Ref(final String s) {
+			_s = s;
+
+			int start = 0;
+			int end = s.length();
+			while (start < end && s.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && s.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			_start = start;
+
+			int i = start;
+			for (int j = start; j < end; j++) {
+				final char c = s.charAt(j);
+				if (c == ':') {
+					if (j > start) {
+						_schemeEnd = j;
+						i = j + 1;
+					}
+					break;
+				}
+				if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || j > start
+						&& (c >= '0' && c <= '9' || c == '+' || c == '-' || c == '.'))) {
+					break;
+				}
+			}
+
+			int fragment = s.indexOf('#', i);
+			if (fragment < 0 || fragment > end) {
+				fragment = end;
+			}
+			int query = s.indexOf('?', i);
+			if (query > fragment) {
+				query = -1;
+			}
+			final int pathEnd = query < 0 ? fragment : query;
+
+			if (i + 1 < pathEnd && s.charAt(i) == '/' && s.charAt(i + 1) == '/') {
+				_authorityStart = i + 2;
+				i = _authorityStart;
+				while (i < pathEnd && s.charAt(i) != '/') {
+					i++;
+				}
+				_authorityEnd = i;
+			}
+
+			_pathStart = i;
+			_pathEnd = pathEnd;
+			if (query >= 0) {
+				_queryStart = query + 1;
+				_queryEnd = fragment;
+			}
+		}
+
+		private boolean hasScheme() {
+			return _schemeEnd >= 0;
+		}
+
+		private boolean hasAuthority() {
+			return _authorityStart >= 0;
+		}
+
+		private boolean hasQuery() {
+			return _queryStart >= 0;
+		}
+	}
+}
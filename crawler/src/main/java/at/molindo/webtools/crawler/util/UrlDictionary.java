@@ -0,0 +1,285 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import at.molindo.utils.io.CharsetUtils;
+
+/**
+ * concurrent dictionary assigning int IDs to URLs in the order they are first
+ * added. URLs are identified by their 64-bit fingerprint, see
+ * {@link Hashes#fingerprint(CharSequence)}, and stored once as UTF-8 in an
+ * arena of byte chunks. Each URL is front coded against the URL added before,
+ * which usually shares scheme, host and most of the path: only the length of
+ * the common prefix and the remaining bytes are stored. Decoding follows at
+ * most {@link #MAX_CHAIN} predecessors.
+ * 
+ * The dictionary takes about 24 bytes per URL plus its suffix, compared to 40
+ * bytes plus two bytes per char as a String. This doesn't include what users of
+ * the IDs keep per URL, e.g. a page slot and a result in the CrawlerHistory.
+ */
+public class UrlDictionary {
+
+	/**
+	 * maximum number of predecessors needed to decode a URL
+	 */
+	public static final int MAX_CHAIN = 8;
+
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	// by ID
+	private long[] _fingerprints = new long[1024];
+	private long[] _offsets = new long[1024];
+	private int _size;
+
+	// open addressing table of ID + 1, 0 if empty
+	private int[] _table = new int[2048];
+
+	private byte[][] _chunks = new byte[16][];
+	private int _chunk = -1;
+	private int _position;
+	private long _bytes;
+
+	private byte[] _last = new byte[0];
+	private int _chain;
+
+	/**
+	 * @return the ID of url, added if new
+	 */
+	public int id(final String url) {
+		final long fingerprint = Hashes.fingerprint(url);
+
+		_lock.readLock().lock();
+		try {
+			final int id = find(fingerprint);
+			if (id >= 0) {
+				return id;
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+
+		_lock.writeLock().lock();
+		try {
+			final int id = find(fingerprint);
+			return id >= 0 ? id : add(fingerprint, url.getBytes(CharsetUtils.UTF_8));
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the ID of url or -1 if it wasn't added
+	 */
+	public int getId(final String url) {
+		final long fingerprint = Hashes.fingerprint(url);
+
+		_lock.readLock().lock();
+		try {
+			return find(fingerprint);
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the URL of id, decoded from the arena
+	 */
+	public String getUrl(final int id) {
+		_lock.readLock().lock();
+		try {
+			if (id < 0 || id >= _size) {
+				throw new IllegalArgumentException("unknown id " + id);
+			}
+			return new String(decode(id), CharsetUtils.UTF_8);
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return number of URLs added
+	 */
+	public int size() {
+		_lock.readLock().lock();
+		try {
+			return _size;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return number of bytes used in the arena
+	 */
+	public long getArenaBytes() {
+		_lock.readLock().lock();
+		try {
+			return _bytes;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	private int find(final long fingerprint) {
+		final int mask = _table.length - 1;
+		for (int slot = (int) fingerprint & mask;; slot = slot + 1 & mask) {
+			final int id = _table[slot] - 1;
+			if (id < 0) {
+				return -1;
+			} else if (_fingerprints[id] == fingerprint) {
+				return id;
+			}
+		}
+	}
+
+	private int add(final long fingerprint, final byte[] url) {
+		// common prefix with the URL added before
+		int prefix = 0;
+		if (_chain < MAX_CHAIN) {
+			final int max = Math.min(url.length, _last.length);
+			while (prefix < max && url[prefix] == _last[prefix]) {
+				prefix++;
+			}
+		}
+		_chain = prefix == 0 ? 0 : _chain + 1;
+		_last = url;
+
+		final int id = _size;
+		if (id == _fingerprints.length) {
+			_fingerprints = Arrays.copyOf(_fingerprints, id * 2);
+			_offsets = Arrays.copyOf(_offsets, id * 2);
+		}
+		_fingerprints[id] = fingerprint;
+		_offsets[id] = write(prefix, url);
+		_size++;
+
+		if (_size * 2 > _table.length) {
+			rehash(_table.length * 2);
+		}
+		final int mask = _table.length - 1;
+		int slot = (int) fingerprint & mask;
+		while (_table[slot] != 0) {
+			slot = slot + 1 & mask;
+		}
+		_table[slot] = id + 1;
+		return id;
+	}
+
+	/**
+	 * appends prefix length, suffix length and suffix
+	 * 
+	 * @return chunk and position of the entry
+	 */
+	private long write(final int prefix, final byte[] url) {
+		final int suffix = url.length - prefix;
+		final int length = varIntLength(prefix) + varIntLength(suffix) + suffix;
+		if (_chunk < 0 || _position + length > _chunks[_chunk].length) {
+			if (++_chunk == _chunks.length) {
+				_chunks = Arrays.copyOf(_chunks, _chunk * 2);
+			}
+			_chunks[_chunk] = new byte[Math.max(CHUNK_SIZE, length)];
+			_position = 0;
+		}
+
+		final byte[] chunk = _chunks[_chunk];
+		final long offset = (long) _chunk << 32 | _position;
+		int p = writeVarInt(chunk, _position, prefix);
+		p = writeVarInt(chunk, p, suffix);
+		System.arraycopy(url, prefix, chunk, p, suffix);
+		_position = p + suffix;
+		_bytes += length;
+		return offset;
+	}
+
+	private byte[] decode(final int id) {
+		final int[] header = new int[2];
+		int p = header(id, header);
+		final byte[] url = new byte[header[0] + header[1]];
+		System.arraycopy(chunk(id), p, url, header[0], header[1]);
+
+		// copies missing prefix bytes from predecessors
+		int missing = header[0];
+		for (int i = id - 1; missing > 0; i--) {
+			p = header(i, header);
+			if (missing > header[0]) {
+				System.arraycopy(chunk(i), p, url, header[0], missing - header[0]);
+				missing = header[0];
+			}
+		}
+		return url;
+	}
+
+	private byte[] chunk(final int id) {
+		return _chunks[(int) (_offsets[id] >>> 32)];
+	}
+
+	/**
+	 * reads prefix and suffix length of id
+	 * 
+	 * @return position of the suffix
+	 */
+	private int header(final int id, final int[] header) {
+		final byte[] chunk = chunk(id);
+		int p = (int) _offsets[id];
+		for (int i = 0; i < 2; i++) {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = chunk[p++];
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			header[i] = value;
+		}
+		return p;
+	}
+
+	private void rehash(final int capacity) {
+		final int[] table = new int[capacity];
+		final int mask = capacity - 1;
+		for (int id = 0; id < _size; id++) {
+			int slot = (int) _fingerprints[id] & mask;
+			while (table[slot] != 0) {
+				slot = slot + 1 & mask;
+			}
+			table[slot] = id + 1;
+		}
+		_table = table;
+	}
+
+	private static int varIntLength(int value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			length++;
+		}
+		return length;
+	}
+
+	private static int writeVarInt(final byte[] buf, int p, int value) {
+		while ((value & ~0x7f) != 0) {
+			buf[p++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		buf[p++] = (byte) value;
+		return p;
+	}
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.molindo.webtools.crawler.links.HtmlLinkExtractor;
+import at.molindo.webtools.crawler.links.ILinkExtractor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncCrawlerExecutorTest {
+
+	private static final byte[] ASSET = new byte[1024 * 1024];
+	static {
+		// compressible, but not too much
+		final Random random = new Random(42);
+		for (int i = 0; i < ASSET.length; i++) {
+			ASSET[i] = (byte) random.nextInt(16);
+		}
+	}
+
+	private HttpServer _server;
+	private String _base;
+	private final Map<String, byte[]> _pages = new ConcurrentHashMap<String, byte[]>();
+	private final Map<String, String> _types = new ConcurrentHashMap<String, String>();
+
+	private BodyPolicy _bodyPolicy;
+	private final AtomicInteger _offered = new AtomicInteger();
+	private Crawler _crawler;
+	private AsyncCrawlerExecutor _executor;
+	private final Map<String, CrawlerResult> _results = new ConcurrentHashMap<String, CrawlerResult>();
+	private final CountDownLatch _ready = new CountDownLatch(1);
+	private final CountDownLatch _finished = new CountDownLatch(1);
+
+	@Before
+	public void before() throws IOException {
+		_server = HttpServer.create(new InetSocketAddress("localhost", 0), 16);
+		_server.createContext("/", new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+		_server.start();
+		_base = "http://localhost:" + _server.getAddress().getPort();
+	}
+
+	@After
+	public void after() {
+		if (_crawler != null) {
+			_crawler.shutdown();
+			_crawler.getConnectionManager().shutdown();
+		}
+		_server.stop(0);
+	}
+
+	private void respond(final HttpExchange exchange) throws IOException {
+		try {
+			// observers are added after the start page was queued
+			_ready.await();
+		} catch (final InterruptedException e) {
+			throw new IOException("interrupted");
+		}
+		final String path = exchange.getRequestURI().getPath();
+		if ("/broken".equals(path)) {
+			// connection closed without response
+			throw new IOException("broken");
+		}
+		final byte[] page = _pages.get(path);
+		if (page == null) {
+			exchange.sendResponseHeaders(404, -1);
+		} else {
+			final String type = _types.get(path);
+			exchange.getResponseHeaders().add("Content-Type", type);
+			if (path.endsWith(".gz")) {
+				exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			}
+			exchange.sendResponseHeaders(200, page.length);
+			final OutputStream out = exchange.getResponseBody();
+			out.write(page);
+		}
+		exchange.close();
+	}
+
+	private void page(final String path, final String type, final byte[] content) throws IOException {
+		_types.put(path, type);
+		if (path.endsWith(".gz")) {
+			final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			final GZIPOutputStream out = new GZIPOutputStream(buf);
+			out.write(content);
+			out.close();
+			_pages.put(path, buf.toByteArray());
+		} else {
+			_pages.put(path, content);
+		}
+	}
+
+	private static byte[] html(final String... links) throws IOException {
+		final StringBuilder buf = new StringBuilder("<html><body>");
+		for (final String link : links) {
+			buf.append("<a href=\"").append(link).append("\">x</a>");
+		}
+		return buf.append("</body></html>").toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * crawls from the start page, waiting for FINISH
+	 */
+	private void crawl() throws InterruptedException {
+		start();
+		_ready.countDown();
+		assertTrue("not finished", _finished.await(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * queues the start page, the server doesn't respond before {@link #_ready}
+	 */
+	private void start() {
+		_crawler = new Crawler(Arrays.asList(_base + "/"), null, null, 2, 0, false) {
+
+			@Override
+			protected ExecutorService newExecutor(final int threads) {
+				return _executor = new AsyncCrawlerExecutor(this, 1, threads, 2);
+			}
+
+			@Override
+			protected BlockingQueue<Runnable> newBlockingQueue() {
+				return new LinkedBlockingQueue<Runnable>() {
+
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					public boolean offer(final Runnable r) {
+						_offered.incrementAndGet();
+						return super.offer(r);
+					}
+				};
+			}
+
+			@Override
+			protected BodyPolicy newBodyPolicy() {
+				return _bodyPolicy != null ? _bodyPolicy : super.newBodyPolicy();
+			}
+
+			@Override
+			protected ILinkExtractor newLinkExtractor(final CrawlerContext context) {
+				return new HtmlLinkExtractor();
+			}
+
+			@Override
+			public boolean isStoreDigest() {
+				return true;
+			}
+		};
+		_crawler.addObserver(new Observer() {
+
+			@Override
+			public void update(final Observable o, final Object arg) {
+				if (arg instanceof CrawlerResult) {
+					final CrawlerResult result = (CrawlerResult) arg;
+					_results.put(result.getUrl(), result);
+				} else if (arg == Crawler.FINISH) {
+					_finished.countDown();
+				}
+			}
+		});
+	}
+
+	@Test
+	public void pages() throws Exception {
+		page("/", "text/html", html("/a", "/b", "/missing"));
+		page("/a", "text/html", html("/b"));
+		page("/b", "text/plain", "plain".getBytes("UTF-8"));
+		crawl();
+
+		assertEquals(4, _results.size());
+		assertEquals(200, _results.get(_base + "/").getStatus());
+		assertEquals(404, _results.get(_base + "/missing").getStatus());
+
+		for (final String path : new String[] { "/", "/a", "/b" }) {
+			final CrawlerResult result = _results.get(_base + path);
+			assertEquals(path, 200, result.getStatus());
+			assertNull(path, result.getErrorMessage());
+			assertFalse(path, result.isTruncated());
+			assertEquals(path, _pages.get(path).length, result.getDecodedLength());
+			assertEquals(path, _pages.get(path).length, result.getWireLength());
+		}
+		// FINISH is fired before the last task is done
+		_executor.shutdown();
+		assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(0, _executor.getPendingCount());
+	}
+
+	@Test
+	public void frontier() throws Exception {
+		final String[] links = new String[20];
+		for (int i = 0; i < links.length; i++) {
+			links[i] = "/" + i;
+			page(links[i], "text/html", html());
+		}
+		page("/", "text/html", html(links));
+		crawl();
+
+		assertEquals(21, _results.size());
+		// queued in the crawler's frontier, at most 4 at a time in per-host queues
+		assertEquals(21, _offered.get());
+		assertEquals(4, _executor.getMaxRouted());
+		_executor.shutdown();
+		assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(0, _executor.getPendingCount());
+	}
+
+	@Test
+	public void truncated() throws Exception {
+		_bodyPolicy = new BodyPolicy(1024, 0, "");
+
+		final StringBuilder buf = new StringBuilder("<html><body><a href=\"/first\">x</a>");
+		for (int i = 0; i < 1024; i++) {
+			buf.append("<p>padding</p>");
+		}
+		final byte[] page = buf.append("<a href=\"/last\">x</a></body></html>").toString().getBytes("UTF-8");
+
+		page("/", "text/html", html("/long", "/long.gz"));
+		page("/long", "text/html", page);
+		page("/long.gz", "text/html", page);
+		page("/first", "text/html", html());
+		page("/last", "text/html", html());
+		crawl();
+
+		for (final String path : new String[] { "/long", "/long.gz" }) {
+			final CrawlerResult result = _results.get(_base + path);
+			assertEquals(path, 200, result.getStatus());
+			assertNull(path, result.getErrorMessage());
+			assertTrue(path, result.isTruncated());
+		}
+		assertNotNull(_results.get(_base + "/first"));
+		assertNull(_results.get(_base + "/last"));
+	}
+
+	@Test
+	public void errors() throws Exception {
+		page("/", "text/html", html("/broken", "/missing"));
+		crawl();
+
+		assertEquals(3, _results.size());
+		assertEquals(404, _results.get(_base + "/missing").getStatus());
+		assertNull(_results.get(_base + "/missing").getErrorMessage());
+		assertNotNull(_results.get(_base + "/broken").getErrorMessage());
+		// FINISH is fired before the last task is done
+		_executor.shutdown();
+		assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(0, _executor.getPendingCount());
+	}
+
+	@Test
+	public void shutdown() throws Exception {
+		page("/", "text/html", html());
+		start();
+
+		// waits for the pending start page
+		_executor.shutdown();
+		assertTrue(_executor.isShutdown());
+		assertFalse(_executor.isTerminated());
+		try {
+			_executor.execute(new CrawlerTask(_crawler, _base + "/late", null));
+			fail();
+		} catch (final RejectedExecutionException e) {
+			// expected
+		}
+
+		_ready.countDown();
+		assertTrue("not finished", _finished.await(10, TimeUnit.SECONDS));
+		assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(200, _results.get(_base + "/").getStatus());
+		assertEquals(1, _results.size());
+	}
+
+	@Test
+	public void assets() throws Exception {
+		page("/", "text/html", html("/asset.pdf", "/asset.pdf.gz"));
+		page("/asset.pdf", "application/pdf", ASSET);
+		page("/asset.pdf.gz", "application/pdf", ASSET);
+		crawl();
+
+		final byte[] md5 = MessageDigest.getInstance("MD5").digest(ASSET);
+		for (final String path : new String[] { "/asset.pdf", "/asset.pdf.gz" }) {
+			final CrawlerResult result = _results.get(_base + path);
+			assertEquals(path, 200, result.getStatus());
+			assertNull(path, result.getErrorMessage());
+			// digested while received, not buffered
+			assertEquals(path, ASSET.length, result.getContentLength());
+			assertEquals(path, ASSET.length, result.getDecodedLength());
+			assertEquals(path, _pages.get(path).length, result.getWireLength());
+			assertArrayEquals(path, md5, result.getDigest());
+		}
+		assertTrue(_results.get(_base + "/asset.pdf.gz").getWireLength() < ASSET.length);
+
+		final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.addHeader("Content-Type", "application/pdf");
+		final CrawlerTask task = new CrawlerTask(_crawler, _base + "/asset.pdf", null);
+		assertEquals(0, task.getBodyLimit(response));
+		assertTrue(task.isDigestedAsset(response));
+	}
+}
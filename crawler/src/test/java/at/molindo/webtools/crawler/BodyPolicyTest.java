@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import at.molindo.webtools.crawler.BodyPolicy.Action;
+
+public class BodyPolicyTest {
+
+	@Test
+	public void defaults() {
+		final BodyPolicy policy = new BodyPolicy();
+		assertEquals(Action.PARSE, policy.getAction("text/html; charset=UTF-8"));
+		assertEquals(Action.PARSE, policy.getAction("TEXT/HTML"));
+		assertEquals(Action.TEXT, policy.getAction("text/css"));
+		assertEquals(Action.ASSET, policy.getAction("application/pdf"));
+		assertEquals(Action.ASSET, policy.getAction(null));
+	}
+
+	@Test
+	public void assetTypes() {
+		final BodyPolicy policy = new BodyPolicy(1024, 0, "image/", "application/javascript");
+		assertEquals(Action.PARSE, policy.getAction("text/html"));
+		assertEquals(Action.TEXT, policy.getAction("text/plain"));
+		assertEquals(Action.ASSET, policy.getAction("image/png"));
+		assertEquals(Action.ASSET, policy.getAction("application/javascript; charset=utf-8"));
+		assertEquals(Action.SKIP, policy.getAction("application/octet-stream"));
+		assertEquals(Action.SKIP, policy.getAction(null));
+		assertEquals(1024, policy.getMaxTextLength());
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrawlerEventBusTest {
+
+	private Crawler _crawler;
+	private List<Object> _events;
+
+	@Before
+	public void before() {
+		_crawler = TestCrawlers.idle();
+
+		_events = Collections.synchronizedList(new ArrayList<Object>());
+		_crawler.addObserver(new Observer() {
+
+			@Override
+			public void update(final Observable o, final Object arg) {
+				_events.add(arg);
+			}
+		});
+	}
+
+	@After
+	public void after() {
+		TestCrawlers.shutdown(_crawler);
+	}
+
+	@Test
+	public void close() throws InterruptedException {
+		final CrawlerEventBus bus = new CrawlerEventBus(_crawler, 4);
+		bus.post("a");
+		bus.post(Crawler.FINISH);
+		bus.close();
+
+		// pending events are delivered before close returns
+		assertEquals(2, _events.size());
+		assertEquals("a", _events.get(0));
+		assertSame(Crawler.FINISH, _events.get(1));
+		assertEquals(2, bus.getDeliveredCount());
+	}
+
+	@Test
+	public void finish() throws InterruptedException {
+		final CrawlerEventBus bus = new CrawlerEventBus(_crawler, 4);
+		final CountDownLatch finished = new CountDownLatch(1);
+		_crawler.addObserver(new Observer() {
+
+			@Override
+			public void update(final Observable o, final Object arg) {
+				if (arg == Crawler.FINISH) {
+					finished.countDown();
+				}
+			}
+		});
+
+		// FINISH posted while the dispatch thread is about to wait
+		for (int i = 0; i < 1000; i++) {
+			bus.post(i);
+			if (i % 100 == 0) {
+				Thread.sleep(1);
+			}
+		}
+		bus.post(Crawler.FINISH);
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		bus.close();
+	}
+
+	@Test
+	public void concurrent() throws InterruptedException {
+		final CrawlerEventBus bus = new CrawlerEventBus(_crawler, 16);
+		final int threads = 4;
+		final int events = 10000;
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < events; i++) {
+							bus.post(new int[] { thread, i });
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		bus.post(Crawler.FINISH);
+		bus.close();
+
+		assertEquals(threads * events + 1, _events.size());
+		assertSame(Crawler.FINISH, _events.get(threads * events));
+
+		// events of each thread are delivered in order
+		final int[] next = new int[threads];
+		for (int i = 0; i < threads * events; i++) {
+			final int[] event = (int[]) _events.get(i);
+			assertEquals(next[event[0]]++, event[1]);
+		}
+		assertEquals(threads * events + 1, bus.getDeliveredCount());
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CrawlerFrontierTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private Crawler _crawler;
+
+	@Before
+	public void before() {
+		_crawler = TestCrawlers.idle();
+	}
+
+	@After
+	public void after() {
+		TestCrawlers.shutdown(_crawler);
+	}
+
+	@Test
+	public void spill() throws Exception {
+		final File dir = _folder.getRoot();
+		final CrawlerFrontier frontier = new CrawlerFrontier(_crawler, dir, 10, 1024);
+
+		final int count = 1000;
+		for (int i = 0; i < count; i++) {
+			frontier.put(new CrawlerTask(_crawler, "http://localhost/" + i, i % 2 == 0 ? null : new CrawlerReferrer(
+					"http://localhost/" + (i - 1), "äöü/" + i, i)));
+		}
+		assertEquals(count, frontier.size());
+		assertEquals(count - 10, frontier.getSpilledCount());
+		assertTrue(dir.list().length > 1);
+
+		for (int i = 0; i < count; i++) {
+			if (i == count / 2) {
+				// interleave new tasks, must queue up after spilled ones
+				frontier.put(new CrawlerTask(_crawler, "http://localhost/" + count, null));
+			}
+
+			final CrawlerTask task = (CrawlerTask) frontier.take();
+			assertEquals("http://localhost/" + i, task.getUrlString());
+			if (i % 2 == 0) {
+				assertNull(task.getReferrer());
+			} else {
+				assertEquals("http://localhost/" + (i - 1), task.getReferrer().getReferrerUrl());
+				assertEquals("äöü/" + i, task.getReferrer().getHref());
+				assertEquals(i, task.getDepth());
+			}
+		}
+
+		assertEquals("http://localhost/" + count, ((CrawlerTask) frontier.poll()).getUrlString());
+		assertNull(frontier.poll());
+		assertEquals(0, frontier.getSpilledCount());
+		assertEquals(0, dir.list().length);
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CrawlerResultTest {
+
+	@Test
+	public void maxReferrers() {
+		final CrawlerResult sr = new CrawlerResult();
+		sr.setMaxReferrers(2);
+		assertTrue(sr.getReferrers().isEmpty());
+
+		assertTrue(sr.addReferrer(new CrawlerReferrer("http://localhost/c", "c")));
+		assertTrue(sr.addReferrer(new CrawlerReferrer("http://localhost/a", "a")));
+		assertFalse(sr.addReferrer(new CrawlerReferrer("http://localhost/b", "b")));
+
+		assertEquals(2, sr.getReferrers().size());
+		assertEquals("http://localhost/a", sr.getReferrers().first().getReferrerUrl());
+		assertEquals(3, sr.getReferrerCount());
+	}
+
+	@Test
+	public void addToReferrers() {
+		final CrawlerResult sr = new CrawlerResult();
+		assertTrue(sr.getReferrers().add(new CrawlerReferrer("http://localhost/a", "a")));
+		assertEquals(1, sr.getReferrers().size());
+		assertEquals(1, sr.getReferrerCount());
+	}
+
+	@Test
+	public void intern() {
+		final CrawlerResult a = new CrawlerResult();
+		a.setContentType(new String("text/html"));
+		final CrawlerResult b = new CrawlerResult();
+		b.setContentType(new String("text/html"));
+		assertSame(a.getContentType(), b.getContentType());
+
+		a.setErrorMessage(new String("http://localhost/a"));
+		b.setErrorMessage(new String("http://localhost/a"));
+		assertNotSame(a.getErrorMessage(), b.getErrorMessage());
+	}
+}
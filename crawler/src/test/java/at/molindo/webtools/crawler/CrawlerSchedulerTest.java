@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrawlerSchedulerTest {
+
+	private Crawler _crawler;
+	private Recorder _executor;
+	private CrawlerScheduler _scheduler;
+
+	@Before
+	public void before() {
+		_crawler = TestCrawlers.idle(0, "http://slow/", "http://fast/");
+		_executor = new Recorder();
+		_scheduler = new CrawlerScheduler(_crawler, _executor, Double.POSITIVE_INFINITY, 1, 2, 2);
+	}
+
+	@After
+	public void after() {
+		if (_scheduler != null) {
+			_scheduler.shutdownNow();
+		}
+		TestCrawlers.shutdown(_crawler);
+	}
+
+	@Test
+	public void fair() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			_scheduler.execute(new CrawlerTask(_crawler, "http://slow/" + i, null));
+			_scheduler.execute(new CrawlerTask(_crawler, "http://fast/" + i, null));
+		}
+
+		// slow responses take 10 times as long, both hosts get the same share
+		// of response time instead of the same number of requests
+		for (int i = 0; i < 60; i++) {
+			final CrawlerTask task = _executor.take();
+			final CrawlerResult result = new CrawlerResult();
+			result.setUrl(task.getUrlString());
+			result.setTime(task.getUrlString().startsWith("http://slow/") ? 1000 : 100);
+			_scheduler.completed(result);
+		}
+		// the two running
+		_executor.take();
+		_executor.take();
+
+		final long slow = _scheduler.getScheduledCount("http://slow/");
+		final long fast = _scheduler.getScheduledCount("http://fast/");
+		assertEquals(62, slow + fast);
+		assertTrue(slow + " slow, " + fast + " fast", fast > 6 * slow);
+	}
+
+	@Test
+	public void roundRobin() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			_scheduler.execute(new CrawlerTask(_crawler, "http://slow/" + i, null));
+		}
+		assertNotNull(_executor.take());
+		assertNotNull(_executor.take());
+
+		// a new host isn't charged for the time it was idle
+		_scheduler.execute(new CrawlerTask(_crawler, "http://fast/", null));
+		for (int i = 0; i < 2; i++) {
+			final CrawlerResult result = new CrawlerResult();
+			result.setUrl("http://slow/" + i);
+			result.setTime(100);
+			_scheduler.completed(result);
+		}
+		final List<String> urls = Arrays.asList(_executor.take().getUrlString(), _executor.take().getUrlString());
+		Collections.sort(urls);
+		assertEquals(Arrays.asList("http://fast/", "http://slow/2"), urls);
+	}
+
+	private static final class Recorder extends AbstractExecutorService {
+
+		private final BlockingQueue<CrawlerTask> _tasks = new LinkedBlockingQueue<CrawlerTask>();
+
+		@Override
+		public void execute(final Runnable command) {
+			_tasks.add((CrawlerTask) command);
+		}
+
+		private CrawlerTask take() throws InterruptedException {
+			final CrawlerTask task = _tasks.poll(1, TimeUnit.SECONDS);
+			assertNotNull("no task scheduled", task);
+			return task;
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import at.molindo.webtools.crawler.filter.ICrawlerFilter;
+import at.molindo.webtools.crawler.filter.PrefixFilter;
+import at.molindo.webtools.crawler.util.UrlDictionary;
+
+public class CrawlerTaskTest {
+
+	private Crawler _crawler;
+
+	@Before
+	public void before() {
+		_crawler = TestCrawlers.idle();
+	}
+
+	@After
+	public void after() {
+		TestCrawlers.shutdown(_crawler);
+	}
+
+	@Test
+	public void deprecatedParseResult() throws SAXException, IOException {
+		final List<String> parsed = new ArrayList<String>();
+		final String html = "<html><body>\u00e4</body></html>";
+
+		new StringParserTask(_crawler, parsed).parseResult(new ByteArrayInputStream(html.getBytes("ISO-8859-1")),
+				"ISO-8859-1");
+		assertEquals(Arrays.asList(html), parsed);
+
+		// inherited overrides are called too
+		parsed.clear();
+		new StringParserTask(_crawler, parsed) {
+		}.parseResult(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+		assertEquals(Arrays.asList(html), parsed);
+	}
+
+	@Test
+	public void internFiltered() {
+		_crawler.getFilters().add(new PrefixFilter(_crawler, "/private"));
+		_crawler.getFilters().add(new ICrawlerFilter() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean filter(final CrawlerTask task) {
+				return task.getUrlString().endsWith("/rejected");
+			}
+		});
+
+		final UrlDictionary dictionary = _crawler.getUrlDictionary();
+		final int size = dictionary.size();
+
+		// rejected URLs are never added
+		assertFalse(_crawler.queueCanonical("http://localhost/private/a", null));
+		assertFalse(_crawler.queueCanonical("http://localhost/rejected", null));
+		assertEquals(size, dictionary.size());
+		assertEquals(-1, dictionary.getId("http://localhost/rejected"));
+
+		assertTrue(_crawler.queueCanonical("http://localhost/accepted", null));
+		assertTrue(dictionary.getId("http://localhost/accepted") >= 0);
+	}
+
+	@Test
+	public void invalidUrl() {
+		final List<CrawlerResult> results = new ArrayList<CrawlerResult>();
+		_crawler.addObserver(new Observer() {
+
+			@Override
+			public void update(final Observable o, final Object arg) {
+				if (arg instanceof CrawlerResult) {
+					results.add((CrawlerResult) arg);
+				}
+			}
+		});
+
+		// not canonicalized
+		new CrawlerTask(_crawler, "http://exa mple.com/", null).run();
+		assertEquals(1, results.size());
+		assertNotNull(results.get(0).getErrorMessage());
+	}
+
+	private static class StringParserTask extends CrawlerTask {
+		private final List<String> _parsed;
+
+		private StringParserTask(final Crawler crawler, final List<String> parsed) {
+			super(crawler, "http://localhost/", null);
+			_parsed = parsed;
+		}
+
+		@Override
+		@Deprecated
+		protected void parseResult(final String string) {
+			_parsed.add(string);
+		}
+	}
+}
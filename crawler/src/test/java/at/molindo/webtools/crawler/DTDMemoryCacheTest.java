@@ -0,0 +1,162 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.EntityResolver2;
+
+import at.molindo.webtools.crawler.links.ILinkHandler;
+import at.molindo.webtools.crawler.links.SaxLinkExtractor;
+
+public class DTDMemoryCacheTest {
+
+	private static final String TRANSITIONAL = "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional//EN\" "
+			+ "\"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd\">";
+
+	private static final String STRICT = "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" "
+			+ "\"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">";
+
+	private static final String BODY = "<html><body><p>a&nbsp;b &euro; &lt;&amp;&gt; &quot;&apos; &#233;</p>"
+			+ "<a href=\"/caf&eacute;?a=1&amp;b=&lt;2&gt;\">x&mdash;y</a><area href=\"/map\" alt=\"\"/></body></html>";
+
+	@Test
+	public void extractOffline() throws Exception {
+		final DTDMemoryCache cache = new DTDMemoryCache(false);
+		assertEquals("[/café?a=1&b=<2>, /map]", extract(cache, TRANSITIONAL + BODY));
+		// compiled DTD is reused
+		assertEquals("[/café?a=1&b=<2>, /map]", extract(cache, TRANSITIONAL + BODY));
+		// unknown XHTML DTDs fall back to transitional
+		assertEquals("[/café?a=1&b=<2>, /map]", extract(cache, STRICT + BODY));
+	}
+
+	@Test
+	public void compiledEquivalent() throws Exception {
+		final DTDMemoryCache cache = new DTDMemoryCache(false);
+
+		// plain EntityResolver gets the original DTD and entity sets
+		final String original = events(new EntityResolver() {
+
+			@Override
+			public InputSource resolveEntity(final String publicId, final String systemId) throws SAXException,
+					IOException {
+				return cache.resolveEntity(publicId, systemId);
+			}
+		}, TRANSITIONAL + BODY);
+		final String compiled = events(cache, TRANSITIONAL + BODY);
+
+		assertTrue(original, original.contains("a b € <&> \"' é"));
+		assertTrue(original, original.contains("shape=rect"));
+		assertEquals(original, compiled);
+	}
+
+	@Test
+	public void compile() throws Exception {
+		final String dtd = new String(new DTDMemoryCache(false).compile(
+				DTDMemoryCache.XHTML1_TRANSITIONAL_PUBLIC_ID, DTDMemoryCache.XHTML1_TRANSITIONAL_SYSTEM_ID), "UTF-8");
+
+		assertFalse(dtd, dtd.contains("%"));
+		assertTrue(dtd, dtd.contains("<!ENTITY nbsp \"&#160;\">"));
+		assertTrue(dtd, dtd.contains("<!ENTITY lt \"&#38;#60;\">"));
+		assertTrue(dtd, dtd.contains("<!ATTLIST a shape (rect|circle|poly|default) \"rect\">"));
+	}
+
+	@Test
+	public void unknownOffline() throws Exception {
+		final DTDMemoryCache cache = new DTDMemoryCache(false);
+		assertFalse(cache.isExternal());
+
+		final InputStream in = cache.resolveEntity("-//ACME//ENTITIES Unknown//EN", "http://example.com/unknown.ent")
+				.getByteStream();
+		assertEquals(-1, in.read());
+
+		// without any declarations, the predefined entities still work
+		assertEquals("[/a&b]", extract(cache, "<!DOCTYPE html SYSTEM \"http://example.com/unknown.dtd\">"
+				+ "<html><a href=\"/a&amp;b\">x</a></html>"));
+	}
+
+	private static String extract(final DTDMemoryCache cache, final String page) throws Exception {
+		final List<String> links = new ArrayList<String>();
+		new SaxLinkExtractor(SAXParserFactory.newInstance().newSAXParser(), cache, "a", "area")
+				.extract(new ByteArrayInputStream(page.getBytes("UTF-8")), "UTF-8", new ILinkHandler() {
+
+					@Override
+					public void link(final String href) {
+						links.add(href);
+					}
+				});
+		return links.toString();
+	}
+
+	private static String events(final EntityResolver resolver, final String page) throws Exception {
+		final Recorder recorder = new Recorder(resolver);
+		SAXParserFactory.newInstance().newSAXParser().parse(new InputSource(new StringReader(page)), recorder);
+		return recorder._buf.toString();
+	}
+
+	private static final class Recorder extends DefaultHandler2 {
+
+		private final EntityResolver _resolver;
+		private final StringBuilder _buf = new StringBuilder();
+
+		private Recorder(final EntityResolver resolver) {
+			_resolver = resolver;
+		}
+
+		@Override
+		public InputSource resolveEntity(final String name, final String publicId, final String baseURI,
+				final String systemId) throws SAXException, IOException {
+			if (_resolver instanceof EntityResolver2) {
+				return ((EntityResolver2) _resolver).resolveEntity(name, publicId, baseURI, systemId);
+			}
+			return _resolver.resolveEntity(publicId, baseURI == null ? systemId : new URL(new URL(baseURI),
+					systemId).toString());
+		}
+
+		@Override
+		public void startElement(final String uri, final String localName, final String qName,
+				final Attributes attributes) {
+			_buf.append('<').append(qName);
+			for (int i = 0; i < attributes.getLength(); i++) {
+				_buf.append(' ').append(attributes.getQName(i)).append('=').append(attributes.getValue(i));
+			}
+			_buf.append('>');
+		}
+
+		@Override
+		public void characters(final char[] ch, final int start, final int length) {
+			_buf.append(ch, start, length);
+		}
+	}
+}
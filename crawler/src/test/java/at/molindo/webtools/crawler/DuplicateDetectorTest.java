@@ -0,0 +1,78 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import at.molindo.utils.io.CharsetUtils;
+import at.molindo.webtools.crawler.io.SimHashOutputStream;
+
+public class DuplicateDetectorTest {
+
+	@Test
+	public void simHash() throws Exception {
+		final String text = text(31);
+		final long a = simHash("<html><body><p>" + text + "</p></body></html>");
+		final long b = simHash("<html><body><div class=\"x\"><p>" + text.toUpperCase() + "</p></div></body></html>");
+		final long c = simHash("<html><body><p>" + text.replace(" w62 ", " changed ") + "</p></body></html>");
+		final long d = simHash("<html><body><p>" + text(37) + "</p></body></html>");
+
+		// markup and case are ignored
+		assertEquals(a, b);
+		assertTrue(Long.bitCount(a ^ c) <= DuplicateDetector.DEFAULT_DISTANCE);
+		assertTrue(Long.bitCount(a ^ d) > DuplicateDetector.DEFAULT_DISTANCE);
+	}
+
+	@Test
+	public void detect() {
+		final DuplicateDetector detector = new DuplicateDetector();
+
+		assertNull(detector.add("a", new byte[] { 1 }, 0x00ffL));
+		assertNull(detector.add("b", new byte[] { 2 }, 0xff00L));
+		// same digest
+		assertEquals("a", detector.add("a2", new byte[] { 1 }, 0xff00ff00L));
+		// similar simhash in single block
+		assertEquals("b", detector.add("b2", new byte[] { 3 }, 0xff07L));
+		// exact copy of near duplicate
+		assertEquals("b", detector.add("b3", new byte[] { 3 }));
+		// differences spread over all blocks
+		assertNull(detector.add("c", new byte[] { 4 }, 0x00ffL ^ 0x0001000100010001L));
+
+		assertEquals(3, detector.getDuplicateCount());
+		assertEquals(Arrays.asList("a2"), detector.getClusters().get("a"));
+		assertEquals(Arrays.asList("b2", "b3"), detector.getClusters().get("b"));
+	}
+
+	private static String text(final int factor) {
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			buf.append(" w").append(i * factor % 997).append(" ");
+		}
+		return buf.toString();
+	}
+
+	private static long simHash(final String html) throws Exception {
+		final SimHashOutputStream out = new SimHashOutputStream();
+		out.write(html.getBytes(CharsetUtils.UTF_8));
+		return out.simHash();
+	}
+}
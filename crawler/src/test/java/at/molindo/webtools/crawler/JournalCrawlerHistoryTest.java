@@ -0,0 +1,173 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalCrawlerHistoryTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void resume() throws IOException {
+		check(1000);
+	}
+
+	@Test
+	public void compact() throws IOException {
+		check(2);
+		assertTrue(new File(_folder.getRoot(), "snapshot").exists());
+	}
+
+	@Test
+	public void crashWhileCompacting() throws IOException {
+		final File dir = _folder.getRoot();
+		final File snapshot = new File(dir, "snapshot");
+
+		JournalCrawlerHistory history = new JournalCrawlerHistory(new CrawlerHistory(), dir, 2);
+		assertTrue(history.queue("http://localhost/a", null));
+		assertTrue(history.queue("http://localhost/b", new CrawlerReferrer("http://localhost/a", "b")));
+		history.report(result("http://localhost/a", 200));
+		history.close();
+		assertTrue(snapshot.exists());
+
+		// old snapshot deleted before the new one was renamed, incomplete
+		// snapshot of another compaction left behind
+		assertTrue(snapshot.renameTo(new File(dir, "snapshot.new")));
+		final FileOutputStream out = new FileOutputStream(new File(dir, "snapshot.tmp"));
+		out.write(new byte[] { 'R', 0, 0 });
+		out.close();
+
+		history = new JournalCrawlerHistory(new CrawlerHistory(), dir, 2);
+		assertEquals(Arrays.asList("http://localhost/b"), new ArrayList<String>(history.resume().keySet()));
+		assertEquals(200, history.getVisitedURLs().get("http://localhost/a").getStatus());
+
+		// compacts again, overwriting the incomplete snapshot
+		history.report(result("http://localhost/b", 404));
+		assertTrue(history.queue("http://localhost/c", null));
+		history.close();
+		assertTrue(snapshot.exists());
+		assertFalse(new File(dir, "snapshot.new").exists());
+
+		history = new JournalCrawlerHistory(new CrawlerHistory(), dir, 2);
+		assertEquals(Arrays.asList("http://localhost/c"), new ArrayList<String>(history.resume().keySet()));
+		assertEquals(200, history.getVisitedURLs().get("http://localhost/a").getStatus());
+		assertEquals(404, history.getVisitedURLs().get("http://localhost/b").getStatus());
+		history.close();
+	}
+
+	@Test
+	public void compactionFailed() throws IOException, InterruptedException {
+		final File dir = _folder.getRoot();
+		final File compacting = new File(dir, "journal.compacting");
+
+		// snapshot can't be written
+		final File tmp = new File(dir, "snapshot.tmp");
+		assertTrue(tmp.mkdir());
+
+		JournalCrawlerHistory history = new JournalCrawlerHistory(new CrawlerHistory(), dir, 2);
+		assertTrue(history.queue("http://localhost/a", null));
+		assertTrue(history.queue("http://localhost/b", null));
+		history.awaitCompaction();
+		assertTrue(compacting.exists());
+
+		// must not replace the journal left behind
+		assertTrue(history.queue("http://localhost/c", null));
+		assertTrue(history.queue("http://localhost/d", null));
+		history.awaitCompaction();
+		assertTrue(history.queue("http://localhost/e", null));
+		history.close();
+
+		assertTrue(tmp.delete());
+		final List<String> all = Arrays.asList("http://localhost/a", "http://localhost/b", "http://localhost/c",
+				"http://localhost/d", "http://localhost/e");
+
+		history = new JournalCrawlerHistory(new CrawlerHistory(), dir, 2);
+		assertEquals(all, new ArrayList<String>(history.resume().keySet()));
+		history.close();
+		assertFalse(compacting.exists());
+
+		history = new JournalCrawlerHistory(new CrawlerHistory(), dir, 2);
+		assertEquals(all, new ArrayList<String>(history.resume().keySet()));
+		history.close();
+	}
+
+	private void check(final int compactInterval) throws IOException {
+		final File dir = _folder.getRoot();
+
+		JournalCrawlerHistory history = new JournalCrawlerHistory(new CrawlerHistory(), dir, compactInterval);
+		assertTrue(history.resume().isEmpty());
+		assertTrue(history.queue("http://localhost/a", null));
+		assertTrue(history.queue("http://localhost/b", new CrawlerReferrer("http://localhost/a", "b")));
+		assertTrue(history.queue("http://localhost/c", new CrawlerReferrer("http://localhost/a", "c")));
+		assertFalse(history.queue("http://localhost/b", new CrawlerReferrer("http://localhost/c", "b")));
+		history.report(result("http://localhost/a", 200));
+		history.report(result("http://localhost/c", 404));
+		assertTrue(history.queue("http://localhost/d", new CrawlerReferrer("http://localhost/c", "d", 7)));
+		history.close();
+
+		// incomplete record
+		final FileOutputStream out = new FileOutputStream(new File(dir, "journal"), true);
+		out.write('Q');
+		out.write(0);
+		out.close();
+
+		history = new JournalCrawlerHistory(new CrawlerHistory(), dir, compactInterval);
+		final Map<String, CrawlerReferrer> pending = history.resume();
+		assertEquals(Arrays.asList("http://localhost/b", "http://localhost/d"), new ArrayList<String>(pending.keySet()));
+		assertEquals("http://localhost/a", pending.get("http://localhost/b").getReferrerUrl());
+		assertEquals(1, pending.get("http://localhost/b").getDepth());
+		assertEquals(7, pending.get("http://localhost/d").getDepth());
+		assertTrue(history.resume().isEmpty());
+
+		assertEquals(200, history.getVisitedURLs().get("http://localhost/a").getStatus());
+		assertEquals(404, history.getVisitedURLs().get("http://localhost/c").getStatus());
+		assertFalse(history.queue("http://localhost/a", null));
+		assertFalse(history.queue("http://localhost/b", null));
+
+		history.report(result("http://localhost/b", 200));
+		history.close();
+
+		history = new JournalCrawlerHistory(new CrawlerHistory(), dir, compactInterval);
+		final Map<String, CrawlerReferrer> remaining = history.resume();
+		assertEquals(Arrays.asList("http://localhost/d"), new ArrayList<String>(remaining.keySet()));
+		assertEquals(7, remaining.get("http://localhost/d").getDepth());
+		assertEquals(4, history.getVisitedURLs().size());
+		history.close();
+	}
+
+	private static CrawlerResult result(final String url, final int status) {
+		final CrawlerResult result = new CrawlerResult();
+		result.setUrl(url);
+		result.setStatus(status);
+		return result;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LinkGraphTest {
+
+	@Test
+	public void links() throws Exception {
+		final LinkGraph graph = new LinkGraph();
+		graph.addLinks("/a", Arrays.asList("/b", "/c", "/b", "/a"));
+		graph.addLinks("/b", Arrays.asList("/c"));
+		graph.addLink("/c", "/ä");
+
+		assertEquals(4, graph.getUrlCount());
+		assertEquals(5, graph.getLinkCount());
+		assertEquals(3, graph.getOutDegree("/a"));
+		assertEquals(2, graph.getInDegree("/c"));
+		assertEquals(0, graph.getInDegree("/unknown"));
+
+		// duplicates of other pages are counted until compacted
+		graph.addLink("/b", "/c");
+		assertEquals(3, graph.getInDegree("/c"));
+		assertArrayEquals(new int[] { 0, 1 }, graph.getInLinks(graph.getId("/c")));
+		assertArrayEquals(new int[] { 2 }, graph.getOutLinks(graph.getId("/b")));
+		assertEquals(6, graph.getLinkCount());
+		graph.compact();
+		assertEquals(2, graph.getInDegree("/c"));
+		assertEquals(5, graph.getLinkCount());
+
+		assertArrayEquals(new int[] { 0, 1, 2 }, graph.getOutLinks(graph.getId("/a")));
+		assertArrayEquals(new int[0], graph.getOutLinks(graph.getId("/ä")));
+		assertEquals(Arrays.asList("/a", "/b"), graph.getReferrers("/c"));
+		assertEquals(Arrays.asList("/a"), graph.getReferrers("/c", 1));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		graph.write(out);
+		final LinkGraph read = LinkGraph.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(4, read.getUrlCount());
+		assertEquals(5, read.getLinkCount());
+		assertEquals("/ä", read.getUrl(3));
+		assertArrayEquals(graph.getInLinks(1), read.getInLinks(1));
+		assertArrayEquals(graph.getOutLinks(0), read.getOutLinks(0));
+	}
+
+	@Test
+	public void random() {
+		final Random random = new Random(42);
+		final int urls = 1000;
+		final boolean[][] expected = new boolean[urls][urls];
+
+		final LinkGraph graph = new LinkGraph();
+		for (int i = 0; i < urls; i++) {
+			graph.id("/" + i);
+		}
+		// compacts a few times
+		for (int i = 0; i < 20000; i++) {
+			final int s = random.nextInt(urls);
+			final int t = random.nextInt(urls);
+			graph.addLink("/" + s, "/" + t);
+			expected[s][t] = true;
+		}
+
+		// compacted and pending links, possibly while compacting
+		for (int s = 0; s < urls; s++) {
+			assertArrayEquals(links(expected, s, true), graph.getOutLinks(s));
+			assertArrayEquals(links(expected, s, false), graph.getInLinks(s));
+		}
+
+		graph.compact();
+
+		int links = 0;
+		for (int s = 0; s < urls; s++) {
+			int out = 0;
+			int in = 0;
+			for (int t = 0; t < urls; t++) {
+				out += expected[s][t] ? 1 : 0;
+				in += expected[t][s] ? 1 : 0;
+			}
+			assertEquals(out, graph.getOutDegree(s));
+			assertEquals(in, graph.getInDegree(s));
+			assertEquals(out, graph.getOutLinks(s).length);
+			assertEquals(in, graph.getInLinks(s).length);
+			for (final int t : graph.getOutLinks(s)) {
+				assertEquals(true, expected[s][t]);
+			}
+			links += out;
+		}
+		assertEquals(links, graph.getLinkCount());
+	}
+
+	private static int[] links(final boolean[][] expected, final int id, final boolean out) {
+		final int[] links = new int[expected.length];
+		int count = 0;
+		for (int i = 0; i < expected.length; i++) {
+			if (out ? expected[id][i] : expected[i][id]) {
+				links[count++] = i;
+			}
+		}
+		return Arrays.copyOf(links, count);
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PriorityFrontierTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private Crawler _crawler;
+
+	@After
+	public void after() {
+		TestCrawlers.shutdown(_crawler);
+	}
+
+	@Test
+	public void policy() {
+		final PriorityPolicy policy = new PriorityPolicy(4, 2, Collections.singletonMap("/tags/", -8));
+		final int root = policy.getPriority("http://localhost/", 0, 1);
+		assertEquals(PriorityPolicy.LEVELS / 2, root);
+		assertEquals(root - 4, policy.getPriority("http://localhost/a", 1, 1));
+		assertEquals(root - 4 - 1, policy.getPriority("http://localhost/a/b", 1, 1));
+		assertEquals(root - 4 - 2, policy.getPriority("http://localhost/a?x=1&y=2", 1, 1));
+		assertEquals(root - 4 - 1 - 8, policy.getPriority("http://localhost/tags/b", 1, 1));
+		assertEquals(root - 4 + 2 * 3, policy.getPriority("http://localhost/a", 1, 8));
+		assertEquals(0, policy.getPriority("http://localhost/a", 100, 1));
+		assertEquals(PriorityPolicy.LEVELS - 1, policy.getPriority("http://localhost/", 0, 1 << 30));
+	}
+
+	@Test
+	public void order() throws Exception {
+		final PriorityFrontier frontier = frontier(0);
+
+		// one task in memory per bucket, spills the rest
+		final int count = 500;
+		for (int i = 0; i < count; i++) {
+			frontier.put(task("/" + i, i % 7));
+		}
+		assertEquals(count, frontier.size());
+		assertEquals(count, frontier.getPendingCount());
+
+		int depth = 0;
+		int previous = -1;
+		for (int i = 0; i < count; i++) {
+			final CrawlerTask task = (CrawlerTask) frontier.take();
+			final int n = Integer.parseInt(task.getUrlString().substring("http://localhost/".length()));
+			assertTrue(task.getDepth() >= depth);
+			if (task.getDepth() == depth) {
+				// FIFO within a bucket
+				assertTrue(n > previous);
+			}
+			depth = task.getDepth();
+			previous = n;
+		}
+		assertEquals(6, depth);
+		assertNull(frontier.poll());
+		assertEquals(0, _folder.getRoot().list().length);
+	}
+
+	@Test
+	public void promote() throws Exception {
+		final PriorityFrontier frontier = frontier(0);
+		frontier.put(task("/x", 2));
+		frontier.put(task("/y", 2));
+
+		for (int i = 0; i < 3; i++) {
+			frontier.linked("http://localhost/y", new CrawlerReferrer("http://localhost/z" + i, "/y", 3));
+		}
+		// 2 and 4 links
+		assertEquals(2, frontier.getPromotedCount());
+		assertEquals(2, frontier.getPendingCount());
+		assertEquals(4, frontier.size());
+
+		final CrawlerTask y = (CrawlerTask) frontier.peek();
+		assertEquals("http://localhost/y", y.getUrlString());
+		assertEquals(2, y.getDepth());
+
+		// a shorter path moves it up as well, beyond y
+		frontier.linked("http://localhost/x", new CrawlerReferrer("http://localhost/", "/x", 1));
+		assertEquals(3, frontier.getPromotedCount());
+
+		final CrawlerTask x = (CrawlerTask) frontier.take();
+		assertEquals("http://localhost/x", x.getUrlString());
+		assertEquals(1, x.getDepth());
+		assertEquals("http://localhost/y", ((CrawlerTask) frontier.take()).getUrlString());
+
+		// other copies are dropped
+		assertNull(frontier.poll());
+		assertEquals(0, frontier.size());
+
+		// taken already
+		frontier.linked("http://localhost/y", new CrawlerReferrer("http://localhost/", "/y", 1));
+		assertEquals(3, frontier.getPromotedCount());
+	}
+
+	@Test
+	public void max() throws Exception {
+		final PriorityFrontier frontier = frontier(2);
+		for (int i = 0; i < 5; i++) {
+			frontier.put(task("/" + i, 5 - i));
+		}
+
+		assertEquals("http://localhost/4", ((CrawlerTask) frontier.take()).getUrlString());
+		assertFalse(frontier.isExhausted());
+		assertEquals("http://localhost/3", ((CrawlerTask) frontier.take()).getUrlString());
+		assertTrue(frontier.isExhausted());
+
+		assertNull(frontier.poll());
+		assertEquals(3, _crawler.getDiscardedCount());
+		assertEquals(0, frontier.size());
+
+		frontier.put(task("/5", 0));
+		assertEquals(4, _crawler.getDiscardedCount());
+		assertNull(frontier.poll());
+	}
+
+	private PriorityFrontier frontier(final int max) {
+		_crawler = TestCrawlers.idle(max, "http://localhost/");
+		final PriorityFrontier frontier = new PriorityFrontier(_crawler, new PriorityPolicy(), _folder.getRoot(),
+				PriorityPolicy.LEVELS, 1024);
+		assertEquals(frontier, _crawler.getPriorityFrontier());
+		return frontier;
+	}
+
+	private CrawlerTask task(final String path, final int depth) {
+		return new CrawlerTask(_crawler, "http://localhost" + path, depth == 0 ? null : new CrawlerReferrer(
+				"http://localhost/", path, depth));
+	}
+}
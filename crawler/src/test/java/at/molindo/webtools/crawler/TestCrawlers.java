@@ -0,0 +1,75 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * crawlers for tests that never fetch anything
+ */
+public final class TestCrawlers {
+
+	private TestCrawlers() {
+	}
+
+	/**
+	 * @return an idle crawler for http://localhost/ without max
+	 * @see #idle(int, String...)
+	 */
+	public static Crawler idle() {
+		return idle(0, "http://localhost/");
+	}
+
+	/**
+	 * @return a crawler rejecting all tasks, including the start pages.
+	 *         Observers are notified synchronously and there's no scheduler,
+	 *         even for multiple hosts. Release it with
+	 *         {@link #shutdown(Crawler)}.
+	 */
+	public static Crawler idle(final int max, final String... seeds) {
+		return new Crawler(Arrays.asList(seeds), null, null, seeds.length, max, false) {
+
+			@Override
+			protected ExecutorService newExecutor(final int threads) {
+				// reject everything, including the start pages
+				final ExecutorService executor = Executors.newSingleThreadExecutor();
+				executor.shutdown();
+				return executor;
+			}
+
+			@Override
+			protected CrawlerScheduler newScheduler(final ExecutorService executor) {
+				return null;
+			}
+
+			@Override
+			protected CrawlerEventBus newEventBus() {
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * releases the connections of crawler, if not null
+	 */
+	public static void shutdown(final Crawler crawler) {
+		if (crawler != null) {
+			crawler.getConnectionManager().shutdown();
+		}
+	}
+}
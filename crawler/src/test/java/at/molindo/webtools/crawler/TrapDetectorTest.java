@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import at.molindo.webtools.crawler.TrapDetector.Trap;
+
+public class TrapDetectorTest {
+
+	@Test
+	public void shape() {
+		final TrapDetector traps = new TrapDetector(64, 10, 4, 2, 100, 100);
+
+		assertNull(traps.check("http://localhost", 0));
+		assertNull(traps.check("http://localhost/", 0));
+		assertNull(traps.check("http://localhost/a/b/c/d", 10));
+		assertNull(traps.check("http://localhost/a/b/a/c", 1));
+
+		assertEquals(Trap.LENGTH, traps.check("http://localhost/" + repeat("x", 64), 1));
+		assertEquals(Trap.DEPTH, traps.check("http://localhost/a", 11));
+		assertEquals(Trap.SEGMENTS, traps.check("http://localhost/a/b/c/d/e", 1));
+		assertEquals(Trap.REPEATS, traps.check("http://localhost/a/b/a/a", 1));
+		assertEquals(Trap.REPEATS, traps.check("http://localhost/a/a/a?x=1", 1));
+
+		assertEquals(5, traps.getTrappedCount());
+		assertEquals(2, traps.getTrappedCount(Trap.REPEATS));
+	}
+
+	@Test
+	public void budgets() {
+		final TrapDetector traps = new TrapDetector(1024, 100, 16, 3, 10, 20);
+
+		// query variants of a path
+		for (int i = 0; i < 10; i++) {
+			assertNull(traps.check("http://localhost/calendar?month=" + i, 1));
+		}
+		assertEquals(Trap.VARIANTS, traps.check("http://localhost/calendar?month=10", 1));
+		assertNull(traps.check("http://localhost/calendar", 1));
+
+		// numbers in paths share a template
+		for (int i = 0; i < 20; i++) {
+			assertNull(traps.check("http://localhost/events/2024-" + i, 1));
+		}
+		assertEquals(Trap.TEMPLATE, traps.check("http://localhost/events/2025-1", 1));
+		assertNull(traps.check("http://localhost/events/all", 1));
+		assertNull(traps.check("http://example.com/events/2025-1", 1));
+
+		// query values are ignored, names aren't
+		for (int i = 0; i < 20; i++) {
+			assertNull(traps.check("http://localhost/day/" + i + "?b=1&a=" + i, 1));
+		}
+		assertEquals(Trap.TEMPLATE, traps.check("http://localhost/day/0?a=0&b=2", 1));
+		assertNull(traps.check("http://localhost/day/0?a=0&c=2", 1));
+	}
+
+	private static String repeat(final String s, final int count) {
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			buf.append(s);
+		}
+		return buf.toString();
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class VirtualThreadExecutorTest {
+
+	@Test
+	public void maxConcurrency() throws InterruptedException {
+		final VirtualThreadExecutor executor = new VirtualThreadExecutor(2);
+
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(20);
+
+		for (int i = 0; i < 20; i++) {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					final int r = running.incrementAndGet();
+					synchronized (max) {
+						if (r > max.get()) {
+							max.set(r);
+						}
+					}
+					try {
+						Thread.sleep(5);
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						running.decrementAndGet();
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(max.get() <= 2);
+
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void queued() throws InterruptedException {
+		final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		final VirtualThreadExecutor executor = new VirtualThreadExecutor(2, queue);
+
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(5);
+
+		for (int i = 0; i < 5; i++) {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		// waiting in the queue, not on threads of their own
+		assertEquals(3, queue.size());
+
+		release.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void interrupted() throws InterruptedException {
+		final VirtualThreadExecutor executor = new VirtualThreadExecutor(1);
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger ran = new AtomicInteger();
+
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				started.countDown();
+				// hold the only permit, ignoring interrupts
+				while (true) {
+					try {
+						release.await();
+						break;
+					} catch (final InterruptedException e) {
+						// keep waiting
+					}
+				}
+				ran.incrementAndGet();
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		// waits for the permit
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				ran.incrementAndGet();
+			}
+		});
+		Thread.sleep(100);
+
+		// interrupts both, the waiting task must not get lost
+		executor.shutdownNow();
+		release.countDown();
+
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(2, ran.get());
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import at.molindo.utils.io.CharsetUtils;
+
+public class DiskResponseCacheTest {
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void putGet() throws IOException {
+		final DiskResponseCache cache = new DiskResponseCache(_folder.newFolder("cache"));
+		final String url = "http://localhost/a";
+		assertNull(cache.get(url));
+		assertNull(cache.openBody(url));
+
+		final byte[] body = "<a href=\"b\">b</a>".getBytes(CharsetUtils.UTF_8);
+		cache.put(url, new CachedResponse("\"1\"", null, "text/html", "utf-8", body.length, new byte[] { 1, 2 }),
+				body);
+
+		final CachedResponse cached = new DiskResponseCache(_folder.getRoot().listFiles()[0]).get(url);
+		assertEquals("\"1\"", cached.getEtag());
+		assertNull(cached.getLastModified());
+		assertEquals("text/html", cached.getContentType());
+		assertEquals("utf-8", cached.getEncoding());
+		assertEquals(body.length, cached.getContentLength());
+		assertArrayEquals(new byte[] { 1, 2 }, cached.getDigest());
+		assertArrayEquals(body, read(cache.openBody(url)));
+		assertNull(cache.get(url + "/"));
+
+		// replaced without body
+		cache.put(url, new CachedResponse(null, "Thu, 01 Jan 1970 00:00:00 GMT", "image/png", null, 3, null), null);
+		assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", cache.get(url).getLastModified());
+		assertNull(cache.openBody(url));
+
+		cache.remove(url);
+		assertNull(cache.get(url));
+	}
+
+	private static byte[] read(final InputStream in) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[1024];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.molindo.webtools.crawler.Crawler;
+import at.molindo.webtools.crawler.CrawlerTask;
+import at.molindo.webtools.crawler.TestCrawlers;
+
+public class CompiledFilterTest {
+
+	private static final String[] PARTS = { "a", "b", "ab", "ba", ".jpg", ".png", "/", "?x=", "iframe", "fan",
+			"shop", "ä" };
+
+	private Crawler _crawler;
+
+	@Before
+	public void before() {
+		_crawler = TestCrawlers.idle();
+	}
+
+	@After
+	public void after() {
+		TestCrawlers.shutdown(_crawler);
+	}
+
+	@Test
+	public void patterns() {
+		final List<ICrawlerFilter> filters = Arrays.<ICrawlerFilter> asList(new SuffixFilter(".jpg"),
+				new PrefixFilter(_crawler, "/iframe"), new ContainsStringFilter("?wicket:interface="),
+				FilterUtils.not(new PrefixFilter(_crawler, "/")));
+
+		final CompiledFilter compiled = FilterUtils.compile(filters);
+		assertEquals(4, compiled.getPatternCount());
+		assertFalse(compiled.hasTaskFilters());
+
+		assertTrue(compiled.filter("http://localhost/foo.jpg"));
+		assertTrue(compiled.filter("http://localhost/iframe/foo"));
+		assertTrue(compiled.filter("http://localhost/foo?wicket:interface=x"));
+		assertTrue(compiled.filter("http://example.com/foo"));
+		assertFalse(compiled.filter("http://localhost/foo.jpg.html"));
+		assertFalse(compiled.filter("http://localhost/foo/iframe"));
+		assertFalse(compiled.filter("http://localhost/"));
+	}
+
+	@Test
+	public void hosts() {
+		final Crawler crawler = TestCrawlers.idle(0, "http://localhost/", "http://cdn.localhost:8080/x");
+		try {
+			assertEquals(Arrays.asList("http://localhost/", "http://cdn.localhost:8080/"), crawler.getHosts());
+			assertTrue(crawler.isInScope("http://cdn.localhost:8080/y"));
+			assertFalse(crawler.isInScope("http://cdn.localhost/y"));
+
+			final CompiledFilter compiled = FilterUtils.compile(Arrays.asList(new PrefixFilter(crawler, "/iframe"),
+					new PrefixFilter(crawler, "http://localhost/shop"), FilterUtils.not(new PrefixFilter(crawler,
+							"/"))));
+			assertEquals(5, compiled.getPatternCount());
+
+			assertTrue(compiled.filter("http://localhost/iframe"));
+			assertTrue(compiled.filter("http://cdn.localhost:8080/iframe"));
+			assertTrue(compiled.filter("http://localhost/shop"));
+			assertFalse(compiled.filter("http://cdn.localhost:8080/shop"));
+			assertTrue(compiled.filter("http://example.com/"));
+		} finally {
+			TestCrawlers.shutdown(crawler);
+		}
+	}
+
+	@Test
+	public void taskFilters() {
+		final ICrawlerFilter custom = new ICrawlerFilter() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean filter(final CrawlerTask task) {
+				return task.getUrlString().length() > 30;
+			}
+		};
+
+		final CompiledFilter compiled = FilterUtils.compile(Arrays.asList(new SuffixFilter(".png"),
+				new SuffixFilter("ä"), custom));
+		assertEquals(1, compiled.getPatternCount());
+		assertTrue(compiled.hasTaskFilters());
+
+		assertTrue(compiled.filter(task("http://localhost/a.png")));
+		assertTrue(compiled.filter(task("http://localhost/ä")));
+		assertTrue(compiled.filter(task("http://localhost/aaaaaaaaaaaaaaaaaaaa")));
+		assertFalse(compiled.filter(task("http://localhost/a")));
+	}
+
+	@Test
+	public void subclass() {
+		final ICrawlerFilter custom = new ContainsStringFilter("/b") {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean filter(final CrawlerTask task) {
+				return !super.filter(task);
+			}
+		};
+
+		final CompiledFilter compiled = FilterUtils.compile(Arrays.asList(new SuffixFilter(".png"), custom));
+		assertEquals(1, compiled.getPatternCount());
+		assertTrue(compiled.hasTaskFilters());
+
+		assertTrue(compiled.filter(task("http://localhost/a")));
+		assertFalse(compiled.filter(task("http://localhost/b")));
+	}
+
+	@Test
+	public void chain() {
+		final FilterChain chain = new FilterChain();
+		assertFalse(chain.getCompiled().filter("http://localhost/a.jpg"));
+
+		chain.add(new SuffixFilter(".jpg"));
+		assertTrue(chain.getCompiled().filter("http://localhost/a.jpg"));
+
+		chain.add(0, new ContainsStringFilter("/b"));
+		assertEquals(2, chain.size());
+		assertTrue(chain.getCompiled().filter("http://localhost/b"));
+
+		chain.remove(1);
+		assertFalse(chain.getCompiled().filter("http://localhost/a.jpg"));
+
+		chain.clear();
+		assertEquals(0, chain.getCompiled().getPatternCount());
+	}
+
+	@Test
+	public void chainRemove() {
+		final FilterChain chain = new FilterChain();
+		final ICrawlerFilter jpg = new SuffixFilter(".jpg");
+		final ICrawlerFilter png = new SuffixFilter(".png");
+		final ICrawlerFilter b = new ContainsStringFilter("/b");
+		chain.addAll(Arrays.asList(jpg, png, b));
+
+		assertTrue(chain.remove(png));
+		assertFalse(chain.remove(png));
+		assertEquals(Arrays.asList(jpg, b), chain);
+		assertFalse(chain.getCompiled().filter("http://localhost/a.png"));
+
+		chain.add(png);
+		assertTrue(chain.removeAll(Arrays.asList(jpg, b)));
+		assertEquals(Arrays.asList(png), chain);
+		assertTrue(chain.getCompiled().filter("http://localhost/a.png"));
+		assertFalse(chain.getCompiled().filter("http://localhost/b"));
+
+		chain.addAll(Arrays.asList(jpg, b));
+		assertTrue(chain.retainAll(Arrays.asList(b)));
+		assertEquals(Arrays.asList(b), chain);
+
+		// iterators work on a snapshot
+		chain.add(jpg);
+		final Iterator<ICrawlerFilter> iter = chain.iterator();
+		chain.add(png);
+		assertEquals(b, iter.next());
+		iter.remove();
+		assertEquals(jpg, iter.next());
+		assertFalse(iter.hasNext());
+		assertEquals(Arrays.asList(jpg, png), chain);
+		assertFalse(chain.getCompiled().filter("http://localhost/b"));
+	}
+
+	@Test
+	public void random() {
+		final Random random = new Random(42);
+
+		for (int round = 0; round < 200; round++) {
+			final List<ICrawlerFilter> filters = new ArrayList<ICrawlerFilter>();
+			for (int i = random.nextInt(8); i >= 0; i--) {
+				final String pattern = randomPath(random, 1 + random.nextInt(2));
+				ICrawlerFilter filter;
+				switch (random.nextInt(3)) {
+				case 0:
+					filter = new PrefixFilter(_crawler, pattern);
+					break;
+				case 1:
+					filter = new SuffixFilter(pattern);
+					break;
+				default:
+					filter = new ContainsStringFilter(pattern);
+				}
+				filters.add(random.nextInt(4) == 0 ? FilterUtils.not(filter) : filter);
+			}
+
+			final CompiledFilter compiled = FilterUtils.compile(filters);
+
+			for (int i = 0; i < 100; i++) {
+				final CrawlerTask task = task("http://localhost/" + randomPath(random, random.nextInt(6)));
+
+				boolean expected = false;
+				for (final ICrawlerFilter filter : filters) {
+					expected |= filter.filter(task);
+				}
+				assertEquals(filters + " " + task.getUrlString(), expected, compiled.filter(task));
+			}
+		}
+	}
+
+	private CrawlerTask task(final String url) {
+		return new CrawlerTask(_crawler, url, null);
+	}
+
+	private static String randomPath(final Random random, final int parts) {
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < parts; i++) {
+			buf.append(PARTS[random.nextInt(PARTS.length)]);
+		}
+		return buf.toString();
+	}
+}
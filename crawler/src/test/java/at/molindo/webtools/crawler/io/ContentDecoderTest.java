@@ -0,0 +1,171 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import at.molindo.utils.io.StreamUtils;
+
+public class ContentDecoderTest {
+
+	private static final String TEXT;
+	static {
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			buf.append("<p>paragraph ").append(i).append("</p>\n");
+		}
+		TEXT = buf.toString();
+	}
+
+	@Test
+	public void gzip() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(new GZIPOutputStream(out));
+		assertEquals(TEXT, read(ContentDecoder.decode(new ByteArrayInputStream(out.toByteArray()), "gzip")));
+		assertEquals(TEXT, read(ContentDecoder.decode(new ByteArrayInputStream(out.toByteArray()), "X-GZIP")));
+	}
+
+	@Test
+	public void deflate() throws IOException {
+		// zlib wrapped
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(new DeflaterOutputStream(out));
+		assertEquals(TEXT, read(ContentDecoder.decode(new ByteArrayInputStream(out.toByteArray()), "deflate")));
+
+		// raw
+		out = new ByteArrayOutputStream();
+		write(new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true)));
+		assertEquals(TEXT, read(ContentDecoder.decode(new ByteArrayInputStream(out.toByteArray()), "deflate")));
+	}
+
+	@Test
+	public void decoding() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(new GZIPOutputStream(out));
+		assertEquals(TEXT, decoding(out.toByteArray(), "gzip"));
+
+		// gzip header with file name and comment, followed by garbage
+		final byte[] gzip = out.toByteArray();
+		out = new ByteArrayOutputStream();
+		out.write(gzip, 0, 3);
+		out.write(gzip[3] | 8 | 16);
+		out.write(gzip, 4, 6);
+		out.write("name\0comment\0".getBytes("UTF-8"));
+		out.write(gzip, 10, gzip.length - 10);
+		out.write("garbage".getBytes("UTF-8"));
+		assertEquals(TEXT, decoding(out.toByteArray(), "gzip"));
+
+		out = new ByteArrayOutputStream();
+		write(new DeflaterOutputStream(out));
+		assertEquals(TEXT, decoding(out.toByteArray(), "deflate"));
+
+		out = new ByteArrayOutputStream();
+		write(new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true)));
+		assertEquals(TEXT, decoding(out.toByteArray(), "deflate"));
+
+		// applied in listed order
+		out = new ByteArrayOutputStream();
+		write(new DeflaterOutputStream(new GZIPOutputStream(out)));
+		assertEquals(TEXT, decoding(out.toByteArray(), "deflate, gzip"));
+
+		assertEquals(TEXT, decoding(TEXT.getBytes("UTF-8"), "identity"));
+	}
+
+	@Test(expected = IOException.class)
+	public void decodingCorrupt() throws IOException {
+		decoding("not gzip at all".getBytes("UTF-8"), "gzip");
+	}
+
+	@Test
+	public void identity() throws IOException {
+		final InputStream in = new ByteArrayInputStream(new byte[0]);
+		assertSame(in, ContentDecoder.decode(in, null));
+		assertSame(in, ContentDecoder.decode(in, "identity"));
+	}
+
+	@Test(expected = IOException.class)
+	public void unsupported() throws IOException {
+		ContentDecoder.decode(new ByteArrayInputStream(new byte[0]), "br");
+	}
+
+	@Test
+	public void charset() throws IOException {
+		assertEquals("ISO-8859-1", CharsetDetector.fromContentType("text/html; charset=ISO-8859-1"));
+		assertNull(CharsetDetector.fromContentType("text/html; charset=bogus"));
+		assertNull(CharsetDetector.fromContentType("text/html"));
+
+		// header
+		assertEquals("ISO-8859-1", detect("<html>", "text/html;charset=\"ISO-8859-1\""));
+		// BOM wins over header
+		assertEquals("UTF-8", detect("\uFEFF<html>", "text/html; charset=ISO-8859-1"));
+		// meta
+		assertEquals("windows-1252", detect("<html><head><META charset='windows-1252'>", "text/html"));
+		assertEquals("ISO-8859-2", detect(
+				"<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=ISO-8859-2\"/>",
+				"text/html"));
+		assertEquals("UTF-8", detect("<meta charset=utf-16>", "text/html"));
+		// only HTML is searched for meta tags
+		assertEquals("default", detect("<meta charset=ISO-8859-2>", "text/plain"));
+		assertEquals("default", detect("<html><meta name=\"charset=x\">", "text/html"));
+	}
+
+	private static String detect(final String content, final String contentType) throws IOException {
+		final InputStream in = new BufferedInputStream(new ByteArrayInputStream(content.getBytes("UTF-8")));
+		final String charset = CharsetDetector.detect(in, contentType, "default");
+		// stream is reset
+		assertEquals(content, read(in));
+		return charset;
+	}
+
+	private static void write(final OutputStream out) throws IOException {
+		out.write(TEXT.getBytes("UTF-8"));
+		out.close();
+	}
+
+	/**
+	 * writes content in small pieces, splitting headers
+	 */
+	private static String decoding(final byte[] content, final String contentEncoding) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final OutputStream decoding = ContentDecoder.decoding(out, contentEncoding);
+		for (int i = 0; i < content.length; i += 3) {
+			decoding.write(content, i, Math.min(3, content.length - i));
+		}
+		decoding.close();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	private static String read(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamUtils.copy(in, out);
+		in.close();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import at.molindo.utils.io.StreamUtils;
+
+public class LimitedInputStreamTest {
+
+	@Test
+	public void truncated() throws IOException {
+		final LimitedInputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[100]), 10);
+		assertEquals(10, read(in));
+		assertTrue(in.isTruncated());
+	}
+
+	@Test
+	public void exact() throws IOException {
+		final LimitedInputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[10]), 10);
+		assertEquals(10, read(in));
+		assertFalse(in.isTruncated());
+
+		final LimitedInputStream shorter = new LimitedInputStream(new ByteArrayInputStream(new byte[5]), 10);
+		assertEquals(5, read(shorter));
+		assertFalse(shorter.isTruncated());
+	}
+
+	private static int read(final LimitedInputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamUtils.copy(in, out);
+		return out.size();
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrencyLimitTest {
+
+	@Test
+	public void gradient() {
+		final GradientConcurrencyLimit limit = new GradientConcurrencyLimit(2, 50);
+		assertEquals(2, limit.getLimit());
+
+		// stable latency while fully used grows up to max
+		for (int i = 0; i < 1000; i++) {
+			limit.onSample(20, limit.getLimit(), false);
+		}
+		assertEquals(50, limit.getLimit());
+
+		// latency rising with load shrinks the limit
+		for (int i = 0; i < 50; i++) {
+			limit.onSample(200, limit.getLimit(), false);
+		}
+		assertTrue(limit.getLimit() < 50);
+
+		// drops halve the estimate down to min
+		for (int i = 0; i < 100; i++) {
+			limit.onSample(200, limit.getLimit(), true);
+		}
+		assertEquals(2, limit.getLimit());
+	}
+
+	@Test
+	public void gradientUnused() {
+		final GradientConcurrencyLimit limit = new GradientConcurrencyLimit(4, 50);
+		for (int i = 0; i < 100; i++) {
+			limit.onSample(20, 1, false);
+		}
+		assertEquals(4, limit.getLimit());
+	}
+
+	@Test
+	public void aimd() {
+		final AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 10, 100, 0.5);
+		for (int i = 0; i < 20; i++) {
+			limit.onSample(10, limit.getLimit(), false);
+		}
+		assertEquals(10, limit.getLimit());
+
+		limit.onSample(500, 10, false);
+		assertEquals(5, limit.getLimit());
+
+		limit.onSample(10, 5, true);
+		assertEquals(2, limit.getLimit());
+	}
+}
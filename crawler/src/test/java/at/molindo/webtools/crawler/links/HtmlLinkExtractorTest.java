@@ -0,0 +1,95 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.links;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.molindo.utils.io.CharsetUtils;
+
+public class HtmlLinkExtractorTest {
+
+	@Test
+	public void anchors() throws IOException {
+		assertEquals(Arrays.asList("/a", "b.html", "c", "http://example.com/d?e=1"),
+				extract(new HtmlLinkExtractor(), "<html><body><a href=\"/a\">a</a> <A HREF='b.html'>b</A>"
+						+ "<a class=x href=c>c</a><a\n title=\"foo > bar\" href = \"http://example.com/d?e=1\" >d</a>"));
+	}
+
+	@Test
+	public void malformed() throws IOException {
+		assertEquals(Arrays.asList("a", "b", "c", "d"), extract(new HtmlLinkExtractor(),
+				"<p>1 < 2 <<a href=a><b><a href=b\t><a href=\"c\"/><a selected href=\"d\"></p"));
+	}
+
+	@Test
+	public void ignored() throws IOException {
+		assertEquals(Arrays.asList("a", "b"), extract(new HtmlLinkExtractor(), "<!DOCTYPE html><!-- <a href=x> -->"
+				+ "<a href=a><script>document.write('<a href=\"y\">');</script><abbr href=z><area href=w>"
+				+ "<style>a > b {}</STYLE ><a href=\"\"><a href=b>"));
+	}
+
+	@Test
+	public void tags() throws IOException {
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), extract(new HtmlLinkExtractor(AbstractLinkExtractor.ALL_TAGS),
+				"<a href=a><area href=b><link rel=stylesheet href=c><frame src=d><iframe src=e>"));
+	}
+
+	@Test
+	public void entities() throws IOException {
+		assertEquals(Arrays.asList("/a?b=1&c=2&d=3", "/ä&foo;"),
+				extract(new HtmlLinkExtractor(), "<a href=\"/a?b=1&amp;c=2&#38;d=3\"><a href=' /ä&foo; '>"));
+	}
+
+	@Test
+	public void boundaries() throws IOException {
+		final String html = "<a href=\"/a\"><!-- <a href=x> --><script><a href=y></script><a href='/b'>";
+		final List<String> links = new ArrayList<String>();
+		new HtmlLinkExtractor().extract(new ByteArrayInputStream(html.getBytes(CharsetUtils.UTF_8_NAME)) {
+
+			@Override
+			public synchronized int read(final byte[] b, final int off, final int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		}, CharsetUtils.UTF_8_NAME, collect(links));
+		assertEquals(Arrays.asList("/a", "/b"), links);
+	}
+
+	private static List<String> extract(final HtmlLinkExtractor extractor, final String html) throws IOException {
+		final List<String> links = new ArrayList<String>();
+		final InputStream in = new ByteArrayInputStream(html.getBytes(CharsetUtils.UTF_8_NAME));
+		extractor.extract(in, CharsetUtils.UTF_8_NAME, collect(links));
+		return links;
+	}
+
+	private static ILinkHandler collect(final List<String> links) {
+		return new ILinkHandler() {
+
+			@Override
+			public void link(final String href) {
+				links.add(href);
+			}
+		};
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.links;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xml.sax.SAXException;
+
+import at.molindo.utils.io.CharsetUtils;
+import at.molindo.webtools.crawler.DTDMemoryCache;
+
+/**
+ * compares {@link HtmlLinkExtractor} against the SAX and JTidy extractors on a
+ * well-formed XHTML page (SAX can't handle anything else), with and without a
+ * DOCTYPE resolved through {@link DTDMemoryCache}. Run with
+ * 
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=at.molindo.webtools.crawler.links.LinkExtractorBenchmark
+ * </pre>
+ * 
+ * JMH requires Java 8, the benchmark profile isn't built by default.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkExtractorBenchmark {
+
+	@Param({ "10", "200" })
+	private int _links;
+
+	@Param({ "false", "true" })
+	private boolean _doctype;
+
+	private byte[] _page;
+	private HtmlLinkExtractor _html;
+	private SaxLinkExtractor _sax;
+	private TidyLinkExtractor _tidy;
+	private PrintStream _out;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		_page = page(_links, _doctype).getBytes(CharsetUtils.UTF_8_NAME);
+
+		final SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setValidating(false);
+		_html = new HtmlLinkExtractor();
+		_sax = new SaxLinkExtractor(factory.newSAXParser(), new DTDMemoryCache());
+		_tidy = new TidyLinkExtractor();
+
+		// JTidy prints to stdout even if quiet, redirected outside of
+		// measurements
+		_out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+
+			@Override
+			public void write(final int b) {
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) {
+			}
+		}));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(_out);
+	}
+
+	@Benchmark
+	public void html(final Blackhole blackhole) throws IOException, SAXException {
+		extract(_html, blackhole);
+	}
+
+	@Benchmark
+	public void sax(final Blackhole blackhole) throws IOException, SAXException {
+		extract(_sax, blackhole);
+	}
+
+	@Benchmark
+	public void tidy(final Blackhole blackhole) throws IOException, SAXException {
+		extract(_tidy, blackhole);
+	}
+
+	private void extract(final ILinkExtractor extractor, final Blackhole blackhole) throws IOException,
+			SAXException {
+		extractor.extract(new ByteArrayInputStream(_page), CharsetUtils.UTF_8_NAME, new ILinkHandler() {
+
+			@Override
+			public void link(final String href) {
+				blackhole.consume(href);
+			}
+		});
+	}
+
+	static String page(final int links, final boolean doctype) {
+		final StringBuilder buf = new StringBuilder();
+		if (doctype) {
+			buf.append("<!DOCTYPE html PUBLIC \"").append(DTDMemoryCache.XHTML1_TRANSITIONAL_PUBLIC_ID).append("\" \"")
+					.append(DTDMemoryCache.XHTML1_TRANSITIONAL_SYSTEM_ID).append("\">\n");
+		}
+		buf.append("<html xmlns=\"http://www.w3.org/1999/xhtml\">\n<head>\n<title>benchmark</title>\n");
+		buf.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"/style.css\" />\n");
+		buf.append("<script type=\"text/javascript\">var x = 1 &lt; 2;</script>\n</head>\n<body>\n");
+		for (int i = 0; i < links; i++) {
+			buf.append("<div class=\"item\"><p>Lorem ipsum dolor sit amet, <em>consectetur</em> adipisicing elit, ");
+			buf.append("sed do eiusmod tempor.</p>\n");
+			buf.append("<a href=\"/items/").append(i).append("?page=").append(i % 10).append("&amp;sort=asc\" title=\"item ")
+					.append(i).append("\">item ").append(i).append("</a></div>\n");
+		}
+		buf.append("</body>\n</html>\n");
+		return buf.toString();
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(LinkExtractorBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.links;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.w3c.tidy.Configuration;
+
+import at.molindo.utils.io.CharsetUtils;
+
+public class TidyLinkExtractorTest {
+
+	private static final String HTML = "<html><head><title>t</title></head><body>"
+			+ "<a href=\"/ä\">a</a><a href=\"/b?€\">b</a></body></html>";
+
+	@Test
+	public void utf8() throws IOException {
+		assertEquals(Arrays.asList("/ä", "/b?€"), extract(HTML, CharsetUtils.UTF_8_NAME));
+	}
+
+	@Test
+	public void latin1() throws IOException {
+		final String html = HTML.replace("€", "ö");
+		assertEquals(Arrays.asList("/ä", "/b?ö"), extract(html, "ISO-8859-1"));
+	}
+
+	@Test
+	public void charEncoding() {
+		assertEquals(Configuration.UTF8, TidyLinkExtractor.charEncoding("utf-8"));
+		assertEquals(Configuration.LATIN1, TidyLinkExtractor.charEncoding("ISO-8859-1"));
+		assertEquals(Configuration.RAW, TidyLinkExtractor.charEncoding("Shift_JIS"));
+		assertEquals(Configuration.RAW, TidyLinkExtractor.charEncoding(null));
+	}
+
+	private static List<String> extract(final String html, final String encoding) throws IOException {
+		final List<String> links = new ArrayList<String>();
+		new TidyLinkExtractor().extract(new ByteArrayInputStream(html.getBytes(encoding)), encoding,
+				new ILinkHandler() {
+
+					@Override
+					public void link(final String href) {
+						links.add(href);
+					}
+				});
+		return links;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.observer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+import at.molindo.webtools.crawler.util.Hashes;
+
+public class LatencyObserverTest {
+
+	@Test
+	public void templates() {
+		final LatencyObserver o = new LatencyObserver(0);
+		assertEquals("/", o.getPattern("http://localhost"));
+		assertEquals("/", o.getPattern("http://localhost/"));
+		assertEquals("/shop/item/*", o.getPattern("http://localhost/shop/item/123?x=1"));
+		assertEquals("/u/*/edit", o.getPattern("http://localhost/u/3f2a9c1e-77b0-4d11/edit"));
+		assertEquals("/cafe/abcdef", o.getPattern("http://localhost/cafe/abcdef"));
+	}
+
+	@Test
+	public void prefixes() {
+		final LatencyObserver o = new LatencyObserver(0, 256, "/shop/", "/shop/item/");
+		assertEquals("/shop/item/", o.getPattern("http://localhost/shop/item/1"));
+		assertEquals("/shop/", o.getPattern("http://localhost/shop/cart"));
+		assertEquals(LatencyObserver.OTHER, o.getPattern("http://localhost/?/shop/"));
+
+		o.record("http://localhost/shop/item/1", 10);
+		o.record("http://localhost/shop/item/2", 30);
+		o.record("http://localhost/about", 20);
+
+		assertEquals(3, o.getTotal().getCount());
+		assertNotNull(o.getHistogram("/shop/item/"));
+		assertEquals(30, o.getHistogram("/shop/item/").getMax());
+		assertEquals(1, o.getHistogram(LatencyObserver.OTHER).getCount());
+	}
+
+	@Test
+	public void patternKeys() {
+		final String[] urls = { "http://localhost", "http://localhost/", "http://localhost/shop/item/123?x=1",
+				"http://localhost/u/3f2a9c1e-77b0-4d11/edit", "http://localhost/cafe/abcdef", "/relative/1",
+				"http://localhost/?/shop/" };
+		for (final LatencyObserver o : new LatencyObserver[] { new LatencyObserver(0),
+				new LatencyObserver(0, 256, "/shop/", "/shop/item/") }) {
+			for (final String url : urls) {
+				assertEquals(url, Hashes.fingerprint(o.getPattern(url)), o.getPatternKey(url));
+			}
+		}
+		assertFalse(new LatencyObserver(0).getPatternKey("http://localhost/a") == new LatencyObserver(0)
+				.getPatternKey("http://localhost/b"));
+	}
+
+	@Test
+	public void maxPatterns() {
+		final LatencyObserver o = new LatencyObserver(0, 1);
+		o.record("http://localhost/a", 1);
+		o.record("http://localhost/b", 1);
+		o.record("http://localhost/c", 1);
+		assertEquals(1, o.getHistogram("/a").getCount());
+		assertEquals(2, o.getHistogram(LatencyObserver.OTHER).getCount());
+	}
+}
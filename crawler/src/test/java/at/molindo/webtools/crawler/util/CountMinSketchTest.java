@@ -0,0 +1,49 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CountMinSketchTest {
+
+	@Test
+	public void estimate() {
+		final CountMinSketch sketch = new CountMinSketch(1000, 4);
+		assertEquals(1024, sketch.getWidth());
+
+		for (int i = 0; i < 100; i++) {
+			final long hash = Hashes.fingerprint("k" + i);
+			for (int j = 1; j <= i + 1; j++) {
+				final int estimate = sketch.add(hash);
+				assertTrue(estimate >= j);
+				assertEquals(estimate, sketch.estimate(hash));
+			}
+		}
+
+		// never undercounts, overcounts little with 5050 additions
+		int error = 0;
+		for (int i = 0; i < 100; i++) {
+			final int estimate = sketch.estimate(Hashes.fingerprint("k" + i));
+			assertTrue(estimate >= i + 1);
+			error += estimate - (i + 1);
+		}
+		assertTrue("error " + error, error < 100);
+		assertTrue(sketch.estimate(Hashes.fingerprint("unknown")) < 100);
+	}
+}
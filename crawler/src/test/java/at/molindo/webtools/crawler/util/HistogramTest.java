@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void percentiles() {
+		final Histogram h = new Histogram(3600000, 7);
+		assertEquals(0, h.getValueAtPercentile(99));
+
+		final Random random = new Random(42);
+		final long[] values = new long[100000];
+		for (int i = 0; i < values.length; i++) {
+			// long tail
+			values[i] = (long) (Math.exp(random.nextGaussian() * 1.5 + 4));
+			h.record(values[i]);
+		}
+		Arrays.sort(values);
+
+		assertEquals(values.length, h.getCount());
+		assertEquals(values[values.length - 1], h.getMax());
+		assertEquals(values[values.length - 1], h.getValueAtPercentile(100));
+
+		for (final double p : new double[] { 0, 50, 90, 99, 99.9 }) {
+			final long expected = values[Math.max(0, (int) Math.ceil(p / 100 * values.length) - 1)];
+			final long actual = h.getValueAtPercentile(p);
+			assertTrue("p" + p + " expected " + expected + " was " + actual, actual >= expected
+					&& actual <= expected + expected / 64);
+		}
+	}
+
+	@Test
+	public void exactSmallValues() {
+		final Histogram h = new Histogram(1000, 7);
+		for (int i = 1; i <= 100; i++) {
+			h.record(i);
+		}
+		assertEquals(50, h.getValueAtPercentile(50));
+		assertEquals(99, h.getValueAtPercentile(99));
+		assertEquals(50.5, h.getMean(), 0.001);
+
+		// clamped but max is exact
+		h.record(5000);
+		assertEquals(5000, h.getMax());
+		assertTrue(h.getValueAtPercentile(100) >= 1000);
+	}
+
+	@Test
+	public void drain() {
+		final Histogram h = new Histogram(1000, 7);
+		final Histogram target = new Histogram(1000, 7);
+		h.record(10);
+		h.record(20);
+		h.drainTo(target);
+		h.record(30);
+
+		assertEquals(1, h.getCount());
+		assertEquals(30, h.getValueAtPercentile(50));
+		assertEquals(2, target.getCount());
+		assertEquals(20, target.getMax());
+		assertEquals(10, target.getValueAtPercentile(50));
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+	@Test
+	public void heap() {
+		check(new LongHashSet(0, 4, false));
+	}
+
+	@Test
+	public void direct() {
+		check(new LongHashSet(0, 4, true));
+	}
+
+	private static void check(final LongHashSet set) {
+		assertTrue(set.add(0));
+		assertFalse(set.add(0));
+		assertTrue(set.contains(0));
+
+		for (long i = 1; i <= 100000; i++) {
+			assertTrue(set.add(i * 31));
+		}
+		for (long i = 1; i <= 100000; i++) {
+			assertFalse(set.add(i * 31));
+			assertTrue(set.contains(i * 31));
+			assertFalse(set.contains(i * 31 + 1));
+		}
+		assertEquals(100001, set.size());
+	}
+
+	@Test
+	public void concurrent() throws InterruptedException {
+		final LongHashSet set = new LongHashSet(16);
+		final AtomicInteger added = new AtomicInteger();
+		final int threads = 4;
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						// all threads add the same values
+						for (long i = -50000; i < 50000; i++) {
+							if (set.add(i)) {
+								added.incrementAndGet();
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+
+		assertEquals(100000, added.get());
+		assertEquals(100000, set.size());
+	}
+
+	@Test
+	public void bloomFilter() {
+		final BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.put(Hashes.fingerprint("http://example.com/" + i));
+		}
+
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(filter.mightContain(Hashes.fingerprint("http://example.com/" + i)));
+			if (filter.mightContain(Hashes.fingerprint("http://example.com/" + i + "/"))) {
+				falsePositives++;
+			}
+		}
+		assertTrue("false positives: " + falsePositives, falsePositives < 300);
+	}
+}
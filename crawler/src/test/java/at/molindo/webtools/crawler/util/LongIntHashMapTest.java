@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntHashMapTest {
+
+	@Test
+	public void putGetRemove() {
+		final LongIntHashMap map = new LongIntHashMap();
+		assertEquals(0, map.get(42));
+		map.put(42, 1);
+		map.put(0, 2);
+		map.put(42, 3);
+		assertEquals(2, map.size());
+		assertEquals(3, map.get(42));
+		assertEquals(2, map.get(0));
+		assertTrue(map.containsKey(0));
+		assertEquals(2, map.remove(0));
+		assertFalse(map.containsKey(0));
+		assertEquals(3, map.remove(42));
+		assertEquals(0, map.remove(42));
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void random() {
+		final LongIntHashMap map = new LongIntHashMap(4);
+		final Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		final Random rnd = new Random(42);
+
+		// small key range for plenty of collisions and removals
+		for (int i = 0; i < 200000; i++) {
+			final long key = rnd.nextInt(5000) - 100;
+			if (rnd.nextInt(3) == 0) {
+				final Integer value = expected.remove(key);
+				assertEquals(value == null ? 0 : value.intValue(), map.remove(key));
+			} else {
+				final int value = rnd.nextInt(1000) + 1;
+				expected.put(key, value);
+				map.put(key, value);
+			}
+		}
+
+		assertEquals(expected.size(), map.size());
+		for (long key = -100; key < 4900; key++) {
+			final Integer value = expected.get(key);
+			assertEquals(value == null ? 0 : value.intValue(), map.get(key));
+			assertEquals(value != null, map.containsKey(key));
+		}
+	}
+}
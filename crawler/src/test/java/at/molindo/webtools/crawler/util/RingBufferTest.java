@@ -0,0 +1,94 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+	@Test
+	public void fifo() {
+		final RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+		assertEquals(4, buffer.getCapacity());
+		assertTrue(buffer.isEmpty());
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+
+		final List<Integer> drained = new ArrayList<Integer>();
+		assertEquals(2, buffer.drainTo(drained, 2));
+		assertTrue(buffer.offer(4));
+		assertTrue(buffer.offer(5));
+		assertEquals(4, buffer.drainTo(drained, 10));
+		assertTrue(buffer.isEmpty());
+
+		for (int i = 0; i < 6; i++) {
+			assertEquals(i, drained.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void producers() throws Exception {
+		final int producers = 4;
+		final int count = 100000;
+		final RingBuffer<long[]> buffer = new RingBuffer<long[]>(64);
+		final CountDownLatch done = new CountDownLatch(producers);
+
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < count; i++) {
+						final long[] e = { producer, i };
+						while (!buffer.offer(e)) {
+							Thread.yield();
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+
+		// every producer's elements must arrive complete and in order
+		final int[] next = new int[producers];
+		final List<long[]> batch = new ArrayList<long[]>();
+		int received = 0;
+		while (received < producers * count) {
+			if (buffer.drainTo(batch, 16) == 0) {
+				Thread.yield();
+			}
+			for (final long[] e : batch) {
+				assertEquals(next[(int) e[0]]++, e[1]);
+			}
+			received += batch.size();
+			batch.clear();
+		}
+		done.await();
+		assertTrue(buffer.isEmpty());
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	@Test
+	public void rate() {
+		final TokenBucket bucket = new TokenBucket(10, 2);
+		final long start = System.nanoTime();
+
+		// burst
+		assertEquals(0, bucket.tryAcquire(start));
+		assertEquals(0, bucket.tryAcquire(start));
+
+		// one token per 100ms
+		final long wait = bucket.tryAcquire(start);
+		assertTrue("wait was " + wait, wait > 99000000 && wait <= 100000000);
+		assertEquals(0, bucket.tryAcquire(start + wait));
+		assertTrue(bucket.tryAcquire(start + wait) > 0);
+
+		// capacity limits tokens collected while idle
+		final long later = start + 10000000000L;
+		assertEquals(0, bucket.tryAcquire(later));
+		assertEquals(0, bucket.tryAcquire(later));
+		assertTrue(bucket.tryAcquire(later) > 0);
+	}
+}
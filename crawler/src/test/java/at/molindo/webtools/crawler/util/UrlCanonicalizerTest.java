@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class UrlCanonicalizerTest {
+
+	private static final String BASE = "http://a/b/c/d;p?q";
+
+	private final UrlCanonicalizer _canonicalizer = new UrlCanonicalizer();
+
+	@Test
+	public void resolve() {
+		// RFC 3986, section 5.4
+		final String[] examples = { "g", "http://a/b/c/g", "./g", "http://a/b/c/g", "g/", "http://a/b/c/g/", "/g",
+				"http://a/g", "//g", "http://g/", "?y", "http://a/b/c/d;p?y", "g?y", "http://a/b/c/g?y", "#s",
+				"http://a/b/c/d;p?q", "g#s", "http://a/b/c/g", "g?y#s", "http://a/b/c/g?y", ";x", "http://a/b/c/;x",
+				"g;x", "http://a/b/c/g;x", "g;x?y#s", "http://a/b/c/g;x?y", "", "http://a/b/c/d;p?q", ".",
+				"http://a/b/c/", "./", "http://a/b/c/", "..", "http://a/b/", "../", "http://a/b/", "../g",
+				"http://a/b/g", "../..", "http://a/", "../../", "http://a/", "../../g", "http://a/g",
+				// abnormal
+				"../../../g", "http://a/g", "../../../../g", "http://a/g", "/./g", "http://a/g", "/../g",
+				"http://a/g", "g.", "http://a/b/c/g.", ".g", "http://a/b/c/.g", "g..", "http://a/b/c/g..", "..g",
+				"http://a/b/c/..g", "./../g", "http://a/b/g", "./g/.", "http://a/b/c/g/", "g/./h",
+				"http://a/b/c/g/h", "g/../h", "http://a/b/c/h", "g;x=1/./y", "http://a/b/c/g;x=1/y", "g;x=1/../y",
+				"http://a/b/c/y", "g?y/./x", "http://a/b/c/g?y/./x", "g?y/../x", "http://a/b/c/g?y/../x",
+				"g#s/./x", "http://a/b/c/g", "g#s/../x", "http://a/b/c/g" };
+
+		for (int i = 0; i < examples.length; i += 2) {
+			assertEquals(examples[i], examples[i + 1], _canonicalizer.resolve(BASE, examples[i]));
+		}
+
+		assertNull(_canonicalizer.resolve(BASE, "g:h"));
+		assertNull(_canonicalizer.resolve(BASE, "mailto:a@b"));
+		assertNull(_canonicalizer.resolve(BASE, "javascript:void(0)"));
+		assertEquals("https://b/", _canonicalizer.resolve(BASE, "https://b"));
+		assertEquals("http://a/", _canonicalizer.resolve("http://a", "."));
+	}
+
+	@Test
+	public void normalize() {
+		assertEquals("http://example.com/", _canonicalizer.canonicalize("HTTP://Example.COM:80"));
+		assertEquals("https://example.com:8443/a", _canonicalizer.canonicalize("https://example.com:8443/a#top"));
+		assertEquals("https://example.com/a", _canonicalizer.canonicalize("https://example.com:443/a?"));
+		assertEquals("http://h/~a/%2F%C3%A4%20b%25?q=%C3%A4+b",
+				_canonicalizer.canonicalize(" http://h/%7ea/%2fä b%?q=ä+b "));
+		assertEquals("http://h/a/b?x=1", _canonicalizer.canonicalize("http://h/a/b;jsessionid=ABC?x=1"));
+		assertEquals("http://u:p@h:8080/", _canonicalizer.canonicalize("http://u:p@H:8080"));
+		assertNull(_canonicalizer.canonicalize("http:foo"));
+		assertNull(_canonicalizer.canonicalize("http://h:99999/"));
+		assertNull(_canonicalizer.canonicalize("/relative"));
+
+		// hosts
+		assertEquals("http://xn--mnchen-3ya.de/", _canonicalizer.canonicalize("http://M\u00fcnchen.de/"));
+		assertEquals("http://[::1]:8080/", _canonicalizer.canonicalize("http://[::1]:8080"));
+		assertNull(_canonicalizer.canonicalize("http://exa mple.com/a"));
+		assertNull(_canonicalizer.canonicalize("http://ex_ample.com/a"));
+		assertNull(_canonicalizer.canonicalize("http://ex<a>.com/a"));
+		assertNull(_canonicalizer.canonicalize("http://[::1/"));
+		assertNull(_canonicalizer.canonicalize("http://[::g]/"));
+		assertNull(_canonicalizer.resolve("http://a/b", "//exa mple.com/"));
+
+		final String canonical = "http://h/a?b=c";
+		assertSame(canonical, _canonicalizer.canonicalize(canonical));
+	}
+
+	@Test
+	public void query() {
+		final UrlCanonicalizer canonicalizer = new UrlCanonicalizer(true, "utm_*", "sid");
+		assertEquals("http://h/?a=2&a=1&b&c=3", canonicalizer.canonicalize("http://h/?c=3&utm_source=x&a=2&b&&sid=1&a=1"));
+		assertEquals("http://h/", canonicalizer.canonicalize("http://h/?utm_medium=y&sid=2"));
+		assertEquals("http://h/?sidx=1", canonicalizer.canonicalize("http://h/?sidx=1"));
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010 Molindo GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.molindo.webtools.crawler.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class UrlDictionaryTest {
+
+	@Test
+	public void ids() {
+		final UrlDictionary dictionary = new UrlDictionary();
+		assertEquals(-1, dictionary.getId("http://localhost/"));
+		assertEquals(0, dictionary.id("http://localhost/"));
+		assertEquals(1, dictionary.id("http://localhost/a/b?c=d"));
+		assertEquals(2, dictionary.id("http://localhost/a/bär"));
+		assertEquals(3, dictionary.id(""));
+		assertEquals(1, dictionary.id("http://localhost/a/b?c=d"));
+		assertEquals(0, dictionary.getId("http://localhost/"));
+		assertEquals(4, dictionary.size());
+
+		assertEquals("http://localhost/", dictionary.getUrl(0));
+		assertEquals("http://localhost/a/b?c=d", dictionary.getUrl(1));
+		assertEquals("http://localhost/a/bär", dictionary.getUrl(2));
+		assertEquals("", dictionary.getUrl(3));
+	}
+
+	@Test
+	public void prefixes() {
+		final UrlDictionary dictionary = new UrlDictionary();
+		final List<String> urls = new ArrayList<String>();
+		final Random random = new Random(42);
+		long length = 0;
+		for (int i = 0; i < 100000; i++) {
+			final String url = "http://localhost/" + random.nextInt(100) + "/page?id=" + random.nextInt(1000000);
+			if (dictionary.getId(url) < 0) {
+				assertEquals(urls.size(), dictionary.id(url));
+				urls.add(url);
+				length += url.length();
+			}
+		}
+		for (int i = 0; i < urls.size(); i++) {
+			assertEquals(urls.get(i), dictionary.getUrl(i));
+			assertEquals(i, dictionary.getId(urls.get(i)));
+		}
+		// shared prefixes aren't stored again
+		assertTrue(dictionary.getArenaBytes() + " of " + length, dictionary.getArenaBytes() < length * 2 / 3);
+	}
+
+	@Test
+	public void chunks() {
+		final UrlDictionary dictionary = new UrlDictionary();
+		final StringBuilder buf = new StringBuilder("http://localhost/");
+		for (int i = 0; i < 3; i++) {
+			final char[] chars = new char[700000];
+			Arrays.fill(chars, (char) ('a' + i));
+			// each URL is larger than half a chunk, some span more than one
+			buf.setLength("http://localhost/".length());
+			buf.append(chars).append(chars, 0, i * 300000);
+			assertEquals(i, dictionary.id(buf.toString()));
+			assertEquals(buf.toString(), dictionary.getUrl(i));
+		}
+		assertEquals(3, dictionary.size());
+	}
+
+	@Test
+	public void concurrent() throws InterruptedException {
+		final UrlDictionary dictionary = new UrlDictionary();
+		final int threads = 4;
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						// all threads add the same URLs
+						for (int i = 0; i < 50000; i++) {
+							final String url = "http://localhost/" + i;
+							assertEquals(url, dictionary.getUrl(dictionary.id(url)));
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+
+		assertEquals(50000, dictionary.size());
+		for (int i = 0; i < 50000; i++) {
+			assertEquals("http://localhost/" + i, dictionary.getUrl(dictionary.getId("http://localhost/" + i)));
+		}
+	}
+}
@@ -18,6 +18,7 @@ package at.molindo.webtools.logreplay;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
@@ -39,6 +40,7 @@ import at.molindo.webtools.crawler.filter.ContainsStringFilter;
 import at.molindo.webtools.crawler.filter.PrefixFilter;
 import at.molindo.webtools.crawler.filter.SuffixFilter;
 import at.molindo.webtools.crawler.observer.SlowRequestObserver;
+import at.molindo.webtools.crawler.util.UrlDictionary;
 import at.molindo.webtools.loganalyzer.LogAnalyzer;
 import at.molindo.webtools.loganalyzer.Request;
 import at.molindo.webtools.loganalyzer.handler.AbstractHandler;
@@ -88,14 +90,21 @@ public class LogReplay {
 
 			@Override
 			protected CrawlerTask newCrawlerTask(final String url, final CrawlerReferrer referrer, final boolean tidy) {
-				return new CrawlerTask(this, url, referrer, tidy) {
+				return new CrawlerTask(this, url, referrer) {
 					@Override
-					protected void parseResult(final String string) throws SAXException, IOException {
+					protected void parseResult(final InputStream in, final String encoding) throws SAXException,
+							IOException {
 						// ignore
 					}
 				};
 			}
 
+			@Override
+			protected UrlDictionary newUrlDictionary() {
+				// replayed URLs aren't remembered
+				return null;
+			}
+
 			@Override
 			protected ICrawlerHistory newCrawlerHistory() {
 				return new ICrawlerHistory() {
@@ -135,6 +144,7 @@ public class LogReplay {
 				};
 			}
 		};
+		crawler.setStoreText(false);
 		crawler.getFilters().add(new SuffixFilter(".jpg"));
 		crawler.getFilters().add(new SuffixFilter(".jpeg"));
 		crawler.getFilters().add(new SuffixFilter(".gif"));